@@ -0,0 +1,185 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package comm.udp;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of datagram sized buffers shared by the send and receive paths of a packet handler.<br>
+ *
+ * Buffers are heap rather than direct: packets are (de)serialised via streams over the backing array
+ * and primordial handlers and packet transformers are given DatagramPackets wrapping it, so a direct
+ * buffer would just move the copy rather than remove it.
+ */
+
+public class
+PRUDPPacketBufferPool
+{
+	private final int		buffer_size;
+	private final int		max_pooled;
+
+	private final ArrayDeque<ByteBuffer>	pool = new ArrayDeque<ByteBuffer>();
+
+	private long	allocated;
+	private long	reused;
+
+	public
+	PRUDPPacketBufferPool(
+		int		_buffer_size,
+		int		_max_pooled )
+	{
+		buffer_size	= _buffer_size;
+		max_pooled	= _max_pooled;
+	}
+
+	public int
+	getBufferSize()
+	{
+		return( buffer_size );
+	}
+
+		/**
+		 * @return a cleared buffer of getBufferSize() bytes
+		 */
+
+	public synchronized ByteBuffer
+	allocate()
+	{
+		ByteBuffer	buffer = pool.pollLast();
+
+		if ( buffer == null ){
+
+			allocated++;
+
+			buffer = ByteBuffer.allocate( buffer_size );
+
+		}else{
+
+			reused++;
+
+			buffer.clear();
+		}
+
+		return( buffer );
+	}
+
+		/**
+		 * Returns a buffer to the pool. The caller mustn't retain any reference to it, or its array,
+		 * afterwards. Buffers not obtained from the pool are ignored
+		 */
+
+	public synchronized void
+	release(
+		ByteBuffer	buffer )
+	{
+		if ( buffer.capacity() != buffer_size || !buffer.hasArray() || pool.size() >= max_pooled ){
+
+			return;
+		}
+
+		pool.addLast( buffer );
+	}
+
+	public BufferOutputStream
+	getOutputStream()
+	{
+		return( new BufferOutputStream());
+	}
+
+	public synchronized String
+	getString()
+	{
+		return( "size=" + buffer_size + ",pooled=" + pool.size() + ",alloc=" + allocated + ",reused=" + reused );
+	}
+
+		/**
+		 * Serialises into a pooled buffer, switching to an unpooled one should a packet outgrow it
+		 */
+
+	public class
+	BufferOutputStream
+		extends OutputStream
+	{
+		private ByteBuffer	buffer	= allocate();
+
+		public void
+		write(
+			int		b )
+		{
+			ensureCapacity( 1 );
+
+			buffer.put((byte)b );
+		}
+
+		public void
+		write(
+			byte[]	b,
+			int		offset,
+			int		length )
+		{
+			ensureCapacity( length );
+
+			buffer.put( b, offset, length );
+		}
+
+		private void
+		ensureCapacity(
+			int		length )
+		{
+			if ( buffer.remaining() < length ){
+
+				ByteBuffer	new_buffer = ByteBuffer.allocate( Math.max( buffer.capacity()*2, buffer.position() + length ));
+
+				buffer.flip();
+
+				new_buffer.put( buffer );
+
+				release( buffer );
+
+				buffer = new_buffer;
+			}
+		}
+
+		public int
+		size()
+		{
+			return( buffer.position());
+		}
+
+		public byte[]
+		getData()
+		{
+			return( buffer.array());
+		}
+
+			/**
+			 * @return the buffer flipped for sending, ownership passes to the caller
+			 */
+
+		public ByteBuffer
+		getBuffer()
+		{
+			buffer.flip();
+
+			return( buffer );
+		}
+	}
+}
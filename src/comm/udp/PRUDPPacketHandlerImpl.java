@@ -53,6 +53,11 @@ import comm.udp.PRUDPPacketReply;
 import comm.udp.PRUDPRequestHandler;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.UnsupportedAddressTypeException;
 import java.util.*;
 
@@ -96,6 +101,18 @@ PRUDPPacketHandlerImpl
 	private static final long	MAX_SEND_QUEUE_DATA_SIZE	= 2*1024*1024;
 	private static final long	MAX_RECV_QUEUE_DATA_SIZE	= 1*1024*1024;
 
+		// datagrams drained per selector wakeup before checking for bind changes etc
+
+	private static final int	RECEIVE_BATCH				= 64;
+
+		// packets a paced sender may send back to back after being idle
+
+	private static final int	SEND_BURST					= 4;
+
+		// attempts to send when the socket's send buffer is full before dropping the packet
+
+	private static final int	SEND_RETRIES				= 20;
+
 	private static boolean	use_socks;
 
 	static{
@@ -120,6 +137,8 @@ PRUDPPacketHandlerImpl
 
 
 	private int				port;
+	private DatagramChannel	channel;
+	private Selector		selector;
 	private DatagramSocket	socket;
 
 	private CopyOnWriteList<PRUDPPrimordialHandler>	primordial_handlers = new CopyOnWriteList<PRUDPPrimordialHandler>();
@@ -138,6 +157,11 @@ PRUDPPacketHandlerImpl
 	private AESemaphore		send_queue_sem	= new AESemaphore( "PRUDPPH:sq" );
 	private AEThread		send_thread;
 
+	private final PRUDPPacketPacer	send_pacer	= new PRUDPPacketPacer( 0, SEND_BURST );
+
+	private final PRUDPPacketBufferPool	send_pool		= new PRUDPPacketBufferPool( MAX_PACKET_SIZE, 256 );
+	private final PRUDPPacketBufferPool	receive_pool	= new PRUDPPacketBufferPool( PRUDPPacket.MAX_PACKET_SIZE, 64 );
+
 	private AEMonitor	recv_queue_mon	= new AEMonitor( "PRUDPPH:rq" );
 	private long		recv_queue_data_size;
 	private List		recv_queue		= new ArrayList();
@@ -493,33 +517,12 @@ PRUDPPacketHandlerImpl
 
 			while( !( failed || destroyed )){
 
-				if ( socket != null ){
+				closeChannel();
 
-					try{
-						socket.close();
-
-					}catch( Throwable e ){
-
-						Debug.printStackTrace(e);
-					}
-				}
-
-				InetSocketAddress	address		= null;
-				DatagramSocket		new_socket	= null;
+				DatagramChannel		new_channel	= null;
 
 				try{
-					if ( target_bind_ip == null ){
-
-						address = new InetSocketAddress("127.0.0.1",port);
-
-						new_socket = new DatagramSocket( port );
-
-					}else{
-
-						address = new InetSocketAddress( target_bind_ip, port );
-
-						new_socket = new DatagramSocket( address );
-					}
+					new_channel = openChannel( target_bind_ip );
 				}catch( BindException e ){
 
 						// some firewalls (e.g. Comodo) seem to close sockets on us and then not release them quickly so we come through here and get
@@ -541,18 +544,7 @@ PRUDPPacketHandlerImpl
 								delay = 1000;
 							}
 
-							if ( target_bind_ip == null ){
-
-								address = new InetSocketAddress("127.0.0.1",port);
-
-								new_socket = new DatagramSocket( port );
-
-							}else{
-
-								address = new InetSocketAddress( target_bind_ip, port );
-
-								new_socket = new DatagramSocket( address );
-							}
+							new_channel = openChannel( target_bind_ip );
 
 							if (Logger.isEnabled())
 								Logger.log(new LogEvent(LOGID,"PRUDPPacketReceiver: rebind to " + target_bind_ip + " worked (tries=" + (i+1) + ") after getting " + Debug.getNestedExceptionMessage( e )));
@@ -587,12 +579,9 @@ PRUDPPacketHandlerImpl
 
 								try{
 
-									InetSocketAddress guess_address = new InetSocketAddress( guess, port );
-
-									new_socket = new DatagramSocket( guess_address );
+									new_channel = openChannel( guess );
 
 									target_bind_ip 	= guess;
-									address			= guess_address;
 
 									if (Logger.isEnabled())
 										Logger.log(new LogEvent(LOGID,"PRUDPPacketReceiver: Switched to explicit bind ip " + target_bind_ip + " after initial bind failure with wildcard (" + e.getMessage() + ")" ));
@@ -612,15 +601,17 @@ PRUDPPacketHandlerImpl
 					}
 				}
 
-				new_socket.setReuseAddress(true);
+				new_channel.socket().setReuseAddress(true);
 
-					// short timeout on receive so that we can interrupt a receive fairly quickly
+				Selector	new_selector = Selector.open();
 
-				new_socket.setSoTimeout( 1000 );
+				new_channel.register( new_selector, SelectionKey.OP_READ );
 
-					// only make the socket public once fully configured
+					// only make the channel public once fully configured
 
-				socket = new_socket;
+				selector	= new_selector;
+				channel		= new_channel;
+				socket		= new_channel.socket();
 
 				current_bind_ip	= target_bind_ip;
 
@@ -630,8 +621,6 @@ PRUDPPacketHandlerImpl
 					Logger.log(new LogEvent(LOGID,
 							"PRUDPPacketReceiver: receiver established on port " + port + (current_bind_ip==null?"":(", bound to " + current_bind_ip ))));
 
-				byte[] buffer = null;
-
 				long	successful_accepts 	= 0;
 				long	failed_accepts		= 0;
 
@@ -643,58 +632,69 @@ PRUDPPacketHandlerImpl
 					}
 
 					try{
+							// short timeout on select so that we notice bind changes and destruction fairly quickly
 
-						if ( buffer == null ){
+						if ( selector.select( 1000 ) == 0 ){
 
-							buffer = new byte[MAX_PACKET_SIZE];
+							if ( !channel.isOpen()){
+
+								throw( new ClosedChannelException());
+							}
+
+							continue;
 						}
 
-						DatagramPacket packet = new DatagramPacket( buffer, buffer.length, address );
+						selector.selectedKeys().clear();
 
-						receiveFromSocket( packet );
+							// drain what's there rather than going back to the selector for each datagram
 
-						if ( packet.getLength() > MAX_PACKET_SIZE ){
+						for ( int i=0;i<RECEIVE_BATCH;i++ ){
 
-							if ( MAX_PACKET_SIZE < PRUDPPacket.MAX_PACKET_SIZE ){
+							ByteBuffer	buffer = receive_pool.allocate();
 
-								Debug.out( "UDP Packet truncated: received length=" + packet.getLength() + ", current max=" + MAX_PACKET_SIZE );
+							boolean	retained = false;
 
-								MAX_PACKET_SIZE = Math.min( packet.getLength() + 256, PRUDPPacket.MAX_PACKET_SIZE );
+							try{
+								DatagramPacket packet = receiveFromChannel( buffer );
 
-								buffer = null;
+								if ( packet == null ){
 
-								continue;
-							}
-						}
+									break;
+								}
 
-						long	receive_time = SystemTime.getCurrentTime();
+								long	receive_time = SystemTime.getCurrentTime();
 
-						successful_accepts++;
+								successful_accepts++;
 
-						failed_accepts = 0;
+								failed_accepts = 0;
 
-						for ( PRUDPPrimordialHandler prim_hand: primordial_handlers ){
+								for ( PRUDPPrimordialHandler prim_hand: primordial_handlers ){
 
-							if ( prim_hand.packetReceived( packet )){
+									if ( prim_hand.packetReceived( packet )){
 
-									// primordial handlers get their own buffer as we can't guarantee
-									// that they don't need to hang onto the data
+											// primordial handlers keep the buffer as we can't guarantee
+											// that they don't need to hang onto the data
 
-								buffer	= null;
+										retained = true;
 
-								stats.primordialPacketReceived( packet.getLength());
+										stats.primordialPacketReceived( packet.getLength());
 
-								break;
-							}
-						}
+										break;
+									}
+								}
 
-						if ( buffer != null ){
+								if ( !retained ){
 
-							process( packet, receive_time );
-						}
+									process( packet, receive_time );
+								}
+							}finally{
 
-					}catch( SocketTimeoutException e ){
+								if ( !retained ){
 
+									receive_pool.release( buffer );
+								}
+							}
+						}
 					}catch( Throwable e ){
 
 							// on vista we get periodic socket closures
@@ -774,16 +774,7 @@ PRUDPPacketHandlerImpl
 
 			destroy_sem.releaseForever();
 
-			if ( socket != null ){
-
-				try{
-					socket.close();
-
-				}catch( Throwable e ){
-
-					Debug.printStackTrace(e);
-				}
-			}
+			closeChannel();
 
 			// make sure we destroy the delegate too if something happend
 			PRUDPPacketHandlerImpl delegate = altProtocolDelegate;
@@ -797,6 +788,66 @@ PRUDPPacketHandlerImpl
 		}
 	}
 
+	private DatagramChannel
+	openChannel(
+		InetAddress		bind_ip )
+
+		throws IOException
+	{
+		DatagramChannel	new_channel = DatagramChannel.open();
+
+		try{
+			if ( bind_ip == null ){
+
+				new_channel.socket().bind( new InetSocketAddress( port ));
+
+			}else{
+
+				new_channel.socket().bind( new InetSocketAddress( bind_ip, port ));
+			}
+
+			new_channel.configureBlocking( false );
+
+			return( new_channel );
+
+		}catch( IOException e ){
+
+			try{
+				new_channel.close();
+
+			}catch( Throwable f ){
+			}
+
+			throw( e );
+		}
+	}
+
+	private void
+	closeChannel()
+	{
+		if ( selector != null ){
+
+			try{
+				selector.close();
+
+			}catch( Throwable e ){
+
+				Debug.printStackTrace(e);
+			}
+		}
+
+		if ( channel != null ){
+
+			try{
+				channel.close();
+
+			}catch( Throwable e ){
+
+				Debug.printStackTrace(e);
+			}
+		}
+	}
+
 	protected void
 	checkTimeouts()
 	{
@@ -842,7 +893,7 @@ PRUDPPacketHandlerImpl
 				// don't change the text of this message, it's used elsewhere
 
 			try{
-				request.setException(new PRUDPPacketHandlerException("timed out"));
+				request.setException(new PRUDPPacketHandlerTimeoutException());
 
 			}catch( Throwable e ){
 
@@ -863,8 +914,9 @@ PRUDPPacketHandlerImpl
 				// must have their MSB set. As requests always start with the action, which
 				// always has the MSB clear, we can use this to differentiate.
 
-			byte[]	packet_data = dg_packet.getData();
-			int		packet_len	= dg_packet.getLength();
+			byte[]	packet_data 	= dg_packet.getData();
+			int		packet_offset	= dg_packet.getOffset();
+			int		packet_len		= dg_packet.getLength();
 
 			// System.out.println( "received:" + packet_len );
 
@@ -876,13 +928,13 @@ PRUDPPacketHandlerImpl
 
 			InetSocketAddress originator = (InetSocketAddress)dg_packet.getSocketAddress();
 
-			if ( ( packet_data[0]&0x80 ) == 0 ){
+			if ( ( packet_data[packet_offset]&0x80 ) == 0 ){
 
 				request_packet	= false;
 
 				packet = PRUDPPacketReply.deserialiseReply(
 					this, originator,
-					new DataInputStream(new ByteArrayInputStream( packet_data, 0, packet_len)));
+					new DataInputStream(new ByteArrayInputStream( packet_data, packet_offset, packet_len)));
 
 			}else{
 
@@ -890,7 +942,7 @@ PRUDPPacketHandlerImpl
 
 				packet = PRUDPPacketRequest.deserialiseRequest(
 						this,
-						new DataInputStream(new ByteArrayInputStream( packet_data, 0, packet_len)));
+						new DataInputStream(new ByteArrayInputStream( packet_data, packet_offset, packet_len)));
 
 			}
 
@@ -920,6 +972,8 @@ PRUDPPacketHandlerImpl
 
 						if ( recv_queue_data_size > MAX_RECV_QUEUE_DATA_SIZE ){
 
+							stats.packetDropped();
+
 							long	now = SystemTime.getCurrentTime();
 
 							if ( now - last_error_report > 30000 ){
@@ -936,6 +990,8 @@ PRUDPPacketHandlerImpl
 								// by the time this request gets processed it'll have timed out
 								// in the caller anyway, so discard it
 
+							stats.packetDropped();
+
 							long	now = SystemTime.getCurrentTime();
 
 							if ( now - last_error_report > 30000 ){
@@ -949,7 +1005,7 @@ PRUDPPacketHandlerImpl
 
 						}else{
 
-							recv_queue.add( new Object[]{ packet, new Integer( dg_packet.getLength()) });
+							recv_queue.add( new Object[]{ packet, new Integer( dg_packet.getLength()), new Long( SystemTime.getMonotonousTime())});
 
 							recv_queue_data_size	+= dg_packet.getLength();
 
@@ -986,6 +1042,8 @@ PRUDPPacketHandlerImpl
 														recv_queue_mon.exit();
 													}
 
+													stats.packetProcessed( SystemTime.getMonotonousTime() - ((Long)data[2]).longValue());
+
 													PRUDPPacketRequest	p = (PRUDPPacketRequest)data[0];
 
 													PRUDPRequestHandler	handler = request_handler;
@@ -1201,13 +1259,13 @@ PRUDPPacketHandlerImpl
 		}
 
 		try{
-			MyByteArrayOutputStream	baos = new MyByteArrayOutputStream( MAX_PACKET_SIZE );
+			PRUDPPacketBufferPool.BufferOutputStream	baos = send_pool.getOutputStream();
 
 			DataOutputStream os = new DataOutputStream( baos );
 
 			request_packet.serialise(os);
 
-			byte[]	_buffer = baos.getBuffer();
+			byte[]	_buffer = baos.getData();
 			int		_length	= baos.size();
 
 			request_packet.setSerialisedSize( _length );
@@ -1256,11 +1314,10 @@ PRUDPPacketHandlerImpl
 				baos.write( user_bytes );
 				baos.write( overall_hash, 0, 8 );
 
-				_buffer = baos.getBuffer();
 				_length	= baos.size();
 			}
 
-			DatagramPacket dg_packet = new DatagramPacket(_buffer, _length, destination_address );
+			ByteBuffer	buffer = baos.getBuffer();
 
 			PRUDPPacketHandlerRequestImpl	request = new PRUDPPacketHandlerRequestImpl( receiver, timeout );
 
@@ -1288,7 +1345,7 @@ PRUDPPacketHandlerImpl
 
 								// synchronous write holding lock to block senders
 
-							sendToSocket( dg_packet );
+							sendToSocket( buffer, destination_address, true );
 
 							stats.packetSent( _length );
 
@@ -1303,9 +1360,9 @@ PRUDPPacketHandlerImpl
 
 						}else{
 
-							send_queue_data_size	+= dg_packet.getLength();
+							send_queue_data_size	+= _length;
 
-							send_queues[priority].add( new Object[]{ dg_packet, request });
+							send_queues[priority].add( new Object[]{ buffer, destination_address, request, new Long( SystemTime.getMonotonousTime())});
 
 							if ( TRACE_REQUESTS ){
 
@@ -1375,41 +1432,54 @@ PRUDPPacketHandlerImpl
 
 														data = (Object[])send_queues[selected_priority].remove(0);
 
-														DatagramPacket				p	= (DatagramPacket)data[0];
-
-															// mark as sent before sending in case send fails
-															// and we then rely on timeout to pick this up
+														ByteBuffer	p	= (ByteBuffer)data[0];
 
-														send_queue_data_size	-= p.getLength();
+														send_queue_data_size	-= p.remaining();
 
 													}finally{
 
 														send_queue_mon.exit();
 													}
 
-													DatagramPacket					p	= (DatagramPacket)data[0];
-													PRUDPPacketHandlerRequestImpl	r	= (PRUDPPacketHandlerRequestImpl)data[1];
+													ByteBuffer						p		= (ByteBuffer)data[0];
+													InetSocketAddress				target	= (InetSocketAddress)data[1];
+													PRUDPPacketHandlerRequestImpl	r		= (PRUDPPacketHandlerRequestImpl)data[2];
 
-													r.sent();
+														// pace with the token bucket before sending rather than sleeping
+														// after each send, so an idle handler doesn't delay a short burst
 
-													sendToSocket( p );
+													int	cost = send_delay;
 
-													stats.packetSent( p.getLength() );
+													if ( selected_priority == PRIORITY_HIGH ){
 
-													if ( TRACE_REQUESTS ){
-														Logger.log(new LogEvent(LOGID,
-															"PRUDPPacketHandler: request packet sent to "
-																	+ p.getAddress()));
+														cost	= cost/2;
 													}
 
-													long	delay = send_delay;
+													long	wait = send_pacer.reserve( cost );
 
-													if ( selected_priority == PRIORITY_HIGH ){
+													if ( wait > 0 ){
 
-														delay	= delay/2;
+														Thread.sleep( wait );
 													}
 
-													Thread.sleep( delay );
+													int	len = p.remaining();
+
+													stats.packetDequeued( SystemTime.getMonotonousTime() - ((Long)data[3]).longValue());
+
+														// mark as sent before sending in case send fails
+														// and we then rely on timeout to pick this up
+
+													r.sent();
+
+													sendToSocket( p, target, true );
+
+													stats.packetSent( len );
+
+													if ( TRACE_REQUESTS ){
+														Logger.log(new LogEvent(LOGID,
+															"PRUDPPacketHandler: request packet sent to "
+																	+ target ));
+													}
 
 												}catch( Throwable e ){
 													// get occasional send fails, not very interesting
@@ -1436,12 +1506,7 @@ PRUDPPacketHandlerImpl
 
 					request.sent();
 
-					if ( dg_packet == null ){
-
-						throw new NullPointerException("dg_packet is null");
-					}
-
-					sendToSocket( dg_packet );
+					sendToSocket( buffer, destination_address, true );
 
 					// System.out.println( "sent:" + buffer.length );
 
@@ -1530,19 +1595,16 @@ PRUDPPacketHandlerImpl
 
 		try{
 
-			MyByteArrayOutputStream	baos = new MyByteArrayOutputStream( MAX_PACKET_SIZE );
+			PRUDPPacketBufferPool.BufferOutputStream	baos = send_pool.getOutputStream();
 
 			DataOutputStream os = new DataOutputStream( baos );
 
 			request_packet.serialise(os);
 
-			byte[]	_buffer = baos.getBuffer();
 			int		_length	= baos.size();
 
 			request_packet.setSerialisedSize( _length );
 
-			DatagramPacket dg_packet = new DatagramPacket( _buffer, _length, destination_address );
-
 			// System.out.println( "Outgoing to " + dg_packet.getAddress());
 
 			if ( TRACE_REQUESTS ){
@@ -1551,7 +1613,7 @@ PRUDPPacketHandlerImpl
 								+ request_packet.getString()));
 			}
 
-			sendToSocket( dg_packet );
+			sendToSocket( baos.getBuffer(), destination_address, true );
 
 			stats.packetSent( _length );
 
@@ -1598,6 +1660,8 @@ PRUDPPacketHandlerImpl
 		send_delay				= _send_delay;
 		receive_delay			= _receive_delay;
 
+		send_pacer.setInterval( _send_delay );
+
 			// trim a bit off this limit to include processing time
 
 		queued_request_timeout	= _queued_request_timeout-5000;
@@ -1678,16 +1742,12 @@ PRUDPPacketHandlerImpl
 		}
 
 		try{
-			DatagramPacket dg_packet = new DatagramPacket(buffer, buffer.length, target );
-
-			// System.out.println( "Outgoing to " + dg_packet.getAddress());
-
 			if ( TRACE_REQUESTS ){
 				Logger.log(new LogEvent(LOGID,
 						"PRUDPPacketHandler: reply packet sent: " + buffer.length + " to " + target ));
 			}
 
-			sendToSocket( dg_packet );
+			sendToSocket( ByteBuffer.wrap( buffer ), target, false );
 
 			stats.primordialPacketSent( buffer.length );
 
@@ -1697,32 +1757,85 @@ PRUDPPacketHandlerImpl
 		}
 	}
 
+		/**
+		 * @param pooled	true if the buffer came from the send pool, in which case it is returned to it
+		 */
+
 	private void
 	sendToSocket(
-		DatagramPacket	p )
+		ByteBuffer			buffer,
+		InetSocketAddress	target,
+		boolean				pooled )
 
 		throws IOException
 	{
-		if ( packet_transformer != null ){
+		try{
+			ByteBuffer	to_send = buffer;
 
-			packet_transformer.transformSend( p );
-		}
+			if ( packet_transformer != null ){
+
+				DatagramPacket	p = new DatagramPacket( buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), target );
+
+				packet_transformer.transformSend( p );
+
+				to_send = ByteBuffer.wrap( p.getData(), p.getOffset(), p.getLength());
+			}
+
+				// the channel is non-blocking so a full socket send buffer shows up as nothing sent. back
+				// off briefly rather than fail immediately as a blocking socket would have waited
+
+			for ( int i=0;;i++ ){
+
+				if ( channel.send( to_send, target ) > 0 ){
+
+					break;
+				}
+
+				if ( i == SEND_RETRIES ){
+
+					stats.packetDropped();
+
+					throw( new IOException( "UDP send buffer full" ));
+				}
+
+				try{
+					Thread.sleep( 1 );
 
-		socket.send( p );
+				}catch( InterruptedException e ){
+
+					throw( new InterruptedIOException());
+				}
+			}
+		}finally{
+
+			if ( pooled ){
+
+				send_pool.release( buffer );
+			}
+		}
 	}
 
-	private void
-	receiveFromSocket(
-		DatagramPacket	p )
+	private DatagramPacket
+	receiveFromChannel(
+		ByteBuffer	buffer )
 
 		throws IOException
 	{
-		socket.receive( p );
+		SocketAddress	from = channel.receive( buffer );
+
+		if ( from == null ){
+
+			return( null );
+		}
+
+		DatagramPacket	p = new DatagramPacket( buffer.array(), buffer.arrayOffset(), buffer.position(), from );
 
 		if ( packet_transformer != null ){
 
 			packet_transformer.transformReceive( p );
 		}
+
+		return( p );
 	}
 
 	public PRUDPPacketHandlerStats
@@ -1770,24 +1883,6 @@ PRUDPPacketHandlerImpl
 	{
 	}
 
-	private static class
-	MyByteArrayOutputStream
-		extends ByteArrayOutputStream
-	{
-		private
-		MyByteArrayOutputStream(
-			int	size )
-		{
-			super( size );
-		}
-
-		private byte[]
-		getBuffer()
-		{
-			return( buf );
-		}
-	}
-
 	protected interface
 	PacketTransformer
 	{
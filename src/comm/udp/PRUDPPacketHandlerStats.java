@@ -47,6 +47,37 @@ PRUDPPacketHandlerStats
 	public long
 	getReceiveQueueLength();
 	
+		/**
+		 * Rates averaged over the last 10 seconds
+		 */
+	
+	public long
+	getPacketsSentPerSecond();
+	
+	public long
+	getPacketsReceivedPerSecond();
+	
+		/**
+		 * Packets discarded due to full receive queue or socket send buffer
+		 */
+	
+	public long
+	getPacketsDropped();
+	
+		/**
+		 * Average millis a request spent in the send queue (paced sends only)
+		 */
+	
+	public long
+	getAverageSendLatency();
+	
+		/**
+		 * Average millis an incoming request spent in the receive queue before being handled
+		 */
+	
+	public long
+	getAverageReceiveLatency();
+	
 	public PRUDPPacketHandlerStats
 	snapshot();
 }
@@ -19,6 +19,7 @@
 
 package comm.udp;
 
+import torrentlib.Average;
 import torrentlib.Debug;
 
 import comm.udp.PRUDPPacketHandlerStats;
@@ -39,6 +40,15 @@ PRUDPPacketHandlerStatsImpl
 	private long requests_timeout;
 	private long bytes_sent;
 	private long bytes_received;
+	private long packets_dropped;
+	
+	private Average	send_rate			= Average.getInstance( 1000, 10 );
+	private Average	receive_rate		= Average.getInstance( 1000, 10 );
+	
+	private Average	send_latency		= Average.getInstance( 1000, 10 );
+	private Average	send_latency_count	= Average.getInstance( 1000, 10 );
+	private Average	recv_latency		= Average.getInstance( 1000, 10 );
+	private Average	recv_latency_count	= Average.getInstance( 1000, 10 );
 	
 	protected
 	PRUDPPacketHandlerStatsImpl(
@@ -59,6 +69,8 @@ PRUDPPacketHandlerStatsImpl
 	{
 		packets_sent++;
 		bytes_sent += len;
+		
+		send_rate.addValue( 1 );
 	}
 	
 	public long
@@ -73,6 +85,8 @@ PRUDPPacketHandlerStatsImpl
 	{
 		packets_received++;
 		bytes_received	+= len;
+		
+		receive_rate.addValue( 1 );
 	}
 	
 	protected void
@@ -87,6 +101,28 @@ PRUDPPacketHandlerStatsImpl
 	{	
 	}
 	
+	protected void
+	packetDropped()
+	{
+		packets_dropped++;
+	}
+	
+	protected void
+	packetDequeued(
+		long	queue_millis )
+	{
+		send_latency.addValue( Math.max( 0, queue_millis ));
+		send_latency_count.addValue( 1 );
+	}
+	
+	protected void
+	packetProcessed(
+		long	queue_millis )
+	{
+		recv_latency.addValue( Math.max( 0, queue_millis ));
+		recv_latency_count.addValue( 1 );
+	}
+	
 	public long
 	getRequestsTimedOut()
 	{
@@ -124,6 +160,46 @@ PRUDPPacketHandlerStatsImpl
 		
 	}
 	
+	public long
+	getPacketsSentPerSecond()
+	{
+		return( send_rate.getAverage());
+	}
+	
+	public long
+	getPacketsReceivedPerSecond()
+	{
+		return( receive_rate.getAverage());
+	}
+	
+	public long
+	getPacketsDropped()
+	{
+		return( packets_dropped );
+	}
+	
+	public long
+	getAverageSendLatency()
+	{
+		return( average( send_latency, send_latency_count ));
+	}
+	
+	public long
+	getAverageReceiveLatency()
+	{
+		return( average( recv_latency, recv_latency_count ));
+	}
+	
+	private long
+	average(
+		Average		total,
+		Average		count )
+	{
+		long	num = count.getAverage();
+		
+		return( num==0?0:total.getAverage()/num );
+	}
+	
 	public PRUDPPacketHandlerStats
 	snapshot()
 	{
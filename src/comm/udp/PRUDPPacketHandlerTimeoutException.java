@@ -0,0 +1,38 @@
+/*
+ * Created on 19-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package comm.udp;
+
+/**
+ * A request that got no reply within its timeout, as opposed to one that failed in some other way
+ */
+
+public class
+PRUDPPacketHandlerTimeoutException
+	extends PRUDPPacketHandlerException
+{
+	private static final long serialVersionUID = 1L;
+
+	public
+	PRUDPPacketHandlerTimeoutException()
+	{
+			// the text is still checked by older code
+
+		super( "timed out" );
+	}
+}
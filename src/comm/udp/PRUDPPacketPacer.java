@@ -0,0 +1,112 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package comm.udp;
+
+import torrentlib.SystemTime;
+
+/**
+ * Token bucket used to pace queued sends.<br>
+ *
+ * Credit is held in milliseconds: it accrues at one per millisecond up to 'burst' packet intervals and
+ * each packet spends its cost (normally one interval) in advance. Callers are told how long to wait
+ * when the bucket is overdrawn, so an idle handler sends the first few packets of a burst immediately
+ * while the long term rate stays at one packet per interval.
+ */
+
+public class
+PRUDPPacketPacer
+{
+	private final int	burst;
+
+	private int		interval;
+	private long	credit;
+	private long	last_refill		= -1;
+
+	private long	waits;
+	private long	total_wait;
+
+	public
+	PRUDPPacketPacer(
+		int		_interval,
+		int		_burst )
+	{
+		burst		= Math.max( 1, _burst );
+
+		setInterval( _interval );
+
+		credit	= (long)interval * burst;
+	}
+
+	public synchronized void
+	setInterval(
+		int		millis )
+	{
+		interval = Math.max( 0, millis );
+
+		credit = Math.min( credit, (long)interval * burst );
+	}
+
+	public synchronized int
+	getInterval()
+	{
+		return( interval );
+	}
+
+		/**
+		 * Reserves credit for a packet
+		 * @param cost	credit to spend in millis, normally getInterval()
+		 * @return millis to wait before sending it, 0 to send immediately
+		 */
+
+	public synchronized long
+	reserve(
+		int		cost )
+	{
+		long	now = SystemTime.getMonotonousTime();
+
+		long	max_credit = (long)interval * burst;
+
+		if ( last_refill >= 0 && now > last_refill ){
+
+			credit = Math.min( max_credit, credit + ( now - last_refill ));
+		}
+
+		last_refill = now;
+
+		credit -= cost;
+
+		if ( credit >= 0 ){
+
+			return( 0 );
+		}
+
+		long	wait = -credit;
+
+		waits++;
+		total_wait += wait;
+
+		return( wait );
+	}
+
+	public synchronized String
+	getString()
+	{
+		return( "interval=" + interval + ",burst=" + burst + ",credit=" + credit + ",waits=" + waits + ",wait=" + ( waits==0?0:total_wait/waits ));
+	}
+}
@@ -49,6 +49,7 @@ DHTControl
 	public static final int		CACHE_REPUBLISH_INTERVAL_DEFAULT		=   30*60*1000; 
 	public static final int		ENCODE_KEYS_DEFAULT						= 1;
 	public static final int		ENABLE_RANDOM_DEFAULT					= 1;
+	public static final int		PROXIMITY_ROUTING_DEFAULT				= 0;
 	
 	public void
 	seed(
@@ -118,6 +119,19 @@ DHTControl
 	setSleeping(
 		boolean	asleep );
 	
+		/**
+		 * Proximity routing: lookups prefer, among candidates equally close to the target, those
+		 * with the lowest rtt predicted from network positions, and lookup RPCs time out relative
+		 * to the predicted rtt
+		 */
+	
+	public void
+	setProximityRouting(
+		boolean	enabled );
+	
+	public boolean
+	isProximityRouting();
+	
 	public DHTTransport
 	getTransport();
 	
@@ -143,6 +157,27 @@ DHTControl
 		
 		throws IOException;
 	
+		/**
+		 * As above, optionally including the contacts' network positions. The two forms aren't
+		 * interchangeable
+		 * @param max	maximum contacts to export, 0 -> all
+		 */
+	
+	public void
+	exportState(
+		DataOutputStream	os,
+		int					max,
+		boolean				include_positions )
+		
+		throws IOException;
+	
+	public void
+	importState(
+		DataInputStream		is,
+		boolean				include_positions )
+		
+		throws IOException;
+	
 		// support methods for DB
 	
 	public List<DHTTransportContact>
@@ -23,6 +23,7 @@ import torrentlib.SystemTime;
 import torrentlib.Debug;
 import torrentlib.ThreadPool;
 import torrentlib.AEThread2;
+import torrentlib.AERunnable;
 import torrentlib.ThreadPoolTask;
 import torrentlib.TimerEvent;
 import torrentlib.SimpleTimer;
@@ -46,6 +47,7 @@ import connect.dht.transport.DHTTransportListener;
 import connect.dht.transport.DHTTransportReplyHandler;
 import connect.dht.transport.DHTTransport;
 import connect.dht.transport.DHTTransportRequestHandler;
+import connect.dht.transport.DHTTransportAdaptiveTimeoutException;
 import connect.dht.transport.DHTTransportContact;
 import connect.dht.transport.DHTTransportValue;
 import connect.dht.DHTControlAdapter;
@@ -87,6 +89,7 @@ import connect.dht.router.DHTRouterContact;
 import connect.dht.router.DHTRouterFactory;
 import connect.dht.router.DHTRouterStats;
 import connect.dht.transport.udp.DHTTransportUDP;
+import connect.dht.transport.udp.DHTTransportUDPContact;
 
 /**
  * @author parg
@@ -103,10 +106,22 @@ DHTControlImpl
 	private static final int EXTERNAL_PUT_CONCURRENCY				= 8;
 	private static final int EXTERNAL_SLEEPING_PUT_CONCURRENCY		= 4;
 
+		// external lookups (and the lookup phase of external puts) run asynchronously and don't hold a
+		// thread, so many more can be active at once. Load on the network is bounded by the
+		// scheduler's global in-flight RPC limit rather than by the number of lookups
+
+	public  static 		 int EXTERNAL_ASYNC_LOOKUP_CONCURRENCY		= 1024;
+	private static final int EXTERNAL_ASYNC_PUT_CONCURRENCY			= 256;
+	private static final int EXTERNAL_ASYNC_SLEEPING_PUT_CONCURRENCY	= 32;
+
 	private static final int RANDOM_QUERY_PERIOD			= 5*60*1000;
 
 	private static final int INTEGRATION_TIME_MAX			= 15*1000;
 
+		// proximity routing: max candidates in the closest contact's distance bucket considered per step
+
+	private static final int PROXIMITY_CANDIDATES			= 8;
+
 
 	private DHTControlAdapter		adapter;
 	private DHTTransport			transport;
@@ -131,6 +146,8 @@ DHTControlImpl
 	private final boolean	encode_keys;
 	private final boolean	enable_random_poking;
 
+	private volatile boolean	proximity_routing;
+
 	private long		router_start_time;
 	private int			router_count;
 
@@ -139,6 +156,10 @@ DHTControlImpl
 	private ThreadPool	internal_put_pool;
 	private ThreadPool	external_put_pool;
 
+	private DHTControlLookupScheduler			lookup_scheduler;
+	private DHTControlLookupScheduler.Lane		external_lookup_lane;
+	private DHTControlLookupScheduler.Lane		external_put_lane;
+
 	private Map			imported_state	= new HashMap();
 
 	private volatile boolean	seeded;
@@ -278,6 +299,11 @@ DHTControlImpl
 		external_lookup_pool 	= new ThreadPool("DHTControl:externallookups", EXTERNAL_LOOKUP_CONCURRENCY, true );
 		external_put_pool 		= new ThreadPool("DHTControl:puts", EXTERNAL_PUT_CONCURRENCY, true );
 
+		lookup_scheduler		= new DHTControlLookupScheduler();
+
+		external_lookup_lane	= lookup_scheduler.createLane( "externallookups", EXTERNAL_ASYNC_LOOKUP_CONCURRENCY );
+		external_put_lane		= lookup_scheduler.createLane( "puts", EXTERNAL_ASYNC_PUT_CONCURRENCY );
+
 		createRouter( transport.getLocalContact());
 
 		node_id_byte_count	= router.getID().length;
@@ -457,6 +483,11 @@ DHTControlImpl
 		external_lookup_pool 	= new ThreadPool("DHTControl:externallookups", EXTERNAL_LOOKUP_CONCURRENCY, true );
 		external_put_pool 		= new ThreadPool("DHTControl:puts", EXTERNAL_PUT_CONCURRENCY, true );
 
+		lookup_scheduler		= new DHTControlLookupScheduler();
+
+		external_lookup_lane	= lookup_scheduler.createLane( "externallookups", EXTERNAL_ASYNC_LOOKUP_CONCURRENCY );
+		external_put_lane		= lookup_scheduler.createLane( "puts", EXTERNAL_ASYNC_PUT_CONCURRENCY );
+
 		router	= _router;
 
 		local_contact = transport.getLocalContact();
@@ -616,14 +647,41 @@ DHTControlImpl
 
 			external_put_pool.setMaxThreads( EXTERNAL_SLEEPING_PUT_CONCURRENCY );
 
+			external_put_lane.setMaxActive( EXTERNAL_ASYNC_SLEEPING_PUT_CONCURRENCY );
+
 		}else{
 
 			external_put_pool.setMaxThreads( EXTERNAL_PUT_CONCURRENCY );
+
+			external_put_lane.setMaxActive( EXTERNAL_ASYNC_PUT_CONCURRENCY );
 		}
 
 		database.setSleeping( asleep );
 	}
 
+	public void
+	setProximityRouting(
+		boolean	enabled )
+	{
+		if ( enabled != proximity_routing ){
+
+			logger.log( "Proximity routing " + (enabled?"enabled":"disabled"));
+		}
+
+		proximity_routing = enabled;
+
+		if ( transport instanceof DHTTransportUDP ){
+
+			((DHTTransportUDP)transport).setAdaptiveLookupTimeouts( enabled );
+		}
+	}
+
+	public boolean
+	isProximityRouting()
+	{
+		return( proximity_routing );
+	}
+
 	public void
 	setSuspended(
 		boolean			susp )
@@ -664,6 +722,31 @@ DHTControlImpl
 		return( stats );
 	}
 
+	protected DHTControlLookupScheduler
+	getLookupScheduler()
+	{
+		return( lookup_scheduler );
+	}
+
+	protected DHTControlLookupScheduler.Lane
+	getLookupLane(
+		ThreadPool		thread_pool )
+	{
+		if ( thread_pool == external_lookup_pool ){
+
+			return( external_lookup_lane );
+
+		}else if ( thread_pool == external_put_pool ){
+
+			return( external_put_lane );
+		}
+
+			// internal lookups (seeding, bucket refresh) stay on their bounded pools as their
+			// callers rely on the blocking admission
+
+		return( null );
+	}
+
 	public DHTTransport
 	getTransport()
 	{
@@ -707,6 +790,17 @@ DHTControlImpl
 		DataOutputStream	daos,
 		int					max )
 
+		throws IOException
+	{
+		exportState( daos, max, false );
+	}
+
+	public void
+	exportState(
+		DataOutputStream	daos,
+		int					max,
+		boolean				include_positions )
+
 		throws IOException
 	{
 			/*
@@ -811,7 +905,7 @@ DHTControlImpl
 
 		//System.out.println( "    finally = " + to_save.size());
 
-		int	num_to_write = Math.min( max, to_save.size());
+		int	num_to_write = max<=0?to_save.size():Math.min( max, to_save.size());
 
 		daos.writeInt( num_to_write );
 
@@ -838,6 +932,11 @@ DHTControlImpl
 
 				throw( new IOException( e.getMessage()));
 			}
+
+			if ( include_positions ){
+
+				exportPositions( daos, t_contact );
+			}
 		}
 
 		daos.flush();
@@ -847,27 +946,174 @@ DHTControlImpl
 	importState(
 		DataInputStream		dais )
 
+		throws IOException
+	{
+		importState( dais, false );
+	}
+
+	public void
+	importState(
+		DataInputStream		dais,
+		boolean				include_positions )
+
 		throws IOException
 	{
 		int	num = dais.readInt();
 
 		for (int i=0;i<num;i++){
 
-			try{
+			long	time_alive = dais.readLong();
 
-				long	time_alive = dais.readLong();
+			DHTTransportContact	contact;
 
-				DHTTransportContact	contact = transport.importContact( dais, false );
-
-				imported_state.put( new HashWrapper( contact.getID()), new Object[]{ new Long( time_alive ), contact });
+			try{
+				contact = transport.importContact( dais, false );
 
 			}catch( DHTTransportException e ){
 
 				Debug.printStackTrace( e );
+
+				contact = null;
+			}
+
+				// the contact's bytes have been consumed even if it was rejected (e.g. an unresolvable
+				// address), its positions have to be read regardless to stay in step with the stream
+
+			List<byte[]>	positions = include_positions?readPositions( dais ):null;
+
+			if ( contact == null ){
+
+				continue;
+			}
+
+			if ( positions != null ){
+
+				importPositions( contact, positions );
 			}
+
+			imported_state.put( new HashWrapper( contact.getID()), new Object[]{ new Long( time_alive ), contact });
 		}
 	}
 
+	private void
+	exportPositions(
+		DataOutputStream		daos,
+		DHTTransportContact		contact )
+
+		throws IOException
+	{
+		DHTNetworkPosition[]	positions = contact.getNetworkPositions();
+
+		if ( positions == null ){
+
+			daos.writeByte( 0 );
+
+			return;
+		}
+
+		List<byte[]>	serialised = new ArrayList<byte[]>( positions.length );
+
+		for ( DHTNetworkPosition pos: positions ){
+
+			try{
+				serialised.add( DHTNetworkPositionManager.serialisePosition( pos ));
+
+			}catch( Throwable e ){
+
+				// not all position types support this, skip them
+			}
+		}
+
+		daos.writeByte( serialised.size());
+
+		for ( byte[] bytes: serialised ){
+
+			daos.writeShort( bytes.length );
+			daos.write( bytes );
+		}
+	}
+
+	private List<byte[]>
+	readPositions(
+		DataInputStream			dais )
+
+		throws IOException
+	{
+		int	num = dais.readUnsignedByte();
+
+		List<byte[]>	result = new ArrayList<byte[]>( num );
+
+		for ( int i=0;i<num;i++){
+
+			byte[]	bytes = new byte[ dais.readUnsignedShort()];
+
+			dais.readFully( bytes );
+
+			result.add( bytes );
+		}
+
+		return( result );
+	}
+
+	private void
+	importPositions(
+		DHTTransportContact		contact,
+		List<byte[]>			serialised )
+	{
+		List<DHTNetworkPosition>	restored = new ArrayList<DHTNetworkPosition>( serialised.size());
+
+		for ( byte[] bytes: serialised ){
+
+			try{
+				DHTNetworkPosition	pos = DHTNetworkPositionManager.deserialisePosition( contact.getAddress().getAddress(), bytes );
+
+				if ( pos != null ){
+
+					restored.add( pos );
+				}
+			}catch( IOException e ){
+
+					// each position is length delimited so a bad one only loses itself
+			}
+		}
+
+		if ( restored.isEmpty() || !( contact instanceof DHTTransportUDPContact )){
+
+			return;
+		}
+
+			// replace like-for-like so that any types we didn't save keep their fresh positions
+
+		DHTNetworkPosition[]	current = contact.getNetworkPositions();
+
+		List<DHTNetworkPosition>	merged = new ArrayList<DHTNetworkPosition>( restored );
+
+		if ( current != null ){
+
+			for ( DHTNetworkPosition pos: current ){
+
+				boolean	found = false;
+
+				for ( DHTNetworkPosition r: restored ){
+
+					if ( r.getPositionType() == pos.getPositionType()){
+
+						found = true;
+
+						break;
+					}
+				}
+
+				if ( !found ){
+
+					merged.add( pos );
+				}
+			}
+		}
+
+		((DHTTransportUDPContact)contact).setNetworkPositions( merged.toArray( new DHTNetworkPosition[ merged.size()]));
+	}
+
 	public void
 	seed(
 		final boolean		full_wait )
@@ -2273,6 +2519,104 @@ DHTControlImpl
 		 */
 
 
+		/**
+		 * Among the candidates in the same XOR distance bucket as the closest (same number of
+		 * leading bits in common with the target) returns the one with the lowest predicted rtt,
+		 * or closest if none is predicted to be nearer
+		 * @param candidates	ordered closest to target first
+		 */
+
+	protected DHTTransportContact
+	selectByProximity(
+		byte[]					target,
+		Iterator				candidates,
+		DHTTransportContact		closest )
+	{
+		DHTNetworkPosition[]	local_nps = local_contact.getNetworkPositions();
+
+		if ( local_nps == null || local_nps.length == 0 ){
+
+			return( closest );
+		}
+
+		int	bucket = sharedPrefixBits( target, closest.getID());
+
+		DHTTransportContact	best		= closest;
+		float				best_rtt	= estimateRTT( local_nps, closest );
+
+		int	checked = 0;
+
+		while( candidates.hasNext() && checked < PROXIMITY_CANDIDATES ){
+
+			DHTTransportContact	contact = (DHTTransportContact)candidates.next();
+
+			if ( contact == closest ){
+
+				continue;
+			}
+
+			checked++;
+
+				// ordered by distance so once out of the bucket we're done
+
+			if ( sharedPrefixBits( target, contact.getID()) != bucket ){
+
+				break;
+			}
+
+			float	rtt = estimateRTT( local_nps, contact );
+
+			if ( rtt < best_rtt ){
+
+				best		= contact;
+				best_rtt	= rtt;
+			}
+		}
+
+		return( best );
+	}
+
+		/**
+		 * @return predicted rtt, Float.MAX_VALUE if unknown
+		 */
+
+	private static float
+	estimateRTT(
+		DHTNetworkPosition[]	local_nps,
+		DHTTransportContact		contact )
+	{
+		DHTNetworkPosition[]	remote_nps = contact.getNetworkPositions();
+
+		if ( remote_nps == null || remote_nps.length == 0 ){
+
+			return( Float.MAX_VALUE );
+		}
+
+		float	rtt = DHTNetworkPositionManager.estimateRTT( local_nps, remote_nps );
+
+		return( Float.isNaN( rtt )?Float.MAX_VALUE:rtt );
+	}
+
+	private static int
+	sharedPrefixBits(
+		byte[]		id1,
+		byte[]		id2 )
+	{
+		int	len = Math.min( id1.length, id2.length );
+
+		for ( int i=0;i<len;i++){
+
+			int	diff = ( id1[i] ^ id2[i] ) & 0xff;
+
+			if ( diff != 0 ){
+
+				return( i*8 + Integer.numberOfLeadingZeros( diff ) - 24 );
+			}
+		}
+
+		return( len*8 );
+	}
+
 	protected DhtTask
 	lookup(
 		final ThreadPool 			thread_pool,
@@ -2301,6 +2645,10 @@ DHTControlImpl
 			obs_value	= null;
 		}
 
+		final DHTControlLookupScheduler.Lane	lane = getLookupLane( thread_pool );
+
+		final boolean	proximity = proximity_routing;
+
 		DhtTask	task =
 			new DhtTask(thread_pool)
 			{
@@ -2345,6 +2693,9 @@ DHTControlImpl
 				private int runningState = 1; // -1 terminated, 0 waiting, 1 running
 				private int freeTasksCount = concurrency;
 
+					// async lookups only: an RPC permit handed over by the scheduler and not yet used
+
+				private boolean permit_granted;
 
 				private boolean	cancelled;
 
@@ -2423,11 +2774,26 @@ DHTControlImpl
 					if(timeoutEvent != null)
 						timeoutEvent.cancel();
 
+					boolean	return_permit;
+
 					synchronized (this)
 					{
 						if(runningState == -1)
 							return;
 						runningState = -1;
+
+						return_permit	= permit_granted;
+						permit_granted	= false;
+					}
+
+					if ( lane != null ){
+
+						lookup_scheduler.cancelWaiter( this );
+
+						if ( return_permit ){
+
+							lookup_scheduler.releaseRPC();
+						}
 					}
 
 					try{
@@ -2468,7 +2834,16 @@ DHTControlImpl
 
 					}finally{
 
-						releaseToPool();
+						if ( lane == null ){
+
+							releaseToPool();
+
+						}else{
+
+							lane.completed( this );
+
+							taskCompleted();
+						}
 					}
 				}
 
@@ -2493,6 +2868,26 @@ DHTControlImpl
 					{
 						//System.out.println("release-start");
 						runningState = 1;
+						resume();
+					}
+				}
+
+				private void
+				resume()
+				{
+					if ( lane != null ){
+
+						lookup_scheduler.dispatch(
+							new AERunnable()
+							{
+								public void
+								runSupport()
+								{
+									lookupSteps();
+								}
+							});
+					}else{
+
 						new AEThread2("DHT lookup runner",true) {
 							public void run() {
 								thread_pool.registerThreadAsChild(worker);
@@ -2503,6 +2898,76 @@ DHTControlImpl
 					}
 				}
 
+				public void
+				permitGranted()
+				{
+					synchronized( this ){
+
+						if ( runningState != -1 ){
+
+							permit_granted = true;
+
+							if ( runningState == 0 ){
+
+								runningState = 1;
+
+								resume();
+							}
+
+							return;
+						}
+					}
+
+					lookup_scheduler.releaseRPC();
+				}
+
+					// async lookups only: takes a slot from the global RPC budget. On failure the search
+					// slot reserved for the RPC is handed back and the lookup parks until a permit is granted
+
+				private boolean
+				acquirePermit()
+				{
+					synchronized( this ){
+
+						if ( permit_granted ){
+
+							permit_granted = false;
+
+							return( true );
+						}
+					}
+
+					if ( lookup_scheduler.acquireRPC( this )){
+
+						return( true );
+					}
+
+					synchronized( this ){
+
+						if ( permit_granted ){
+
+							permit_granted = false;
+
+							return( true );
+						}
+
+						freeTasksCount++;
+
+						if ( runningState == 1 ){
+
+							runningState = 0;
+						}
+
+						return( false );
+					}
+				}
+
+				protected DHTControlLookupScheduler.Lane
+				getLane()
+				{
+					return( lane );
+				}
+
 				protected synchronized void
 				cancel()
 				{
@@ -2600,10 +3065,20 @@ DHTControlImpl
 										break;
 									}
 								}
-								// we optimise the first few entries based on their Vivaldi distance. Only a few
-								// however as we don't want to start too far away from the target.
-								if (contacts_queried.size() < concurrency)
+								if ( proximity ){
+
+									DHTTransportContact	near = selectByProximity( lookup_id, contacts_to_query.iterator(), closest );
+
+									if ( near != closest ){
+
+										stats.lookupProximityOverride();
+
+										closest = near;
+									}
+								}else if (contacts_queried.size() < concurrency)
 								{
+									// we optimise the first few entries based on their Vivaldi distance. Only a few
+									// however as we don't want to start too far away from the target.
 									DHTNetworkPosition[] loc_nps = local_contact.getNetworkPositions();
 									DHTTransportContact vp_closest = null;
 									Iterator vp_it = contacts_to_query.iterator();
@@ -2629,6 +3104,11 @@ DHTControlImpl
 									}
 								}
 
+								if ( lane != null && !acquirePermit()){
+
+									break;	// parked, will be revived by permitGranted() or release()
+								}
+
 								final DHTTransportContact f_closest = closest;
 
 								contacts_to_query.remove(closest);
@@ -2636,6 +3116,9 @@ DHTControlImpl
 								// never search ourselves!
 								if (router.isID(closest.getID()))
 								{
+									if ( lane != null ){
+										lookup_scheduler.releaseRPC();
+									}
 									release();
 									continue;
 								}
@@ -2646,6 +3129,26 @@ DHTControlImpl
 
 								DHTTransportReplyHandlerAdapter replyHandler = new DHTTransportReplyHandlerAdapter() {
 									private boolean	value_reply_received	= false;
+									private boolean	rpc_complete			= false;
+									private final long	rpc_start			= SystemTime.getMonotonousTime();
+
+									private void
+									rpcComplete(
+										boolean		ok )
+									{
+										synchronized( this ){
+											if ( rpc_complete ){
+												return;
+											}
+											rpc_complete = true;
+										}
+
+										stats.lookupHopComplete( proximity, ok, SystemTime.getMonotonousTime() - rpc_start );
+
+										if ( lane != null ){
+											lookup_scheduler.releaseRPC();
+										}
+									}
 
 									public void findNodeReply(DHTTransportContact target_contact, DHTTransportContact[] reply_contacts) {
 										try
@@ -2716,6 +3219,7 @@ DHTControlImpl
 											{
 												contacts_to_query_mon.exit();
 											}
+											rpcComplete( true );
 											release();
 										}
 									}
@@ -2844,6 +3348,7 @@ DHTControlImpl
 												{
 													contacts_to_query_mon.exit();
 												}
+												rpcComplete( true );
 												release();
 											}
 										}
@@ -2865,7 +3370,16 @@ DHTControlImpl
 													DHTLog.log("findNode/findValue " + DHTLog.getString(target_contact) + " -> failed: " + error.getMessage());
 												}
 
-												router.contactDead(target_contact.getID(), false);
+												// an adaptive timeout only means the contact is slower than predicted, the
+												// lookup moves on but it's left to the router's own checks to decide if it's dead
+												if ( error instanceof DHTTransportAdaptiveTimeoutException ){
+
+													stats.lookupSoftTimeout();
+
+												}else{
+
+													router.contactDead(target_contact.getID(), false);
+												}
 											}
 										} finally
 										{
@@ -2877,6 +3391,7 @@ DHTControlImpl
 											{
 												contacts_to_query_mon.exit();
 											}
+											rpcComplete( value_reply_received );
 											release();
 										}
 									}
@@ -3038,7 +3553,14 @@ DHTControlImpl
 				}
 			};
 
-		thread_pool.run( task, high_priority, true);
+		if ( lane != null ){
+
+			lane.queue( task, high_priority );
+
+		}else{
+
+			thread_pool.run( task, high_priority, true);
+		}
 
 		return( task );
 	}
@@ -4713,6 +5235,8 @@ DHTControlImpl
 						", protocol=V" + transport.getProtocolVersion() +
 						", nps=" + np_str + ", est_size=" + getTransportEstimatedDHTSize());
 
+		logger.log( "Lookups: " + lookup_scheduler.getString());
+
 		router.print();
 
 		database.print( full );
@@ -5424,6 +5948,7 @@ DHTControlImpl
 	protected abstract class
 	DhtTask
 		extends ThreadPoolTask
+		implements DHTControlLookupScheduler.Lookup
 	{
 		private controlActivity	activity;
 
@@ -5480,6 +6005,30 @@ DHTControlImpl
 		{
 		}
 
+			/**
+			 * @return the scheduler lane if this task runs asynchronously rather than on its thread pool
+			 */
+
+		protected DHTControlLookupScheduler.Lane
+		getLane()
+		{
+			return( null );
+		}
+
+		public void
+		lookupStarted()
+		{
+			taskStarted();
+
+			run();
+		}
+
+		public void
+		permitGranted()
+		{
+			lookup_scheduler.releaseRPC();
+		}
+
 		protected abstract void
 		cancel();
 
@@ -5675,6 +6224,13 @@ DHTControlImpl
 		public boolean
 		isQueued()
 		{
+			DHTControlLookupScheduler.Lane	lane = task.getLane();
+
+			if ( lane != null ){
+
+				return( lane.isQueued( task ));
+			}
+
 			return( tp.isQueued( task ));
 		}
 
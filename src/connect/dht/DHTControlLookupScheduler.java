@@ -0,0 +1,393 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package connect.dht;
+
+import java.util.*;
+
+import torrentlib.AERunnable;
+import torrentlib.AsyncDispatcher;
+import torrentlib.SystemTime;
+
+/**
+ * Scheduler for asynchronous lookups.<br>
+ *
+ * A lookup doesn't own a thread - it is advanced by transport reply callbacks and, when it has to be
+ * restarted, by a shared dispatcher. Lookups are admitted through lanes, each with its own limit on
+ * concurrently active lookups, and every find-node/find-value RPC issued by any lookup must hold one of
+ * a global budget of in-flight RPC permits. A lookup that can't get a permit parks and is handed one
+ * as soon as an outstanding RPC completes.
+ */
+
+public class
+DHTControlLookupScheduler
+{
+	public static int	MAX_INFLIGHT_RPCS	= 512;
+
+	public interface
+	Lookup
+	{
+			/**
+			 * Called on the dispatcher thread once the lookup has been admitted by its lane
+			 */
+
+		public void
+		lookupStarted();
+
+			/**
+			 * Hands an RPC permit to a lookup previously refused by {@link DHTControlLookupScheduler#acquireRPC(Lookup)}.
+			 * The lookup must give it back via {@link DHTControlLookupScheduler#releaseRPC()} if it can't use it
+			 */
+
+		public void
+		permitGranted();
+	}
+
+	private final AsyncDispatcher	dispatcher = new AsyncDispatcher( "DHTControl:lookups", 5000 );
+
+	private final List<Lane>		lanes	= new ArrayList<Lane>();
+
+	private int		max_rpcs	= MAX_INFLIGHT_RPCS;
+
+	private int		rpcs_in_flight;
+	private int		rpcs_peak;
+	private long	rpcs_issued;
+	private long	rpc_waits;
+
+	private final LinkedHashSet<Lookup>	permit_waiters = new LinkedHashSet<Lookup>();
+
+	public synchronized Lane
+	createLane(
+		String		name,
+		int			max_active )
+	{
+		Lane	lane = new Lane( name, max_active );
+
+		lanes.add( lane );
+
+		return( lane );
+	}
+
+	public void
+	dispatch(
+		AERunnable	runnable )
+	{
+		dispatcher.dispatch( runnable );
+	}
+
+		/**
+		 * @return true if a permit was obtained, false if the lookup has been queued to be handed one later
+		 */
+
+	public synchronized boolean
+	acquireRPC(
+		Lookup		lookup )
+	{
+		if ( rpcs_in_flight < max_rpcs ){
+
+			rpcs_in_flight++;
+
+			rpcIssued();
+
+			return( true );
+		}
+
+		if ( permit_waiters.add( lookup )){
+
+			rpc_waits++;
+		}
+
+		return( false );
+	}
+
+	public void
+	releaseRPC()
+	{
+		Lookup	next;
+
+		synchronized( this ){
+
+			if ( permit_waiters.isEmpty() || rpcs_in_flight > max_rpcs ){
+
+				rpcs_in_flight--;
+
+				return;
+			}
+
+			Iterator<Lookup>	it = permit_waiters.iterator();
+
+			next = it.next();
+
+			it.remove();
+
+				// permit passes straight to the waiter, in-flight count unchanged
+
+			rpcIssued();
+		}
+
+		next.permitGranted();
+	}
+
+	public synchronized void
+	cancelWaiter(
+		Lookup		lookup )
+	{
+		permit_waiters.remove( lookup );
+	}
+
+	public synchronized void
+	setMaxInFlightRPCs(
+		int		max )
+	{
+		max_rpcs = Math.max( 1, max );
+	}
+
+	private void
+	rpcIssued()
+	{
+		rpcs_issued++;
+
+		if ( rpcs_in_flight > rpcs_peak ){
+
+			rpcs_peak = rpcs_in_flight;
+		}
+	}
+
+	public synchronized long[]
+	getStats()
+	{
+		long[]	result = new long[ DHTControlStats.LS_COUNT ];
+
+		long	started			= 0;
+		long	completed		= 0;
+		long	total_wait		= 0;
+		long	total_latency	= 0;
+
+		for ( Lane lane: lanes ){
+
+			result[ DHTControlStats.LS_QUEUED ]			+= lane.queued_high.size() + lane.queued_normal.size();
+			result[ DHTControlStats.LS_ACTIVE ]			+= lane.active;
+			result[ DHTControlStats.LS_MAX_QUEUE_MILLIS ]	= Math.max( result[ DHTControlStats.LS_MAX_QUEUE_MILLIS ], lane.max_wait );
+			result[ DHTControlStats.LS_MAX_LATENCY_MILLIS ]	= Math.max( result[ DHTControlStats.LS_MAX_LATENCY_MILLIS ], lane.max_latency );
+
+			started			+= lane.started;
+			completed		+= lane.completed;
+			total_wait		+= lane.total_wait;
+			total_latency	+= lane.total_latency;
+		}
+
+		result[ DHTControlStats.LS_COMPLETED ]			= completed;
+		result[ DHTControlStats.LS_AVG_QUEUE_MILLIS ]	= started==0?0:total_wait/started;
+		result[ DHTControlStats.LS_AVG_LATENCY_MILLIS ]	= completed==0?0:total_latency/completed;
+		result[ DHTControlStats.LS_RPCS_IN_FLIGHT ]		= rpcs_in_flight;
+		result[ DHTControlStats.LS_RPCS_PEAK ]			= rpcs_peak;
+		result[ DHTControlStats.LS_RPCS_ISSUED ]		= rpcs_issued;
+		result[ DHTControlStats.LS_RPC_WAITS ]			= rpc_waits;
+
+		return( result );
+	}
+
+	public synchronized String
+	getString()
+	{
+		String	str = "rpcs=" + rpcs_in_flight + "/" + max_rpcs + ",peak=" + rpcs_peak + ",issued=" + rpcs_issued +
+						",waits=" + rpc_waits + ",waiting=" + permit_waiters.size();
+
+		for ( Lane lane: lanes ){
+
+			str += "; " + lane.getStringSupport();
+		}
+
+		return( str );
+	}
+
+	public class
+	Lane
+	{
+		private final String	name;
+
+		private int		max_active;
+		private int		active;
+		private int		peak_active;
+
+		private final LinkedList<Lookup>	queued_high		= new LinkedList<Lookup>();
+		private final LinkedList<Lookup>	queued_normal	= new LinkedList<Lookup>();
+
+		private final Map<Lookup,long[]>	times	= new HashMap<Lookup,long[]>();
+
+		private long	started;
+		private long	completed;
+		private long	total_wait;
+		private long	max_wait;
+		private long	total_latency;
+		private long	max_latency;
+
+		private
+		Lane(
+			String		_name,
+			int			_max_active )
+		{
+			name		= _name;
+			max_active	= Math.max( 1, _max_active );
+		}
+
+		public void
+		queue(
+			Lookup		lookup,
+			boolean		high_priority )
+		{
+			synchronized( DHTControlLookupScheduler.this ){
+
+				times.put( lookup, new long[]{ SystemTime.getMonotonousTime(), -1 });
+
+				if ( high_priority ){
+
+					queued_high.add( lookup );
+
+				}else{
+
+					queued_normal.add( lookup );
+				}
+			}
+
+			startQueued();
+		}
+
+		public boolean
+		isQueued(
+			Lookup		lookup )
+		{
+			synchronized( DHTControlLookupScheduler.this ){
+
+				long[]	t = times.get( lookup );
+
+				return( t != null && t[1] < 0 );
+			}
+		}
+
+		public void
+		completed(
+			Lookup		lookup )
+		{
+			synchronized( DHTControlLookupScheduler.this ){
+
+				long[]	t = times.remove( lookup );
+
+				if ( t == null || t[1] < 0 ){
+
+					return;
+				}
+
+				active--;
+
+				long	now = SystemTime.getMonotonousTime();
+
+				long	latency = Math.max( 0, now - t[1] );
+
+				completed++;
+
+				total_latency	+= latency;
+				max_latency		= Math.max( max_latency, latency );
+			}
+
+			startQueued();
+		}
+
+		public void
+		setMaxActive(
+			int		max )
+		{
+			synchronized( DHTControlLookupScheduler.this ){
+
+				max_active = Math.max( 1, max );
+			}
+
+			startQueued();
+		}
+
+		private void
+		startQueued()
+		{
+			List<Lookup>	to_start = null;
+
+			synchronized( DHTControlLookupScheduler.this ){
+
+				while( active < max_active ){
+
+					Lookup	next = queued_high.isEmpty()?queued_normal.poll():queued_high.poll();
+
+					if ( next == null ){
+
+						break;
+					}
+
+					long[]	t = times.get( next );
+
+					long	now = SystemTime.getMonotonousTime();
+
+					long	wait = Math.max( 0, now - t[0] );
+
+					t[1] = now;
+
+					total_wait	+= wait;
+					max_wait	= Math.max( max_wait, wait );
+
+					active++;
+					started++;
+
+					if ( active > peak_active ){
+
+						peak_active = active;
+					}
+
+					if ( to_start == null ){
+
+						to_start = new ArrayList<Lookup>();
+					}
+
+					to_start.add( next );
+				}
+			}
+
+			if ( to_start != null ){
+
+				for ( final Lookup lookup: to_start ){
+
+					dispatcher.dispatch(
+						new AERunnable()
+						{
+							public void
+							runSupport()
+							{
+								lookup.lookupStarted();
+							}
+						});
+				}
+			}
+		}
+
+		private String
+		getStringSupport()
+		{
+			return( name + ":active=" + active + "/" + max_active + ",peak=" + peak_active + ",queued=" + ( queued_high.size() + queued_normal.size()) +
+					",started=" + started + ",done=" + completed +
+					",wait=" + ( started==0?0:total_wait/started ) + "/" + max_wait +
+					",lat=" + ( completed==0?0:total_latency/completed ) + "/" + max_latency );
+		}
+	}
+}
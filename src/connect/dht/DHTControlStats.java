@@ -27,6 +27,31 @@ package connect.dht;
 public interface 
 DHTControlStats 
 {
+	public static final int	LS_QUEUED				= 0;
+	public static final int	LS_ACTIVE				= 1;
+	public static final int	LS_COMPLETED			= 2;
+	public static final int	LS_AVG_QUEUE_MILLIS		= 3;
+	public static final int	LS_MAX_QUEUE_MILLIS		= 4;
+	public static final int	LS_AVG_LATENCY_MILLIS	= 5;
+	public static final int	LS_MAX_LATENCY_MILLIS	= 6;
+	public static final int	LS_RPCS_IN_FLIGHT		= 7;
+	public static final int	LS_RPCS_PEAK			= 8;
+	public static final int	LS_RPCS_ISSUED			= 9;
+	public static final int	LS_RPC_WAITS			= 10;
+	
+	public static final int	LS_COUNT				= 11;
+	
+	public static final int	LH_XOR_HOPS				= 0;
+	public static final int	LH_XOR_FAILED			= 1;
+	public static final int	LH_XOR_AVG_MILLIS		= 2;
+	public static final int	LH_PROXIMITY_HOPS		= 3;
+	public static final int	LH_PROXIMITY_FAILED		= 4;
+	public static final int	LH_PROXIMITY_AVG_MILLIS	= 5;
+	public static final int	LH_PROXIMITY_OVERRIDES	= 6;
+	public static final int	LH_SOFT_TIMEOUTS		= 7;
+	
+	public static final int	LH_COUNT				= 8;
+	
 		/**
 		 * Uptime of the latest router instance
 		 * @return
@@ -45,4 +70,29 @@ DHTControlStats
 	
 	public long
 	getEstimatedDHTSize();
+	
+		/**
+		 * returns asynchronous lookup metrics, indexed by the LS_ constants
+		 * lookups queued awaiting admission
+		 * lookups active
+		 * lookups completed
+		 * average and max time queued before admission (millis)
+		 * average and max lookup latency once admitted (millis)
+		 * find-node/find-value RPCs in flight, peak in flight, total issued
+		 * number of times a lookup had to wait for an RPC permit
+		 */
+	
+	public long[]
+	getLookupStats();
+	
+		/**
+		 * returns lookup hop (find-node/find-value RPC) metrics, indexed by the LH_ constants,
+		 * split by whether the lookup used XOR-only or proximity routing
+		 * hops completed, hops failed (including timeouts), average reply latency (millis)
+		 * number of times proximity routing picked a contact other than the XOR closest
+		 * failed hops that were adaptive (predicted rtt) timeouts and so didn't count against the contact
+		 */
+	
+	public long[]
+	getLookupHopStats();
 }
@@ -52,6 +52,10 @@ DHTControlStatsImpl
 	private Average	bytes_in_average 		= Average.getInstance(UPDATE_INTERVAL, UPDATE_PERIOD );
 	private Average	bytes_out_average 		= Average.getInstance(UPDATE_INTERVAL, UPDATE_PERIOD );
 
+	private final long[]		hop_stats			= new long[ LH_COUNT ];
+	private long				xor_hop_millis;
+	private long				proximity_hop_millis;
+	
 	private DHTTransportStats	transport_snapshot;
 	private long[]				router_snapshot;
 	private int[]				value_details_snapshot;
@@ -299,6 +303,71 @@ DHTControlStatsImpl
 		return( control.getEstimatedDHTSize());
 	}
 	
+	public long[]
+	getLookupStats()
+	{
+		return( control.getLookupScheduler().getStats());
+	}
+	
+	protected void
+	lookupHopComplete(
+		boolean		proximity,
+		boolean		ok,
+		long		millis )
+	{
+		synchronized( hop_stats ){
+			
+			if ( !ok ){
+				
+				hop_stats[ proximity?LH_PROXIMITY_FAILED:LH_XOR_FAILED ]++;
+				
+			}else if ( proximity ){
+				
+				hop_stats[ LH_PROXIMITY_HOPS ]++;
+				
+				proximity_hop_millis += millis;
+				
+			}else{
+				
+				hop_stats[ LH_XOR_HOPS ]++;
+				
+				xor_hop_millis += millis;
+			}
+		}
+	}
+	
+	protected void
+	lookupSoftTimeout()
+	{
+		synchronized( hop_stats ){
+			
+			hop_stats[ LH_SOFT_TIMEOUTS ]++;
+		}
+	}
+	
+	protected void
+	lookupProximityOverride()
+	{
+		synchronized( hop_stats ){
+			
+			hop_stats[ LH_PROXIMITY_OVERRIDES ]++;
+		}
+	}
+	
+	public long[]
+	getLookupHopStats()
+	{
+		synchronized( hop_stats ){
+			
+			long[]	result = hop_stats.clone();
+			
+			result[ LH_XOR_AVG_MILLIS ]			= result[ LH_XOR_HOPS ]==0?0:xor_hop_millis/result[ LH_XOR_HOPS ];
+			result[ LH_PROXIMITY_AVG_MILLIS ]	= result[ LH_PROXIMITY_HOPS ]==0?0:proximity_hop_millis/result[ LH_PROXIMITY_HOPS ];
+			
+			return( result );
+		}
+	}
+	
 	public String
 	getString()
 	{
@@ -331,6 +400,17 @@ DHTControlStatsImpl
 				getDBKeysBlocked()+ 
 				",version:" + getVersion()+","+
 				getRouterUptime() + ","+
-				getRouterCount());
+				getRouterCount() +
+				",hops:" + getHopString());
+	}
+	
+	protected String
+	getHopString()
+	{
+		long[]	hs = getLookupHopStats();
+		
+		return( "xor=" + hs[LH_XOR_HOPS] + "/" + hs[LH_XOR_FAILED] + "/" + hs[LH_XOR_AVG_MILLIS] + "ms" +
+				",prox=" + hs[LH_PROXIMITY_HOPS] + "/" + hs[LH_PROXIMITY_FAILED] + "/" + hs[LH_PROXIMITY_AVG_MILLIS] + "ms" +
+				",over=" + hs[LH_PROXIMITY_OVERRIDES] + ",soft=" + hs[LH_SOFT_TIMEOUTS] );
 	}
 }
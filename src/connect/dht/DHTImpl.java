@@ -95,6 +95,7 @@ DHTImpl
 		int		c_n 	= getProp( PR_CACHE_AT_CLOSEST_N, 			DHTControl.CACHE_AT_CLOSEST_N_DEFAULT );
 		boolean	e_c 	= getProp( PR_ENCODE_KEYS, 					DHTControl.ENCODE_KEYS_DEFAULT ) == 1;
 		boolean	r_p 	= getProp( PR_ENABLE_RANDOM_LOOKUP, 		DHTControl.ENABLE_RANDOM_DEFAULT ) == 1;
+		boolean	p_r		= getProp( PR_ENABLE_PROXIMITY_ROUTING, 	DHTControl.PROXIMITY_ROUTING_DEFAULT ) == 1;
 		
 		control = DHTControlFactory.create( 
 				new DHTControlAdapter()
@@ -175,6 +176,8 @@ DHTImpl
 				o_rep, c_rep, c_n, e_c, r_p,
 				logger );
 		
+		control.setProximityRouting( p_r );
+		
 		if ( nat_adapter != null ){
 			
 			nat_puncher	= DHTNATPuncherFactory.create( nat_adapter, this );
@@ -210,6 +213,7 @@ DHTImpl
 		int		c_n 	= getProp( PR_CACHE_AT_CLOSEST_N, 			DHTControl.CACHE_AT_CLOSEST_N_DEFAULT );
 		boolean	e_c 	= getProp( PR_ENCODE_KEYS, 					DHTControl.ENCODE_KEYS_DEFAULT ) == 1;
 		boolean	r_p 	= getProp( PR_ENABLE_RANDOM_LOOKUP, 		DHTControl.ENABLE_RANDOM_DEFAULT ) == 1;
+		boolean	p_r		= getProp( PR_ENABLE_PROXIMITY_ROUTING, 	DHTControl.PROXIMITY_ROUTING_DEFAULT ) == 1;
 		
 		control = DHTControlFactory.create( 
 				new DHTControlAdapter()
@@ -291,6 +295,8 @@ DHTImpl
 				s_conc, l_conc, 
 				o_rep, c_rep, c_n, e_c, r_p,
 				logger );
+		
+		control.setProximityRouting( p_r );
 	}
 	
 	public void 
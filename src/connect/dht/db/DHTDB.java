@@ -19,6 +19,9 @@
 
 package connect.dht.db;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 
@@ -123,6 +126,55 @@ DHTDB
 		DHTTransportContact 	sender,
 		HashWrapper				key );
 	
+		/**
+		 * Writes the values held on behalf of other nodes for a subsequent importValues. Locally
+		 * originated values are excluded as their owners republish them
+		 * @param max	maximum values to write, 0 -> all
+		 * @return number written
+		 */
+	
+	public int
+	exportValues(
+		DataOutputStream	os,
+		int					max )
+	
+		throws IOException;
+	
+		/**
+		 * Writes, in the exportValues format, the current values of every key whose values held
+		 * for other nodes have changed since the last export of either kind. A key with no values
+		 * has been removed
+		 * @return number of keys written, -1 if too many have changed to track and a full
+		 * exportValues is required (nothing is written)
+		 */
+	
+	public int
+	exportModifiedValues(
+		DataOutputStream	os )
+	
+		throws IOException;
+	
+		/**
+		 * @param is		a full export
+		 * @param changes	subsequent exportModifiedValues output, oldest first
+		 * @return number of values imported
+		 */
+	
+	public int
+	importValues(
+		DataInputStream			is,
+		List<DataInputStream>	changes )
+	
+		throws IOException;
+	
+		/**
+		 * @return a counter that changes whenever a value held for another node is added, updated
+		 * or removed
+		 */
+	
+	public long
+	getModificationCount();
+	
 	public DHTStorageBlock
 	keyBlockRequest(
 		DHTTransportContact		direct_sender,
@@ -24,6 +24,7 @@ import connect.dht.db.DHTDB;
 import connect.dht.db.DHTDBStats;
 import connect.dht.db.DHTDBValue;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.*;
 
@@ -54,7 +55,9 @@ import connect.dht.DHTStorageKeyStats;
 import connect.dht.DHTLog;
 import connect.dht.router.DHTRouter;
 import connect.dht.DHTControl;
+import connect.dht.transport.DHTTransport;
 import connect.dht.transport.DHTTransportContact;
+import connect.dht.transport.DHTTransportException;
 import connect.dht.transport.DHTTransportQueryStoreReply;
 import connect.dht.transport.DHTTransportReplyHandlerAdapter;
 import connect.dht.transport.DHTTransportValue;
@@ -103,9 +106,34 @@ DHTDBImpl
 	protected static final int		QUERY_STORE_REQUEST_ENTRY_SIZE	= 6;
 	protected static final int		QUERY_STORE_REPLY_ENTRY_SIZE	= 2;
 
-	private Map<HashWrapper,DHTDBMapping>				stored_values 				= new HashMap<HashWrapper,DHTDBMapping>();
+	private DHTDBMappingStore							stored_values 				= new DHTDBMappingStore();
 	private Map<DHTDBMapping.ShortHash,DHTDBMapping>	stored_values_prefix_map	= new HashMap<DHTDBMapping.ShortHash,DHTDBMapping>();
 
+	private long	evictions;
+
+	private final DHTDBMappingStore.EvictionFilter	eviction_filter =
+		new DHTDBMappingStore.EvictionFilter()
+		{
+			public boolean
+			isEvictable(
+				DHTDBMapping	mapping )
+			{
+					// never drop our own values
+
+				Iterator<DHTDBValueImpl>	it = mapping.getDirectValues();
+
+				while( it.hasNext()){
+
+					if ( it.next().isLocal()){
+
+						return( false );
+					}
+				}
+
+				return( true );
+			}
+		};
+
 	private DHTControl				control;
 	private DHTStorageAdapter		adapter;
 	private DHTRouter				router;
@@ -114,11 +142,33 @@ DHTDBImpl
 
 	private static final long	MAX_TOTAL_SIZE	= 4*1024*1024;
 
+		// bound on the estimated heap footprint of the store. Values are tiny (often zero length) so
+		// their byte count alone says little - each value and key carries its own object overhead
+
+	private static final long	MAX_TOTAL_MEMORY			= 32*1024*1024;
+	private static final int	VALUE_OVERHEAD_ESTIMATE		= 160;
+	private static final int	MAPPING_OVERHEAD_ESTIMATE	= 200;
+
+		// cached mappings idle for at least this long may be evicted to make room
+
+	private static final long	EVICTION_MIN_IDLE			= 30*60*1000;
+	private static final int	EVICTION_SAMPLES			= 16;
+	private static final int	EVICTION_MAX_PER_STORE		= 4;
+
+	private static final int	REPUBLISH_BATCH_SIZE		= 512;
+
 	private int		total_size;
 	private int		total_values;
 	private int		total_keys;
 	private int		total_local_keys;
 
+	private static final int	MAX_MODIFIED_KEYS	= 8192;
+
+	private final Set<HashWrapper>	modified_keys = new HashSet<HashWrapper>();
+
+	private boolean	modified_overflow	= true;
+	private long	modification_count;
+
 
 	private boolean force_original_republish;
 
@@ -336,7 +386,7 @@ DHTDBImpl
 
 			survey_state.clear();
 
-			Iterator<DHTDBMapping>	it = stored_values.values().iterator();
+			Iterator<DHTDBMapping>	it = stored_values.values();
 
 			while( it.hasNext()){
 
@@ -475,6 +525,13 @@ DHTDBImpl
 
 			checkCacheExpiration( false );
 
+			if ( getMemoryEstimate() > MAX_TOTAL_MEMORY && !evictIdleMappings()){
+
+				DHTLog.log( "Not storing " + DHTLog.getString2(key.getHash()) + " as memory limit exceeded" );
+
+				return( DHT.DT_SIZE );
+			}
+
 			DHTDBMapping	mapping = (DHTDBMapping)stored_values.get( key );
 
 			if ( mapping == null ){
@@ -777,7 +834,7 @@ DHTDBImpl
 
 			int[]	res = new int[6];
 
-			Iterator<DHTDBMapping>	it = stored_values.values().iterator();
+			Iterator<DHTDBMapping>	it = stored_values.values();
 
 			while( it.hasNext()){
 
@@ -838,7 +895,7 @@ DHTDBImpl
 		try{
 			this_mon.enter();
 
-			return( new ArrayList<HashWrapper>( stored_values.keySet()).iterator());
+			return( stored_values.getKeys().iterator());
 
 		}finally{
 
@@ -846,85 +903,532 @@ DHTDBImpl
 		}
 	}
 
-	protected int
-	republishOriginalMappings()
+	public long
+	getModificationCount()
 	{
-		if ( suspended ){
+		synchronized( modified_keys ){
 
-			logger.log( "Original republish skipped as suspended" );
+			return( modification_count );
+		}
+	}
 
-			return( 0 );
+		/**
+		 * Called by mappings when a value held for another node is added, updated or removed, or
+		 * when the mapping is discarded
+		 */
+
+	protected void
+	mappingModified(
+		DHTDBMapping	mapping )
+	{
+		synchronized( modified_keys ){
+
+			modification_count++;
+
+			if ( !modified_overflow ){
+
+				modified_keys.add( mapping.getKey());
+
+				if ( modified_keys.size() > MAX_MODIFIED_KEYS ){
+
+						// a full export is cheaper than tracking all of these
+
+					modified_overflow = true;
+
+					modified_keys.clear();
+				}
+			}
 		}
+	}
 
-		int	values_published	= 0;
+	public int
+	exportValues(
+		DataOutputStream	os,
+		int					max )
 
-		Map<HashWrapper,List<DHTDBValueImpl>>	republish = new HashMap<HashWrapper,List<DHTDBValueImpl>>();
+		throws IOException
+	{
+			// everything goes out so start tracking changes afresh. Anything modified during the
+			// export is picked up again by the next exportModifiedValues
 
-		try{
-			this_mon.enter();
+		synchronized( modified_keys ){
 
-			Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it = stored_values.entrySet().iterator();
+			modified_keys.clear();
 
-			while( it.hasNext()){
+			modified_overflow = false;
+		}
 
-				Map.Entry<HashWrapper,DHTDBMapping>	entry = it.next();
+		DHTDBMappingStore.Cursor	cursor = new DHTDBMappingStore.Cursor();
 
-				HashWrapper		key		= (HashWrapper)entry.getKey();
+		boolean	more	= true;
+		int		written	= 0;
 
-				DHTDBMapping	mapping	= (DHTDBMapping)entry.getValue();
+		List<DHTDBMapping>		batch		= new ArrayList<DHTDBMapping>( REPUBLISH_BATCH_SIZE );
+		List<Object[]>			to_write	= new ArrayList<Object[]>( REPUBLISH_BATCH_SIZE );
 
-				Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
+		while( more && ( max <= 0 || written < max )){
 
-				List<DHTDBValueImpl>	values = new ArrayList<DHTDBValueImpl>();
+				// gather a batch under the monitor but do the i/o without it
 
-				while( it2.hasNext()){
+			batch.clear();
+			to_write.clear();
 
-					DHTDBValueImpl	value = it2.next();
+			try{
+				this_mon.enter();
 
-					if ( value != null && value.isLocal()){
+				more = stored_values.getMappings( cursor, REPUBLISH_BATCH_SIZE, batch );
 
-						// we're republising the data, reset the creation time
+				for ( DHTDBMapping mapping: batch ){
 
-						value.setCreationTime();
+					List<DHTDBValueImpl>	values = getExportableValues( mapping );
 
-						values.add( value );
+					if ( values.size() > 0 ){
+
+						to_write.add( new Object[]{ mapping.getKey(), values });
 					}
 				}
+			}finally{
 
-				if ( values.size() > 0 ){
+				this_mon.exit();
+			}
 
-					republish.put( key, values );
+			for ( Object[] entry: to_write ){
+
+				List<DHTDBValueImpl>	values	= (List<DHTDBValueImpl>)entry[1];
+
+				int	num = values.size();
 
+				if ( max > 0 ){
+
+					num = Math.min( num, max - written );
+				}
+
+				written += writeValues( os, (HashWrapper)entry[0], values, num );
+
+				if ( max > 0 && written >= max ){
+
+					break;
 				}
 			}
+		}
+
+			// terminator
+
+		os.writeShort( 0xffff );
+
+		return( written );
+	}
+
+	public int
+	exportModifiedValues(
+		DataOutputStream	os )
+
+		throws IOException
+	{
+		List<HashWrapper>	keys;
+
+		synchronized( modified_keys ){
+
+			if ( modified_overflow ){
+
+				return( -1 );
+			}
+
+			keys = new ArrayList<HashWrapper>( modified_keys );
+
+			modified_keys.clear();
+		}
+
+		List<Object[]>	to_write = new ArrayList<Object[]>( REPUBLISH_BATCH_SIZE );
+
+		for ( int start=0;start<keys.size();start+=REPUBLISH_BATCH_SIZE ){
+
+			to_write.clear();
+
+			try{
+				this_mon.enter();
+
+				for ( HashWrapper key: keys.subList( start, Math.min( keys.size(), start + REPUBLISH_BATCH_SIZE ))){
+
+					DHTDBMapping	mapping = stored_values.peek( key );
+
+						// no values -> the key has gone
+
+					to_write.add( new Object[]{ key, mapping==null?new ArrayList<DHTDBValueImpl>():getExportableValues( mapping )});
+				}
+			}finally{
+
+				this_mon.exit();
+			}
+
+			for ( Object[] entry: to_write ){
+
+				List<DHTDBValueImpl>	values	= (List<DHTDBValueImpl>)entry[1];
+
+				writeValues( os, (HashWrapper)entry[0], values, values.size());
+			}
+		}
+
+		os.writeShort( 0xffff );
+
+		return( keys.size());
+	}
+
+	private List<DHTDBValueImpl>
+	getExportableValues(
+		DHTDBMapping	mapping )
+	{
+		List<DHTDBValueImpl>	values = new ArrayList<DHTDBValueImpl>();
+
+		Iterator<DHTDBValueImpl>	it = mapping.getValues();
+
+		while( it.hasNext()){
+
+			DHTDBValueImpl	value = it.next();
+
+				// local values are republished by their owners on restart
+
+			if ( !value.isLocal()){
+
+				values.add( value );
+			}
+		}
+
+		return( values );
+	}
+
+	private int
+	writeValues(
+		DataOutputStream		os,
+		HashWrapper				hw,
+		List<DHTDBValueImpl>	values,
+		int						num )
+
+		throws IOException
+	{
+		byte[]	key = hw.getBytes();
+
+		num = Math.min( num, 65535 );
+
+		os.writeShort( key.length );
+		os.write( key );
+		os.writeShort( num );
+
+		for ( int i=0;i<num;i++){
+
+			DHTDBValueImpl	value = values.get(i);
+
+			try{
+				value.getOriginator().exportContact( os );
+				value.getSender().exportContact( os );
+
+			}catch( DHTTransportException e ){
+
+				throw( new IOException( e.getMessage()));
+			}
+
+			byte[]	bytes = value.getValue();
+
+			os.writeLong( value.getCreationTime());
+			os.writeInt( value.getVersion());
+			os.writeByte( value.getFlags());
+			os.writeByte( value.getLifeTimeHours());
+			os.writeByte( value.getReplicationControl());
+			os.writeShort( bytes.length );
+			os.write( bytes );
+		}
+
+		return( num );
+	}
+
+	public int
+	importValues(
+		DataInputStream			is,
+		List<DataInputStream>	changes )
+
+		throws IOException
+	{
+		DHTTransport	transport = control.getTransport();
+
+			// the latest change for each key supersedes whatever the full export had for it
+
+		Map<HashWrapper,List<DHTDBValueImpl>>	changed = new LinkedHashMap<HashWrapper,List<DHTDBValueImpl>>();
+
+		for ( DataInputStream cis: changes ){
+
+			while( true ){
+
+				Object[]	entry = readValues( cis, transport );
+
+				if ( entry == null ){
+
+					break;
+				}
+
+				changed.put((HashWrapper)entry[0], (List<DHTDBValueImpl>)entry[1] );
+			}
+		}
+
+		int	imported	= 0;
+		int	skipped		= 0;
+
+		while( true ){
+
+			Object[]	entry = readValues( is, transport );
+
+			if ( entry == null ){
+
+				break;
+			}
+
+			HashWrapper	key = (HashWrapper)entry[0];
+
+			if ( !changed.containsKey( key )){
+
+				int	num = addImportedValues( key, (List<DHTDBValueImpl>)entry[1] );
+
+				if ( num < 0 ){
+
+					skipped -= num;
+
+				}else{
+
+					imported += num;
+				}
+			}
+		}
+
+		for ( Map.Entry<HashWrapper,List<DHTDBValueImpl>> entry: changed.entrySet()){
+
+			int	num = addImportedValues( entry.getKey(), entry.getValue());
+
+			if ( num < 0 ){
+
+				skipped -= num;
+
+			}else{
+
+				imported += num;
+			}
+		}
+
+			// what we hold now matches what was exported
+
+		synchronized( modified_keys ){
+
+			modified_keys.clear();
+
+			modified_overflow = false;
+		}
+
+			// anything that expired while we were down goes now
+
+		checkCacheExpiration( true );
+
+		logger.log( "Imported " + imported + " values" + ( skipped==0?"":( ", skipped " + skipped + " (storage limit)" )));
+
+		return( imported );
+	}
+
+		/**
+		 * @return key and values of the next entry, null at the terminator
+		 */
+
+	private Object[]
+	readValues(
+		DataInputStream		is,
+		DHTTransport		transport )
+
+		throws IOException
+	{
+		int	key_len = is.readUnsignedShort();
+
+		if ( key_len == 0xffff ){
+
+			return( null );
+		}
+
+		byte[]	key = new byte[key_len];
+
+		is.readFully( key );
+
+		int	num = is.readUnsignedShort();
+
+		List<DHTDBValueImpl>	values = new ArrayList<DHTDBValueImpl>( num );
+
+		for ( int i=0;i<num;i++){
+
+			DHTTransportContact	originator;
+			DHTTransportContact	sender;
+
+			try{
+				originator	= transport.readContact( is );
+				sender		= transport.readContact( is );
+
+			}catch( DHTTransportException e ){
+
+				throw( new IOException( e.getMessage()));
+			}
+
+			long	creation_time	= is.readLong();
+			int		version			= is.readInt();
+			int		flags			= is.readByte()&0xff;
+			int		life_hours		= is.readByte()&0xff;
+			byte	rep_control		= is.readByte();
+
+			byte[]	bytes = new byte[ is.readUnsignedShort()];
+
+			is.readFully( bytes );
+
+			values.add( new DHTDBValueImpl( creation_time, bytes, version, originator, sender, false, flags, life_hours, rep_control ));
+		}
+
+		return( new Object[]{ new HashWrapper( key ), values });
+	}
+
+		/**
+		 * @return number of values added, negated if they were skipped due to storage limits
+		 */
+
+	private int
+	addImportedValues(
+		HashWrapper				hw,
+		List<DHTDBValueImpl>	values )
+	{
+		if ( values.isEmpty()){
+
+			return( 0 );
+		}
+
+		try{
+			this_mon.enter();
+
+			if ( getMemoryEstimate() > MAX_TOTAL_MEMORY || total_size > MAX_TOTAL_SIZE ){
+
+				return( -values.size());
+			}
+
+			DHTDBMapping	mapping = stored_values.get( hw );
+
+			if ( mapping == null ){
+
+				mapping = new DHTDBMapping( this, hw, false );
+
+				stored_values.put( hw, mapping );
+
+				addToPrefixMap( mapping );
+			}
+
+			for ( DHTDBValueImpl value: values ){
+
+				mapping.add( value );
+			}
+
+			return( values.size());
+
 		}finally{
 
 			this_mon.exit();
 		}
+	}
 
-		Iterator<Map.Entry<HashWrapper,List<DHTDBValueImpl>>>	it = republish.entrySet().iterator();
+	protected int
+	republishOriginalMappings()
+	{
+		if ( suspended ){
+
+			logger.log( "Original republish skipped as suspended" );
+
+			return( 0 );
+		}
+
+		int	values_published	= 0;
+
+		int key_tot;
+
+		try{
+			this_mon.enter();
+
+			key_tot = stored_values.size();
+
+		}finally{
+
+			this_mon.exit();
+		}
 
-		int key_tot	= republish.size();
 		int	key_num = 0;
 
-		while( it.hasNext()){
+			// walk the store a batch at a time rather than materialising all local values up front
 
-			key_num++;
+		List<DHTDBMapping>		batch		= new ArrayList<DHTDBMapping>( REPUBLISH_BATCH_SIZE );
+		List<Object[]>			republish	= new ArrayList<Object[]>();
 
-			Map.Entry<HashWrapper,List<DHTDBValueImpl>>	entry = it.next();
+		DHTDBMappingStore.Cursor	cursor = new DHTDBMappingStore.Cursor();
 
-			HashWrapper			key		= (HashWrapper)entry.getKey();
+		boolean	more = true;
 
-			List<DHTDBValueImpl>		values	= entry.getValue();
+		while( more ){
 
-				// no point in worry about multi-value puts here as it is extremely unlikely that
-				// > 1 value will locally stored, or > 1 value will go to the same contact
+			batch.clear();
+			republish.clear();
 
-			for (int i=0;i<values.size();i++){
+			try{
+				this_mon.enter();
+
+				more = stored_values.getMappings( cursor, REPUBLISH_BATCH_SIZE, batch );
+
+				for ( DHTDBMapping mapping: batch ){
+
+					Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
+
+					List<DHTDBValueImpl>	values = null;
+
+					while( it2.hasNext()){
+
+						DHTDBValueImpl	value = it2.next();
+
+						if ( value != null && value.isLocal()){
 
-				values_published++;
+							// we're republising the data, reset the creation time
 
-				control.putEncodedKey( key.getHash(), "Republish orig: " + key_num + " of " + key_tot, values.get(i), 0, true );
+							value.setCreationTime();
+
+							if ( values == null ){
+
+								values = new ArrayList<DHTDBValueImpl>( 1 );
+							}
+
+							values.add( value );
+						}
+					}
+
+					if ( values != null ){
+
+						republish.add( new Object[]{ mapping.getKey(), values });
+					}
+				}
+			}finally{
+
+				this_mon.exit();
+			}
+
+			for ( Object[] entry: republish ){
+
+				key_num++;
+
+				HashWrapper				key		= (HashWrapper)entry[0];
+
+				List<DHTDBValueImpl>	values	= (List<DHTDBValueImpl>)entry[1];
+
+					// no point in worry about multi-value puts here as it is extremely unlikely that
+					// > 1 value will locally stored, or > 1 value will go to the same contact
+
+				for (int i=0;i<values.size();i++){
+
+					values_published++;
+
+					control.putEncodedKey( key.getHash(), "Republish orig: " + key_num + " of " + key_tot, values.get(i), 0, true );
+				}
 			}
 		}
 
@@ -946,368 +1450,387 @@ DHTDBImpl
 
 		router.refreshIdleLeaves( cache_republish_interval );
 
-		final Map<HashWrapper,List<DHTDBValueImpl>>	republish = new HashMap<HashWrapper,List<DHTDBValueImpl>>();
+		long	now = System.currentTimeMillis();
 
-		List<DHTDBMapping>	republish_via_survey = new ArrayList<DHTDBMapping>();
+		final int[]	values_published	= {0};
+		final int[]	keys_published		= {0};
+		final int[]	republish_ops		= {0};
 
-		long	now = System.currentTimeMillis();
+		final HashSet<DHTTransportContact>	anti_spoof_done	= new HashSet<DHTTransportContact>();
 
 		try{
 			this_mon.enter();
 
 			checkCacheExpiration( true );
 
-			Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it = stored_values.entrySet().iterator();
+		}finally{
 
-			while( it.hasNext()){
+			this_mon.exit();
+		}
 
-				Map.Entry<HashWrapper,DHTDBMapping>	entry = it.next();
+			// process the store a batch of keys at a time so that we never hold the values to
+			// republish for every key at once. The cost is that a contact close to keys in more
+			// than one batch gets a store per batch rather than a single one
 
-				HashWrapper			key		= entry.getKey();
+		List<DHTDBMapping>	batch	= new ArrayList<DHTDBMapping>( REPUBLISH_BATCH_SIZE );
 
-				DHTDBMapping		mapping	= entry.getValue();
+		DHTDBMappingStore.Cursor	cursor = new DHTDBMappingStore.Cursor();
 
-					// assume that if we've diversified then the other k-1 locations are under similar
-					// stress and will have done likewise - no point in republishing cache values to them
-					// New nodes joining will have had stuff forwarded to them regardless of diversification
-					// status
+		boolean	more = true;
 
-				if ( mapping.getDiversificationType() != DHT.DT_NONE ){
+		while( more ){
 
-					continue;
-				}
+			final Map<HashWrapper,List<DHTDBValueImpl>>	republish = new HashMap<HashWrapper,List<DHTDBValueImpl>>();
 
-				Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
+			List<DHTDBMapping>	republish_via_survey = new ArrayList<DHTDBMapping>();
 
-				boolean	all_rf_values = it2.hasNext();
+			try{
+				this_mon.enter();
 
-				List<DHTDBValueImpl>	values = new ArrayList<DHTDBValueImpl>();
+				batch.clear();
 
-				while( it2.hasNext()){
+				more = stored_values.getMappings( cursor, REPUBLISH_BATCH_SIZE, batch );
 
-					DHTDBValueImpl	value = it2.next();
+				for ( DHTDBMapping mapping: batch ){
 
-					if ( value.isLocal()){
+					HashWrapper	key	= mapping.getKey();
 
-						all_rf_values = false;
+						// assume that if we've diversified then the other k-1 locations are under similar
+						// stress and will have done likewise - no point in republishing cache values to them
+						// New nodes joining will have had stuff forwarded to them regardless of diversification
+						// status
 
-					}else{
+					if ( mapping.getDiversificationType() != DHT.DT_NONE ){
+
+						continue;
+					}
+
+					Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
 
-						if ( value.getReplicationFactor() == DHT.REP_FACT_DEFAULT ){
+					boolean	all_rf_values = it2.hasNext();
+
+					List<DHTDBValueImpl>	values = new ArrayList<DHTDBValueImpl>();
+
+					while( it2.hasNext()){
+
+						DHTDBValueImpl	value = it2.next();
+
+						if ( value.isLocal()){
 
 							all_rf_values = false;
-						}
 
-							// if this value was stored < period ago then we assume that it was
-							// also stored to the other k-1 locations at the same time and therefore
-							// we don't need to re-store it
+						}else{
 
-						if ( now < value.getStoreTime()){
+							if ( value.getReplicationFactor() == DHT.REP_FACT_DEFAULT ){
 
-								// deal with clock changes
+								all_rf_values = false;
+							}
 
-							value.setStoreTime( now );
+								// if this value was stored < period ago then we assume that it was
+								// also stored to the other k-1 locations at the same time and therefore
+								// we don't need to re-store it
 
-						}else if ( now - value.getStoreTime() <= cache_republish_interval ){
+							if ( now < value.getStoreTime()){
 
-							// System.out.println( "skipping store" );
+									// deal with clock changes
 
-						}else{
+								value.setStoreTime( now );
 
-							values.add( value );
+							}else if ( now - value.getStoreTime() <= cache_republish_interval ){
+
+								// System.out.println( "skipping store" );
+
+							}else{
+
+								values.add( value );
+							}
 						}
 					}
-				}
 
-				if ( all_rf_values ){
+					if ( all_rf_values ){
 
-						// if surveying is disabled then we swallow values here to prevent them
-						// from being replicated using the existing technique and muddying the waters
+							// if surveying is disabled then we swallow values here to prevent them
+							// from being replicated using the existing technique and muddying the waters
 
-					values.clear();	// handled by the survey process
+						values.clear();	// handled by the survey process
 
-					republish_via_survey.add( mapping );
-				}
+						republish_via_survey.add( mapping );
+					}
 
-				if ( values.size() > 0 ){
+					if ( values.size() > 0 ){
 
-					republish.put( key, values );
+						republish.put( key, values );
+					}
 				}
-			}
-		}finally{
+			}finally{
 
-			this_mon.exit();
-		}
+				this_mon.exit();
+			}
 
-		if ( republish_via_survey.size() > 0 ){
+			if ( republish_via_survey.size() > 0 ){
 
-				// we still check for being too far away here
+					// we still check for being too far away here
 
-			List<HashWrapper>	stop_caching = new ArrayList<HashWrapper>();
+				List<HashWrapper>	stop_caching = new ArrayList<HashWrapper>();
 
-			for ( DHTDBMapping mapping: republish_via_survey ){
+				for ( DHTDBMapping mapping: republish_via_survey ){
 
-				HashWrapper			key		= mapping.getKey();
+					HashWrapper			key		= mapping.getKey();
 
-				byte[]	lookup_id	= key.getHash();
+					byte[]	lookup_id	= key.getHash();
 
-				List<DHTTransportContact>	contacts = control.getClosestKContactsList( lookup_id, false );
+					List<DHTTransportContact>	contacts = control.getClosestKContactsList( lookup_id, false );
 
-					// if we are no longer one of the K closest contacts then we shouldn't
-					// cache the value
+						// if we are no longer one of the K closest contacts then we shouldn't
+						// cache the value
 
-				boolean	keep_caching	= false;
+					boolean	keep_caching	= false;
 
-				for (int j=0;j<contacts.size();j++){
+					for (int j=0;j<contacts.size();j++){
 
-					if ( router.isID(((DHTTransportContact)contacts.get(j)).getID())){
+						if ( router.isID(((DHTTransportContact)contacts.get(j)).getID())){
 
-						keep_caching	= true;
+							keep_caching	= true;
 
-						break;
+							break;
+						}
 					}
-				}
 
-				if ( !keep_caching ){
+					if ( !keep_caching ){
 
-					DHTLog.log( "Dropping cache entry for " + DHTLog.getString( lookup_id ) + " as now too far away" );
+						DHTLog.log( "Dropping cache entry for " + DHTLog.getString( lookup_id ) + " as now too far away" );
 
-					stop_caching.add( key );
+						stop_caching.add( key );
+					}
 				}
-			}
 
-			if ( stop_caching.size() > 0 ){
+				if ( stop_caching.size() > 0 ){
 
-				try{
-					this_mon.enter();
+					try{
+						this_mon.enter();
 
-					for (int i=0;i<stop_caching.size();i++){
+						for (int i=0;i<stop_caching.size();i++){
 
-						DHTDBMapping	mapping = (DHTDBMapping)stored_values.remove( stop_caching.get(i));
+							DHTDBMapping	mapping = (DHTDBMapping)stored_values.remove( stop_caching.get(i));
 
-						if ( mapping != null ){
+							if ( mapping != null ){
 
-							removeFromPrefixMap( mapping );
+								removeFromPrefixMap( mapping );
 
-							mapping.destroy();
+								mapping.destroy();
+							}
 						}
-					}
-				}finally{
+					}finally{
 
-					this_mon.exit();
+						this_mon.exit();
+					}
 				}
 			}
-		}
 
-		final int[]	values_published	= {0};
-		final int[]	keys_published		= {0};
-		final int[]	republish_ops		= {0};
+			if ( republish.size() > 0 ){
 
-		final HashSet<DHTTransportContact>	anti_spoof_done	= new HashSet<DHTTransportContact>();
+				// System.out.println( "cache replublish" );
 
-		if ( republish.size() > 0 ){
+					// The approach is to refresh all leaves in the smallest subtree, thus populating the tree with
+					// sufficient information to directly know which nodes to republish the values
+					// to.
 
-			// System.out.println( "cache replublish" );
+					// However, I'm going to rely on the "refresh idle leaves" logic above
+					// (that's required to keep the DHT alive in general) to ensure that all
+					// k-buckets are reasonably up-to-date
 
-				// The approach is to refresh all leaves in the smallest subtree, thus populating the tree with
-				// sufficient information to directly know which nodes to republish the values
-				// to.
+				Iterator<Map.Entry<HashWrapper,List<DHTDBValueImpl>>>	it1 = republish.entrySet().iterator();
 
-				// However, I'm going to rely on the "refresh idle leaves" logic above
-				// (that's required to keep the DHT alive in general) to ensure that all
-				// k-buckets are reasonably up-to-date
+				List<HashWrapper>	stop_caching = new ArrayList<HashWrapper>();
 
-			Iterator<Map.Entry<HashWrapper,List<DHTDBValueImpl>>>	it1 = republish.entrySet().iterator();
+					// build a map of contact -> list of keys to republish
 
-			List<HashWrapper>	stop_caching = new ArrayList<HashWrapper>();
+				Map<HashWrapper,Object[]>	contact_map	= new HashMap<HashWrapper,Object[]>();
 
-				// build a map of contact -> list of keys to republish
+				while( it1.hasNext()){
 
-			Map<HashWrapper,Object[]>	contact_map	= new HashMap<HashWrapper,Object[]>();
+					Map.Entry<HashWrapper,List<DHTDBValueImpl>>	entry = it1.next();
 
-			while( it1.hasNext()){
+					HashWrapper			key		= entry.getKey();
 
-				Map.Entry<HashWrapper,List<DHTDBValueImpl>>	entry = it1.next();
+					byte[]	lookup_id	= key.getHash();
 
-				HashWrapper			key		= entry.getKey();
+						// just use the closest contacts - if some have failed then they'll
+						// get flushed out by this operation. Grabbing just the live ones
+						// is a bad idea as failures may rack up against the live ones due
+						// to network problems and kill them, leaving the dead ones!
 
-				byte[]	lookup_id	= key.getHash();
+					List<DHTTransportContact>	contacts = control.getClosestKContactsList( lookup_id, false );
 
-					// just use the closest contacts - if some have failed then they'll
-					// get flushed out by this operation. Grabbing just the live ones
-					// is a bad idea as failures may rack up against the live ones due
-					// to network problems and kill them, leaving the dead ones!
+						// if we are no longer one of the K closest contacts then we shouldn't
+						// cache the value
 
-				List<DHTTransportContact>	contacts = control.getClosestKContactsList( lookup_id, false );
+					boolean	keep_caching	= false;
 
-					// if we are no longer one of the K closest contacts then we shouldn't
-					// cache the value
+					for (int j=0;j<contacts.size();j++){
 
-				boolean	keep_caching	= false;
+						if ( router.isID(((DHTTransportContact)contacts.get(j)).getID())){
 
-				for (int j=0;j<contacts.size();j++){
+							keep_caching	= true;
 
-					if ( router.isID(((DHTTransportContact)contacts.get(j)).getID())){
-
-						keep_caching	= true;
-
-						break;
+							break;
+						}
 					}
-				}
 
-				if ( !keep_caching ){
+					if ( !keep_caching ){
 
-					DHTLog.log( "Dropping cache entry for " + DHTLog.getString( lookup_id ) + " as now too far away" );
+						DHTLog.log( "Dropping cache entry for " + DHTLog.getString( lookup_id ) + " as now too far away" );
 
-					stop_caching.add( key );
+						stop_caching.add( key );
 
-						// we carry on and do one last publish
+							// we carry on and do one last publish
 
-				}
+					}
 
-				for (int j=0;j<contacts.size();j++){
+					for (int j=0;j<contacts.size();j++){
 
-					DHTTransportContact	contact = (DHTTransportContact)contacts.get(j);
+						DHTTransportContact	contact = (DHTTransportContact)contacts.get(j);
 
-					if ( router.isID( contact.getID())){
+						if ( router.isID( contact.getID())){
 
-						continue;	// ignore ourselves
-					}
+							continue;	// ignore ourselves
+						}
 
-					Object[]	data = (Object[])contact_map.get( new HashWrapper(contact.getID()));
+						Object[]	data = (Object[])contact_map.get( new HashWrapper(contact.getID()));
 
-					if ( data == null ){
+						if ( data == null ){
 
-						data	= new Object[]{ contact, new ArrayList<HashWrapper>()};
+							data	= new Object[]{ contact, new ArrayList<HashWrapper>()};
 
-						contact_map.put( new HashWrapper(contact.getID()), data );
-					}
+							contact_map.put( new HashWrapper(contact.getID()), data );
+						}
 
-					((List<HashWrapper>)data[1]).add( key );
+						((List<HashWrapper>)data[1]).add( key );
+					}
 				}
-			}
 
-			Iterator<Object[]> it2 = contact_map.values().iterator();
+				Iterator<Object[]> it2 = contact_map.values().iterator();
 
-			final int	con_tot 	= contact_map.size();
-			int con_num 	= 0;
+				final int	con_tot 	= contact_map.size();
+				int con_num 	= 0;
 
-			while( it2.hasNext()){
+				while( it2.hasNext()){
 
-				con_num++;
+					con_num++;
 
-				final int f_con_num = con_num;
+					final int f_con_num = con_num;
 
-				final Object[]	data = it2.next();
+					final Object[]	data = it2.next();
 
-				final DHTTransportContact	contact = (DHTTransportContact)data[0];
+					final DHTTransportContact	contact = (DHTTransportContact)data[0];
 
-					// move to anti-spoof on cache forwards - gotta do a find-node first
-					// to get the random id
+						// move to anti-spoof on cache forwards - gotta do a find-node first
+						// to get the random id
 
-				final AESemaphore	sem = new AESemaphore( "DHTDB:cacheForward" );
+					final AESemaphore	sem = new AESemaphore( "DHTDB:cacheForward" );
 
-				contact.sendFindNode(
-						new DHTTransportReplyHandlerAdapter()
-						{
-							public void
-							findNodeReply(
-								DHTTransportContact 	_contact,
-								DHTTransportContact[]	_contacts )
+					contact.sendFindNode(
+							new DHTTransportReplyHandlerAdapter()
 							{
-								anti_spoof_done.add( _contact );
+								public void
+								findNodeReply(
+									DHTTransportContact 	_contact,
+									DHTTransportContact[]	_contacts )
+								{
+									anti_spoof_done.add( _contact );
 
-								try{
-									// System.out.println( "cacheForward: pre-store findNode OK" );
+									try{
+										// System.out.println( "cacheForward: pre-store findNode OK" );
 
-									List<HashWrapper>				keys	= (List<HashWrapper>)data[1];
+										List<HashWrapper>				keys	= (List<HashWrapper>)data[1];
 
-									byte[][]				store_keys 		= new byte[keys.size()][];
-									DHTTransportValue[][]	store_values 	= new DHTTransportValue[store_keys.length][];
+										byte[][]				store_keys 		= new byte[keys.size()][];
+										DHTTransportValue[][]	store_values 	= new DHTTransportValue[store_keys.length][];
 
-									keys_published[0] += store_keys.length;
+										keys_published[0] += store_keys.length;
 
-									for (int i=0;i<store_keys.length;i++){
+										for (int i=0;i<store_keys.length;i++){
 
-										HashWrapper	wrapper = keys.get(i);
+											HashWrapper	wrapper = keys.get(i);
 
-										store_keys[i] = wrapper.getHash();
+											store_keys[i] = wrapper.getHash();
 
-										List<DHTDBValueImpl>		values	= republish.get( wrapper );
+											List<DHTDBValueImpl>		values	= republish.get( wrapper );
 
-										store_values[i] = new DHTTransportValue[values.size()];
+											store_values[i] = new DHTTransportValue[values.size()];
 
-										values_published[0] += store_values[i].length;
+											values_published[0] += store_values[i].length;
 
-										for (int j=0;j<values.size();j++){
+											for (int j=0;j<values.size();j++){
 
-											DHTDBValueImpl	value	= values.get(j);
+												DHTDBValueImpl	value	= values.get(j);
 
-												// we reduce the cache distance by 1 here as it is incremented by the
-												// recipients
+													// we reduce the cache distance by 1 here as it is incremented by the
+													// recipients
 
-											store_values[i][j] = value.getValueForRelay(local_contact);
+												store_values[i][j] = value.getValueForRelay(local_contact);
+											}
 										}
-									}
 
-									List<DHTTransportContact>	contacts = new ArrayList<DHTTransportContact>();
+										List<DHTTransportContact>	contacts = new ArrayList<DHTTransportContact>();
 
-									contacts.add( contact );
+										contacts.add( contact );
 
-									republish_ops[0]++;
+										republish_ops[0]++;
 
-									control.putDirectEncodedKeys(
-											store_keys,
-											"Republish cache: " + f_con_num + " of " + con_tot,
-											store_values,
-											contacts );
-								}finally{
+										control.putDirectEncodedKeys(
+												store_keys,
+												"Republish cache: " + f_con_num + " of " + con_tot,
+												store_values,
+												contacts );
+									}finally{
 
-									sem.release();
+										sem.release();
+									}
 								}
-							}
 
-							public void
-							failed(
-								DHTTransportContact 	_contact,
-								Throwable				_error )
-							{
-								try{
-									// System.out.println( "cacheForward: pre-store findNode Failed" );
+								public void
+								failed(
+									DHTTransportContact 	_contact,
+									Throwable				_error )
+								{
+									try{
+										// System.out.println( "cacheForward: pre-store findNode Failed" );
 
-									DHTLog.log( "cacheForward: pre-store findNode failed " + DHTLog.getString( _contact ) + " -> failed: " + _error.getMessage());
+										DHTLog.log( "cacheForward: pre-store findNode failed " + DHTLog.getString( _contact ) + " -> failed: " + _error.getMessage());
 
-									router.contactDead( _contact.getID(), false);
+										router.contactDead( _contact.getID(), false);
 
-								}finally{
+									}finally{
 
-									sem.release();
+										sem.release();
+									}
 								}
-							}
-						},
-						contact.getProtocolVersion() >= DHTTransportUDP.PROTOCOL_VERSION_ANTI_SPOOF2?new byte[0]:new byte[20],
-						DHT.FLAG_LOOKUP_FOR_STORE );
+							},
+							contact.getProtocolVersion() >= DHTTransportUDP.PROTOCOL_VERSION_ANTI_SPOOF2?new byte[0]:new byte[20],
+							DHT.FLAG_LOOKUP_FOR_STORE );
 
-				sem.reserve();
-			}
+					sem.reserve();
+				}
 
-			try{
-				this_mon.enter();
+				try{
+					this_mon.enter();
 
-				for (int i=0;i<stop_caching.size();i++){
+					for (int i=0;i<stop_caching.size();i++){
 
-					DHTDBMapping	mapping = (DHTDBMapping)stored_values.remove( stop_caching.get(i));
+						DHTDBMapping	mapping = (DHTDBMapping)stored_values.remove( stop_caching.get(i));
 
-					if ( mapping != null ){
+						if ( mapping != null ){
 
-						removeFromPrefixMap( mapping );
+							removeFromPrefixMap( mapping );
 
-						mapping.destroy();
+							mapping.destroy();
+						}
 					}
-				}
-			}finally{
+				}finally{
 
-				this_mon.exit();
+					this_mon.exit();
+				}
 			}
 		}
 
@@ -1423,6 +1946,52 @@ DHTDBImpl
 		return( new int[]{ values_published[0], keys_published[0], republish_ops[0] });
 	}
 
+	protected long
+	getMemoryEstimate()
+	{
+		return( 	stored_values.getMemoryUsage() +
+					total_size +
+					(long)total_values * VALUE_OVERHEAD_ESTIMATE +
+					(long)stored_values.size() * MAPPING_OVERHEAD_ESTIMATE );
+	}
+
+		/**
+		 * Evicts least recently used, purely cached, mappings until the store is back under its
+		 * memory limit. Called with the monitor held
+		 * @return true if the store is now under the limit
+		 */
+
+	protected boolean
+	evictIdleMappings()
+	{
+		for (int i=0;i<EVICTION_MAX_PER_STORE;i++){
+
+			DHTDBMapping	mapping = stored_values.getEvictionCandidate( EVICTION_SAMPLES, EVICTION_MIN_IDLE, eviction_filter );
+
+			if ( mapping == null ){
+
+				break;
+			}
+
+			DHTLog.log( "Evicting idle cache entry for " + DHTLog.getString2( mapping.getKey().getHash()));
+
+			stored_values.remove( mapping.getKey());
+
+			removeFromPrefixMap( mapping );
+
+			mapping.destroy();
+
+			evictions++;
+
+			if ( getMemoryEstimate() <= MAX_TOTAL_MEMORY ){
+
+				return( true );
+			}
+		}
+
+		return( getMemoryEstimate() <= MAX_TOTAL_MEMORY );
+	}
+
 	protected void
 	checkCacheExpiration(
 		boolean		force )
@@ -1444,7 +2013,7 @@ DHTDBImpl
 
 			last_cache_expiry_check	= now;
 
-			Iterator<DHTDBMapping>	it = stored_values.values().iterator();
+			Iterator<DHTDBMapping>	it = stored_values.values();
 
 			while( it.hasNext()){
 
@@ -1574,15 +2143,13 @@ DHTDBImpl
 
 			this_mon.enter();
 
-			Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it = stored_values.entrySet().iterator();
+			Iterator<DHTDBMapping>	it = stored_values.values();
 
 			while( it.hasNext()){
 
-				Map.Entry<HashWrapper,DHTDBMapping>	entry = it.next();
-
-				HashWrapper		key		= entry.getKey();
+				DHTDBMapping	mapping = it.next();
 
-				DHTDBMapping	mapping	= entry.getValue();
+				HashWrapper	key	= mapping.getKey();
 
 				Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
 
@@ -1711,7 +2278,7 @@ DHTDBImpl
 				}
 			}
 
-			Iterator<DHTDBMapping>	it = stored_values.values().iterator();
+			Iterator<DHTDBMapping>	it = stored_values.values();
 
 			Set<HashWrapper>	existing_times = new HashSet<HashWrapper>( survey_mapping_times.keySet());
 
@@ -2928,15 +3495,13 @@ DHTDBImpl
 	private void
 	sleep()
 	{
-		Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it = stored_values.entrySet().iterator();
+		Iterator<DHTDBMapping>	it = stored_values.values();
 
 		while( it.hasNext()){
 
-			Map.Entry<HashWrapper,DHTDBMapping>	entry = it.next();
+			DHTDBMapping	mapping = it.next();
 
-			HashWrapper			key		= entry.getKey();
-
-			DHTDBMapping		mapping	= entry.getValue();
+			HashWrapper	key	= mapping.getKey();
 
 			Iterator<DHTDBValueImpl>	it2 = mapping.getValues();
 
@@ -3126,24 +3691,23 @@ DHTDBImpl
 		try{
 			this_mon.enter();
 
-			logger.log( "Stored keys = " + stored_values.size() + ", values = " + getValueDetails()[DHTDBStats.VD_VALUE_COUNT]);
+			logger.log( "Stored keys = " + stored_values.size() + ", values = " + getValueDetails()[DHTDBStats.VD_VALUE_COUNT] +
+						", mem=" + getMemoryEstimate() + ", evicted=" + evictions + ", table: " + stored_values.getString());
 
 			if ( !full ){
 
 				return;
 			}
 
-			Iterator<Map.Entry<HashWrapper,DHTDBMapping>>	it1 = stored_values.entrySet().iterator();
+			Iterator<DHTDBMapping>	it1 = stored_values.values();
 
 			// ByteArrayHashMap<Integer> blah = new ByteArrayHashMap<Integer>();
 
 			while( it1.hasNext()){
 
-				Map.Entry<HashWrapper,DHTDBMapping>		entry = it1.next();
-
-				HashWrapper		value_key	= entry.getKey();
+				DHTDBMapping	mapping = it1.next();
 
-				DHTDBMapping	mapping 	= entry.getValue();
+				HashWrapper	value_key	= mapping.getKey();
 
 				/*
 				if ( mapping.getIndirectSize() > 1000 ){
@@ -3225,7 +3789,7 @@ DHTDBImpl
 				logger.log( "    " + k + " -> " + data[0] + " entries" ); // ": " + data[1]);
 			}
 
-			Iterator<Map.Entry<HashWrapper,DHTDBMapping>> it3 = stored_values.entrySet().iterator();
+			Iterator<DHTDBMapping> it3 = stored_values.values();
 
 			StringBuilder	sb = new StringBuilder( 1024 );
 
@@ -3233,11 +3797,9 @@ DHTDBImpl
 
 			while( it3.hasNext()){
 
-				Map.Entry<HashWrapper,DHTDBMapping>		entry = it3.next();
-
-				HashWrapper		value_key	= entry.getKey();
+				DHTDBMapping	mapping = it3.next();
 
-				DHTDBMapping	mapping 	= entry.getValue();
+				HashWrapper	value_key	= mapping.getKey();
 
 				if ( str_entries == 16 ){
 
@@ -3301,7 +3863,7 @@ DHTDBImpl
 				try{
 					this_mon.enter();
 
-					Iterator<DHTDBMapping>	it = stored_values.values().iterator();
+					Iterator<DHTDBMapping>	it = stored_values.values();
 
 					boolean	overall_deleted = false;
 
@@ -3429,7 +3991,7 @@ DHTDBImpl
 			//Map		sender_map	= new HashMap();
 			//List	senders		= new ArrayList();
 
-			Iterator<DHTDBMapping>	it = stored_values.values().iterator();
+			Iterator<DHTDBMapping>	it = stored_values.values();
 
 			int	max_hits = 0;
 
@@ -3543,7 +4105,7 @@ DHTDBImpl
 		int	actual_values 	= 0;
 		int actual_size		= 0;
 
-		Iterator it = stored_values.values().iterator();
+		Iterator it = stored_values.values();
 
 		while( it.hasNext()){
 
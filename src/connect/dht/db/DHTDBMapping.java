@@ -787,6 +787,8 @@ DHTDBMapping
 	protected void
 	destroy()
 	{
+		db.mappingModified( this );
+		
 		try{
 			if ( adapter_key != null ){
 				
@@ -812,6 +814,11 @@ DHTDBMapping
 	informDeleted(
 		DHTDBValueImpl		value )
 	{
+		if ( !value.isLocal()){
+			
+			db.mappingModified( this );
+		}
+		
 		boolean	direct = 
 			(!value.isLocal())&&		
 			Arrays.equals( value.getOriginator().getID(), value.getSender().getID());
@@ -838,6 +845,11 @@ DHTDBMapping
 	informAdded(	
 		DHTDBValueImpl		value )
 	{	
+		if ( !value.isLocal()){
+			
+			db.mappingModified( this );
+		}
+		
 		boolean	direct = 
 			(!value.isLocal()) && 		
 			Arrays.equals( value.getOriginator().getID(), value.getSender().getID());
@@ -865,6 +877,11 @@ DHTDBMapping
 		DHTDBValueImpl		old_value,
 		DHTDBValueImpl		new_value)
 	{
+		if ( !( old_value.isLocal() && new_value.isLocal())){
+			
+			db.mappingModified( this );
+		}
+		
 		boolean	old_direct = 
 			(!old_value.isLocal()) &&				
 			Arrays.equals( old_value.getOriginator().getID(), old_value.getSender().getID());
@@ -0,0 +1,568 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package connect.dht.db;
+
+import java.util.*;
+
+import torrentlib.HashWrapper;
+import torrentlib.SystemTime;
+
+/**
+ * Key -> mapping table for the DHT database.<br>
+ *
+ * Open addressing (linear probing) over parallel primitive arrays rather than a HashMap of
+ * entry objects. Each slot records the key's hash, the mapping and its last access time (seconds).
+ * The key bytes themselves are only held once, by the mapping, and compared through it. Removal
+ * leaves a tombstone so slots never move while the table is iterated; tombstones are purged when
+ * the table is next resized.<br>
+ *
+ * Long passes (republish) iterate in batches with the DB monitor released in between, using a
+ * Cursor. A resize in the middle of a pass moves entries, so it snapshots the mappings the pass
+ * had still to visit and the pass continues from that. Passes are weakly consistent: keys added
+ * between batches may or may not be seen, removed ones are not.<br>
+ *
+ * Not thread safe - the DB accesses it under its monitor.
+ */
+
+public class
+DHTDBMappingStore
+{
+	private static final Object	TOMBSTONE	= new Object();
+
+		/** rough per-slot footprint: hash, access, reference */
+
+	private static final int	SLOT_BYTES	= 4 + 4 + 8;
+
+	private int[]		hashes;
+	private int[]		access;
+	private Object[]	mappings;
+
+	private int			live;
+	private int			tombstones;
+
+	private final Map<Cursor,Object>	active_cursors = new WeakHashMap<Cursor,Object>();
+
+	private final long	time_base	= SystemTime.getMonotonousTime();
+
+	private final Random	random	= new Random();
+
+	public
+	DHTDBMappingStore()
+	{
+		allocate( 64 );
+	}
+
+	private void
+	allocate(
+		int		capacity )
+	{
+		hashes		= new int[ capacity ];
+		access		= new int[ capacity ];
+		mappings	= new Object[ capacity ];
+
+		tombstones	= 0;
+	}
+
+	public int
+	size()
+	{
+		return( live );
+	}
+
+	public boolean
+	containsKey(
+		HashWrapper		key )
+	{
+		return( find( key.getBytes()) >= 0 );
+	}
+
+		/**
+		 * Looks up a mapping and marks it as recently used
+		 */
+
+	public DHTDBMapping
+	get(
+		HashWrapper		key )
+	{
+		int	slot = find( key.getBytes());
+
+		if ( slot < 0 ){
+
+			return( null );
+		}
+
+		access[slot] = now();
+
+		return((DHTDBMapping)mappings[slot] );
+	}
+
+		/**
+		 * As get but leaves the access time alone
+		 */
+
+	public DHTDBMapping
+	peek(
+		HashWrapper		key )
+	{
+		int	slot = find( key.getBytes());
+
+		return( slot<0?null:(DHTDBMapping)mappings[slot] );
+	}
+
+		/**
+		 * @param mapping	must have the given key
+		 */
+
+	public DHTDBMapping
+	put(
+		HashWrapper		key,
+		DHTDBMapping	mapping )
+	{
+		byte[]	bytes = key.getBytes();
+
+		int	slot = find( bytes );
+
+		if ( slot >= 0 ){
+
+			DHTDBMapping	old = (DHTDBMapping)mappings[slot];
+
+			mappings[slot]	= mapping;
+			access[slot]	= now();
+
+			return( old );
+		}
+
+		if (( live + tombstones + 1 ) * 4 > mappings.length * 3 ){
+
+			rehash( live*2 >= mappings.length/2?mappings.length*2:mappings.length );
+		}
+
+		int	hash	= hash( bytes );
+		int	mask	= mappings.length - 1;
+
+		slot = hash & mask;
+
+		while( isLive( slot )){
+
+			slot = ( slot + 1 ) & mask;
+		}
+
+			// tombstones are reusable on insert as we've established the key isn't present
+
+		if ( mappings[slot] == TOMBSTONE ){
+
+			tombstones--;
+		}
+
+		hashes[slot]	= hash;
+		access[slot]	= now();
+		mappings[slot]	= mapping;
+
+		live++;
+
+		return( null );
+	}
+
+	public DHTDBMapping
+	remove(
+		HashWrapper		key )
+	{
+		int	slot = find( key.getBytes());
+
+		if ( slot < 0 ){
+
+			return( null );
+		}
+
+		return( removeSlot( slot ));
+	}
+
+	private DHTDBMapping
+	removeSlot(
+		int		slot )
+	{
+		DHTDBMapping	old = (DHTDBMapping)mappings[slot];
+
+		mappings[slot]	= TOMBSTONE;
+
+		live--;
+		tombstones++;
+
+		return( old );
+	}
+
+	private boolean
+	isLive(
+		int		slot )
+	{
+		Object	o = mappings[slot];
+
+		return( o != null && o != TOMBSTONE );
+	}
+
+		/**
+		 * Batch iteration - appends up to max mappings that the cursor's pass hasn't yet visited
+		 * @return false once the pass is complete
+		 */
+
+	public boolean
+	getMappings(
+		Cursor				cursor,
+		int					max,
+		List<DHTDBMapping>	result )
+	{
+		if ( cursor.complete ){
+
+			return( false );
+		}
+
+		active_cursors.put( cursor, "" );
+
+		int	num = 0;
+
+		if ( cursor.remaining != null ){
+
+				// pass interrupted by a resize, continue through the snapshot skipping anything
+				// removed since
+
+			while( cursor.remaining_pos < cursor.remaining.size()){
+
+				if ( num == max ){
+
+					return( true );
+				}
+
+				DHTDBMapping	mapping = cursor.remaining.get( cursor.remaining_pos++ );
+
+				int	slot = find( mapping.getKey().getBytes());
+
+				if ( slot >= 0 && mappings[slot] == mapping ){
+
+					result.add( mapping );
+
+					num++;
+				}
+			}
+		}else{
+
+			int	pos = cursor.slot;
+
+			while( pos < mappings.length ){
+
+				if ( isLive( pos )){
+
+					if ( num == max ){
+
+						cursor.slot = pos;
+
+						return( true );
+					}
+
+					result.add((DHTDBMapping)mappings[pos] );
+
+					num++;
+				}
+
+				pos++;
+			}
+		}
+
+		cursor.complete = true;
+
+		active_cursors.remove( cursor );
+
+		return( false );
+	}
+
+		/**
+		 * Full iteration, supports removal
+		 */
+
+	public Iterator<DHTDBMapping>
+	values()
+	{
+		return(
+			new Iterator<DHTDBMapping>()
+			{
+				private int	pos		= -1;
+				private int	next	= advance( 0 );
+
+				private int
+				advance(
+					int	from )
+				{
+					while( from < mappings.length && !isLive( from )){
+
+						from++;
+					}
+
+					return( from );
+				}
+
+				public boolean
+				hasNext()
+				{
+					return( next < mappings.length );
+				}
+
+				public DHTDBMapping
+				next()
+				{
+					if ( next >= mappings.length ){
+
+						throw( new NoSuchElementException());
+					}
+
+					pos		= next;
+					next	= advance( next + 1 );
+
+					return((DHTDBMapping)mappings[pos]);
+				}
+
+				public void
+				remove()
+				{
+					if ( pos < 0 || !isLive( pos )){
+
+						throw( new IllegalStateException());
+					}
+
+					removeSlot( pos );
+				}
+			});
+	}
+
+	public List<HashWrapper>
+	getKeys()
+	{
+		List<HashWrapper>	result = new ArrayList<HashWrapper>( live );
+
+		for ( int i=0;i<mappings.length;i++){
+
+			if ( isLive( i )){
+
+				result.add(((DHTDBMapping)mappings[i]).getKey());
+			}
+		}
+
+		return( result );
+	}
+
+		/**
+		 * Approximate LRU: samples random occupied slots and returns the least recently used
+		 * mapping accepted by the filter, or null
+		 */
+
+	public DHTDBMapping
+	getEvictionCandidate(
+		int					samples,
+		long				min_idle_millis,
+		EvictionFilter		filter )
+	{
+		if ( live == 0 ){
+
+			return( null );
+		}
+
+		int	now			= now();
+		int	max_access	= now - (int)( min_idle_millis/1000 );
+
+		int	best_slot	= -1;
+		int	best_access	= Integer.MAX_VALUE;
+
+		int	len = mappings.length;
+
+		for ( int i=0;i<samples;i++){
+
+				// walk forward from a random slot to the next occupied one
+
+			int	slot = random.nextInt( len );
+
+			int	probes = 0;
+
+			while( !isLive( slot ) && probes < len ){
+
+				slot = ( slot + 1 ) % len;
+
+				probes++;
+			}
+
+			if ( !isLive( slot )){
+
+				break;
+			}
+
+			int	a = access[slot];
+
+			if ( a <= max_access && a < best_access && filter.isEvictable((DHTDBMapping)mappings[slot] )){
+
+				best_slot	= slot;
+				best_access	= a;
+			}
+		}
+
+		return( best_slot<0?null:(DHTDBMapping)mappings[best_slot] );
+	}
+
+		/**
+		 * @return approximate bytes used by the table itself (excluding mappings)
+		 */
+
+	public long
+	getMemoryUsage()
+	{
+		return((long)mappings.length * SLOT_BYTES );
+	}
+
+	public String
+	getString()
+	{
+		return( "keys=" + live + ",slots=" + mappings.length + ",tomb=" + tombstones + ",passes=" + active_cursors.size());
+	}
+
+	private int
+	find(
+		byte[]		key )
+	{
+		int	hash	= hash( key );
+		int	mask	= mappings.length - 1;
+
+		int	slot = hash & mask;
+
+		while( true ){
+
+			Object	o = mappings[slot];
+
+			if ( o == null ){
+
+				return( -1 );
+			}
+
+			if ( 	o != TOMBSTONE && hashes[slot] == hash &&
+					Arrays.equals(((DHTDBMapping)o).getKey().getBytes(), key )){
+
+				return( slot );
+			}
+
+			slot = ( slot + 1 ) & mask;
+		}
+	}
+
+	private void
+	rehash(
+		int		capacity )
+	{
+		int[]		old_hashes		= hashes;
+		int[]		old_access		= access;
+		Object[]	old_mappings	= mappings;
+
+			// entries are about to move, passes in progress carry on from a snapshot of what
+			// they have still to visit
+
+		for ( Cursor cursor: active_cursors.keySet()){
+
+			if ( cursor.remaining == null && !cursor.complete ){
+
+				List<DHTDBMapping>	remaining = new ArrayList<DHTDBMapping>();
+
+				for ( int i=cursor.slot;i<old_mappings.length;i++){
+
+					if ( isLive( i )){
+
+						remaining.add((DHTDBMapping)old_mappings[i] );
+					}
+				}
+
+				cursor.remaining = remaining;
+			}
+		}
+
+		allocate( capacity );
+
+		int	mask = capacity - 1;
+
+		for ( int i=0;i<old_mappings.length;i++){
+
+			Object	o = old_mappings[i];
+
+			if ( o != null && o != TOMBSTONE ){
+
+				int	slot = old_hashes[i] & mask;
+
+				while( mappings[slot] != null ){
+
+					slot = ( slot + 1 ) & mask;
+				}
+
+				hashes[slot]	= old_hashes[i];
+				access[slot]	= old_access[i];
+				mappings[slot]	= o;
+			}
+		}
+	}
+
+	private static int
+	hash(
+		byte[]		key )
+	{
+		int	h = 0;
+
+		for ( int i=0;i<key.length;i++){
+
+			h = 31*h + key[i];
+		}
+
+			// spread the bits, linear probing is sensitive to clustering
+
+		h ^= ( h >>> 16 );
+		h *= 0x85ebca6b;
+		h ^= ( h >>> 13 );
+
+		return( h );
+	}
+
+	private int
+	now()
+	{
+		return((int)(( SystemTime.getMonotonousTime() - time_base ) / 1000 ));
+	}
+
+		/**
+		 * Position of a batched pass over the store. Passes that are abandoned part way need no
+		 * clean up
+		 */
+
+	public static class
+	Cursor
+	{
+		private int					slot;
+		private boolean				complete;
+
+		private List<DHTDBMapping>	remaining;
+		private int					remaining_pos;
+	}
+
+	public interface
+	EvictionFilter
+	{
+		public boolean
+		isEvictable(
+			DHTDBMapping	mapping );
+	}
+}
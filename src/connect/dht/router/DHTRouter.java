@@ -98,7 +98,7 @@ DHTRouter
 		byte[]	node_id );	
 
 		/**
-		 * Returns num_to_return or a few more closest contacts, unordered
+		 * Returns up to num_to_return closest contacts, closest first
 		 */
 	
 	public List<DHTRouterContact>
@@ -106,6 +106,17 @@ DHTRouter
 		byte[]		node_id,
 		int			num_to_return,
 		boolean		live_only );
+	
+		/**
+		 * Allocation free variant - fills result with up to result.length contacts, closest first
+		 * @return number of contacts returned
+		 */
+	
+	public int
+	findClosestContacts(
+		byte[]					node_id,
+		boolean					live_only,
+		DHTRouterContact[]		result );
 		
 	public void
 	recordLookup(
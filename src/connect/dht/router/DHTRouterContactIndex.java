@@ -0,0 +1,436 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package connect.dht.router;
+
+import java.util.*;
+
+/**
+ * Compact index over the router's bucket contacts.<br>
+ *
+ * Node ids are held back to back in a single byte array kept in ascending (unsigned) order, with
+ * the contacts in a parallel array. In this order every id prefix covers a contiguous range, so the
+ * sorted array is an implicit binary trie: the split point of a range on the next bit is found by
+ * binary search. Walking that trie, always descending first into the half that matches the target's
+ * bit, visits contacts in increasing XOR distance from the target. The closest contacts are therefore
+ * produced directly, already ordered, without sorting and without allocation.<br>
+ *
+ * Not thread safe - the router accesses it under its monitor.
+ */
+
+public class
+DHTRouterContactIndex
+{
+	private final int		id_len;
+	private final int		id_bits;
+
+	private byte[]			ids;
+	private Object[]		contacts;
+	private int				size;
+
+	public
+	DHTRouterContactIndex(
+		int		_id_len )
+	{
+		id_len	= _id_len;
+		id_bits	= _id_len*8;
+
+		ids			= new byte[ id_len*64 ];
+		contacts	= new Object[ 64 ];
+	}
+
+	public int
+	size()
+	{
+		return( size );
+	}
+
+		/**
+		 * @return false if the contact's id was already present or has the wrong length
+		 */
+
+	public boolean
+	add(
+		DHTRouterContactImpl	contact )
+	{
+		byte[]	id = contact.getID();
+
+		if ( id.length != id_len ){
+
+			return( false );
+		}
+
+		int	pos = search( id );
+
+		if ( pos >= 0 ){
+
+				// same id, new contact object
+
+			contacts[pos] = contact;
+
+			return( false );
+		}
+
+		pos = -( pos + 1 );
+
+		if ( size == contacts.length ){
+
+			int	new_cap = size*2;
+
+			ids			= Arrays.copyOf( ids, new_cap*id_len );
+			contacts	= Arrays.copyOf( contacts, new_cap );
+		}
+
+		if ( pos < size ){
+
+			System.arraycopy( ids, pos*id_len, ids, (pos+1)*id_len, (size-pos)*id_len );
+			System.arraycopy( contacts, pos, contacts, pos+1, size-pos );
+		}
+
+		System.arraycopy( id, 0, ids, pos*id_len, id_len );
+
+		contacts[pos] = contact;
+
+		size++;
+
+		return( true );
+	}
+
+	public boolean
+	remove(
+		DHTRouterContactImpl	contact )
+	{
+		byte[]	id = contact.getID();
+
+		if ( id.length != id_len ){
+
+			return( false );
+		}
+
+		int	pos = search( id );
+
+		if ( pos < 0 || contacts[pos] != contact ){
+
+			return( false );
+		}
+
+		if ( pos < size-1 ){
+
+			System.arraycopy( ids, (pos+1)*id_len, ids, pos*id_len, (size-pos-1)*id_len );
+			System.arraycopy( contacts, pos+1, contacts, pos, size-pos-1 );
+		}
+
+		size--;
+
+		contacts[size] = null;
+
+		return( true );
+	}
+
+		/**
+		 * Fills result with up to result.length contacts in increasing XOR distance from target
+		 * @return number of contacts returned
+		 */
+
+	public int
+	findClosest(
+		byte[]					target,
+		boolean					live_only,
+		DHTRouterContact[]		result )
+	{
+		if ( target.length != id_len || result.length == 0 ){
+
+			return( 0 );
+		}
+
+		return( visit( target, 0, size, 0, live_only, result, 0 ));
+	}
+
+	private int
+	visit(
+		byte[]					target,
+		int						lo,
+		int						hi,
+		int						bit,
+		boolean					live_only,
+		DHTRouterContact[]		result,
+		int						count )
+	{
+		while( true ){
+
+			if ( lo >= hi || count >= result.length ){
+
+				return( count );
+			}
+
+			if ( hi - lo == 1 || bit == id_bits ){
+
+				for ( int i=lo;i<hi && count < result.length;i++){
+
+					DHTRouterContactImpl	contact = (DHTRouterContactImpl)contacts[i];
+
+						// use !failing to include unknown ones, as the tree walk did
+
+					if ( !( live_only && contact.isFailing())){
+
+						result[count++] = contact;
+					}
+				}
+
+				return( count );
+			}
+
+			int	mid = splitPoint( lo, hi, bit );
+
+			boolean	target_bit = (( target[bit>>3] >> ( 7 - ( bit&0x07 ))) & 0x01 ) == 1;
+
+			if ( mid == lo || mid == hi ){
+
+					// whole range on one side of this bit, nothing to choose
+
+				bit++;
+
+				continue;
+			}
+
+			if ( target_bit ){
+
+				count = visit( target, mid, hi, bit+1, live_only, result, count );
+
+				hi = mid;
+
+			}else{
+
+				count = visit( target, lo, mid, bit+1, live_only, result, count );
+
+				lo = mid;
+			}
+
+			bit++;
+		}
+	}
+
+		/**
+		 * entries in [lo,hi) share the bits above 'bit' so are ordered 0s then 1s on it
+		 * @return index of the first entry with the bit set
+		 */
+
+	private int
+	splitPoint(
+		int		lo,
+		int		hi,
+		int		bit )
+	{
+		int	byte_offset	= bit>>3;
+		int	shift		= 7 - ( bit&0x07 );
+
+		while( lo < hi ){
+
+			int	m = ( lo + hi ) >>> 1;
+
+			if ((( ids[ m*id_len + byte_offset ] >> shift ) & 0x01 ) == 0 ){
+
+				lo = m + 1;
+
+			}else{
+
+				hi = m;
+			}
+		}
+
+		return( lo );
+	}
+
+	private int
+	search(
+		byte[]	id )
+	{
+		int	lo = 0;
+		int	hi = size - 1;
+
+		while( lo <= hi ){
+
+			int	m = ( lo + hi ) >>> 1;
+
+			int	comp = compare( m, id );
+
+			if ( comp < 0 ){
+
+				lo = m + 1;
+
+			}else if ( comp > 0 ){
+
+				hi = m - 1;
+
+			}else{
+
+				return( m );
+			}
+		}
+
+		return( -( lo + 1 ));
+	}
+
+	private int
+	compare(
+		int		index,
+		byte[]	id )
+	{
+		int	base = index*id_len;
+
+		for ( int i=0;i<id_len;i++){
+
+			int	a = ids[base+i]&0xff;
+			int	b = id[i]&0xff;
+
+			if ( a != b ){
+
+				return( a - b );
+			}
+		}
+
+		return( 0 );
+	}
+
+	public static void
+	main(
+		String[]	args )
+	{
+		int[]	sizes = { 10000, 100000 };
+
+		for ( int size: sizes ){
+
+			for ( int run=0;run<3;run++ ){
+
+				benchmark( size );
+			}
+		}
+	}
+
+	private static void
+	benchmark(
+		int		size )
+	{
+		final int	ID_LEN		= 20;
+		final int	K			= 20;
+		final int	QUERIES		= 100000;
+		final int	VERIFY		= 100;
+
+		Random	rand = new Random( size );
+
+		DHTRouterContactIndex	index = new DHTRouterContactIndex( ID_LEN );
+
+		List<DHTRouterContactImpl>	all = new ArrayList<DHTRouterContactImpl>( size );
+
+		long	start = System.nanoTime();
+
+		while( index.size() < size ){
+
+			byte[]	id = new byte[ID_LEN];
+
+			rand.nextBytes( id );
+
+			DHTRouterContactImpl	contact = new DHTRouterContactImpl( id, null, true );
+
+			if ( index.add( contact )){
+
+				all.add( contact );
+			}
+		}
+
+		long	build_time = System.nanoTime() - start;
+
+		byte[][]	targets = new byte[1024][ID_LEN];
+
+		for ( byte[] t: targets ){
+
+			rand.nextBytes( t );
+		}
+
+		DHTRouterContact[]	result = new DHTRouterContact[K];
+
+		long	sum = 0;
+
+		start = System.nanoTime();
+
+		for ( int i=0;i<QUERIES;i++){
+
+			sum += index.findClosest( targets[i&1023], false, result );
+		}
+
+		long	index_time = System.nanoTime() - start;
+
+			// baseline: collect everything and sort by distance, as the caller of the list based
+			// tree walk has to, restricted to VERIFY queries as it is slow
+
+		start = System.nanoTime();
+
+		boolean	ok = true;
+
+		for ( int i=0;i<VERIFY;i++){
+
+			final byte[]	target = targets[i];
+
+			List<DHTRouterContactImpl>	sorted = new ArrayList<DHTRouterContactImpl>( all );
+
+			Collections.sort(
+				sorted,
+				new Comparator<DHTRouterContactImpl>()
+				{
+					public int
+					compare(
+						DHTRouterContactImpl	c1,
+						DHTRouterContactImpl	c2 )
+					{
+						byte[]	id1 = c1.getID();
+						byte[]	id2 = c2.getID();
+
+						for ( int j=0;j<ID_LEN;j++){
+
+							int	d1 = ( id1[j] ^ target[j] )&0xff;
+							int	d2 = ( id2[j] ^ target[j] )&0xff;
+
+							if ( d1 != d2 ){
+
+								return( d1 - d2 );
+							}
+						}
+
+						return( 0 );
+					}
+				});
+
+			int	num = index.findClosest( target, false, result );
+
+			for ( int j=0;j<num;j++){
+
+				if ( result[j] != sorted.get(j)){
+
+					ok = false;
+				}
+			}
+		}
+
+		long	sort_time = System.nanoTime() - start;
+
+		System.out.println(
+			"contacts=" + size + ": build=" + ( build_time/1000000 ) + "ms, find-closest(" + K + ")=" +
+			( QUERIES*1000000000L/Math.max( 1, index_time )) + "/sec, sort baseline=" +
+			( VERIFY*1000000000L/Math.max( 1, sort_time )) + "/sec" + ( ok?"":" MISMATCH" ) + ( sum==(long)QUERIES*K?"":" SHORT" ));
+	}
+}
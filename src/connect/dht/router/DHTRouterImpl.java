@@ -77,6 +77,7 @@ DHTRouterImpl
 	private byte[]					router_node_id;
 	
 	private DHTRouterNodeImpl		root;
+	private DHTRouterContactIndex	contact_index;
 	private DHTRouterNodeImpl		smallest_subtree;
 	
 	private int						consecutive_dead;
@@ -160,6 +161,10 @@ DHTRouterImpl
 		
 		root	= new DHTRouterNodeImpl( this, 0, true, buckets );
 		
+		contact_index = new DHTRouterContactIndex( router_node_id.length );
+		
+		contact_index.add( local_contact );
+		
 		timer_event = SimpleTimer.addPeriodicEvent(
 			"DHTRouter:pinger",
 			TICK_PERIOD,
@@ -726,15 +731,31 @@ DHTRouterImpl
 		int			num_to_return,
 		boolean		live_only )
 	{
-			// find the num_to_return-ish closest nodes - consider all buckets, not just the closest
-
 		try{
 			this_mon.enter();
 		
-			List res = new ArrayList();
+			if ( node_id.length != router_node_id.length || num_to_return <= 0 ){
 				
-			findClosestContacts( node_id, num_to_return, 0, root, live_only, res );
-		
+					// find the num_to_return-ish closest nodes - consider all buckets, not just the closest
+
+				List res = new ArrayList();
+				
+				findClosestContacts( node_id, num_to_return, 0, root, live_only, res );
+			
+				return( res );
+			}
+			
+			DHTRouterContact[]	closest = new DHTRouterContact[ Math.min( num_to_return, contact_index.size())];
+			
+			int	num = contact_index.findClosest( node_id, live_only, closest );
+			
+			List res = new ArrayList( num );
+			
+			for (int i=0;i<num;i++){
+				
+				res.add( closest[i] );
+			}
+			
 			return( res );
 			
 		}finally{
@@ -742,6 +763,37 @@ DHTRouterImpl
 			this_mon.exit();
 		}
 	}
+	
+	public int
+	findClosestContacts(
+		byte[]					node_id,
+		boolean					live_only,
+		DHTRouterContact[]		result )
+	{
+		try{
+			this_mon.enter();
+		
+			return( contact_index.findClosest( node_id, live_only, result ));
+			
+		}finally{
+			
+			this_mon.exit();
+		}
+	}
+	
+	protected void
+	bucketContactAdded(
+		DHTRouterContactImpl	contact )
+	{
+		contact_index.add( contact );
+	}
+	
+	protected void
+	bucketContactRemoved(
+		DHTRouterContactImpl	contact )
+	{
+		contact_index.remove( contact );
+	}
 		
 	protected void
 	findClosestContacts(
@@ -901,7 +953,15 @@ DHTRouterImpl
 	protected long
 	getContactCount()
 	{
-		return( getContactCount( root ));
+		try{
+			this_mon.enter();
+			
+			return( contact_index.size());
+			
+		}finally{
+			
+			this_mon.exit();
+		}
 	}
 	
 	protected long
@@ -134,6 +134,8 @@ DHTRouterNodeImpl
 		
 		buckets.add( node );
 		
+		router.bucketContactAdded( node );
+		
 		requestNodeAdd( node, false );
 	}
 	
@@ -411,6 +413,8 @@ DHTRouterNodeImpl
 			
 			if ( buckets.remove( contact )){
 				
+				router.bucketContactRemoved( contact );
+				
 				if (!was_failing) {
 					// MGP: first notify observers that now failing
 					router.notifyNowFailing(contact);
@@ -441,6 +445,8 @@ DHTRouterNodeImpl
 							
 							buckets.add( rep );
 							
+							router.bucketContactAdded( rep );
+							
 							replaced	= true;
 							
 							requestNodeAdd( rep, false );
@@ -463,6 +469,8 @@ DHTRouterNodeImpl
 						
 						buckets.add( rep );
 						
+						router.bucketContactAdded( rep );
+						
 							// add-node logic will ping the node if its not known to
 							// be alive
 						
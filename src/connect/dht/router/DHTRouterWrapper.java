@@ -121,6 +121,15 @@ DHTRouterWrapper
 	{
 		return( delegate.findClosestContacts(node_id, num_to_return, live_only));
 	}
+	
+	public int
+	findClosestContacts(
+		byte[]					node_id,
+		boolean					live_only,
+		DHTRouterContact[]		result )
+	{
+		return( delegate.findClosestContacts(node_id, live_only, result));
+	}
 		
 	public void
 	recordLookup(
@@ -88,6 +88,17 @@ DHTTransport
 	
 		throws IOException, DHTTransportException;
 	
+		/**
+		 * Reads a contact written by DHTTransportContact.exportContact without importing it
+		 * (i.e. it isn't made known to the router)
+		 */
+	
+	public DHTTransportContact
+	readContact(
+		DataInputStream		is )
+	
+		throws IOException, DHTTransportException;
+	
 		/**
 		 * Set the handler for incoming requests
 		 * @param receiver
@@ -0,0 +1,40 @@
+/*
+ * Created on 19-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package connect.dht.transport;
+
+/**
+ * A request that was given up on early, at a timeout derived from the target's predicted rtt
+ * rather than the full request timeout. The target may well be alive, just further away than its
+ * network position suggests, so this isn't evidence that it's dead
+ */
+
+public class
+DHTTransportAdaptiveTimeoutException
+	extends DHTTransportException
+{
+	private static final long serialVersionUID = 1L;
+
+	public
+	DHTTransportAdaptiveTimeoutException(
+		String		str,
+		Throwable	cause )
+	{
+		super( str, cause );
+	}
+}
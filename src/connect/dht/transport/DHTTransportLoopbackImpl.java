@@ -329,6 +329,19 @@ DHTTransportLoopbackImpl
 		DataInputStream		is,
 		boolean				is_bootstrap )
 	
+		throws IOException
+	{
+		DHTTransportContact contact = readContact( is );
+		
+		request_handler.contactImported( contact, is_bootstrap );
+		
+		return( contact );
+	}
+	
+	public DHTTransportContact
+	readContact(
+		DataInputStream		is )
+	
 		throws IOException
 	{
 		int	version = is.readInt();
@@ -349,11 +362,7 @@ DHTTransportLoopbackImpl
 		
 		is.read( id );
 		
-		DHTTransportContact contact = new DHTTransportLoopbackContactImpl( this, id );
-		
-		request_handler.contactImported( contact, is_bootstrap );
-		
-		return( contact );
+		return( new DHTTransportLoopbackContactImpl( this, id ));
 	}
 	
 	public void
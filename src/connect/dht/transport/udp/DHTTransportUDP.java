@@ -150,6 +150,15 @@ DHTTransportUDP
 	
 		throws DHTTransportException;
 	
+		/**
+		 * When enabled find-node/find-value requests time out relative to the target's predicted
+		 * (network position) rtt rather than always waiting for the full request timeout
+		 */
+	
+	public void
+	setAdaptiveLookupTimeouts(
+		boolean		enabled );
+	
 	public DHTUDPRequestHandler
 	getRequestHandler();
 	
@@ -21,6 +21,7 @@ package connect.dht.transport.udp;
 
 import java.net.InetSocketAddress;
 
+import connect.dht.netcoords.DHTNetworkPosition;
 import connect.dht.transport.DHTTransportContact;
 
 /**
@@ -35,4 +36,8 @@ DHTTransportUDPContact
 	public void
 	setTransportAddress(
 		InetSocketAddress	address );
+	
+	public void
+	setNetworkPositions(
+		DHTNetworkPosition[]	positions );
 }
@@ -487,7 +487,7 @@ DHTTransportUDPContactImpl
 		transport.removeContact( this );
 	}
 	
-	protected void
+	public void
     setNetworkPositions(
     	DHTNetworkPosition[]	positions )
   	{
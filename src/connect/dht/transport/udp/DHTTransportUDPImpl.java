@@ -27,6 +27,7 @@ import connect.dht.transport.DHTTransportListener;
 import connect.dht.transport.DHTTransportAlternativeNetwork;
 import connect.dht.transport.DHTTransportFullStats;
 import connect.dht.transport.DHTTransportReplyHandler;
+import connect.dht.transport.DHTTransportAdaptiveTimeoutException;
 import connect.dht.transport.DHTTransportException;
 import connect.dht.transport.DHTTransportStats;
 import connect.dht.transport.DHTTransportRequestHandler;
@@ -99,6 +100,13 @@ DHTTransportUDPImpl
 
 	public static final int		STORE_TIMEOUT_MULTIPLIER = 2;
 
+		// adaptive lookup timeouts: predicted rtt * multiplier + margin, bounded below by the
+		// minimum to allow for coordinate error and above by the configured request timeout
+
+	public static final int		ADAPTIVE_TIMEOUT_RTT_MULTIPLIER	= 4;
+	public static final int		ADAPTIVE_TIMEOUT_MARGIN			= 500;
+	public static final int		ADAPTIVE_TIMEOUT_MIN			= 1500;
+
 
 	private String				external_address;
 	private int					min_address_change_period = MIN_ADDRESS_CHANGE_PERIOD_INIT_DEFAULT;
@@ -112,6 +120,7 @@ DHTTransportUDPImpl
 	private int					max_fails_for_unknown;
 	private long				request_timeout;
 	private long				store_timeout;
+	private volatile boolean	adaptive_lookup_timeouts;
 	private boolean				reachable;
 	private boolean				reachable_accurate;
 	private int					dht_send_delay;
@@ -658,6 +667,66 @@ DHTTransportUDPImpl
 		packet_handler.setDelays( dht_send_delay, dht_receive_delay, (int)request_timeout );
 	}
 
+	public void
+	setAdaptiveLookupTimeouts(
+		boolean		enabled )
+	{
+		adaptive_lookup_timeouts = enabled;
+	}
+
+		/**
+		 * timeout for find-node/find-value, derived from the contact's predicted rtt when
+		 * adaptive timeouts are enabled and both ends have usable coordinates
+		 */
+
+	protected long
+	getLookupTimeout(
+		DHTTransportUDPContactImpl	contact )
+	{
+		long	timeout = request_timeout;
+
+		if ( !adaptive_lookup_timeouts ){
+
+			return( timeout );
+		}
+
+		DHTNetworkPosition[]	remote = contact.getNetworkPositions();
+
+		if ( remote == null || remote.length == 0 ){
+
+			return( timeout );
+		}
+
+		float	rtt = DHTNetworkPositionManager.estimateRTT( local_contact.getNetworkPositions(), remote );
+
+		if ( Float.isNaN( rtt ) || rtt <= 0 ){
+
+			return( timeout );
+		}
+
+		long	predicted = (long)( rtt * ADAPTIVE_TIMEOUT_RTT_MULTIPLIER ) + ADAPTIVE_TIMEOUT_MARGIN;
+
+		return( Math.min( timeout, Math.max( ADAPTIVE_TIMEOUT_MIN, predicted )));
+	}
+
+		/**
+		 * Timeouts of lookup requests sent with less than the full request timeout are reported as
+		 * such so that they aren't taken as the contact being dead
+		 */
+
+	private Throwable
+	getLookupError(
+		long							timeout,
+		DHTUDPPacketHandlerException	e )
+	{
+		if ( timeout < request_timeout && e.isTimeout()){
+
+			return( new DHTTransportAdaptiveTimeoutException( "timed out after " + timeout + "ms (adaptive)", e ));
+		}
+
+		return( e );
+	}
+
 	public int
 	getNetwork()
 	{
@@ -1344,6 +1413,15 @@ DHTTransportUDPImpl
 		return( contact );
 	}
 
+	public DHTTransportContact
+	readContact(
+		DataInputStream		is )
+
+		throws IOException, DHTTransportException
+	{
+		return( DHTUDPUtils.deserialiseContact( this, is ));
+	}
+
 	public DHTTransportUDPContact
 	importContact(
 		InetSocketAddress	_address,
@@ -2400,6 +2478,8 @@ outer:
 
 			requestSendRequestProcessor( contact, request );
 
+			final long	timeout = getLookupTimeout( contact );
+
 			packet_handler.sendAndReceive(
 				request,
 				contact.getTransportAddress(),
@@ -2473,10 +2553,10 @@ outer:
 					{
 						stats.findNodeFailed();
 
-						handler.failed( contact, e );
+						handler.failed( contact, getLookupError( timeout, e ));
 					}
 				},
-				request_timeout, PRUDPPacketHandler.PRIORITY_MEDIUM );
+				timeout, PRUDPPacketHandler.PRIORITY_MEDIUM );
 
 		}catch( Throwable e ){
 
@@ -2514,6 +2594,8 @@ outer:
 
 			requestSendRequestProcessor( contact, request );
 
+			final long	timeout = getLookupTimeout( contact );
+
 			packet_handler.sendAndReceive(
 				request,
 				contact.getTransportAddress(),
@@ -2569,10 +2651,10 @@ outer:
 					{
 						stats.findValueFailed();
 
-						handler.failed( contact, e );
+						handler.failed( contact, getLookupError( timeout, e ));
 					}
 				},
-				request_timeout, PRUDPPacketHandler.PRIORITY_HIGH );
+				timeout, PRUDPPacketHandler.PRIORITY_HIGH );
 
 		}catch( Throwable e ){
 
@@ -111,6 +111,9 @@ DHTTransportUDPStatsImpl
 				"byterecv:" + getBytesReceived() + "," + 
 				"timeout:" + getRequestsTimedOut() + "," +
 				"sendq:" + stats.getSendQueueLength() + "," +
-				"recvq:" + stats.getReceiveQueueLength());
+				"recvq:" + stats.getReceiveQueueLength() + "," +
+				"pps:" + stats.getPacketsSentPerSecond() + "/" + stats.getPacketsReceivedPerSecond() + "," +
+				"drop:" + stats.getPacketsDropped() + "," +
+				"qlat:" + stats.getAverageSendLatency() + "/" + stats.getAverageReceiveLatency());
 	}
 }
@@ -19,6 +19,8 @@
 
 package connect.dht.transport.udp;
 
+import comm.udp.PRUDPPacketHandlerTimeoutException;
+
 public class 
 DHTUDPPacketHandlerException
 	extends Exception
@@ -35,7 +37,7 @@ DHTUDPPacketHandlerException
 	DHTUDPPacketHandlerException(
 		Throwable	cause )
 	{
-		super( cause.getMessage()==null?cause.toString():cause.getMessage());
+		super( cause.getMessage()==null?cause.toString():cause.getMessage(), cause );
 	}
 	
 	public
@@ -45,4 +47,14 @@ DHTUDPPacketHandlerException
 	{
 		super( str, cause );
 	}
+	
+		/**
+		 * @return true if the request got no reply within its timeout
+		 */
+	
+	public boolean
+	isTimeout()
+	{
+		return( getCause() instanceof PRUDPPacketHandlerTimeoutException );
+	}
 }
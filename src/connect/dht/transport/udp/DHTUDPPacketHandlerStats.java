@@ -122,6 +122,36 @@ DHTUDPPacketHandlerStats
 		return( stats.getReceiveQueueLength());
 	}
 	
+	public long
+	getPacketsSentPerSecond()
+	{
+		return( stats.getPacketsSentPerSecond());
+	}
+	
+	public long
+	getPacketsReceivedPerSecond()
+	{
+		return( stats.getPacketsReceivedPerSecond());
+	}
+	
+	public long
+	getPacketsDropped()
+	{
+		return( stats.getPacketsDropped());
+	}
+	
+	public long
+	getAverageSendLatency()
+	{
+		return( stats.getAverageSendLatency());
+	}
+	
+	public long
+	getAverageReceiveLatency()
+	{
+		return( stats.getAverageReceiveLatency());
+	}
+	
 	public DHTUDPPacketHandlerStats
 	snapshot()
 	{
@@ -21,6 +21,7 @@ package connect.peer;
 
 
 import torrentlib.SystemTime;
+import torrentlib.SnapshotList;
 import torrentlib.AEMonitor;
 import torrentlib.Average;
 import torrentlib.AEThread2;
@@ -221,7 +222,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 	private volatile boolean	is_running 		= false;
 	private volatile boolean	is_destroyed 	= false;
 
-	private volatile ArrayList<PEPeerTransport>	peer_transports_cow = new ArrayList<PEPeerTransport>();	// Copy on write!
+	private final SnapshotList<PEPeerTransport>	peer_transports_list = new SnapshotList<PEPeerTransport>();	// O(1) add/remove, snapshot per epoch
 	private final AEMonitor     peer_transports_mon	= new AEMonitor( "PEPeerControl:PT");
 
 	protected final PEPeerManagerAdapter	adapter;
@@ -302,6 +303,11 @@ DiskManagerCheckRequestListener, IPFilterListener
 	private int	connections_unchoked;
 
 
+	private final List<Integer>	pending_have_broadcast = new ArrayList<Integer>();
+	private long	have_broadcast_batches;
+	private long	have_broadcast_pieces;
+	private long	have_broadcast_suppressed;
+
 	private List<PEPeerTransport> sweepList = Collections.emptyList();
 	private int nextPEXSweepIndex = 0;
 
@@ -312,7 +318,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 		}
 
 		public ArrayList<PEPeer> getAllPeers() {
-			return( (ArrayList)peer_transports_cow );
+			return( (ArrayList)peer_transports_list.getList() );
 		}
 
 		public boolean isSeeding() {
@@ -511,7 +517,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 		}
 
 		//The peer connections
-		peer_transports_cow = new ArrayList();
+		peer_transports_list.clear();
 
 		//BtManager is threaded, this variable represents the
 		// current loop iteration. It's used by some components only called
@@ -671,6 +677,8 @@ DiskManagerCheckRequestListener, IPFilterListener
 
 			processPieceChecks();
 
+			broadcastHaves();
+
 			if ( finish_in_progress != null ){
 
 					// get off the scheduler thread while potentially long running operations complete
@@ -798,7 +806,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 	public List<PEPeer>
 	getPeers()
 	{
-		return( (List)peer_transports_cow );
+		return( (List)peer_transports_list.getList() );
 	}
 
 	public List<PEPeer>
@@ -807,7 +815,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 	{
 		List<PEPeer>	result = new ArrayList<PEPeer>();
 
-		Iterator<PEPeerTransport>	it = peer_transports_cow.iterator();
+		Iterator<PEPeerTransport>	it = peer_transports_list.getList().iterator();
 
 		if ( address.contains( ":" )){
 
@@ -893,9 +901,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 
 		if (!ip_filter.isInRange(transport.getIp(), getDisplayName(), getTorrentHash())) {
 
-			final ArrayList<PEPeerTransport> peer_transports = peer_transports_cow;
-
-			if ( !peer_transports.contains(transport)){
+			if ( !peer_transports_list.contains(transport)){
 
 				addToPeerTransports( transport );
 
@@ -952,14 +958,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 		try{
 			peer_transports_mon.enter();
 
-			if ( peer_transports_cow.contains( peer )){
-
-				final ArrayList new_peer_transports = new ArrayList( peer_transports_cow );
-
-				new_peer_transports.remove(peer);
-				peer_transports_cow =new_peer_transports;
-				removed =true;
-			}
+			removed = peer_transports_list.remove( peer );
 		}
 		finally{
 			peer_transports_mon.exit();
@@ -982,9 +981,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 		try{
 			peer_transports_mon.enter();
 
-			peer_transports = peer_transports_cow;
-
-			peer_transports_cow = new ArrayList<PEPeerTransport>( 0 );
+			peer_transports = peer_transports_list.clear();
 		}
 		finally{
 			peer_transports_mon.exit();
@@ -1073,7 +1070,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 	{
 		if ( peer_database != null ){
 
-			final ArrayList<PEPeerTransport> peer_transports = peer_transports_cow;
+			final ArrayList<PEPeerTransport> peer_transports = peer_transports_list.getList();
 
 			for( int x=0; x < peer_transports.size(); x++ ){
 
@@ -1119,7 +1116,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 		for (int i = 0; i < peers.length; i++){
 			final TRTrackerAnnouncerResponsePeer	peer = peers[i];
 
-			final List<PEPeerTransport> peer_transports = peer_transports_cow;
+			final List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 
 			boolean already_connected = false;
 
@@ -1510,7 +1507,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 
 		lastNeededUndonePieceChange =piecePicker.getNeededUndonePieceChange();
 
-		final List<PEPeerTransport> peer_transports = peer_transports_cow;
+		final List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 		int cntPeersSnubbed =0;	// recount # snubbed peers while we're at it
 		for (int i =0; i <peer_transports.size(); i++)
 		{
@@ -1831,7 +1828,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 				adapter.setStateFinishing();
 
 			_timeFinished = SystemTime.getCurrentTime();
-			final List<PEPeerTransport> peer_transports = peer_transports_cow;
+			final List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 
 			//remove previous snubbing
 			for (int i =0; i <peer_transports.size(); i++ )
@@ -1970,7 +1967,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 		final long now =SystemTime.getCurrentTime();
 
 		//for every connection
-		final List<PEPeerTransport> peer_transports = peer_transports_cow;
+		final List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 		for (int i =peer_transports.size() -1; i >=0 ; i--)
 		{
 			final PEPeerTransport pc = peer_transports.get(i);
@@ -2150,9 +2147,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 
 	public void addPeerTransport( PEPeerTransport transport ) {
     if (!ip_filter.isInRange(transport.getIp(), getDisplayName(), getTorrentHash())) {
-			final ArrayList peer_transports = peer_transports_cow;
-
-			if (!peer_transports.contains( transport )) {
+			if (!peer_transports_list.contains( transport )) {
 				addToPeerTransports(transport);
 			}
 			else{
@@ -2180,7 +2175,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 			}
 
 			final int max_to_unchoke = adapter.getMaxUploads();  //how many simultaneous uploads we should consider
-			final ArrayList peer_transports = peer_transports_cow;
+			final ArrayList peer_transports = peer_transports_list.getList();
 
 			//determine proper unchoker
 			if( seeding_mode ) {
@@ -2246,7 +2241,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 	addFastUnchokes(
 		ArrayList	peers_to_unchoke )
 	{
-		for( Iterator<PEPeerTransport> it=peer_transports_cow.iterator();it.hasNext();) {
+		for( Iterator<PEPeerTransport> it=peer_transports_list.getList().iterator();it.hasNext();) {
 
 			PEPeerTransport peer = it.next();
 
@@ -2271,18 +2266,58 @@ DiskManagerCheckRequestListener, IPFilterListener
 		}
 	}
 
-//	send the have requests out
+//	queue the have for the next broadcast - completions within a scheduler time slice go out as one batch
 	private void sendHave(int pieceNumber) {
-		//fo
-		final List<PEPeerTransport> peer_transports = peer_transports_cow;
+
+		synchronized( pending_have_broadcast ){
+
+			pending_have_broadcast.add( pieceNumber );
+		}
+	}
+
+//	send the batched have requests out
+	private void broadcastHaves() {
+
+		final int[] pieces;
+
+		synchronized( pending_have_broadcast ){
+
+			if ( pending_have_broadcast.isEmpty()){
+
+				return;
+			}
+
+			pieces = new int[ pending_have_broadcast.size()];
+
+			for (int i=0;i<pieces.length;i++){
+
+				pieces[i] = pending_have_broadcast.get(i);
+			}
+
+			pending_have_broadcast.clear();
+		}
+
+		have_broadcast_batches++;
+		have_broadcast_pieces += pieces.length;
+
+		final List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 
 		for (int i = 0; i < peer_transports.size(); i++) {
 			//get a peer connection
 			final PEPeerTransport pc = peer_transports.get(i);
-			//send the have message
-			pc.sendHave(pieceNumber);
-		}
 
+				// seeds have no use for our haves
+
+			if ( pc.isSeed()){
+
+				have_broadcast_suppressed++;
+
+				continue;
+			}
+
+			//send the have messages
+			pc.sendHaves(pieces);
+		}
 	}
 
 	// Method that checks if we are connected to another seed, and if so, disconnect from him.
@@ -2297,7 +2332,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 
 		List<PEPeerTransport> to_close = null;
 
-		final List<PEPeerTransport> peer_transports = peer_transports_cow;
+		final List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 		for (int i = 0; i < peer_transports.size(); i++) {
 			final PEPeerTransport pc = peer_transports.get(i);
 
@@ -2326,7 +2361,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 		stats_tick_count++;
 
 		//calculate seeds vs peers
-		final ArrayList<PEPeerTransport> peer_transports = peer_transports_cow;
+		final ArrayList<PEPeerTransport> peer_transports = peer_transports_list.getList();
 
 		int	new_pending_tcp_connections 	= 0;
 		int new_connecting_tcp_connections	= 0;
@@ -2485,6 +2520,11 @@ DiskManagerCheckRequestListener, IPFilterListener
 		if (length > 0){
 			_stats.discarded(peer, length);
 
+			if ( piecePicker.isInEndGameMode()){
+
+				_stats.endGameDiscarded( length );
+			}
+
 				// discards are more likely during end-game-mode
 
 			if ( ban_peer_discard_ratio > 0 && !( piecePicker.isInEndGameMode() || piecePicker.hasEndGameModeBeenAbandoned())){
@@ -2631,11 +2671,12 @@ DiskManagerCheckRequestListener, IPFilterListener
 		if (cancel ||piecePicker.isInEndGameMode())
 		{   // cancel any matching outstanding download requests
 			//For all connections cancel the request
-			final List<PEPeerTransport> peer_transports = peer_transports_cow;
+			//Peers that haven't requested the block, or whose request is still queued locally, send nothing
+			final List<PEPeerTransport> peer_transports = peer_transports_list.getList();
+			final DiskManagerReadRequest dmr =disk_mgr.createReadRequest(pieceNumber, offset, dmPiece.getBlockSize(blockNumber));
 			for (int i=0;i<peer_transports.size();i++)
 			{
 				final PEPeerTransport connection = peer_transports.get(i);
-				final DiskManagerReadRequest dmr =disk_mgr.createReadRequest(pieceNumber, offset, dmPiece.getBlockSize(blockNumber));
 				connection.sendCancel( dmr );
 			}
 		}
@@ -2749,7 +2790,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 				return;
 			//for all peers
 
-			final List<PEPeerTransport> peer_transports = peer_transports_cow;
+			final List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 
 			for (int i = peer_transports.size() - 1; i >= 0; i--) {
 				final PEPeerTransport pc = peer_transports.get(i);
@@ -2804,7 +2845,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 	{
 		int	res = 0;
 
-		Iterator<PEPeerTransport> it = peer_transports_cow.iterator();
+		Iterator<PEPeerTransport> it = peer_transports_list.getList().iterator();
 
 		while( it.hasNext()){
 
@@ -2925,22 +2966,14 @@ DiskManagerCheckRequestListener, IPFilterListener
 				return;
 			}
 
-			if( peer_transports_cow.contains( peer ) ){
+			if( peer_transports_list.contains( peer ) ){
 				Debug.out( "Transport added twice" );
 				return;  //we do not want to close it
 			}
 
 			if( is_running ) {
-				//copy-on-write semantics
-				final ArrayList new_peer_transports = new ArrayList(peer_transports_cow.size() +1);
 
-				new_peer_transports.addAll( peer_transports_cow );
-
-				new_peer_transports.add( peer );
-
-				peer_transports_cow = new_peer_transports;
-
-				added = true;
+				added = peer_transports_list.add( peer );
 			}
 
 			limiters = external_rate_limiters_cow;
@@ -3001,7 +3034,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 
 			external_rate_limiters_cow = new_limiters;
 
-			transports = peer_transports_cow;
+			transports = peer_transports_list.getList();
 
 		}finally{
 
@@ -3048,7 +3081,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 				}
 			}
 
-			transports = peer_transports_cow;
+			transports = peer_transports_list.getList();
 
 		}finally{
 
@@ -3183,10 +3216,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 				}
 			}
 
-			if( peer_transports_cow.contains( peer )) {
-				final ArrayList new_peer_transports = new ArrayList( peer_transports_cow );
-				new_peer_transports.remove(peer);
-				peer_transports_cow = new_peer_transports;
+			if( peer_transports_list.remove( peer )) {
 				connection_found  = true;
 			}
 		}
@@ -3878,7 +3908,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 			int				offset,
 			int				length )
 	{
-		List<PEPeerTransport> peer_transports = peer_transports_cow;
+		List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 
 		DiskManagerReadRequest	request = null;
 
@@ -4047,7 +4077,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 		if ( ip_filter.isEnabled()){  //if ipfiltering is enabled, remove any existing filtered connections
 			List<PEPeerTransport> to_close = null;
 
-			final List<PEPeerTransport>	peer_transports = peer_transports_cow;
+			final List<PEPeerTransport>	peer_transports = peer_transports_list.getList();
 
 			String name 	= getDisplayName();
 			byte[]	hash	= getTorrentHash();
@@ -4146,7 +4176,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 			// turning on/off super-seeding, gotta kick all connected peers so they get the
 			// "right" bitfield
 
-			List<PEPeerTransport> peer_transports = peer_transports_cow;
+			List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 
 			for (int i=0; i < peer_transports.size(); i++) {
 
@@ -4186,7 +4216,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 		PEPeerTransport selectedPeer = null;
 		List<SuperSeedPeer> sortedPeers = null;
 
-		final List<PEPeerTransport>	peer_transports = peer_transports_cow;
+		final List<PEPeerTransport>	peer_transports = peer_transports_list.getList();
 
 		sortedPeers = new ArrayList<SuperSeedPeer>(peer_transports.size());
 		Iterator<PEPeerTransport> iter1 = peer_transports.iterator();
@@ -4422,7 +4452,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 
 		//every 1 second
 		if ( mainloop_loop_count % MAINLOOP_ONE_SECOND_INTERVAL == 0 ){
-			final List<PEPeerTransport> peer_transports = peer_transports_cow;
+			final List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 
 			int num_waiting_establishments = 0;
 
@@ -4621,7 +4651,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 
 		//every 5 seconds
 		if ( mainloop_loop_count % MAINLOOP_FIVE_SECOND_INTERVAL == 0 ) {
-			final List<PEPeerTransport> peer_transports = peer_transports_cow;
+			final List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 
 			for( int i=0; i < peer_transports.size(); i++ ) {
 				final PEPeerTransport transport = peer_transports.get( i );
@@ -4666,7 +4696,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 		if(mainloop_loop_count % MAINLOOP_SIXTY_SECOND_INTERVAL == 0)
 		{
 			goal = 0;
-			sweepList = peer_transports_cow;
+			sweepList = peer_transports_list.getList();
 		} else
 			goal = (int)Math.floor(percentage * sweepList.size());
 
@@ -4685,7 +4715,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 
 		if ( mainloop_loop_count % MAINLOOP_SIXTY_SECOND_INTERVAL == 0 ){
 
-			List<PEPeerTransport> peer_transports = peer_transports_cow;
+			List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 
 			if ( peer_transports.size() > 1 ){
 
@@ -4932,7 +4962,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 			non_pub_extra = 0;
 		}
 
-		final List<PEPeerTransport> peer_transports = peer_transports_cow;
+		final List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 
 		PEPeerTransport max_transport 			= null;
 		PEPeerTransport max_seed_transport		= null;
@@ -5221,7 +5251,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 
 
 	private boolean isAlreadyConnected( PeerItem peer_id ) {
-		final List<PEPeerTransport> peer_transports = peer_transports_cow;
+		final List<PEPeerTransport> peer_transports = peer_transports_list.getList();
 		for( int i=0; i < peer_transports.size(); i++ ) {
 			final PEPeerTransport peer = peer_transports.get( i );
 			if( peer.getPeerItemIdentity().equals( peer_id ) )  return true;
@@ -5264,7 +5294,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 	}
 
 	public void IPBlockedListChanged(IpFilter filter) {
-		Iterator<PEPeerTransport>	it = peer_transports_cow.iterator();
+		Iterator<PEPeerTransport>	it = peer_transports_list.getList().iterator();
 
 		String	name 	= getDisplayName();
 		byte[]	hash	= getTorrentHash();
@@ -5315,7 +5345,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 
 	public int getAverageCompletionInThousandNotation()
 	{
-		final ArrayList peer_transports = peer_transports_cow;
+		final ArrayList peer_transports = peer_transports_list.getList();
 
 		if (peer_transports !=null)
 		{
@@ -5468,7 +5498,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 
 
 	public PEPeerTransport getTransportFromIdentity( byte[] peer_id ) {
-		final List<PEPeerTransport>	peer_transports = peer_transports_cow;
+		final List<PEPeerTransport>	peer_transports = peer_transports_list.getList();
 		for( int i=0; i < peer_transports.size(); i++ ) {
 			final PEPeerTransport conn = peer_transports.get( i );
 			if( Arrays.equals( peer_id, conn.getId() ) )   return conn;
@@ -5480,7 +5510,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 	/* peer item is not reliable for general use
 	public PEPeerTransport getTransportFromPeerItem(PeerItem peerItem)
 	{
-		ArrayList peer_transports =peer_transports_cow;
+		ArrayList peer_transports =peer_transports_list.getList();
 		for (int i =0; i <peer_transports.size(); i++)
 		{
 			PEPeerTransport pt =(PEPeerTransport) peer_transports.get(i);
@@ -5493,7 +5523,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 
 	public PEPeerTransport getTransportFromAddress(String peer)
 	{
-		final List<PEPeerTransport> peer_transports =peer_transports_cow;
+		final List<PEPeerTransport> peer_transports =peer_transports_list.getList();
 		for (int i =0; i <peer_transports.size(); i++)
 		{
 			final PEPeerTransport pt = peer_transports.get(i);
@@ -5593,7 +5623,7 @@ DiskManagerCheckRequestListener, IPFilterListener
 					return(
 						MessageText.getString( "tps.pex.details",
 							new String[]{
-								String.valueOf( peer_transports_cow.size()),
+								String.valueOf( peer_transports_list.size()),
 								String.valueOf( peer_database.getExchangedPeerCount()),
 								String.valueOf( peer_database.getDiscoveredPeerCount())}));
 				}
@@ -5741,19 +5771,23 @@ DiskManagerCheckRequestListener, IPFilterListener
 			}
 
 			piecePicker.generateEvidence( writer );
+
+			writer.println( "Discarded: total=" + _stats.getTotalDiscarded() + ", end-game=" + _stats.getTotalEndGameDiscarded());
+
+			writer.println( "Have broadcast: batches=" + have_broadcast_batches + ", pieces=" + have_broadcast_pieces + ", seed_suppressed=" + have_broadcast_suppressed );
 		}
 
 		try{
 			peer_transports_mon.enter();
 
-			writer.println( "Peers: total = " + peer_transports_cow.size());
+			writer.println( "Peers: total = " + peer_transports_list.size() + ", epoch=" + peer_transports_list.getEpoch() + ", snapshots=" + peer_transports_list.getSnapshotBuildCount());
 
 			writer.indent();
 
 			try{
 				writer.indent();
 
-				Iterator<PEPeerTransport> it2 = peer_transports_cow.iterator();
+				Iterator<PEPeerTransport> it2 = peer_transports_list.getList().iterator();
 
 				while( it2.hasNext()){
 
@@ -28,6 +28,8 @@ PEPeerManagerStats
 {
   
 	public void discarded(PEPeer peer, int length);
+	/** portion of the discarded bytes that was wasted on duplicate end-game requests */
+	public void endGameDiscarded(int length);
 	public void hashFailed(int length);
 	  
 	public void dataBytesReceived(PEPeer peer, int length);
@@ -68,6 +70,7 @@ PEPeerManagerStats
 
 	public long getTotalHashFailBytes();
 	public long getTotalDiscarded();
+	public long getTotalEndGameDiscarded();
 	
 	public int getTimeSinceLastDataReceivedInSeconds();
 	public int getTimeSinceLastDataSentInSeconds();
@@ -51,6 +51,7 @@ PEPeerManagerStatsImpl
 	private long total_protocol_bytes_sent_lan = 0;
 
 	private long totalDiscarded;
+	private long totalEndGameDiscarded;
 	private long hash_fail_bytes;
 
 	private int	last_data_received_seconds;
@@ -92,6 +93,14 @@ PEPeerManagerStatsImpl
 	  adapter.discarded( peer, length );
 	}
 
+	public void endGameDiscarded(int length) {
+	  this.totalEndGameDiscarded += length;
+	}
+
+	public long getTotalEndGameDiscarded() {
+	  return( totalEndGameDiscarded );
+	}
+
 	public void
 	hashFailed(
 		int		length )
@@ -0,0 +1,270 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package connect.peer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import torrentlib.disk.DiskManager;
+import torrentlib.disk.DiskManagerReadRequest;
+
+/**
+ * Per-peer request pipelining controller.<br>
+ *
+ * Round trip times are sampled from the time a block request is queued until the matching piece
+ * arrives. Each sample also includes the time the block spent queued behind earlier requests at the
+ * remote peer, so the base RTT is tracked as a windowed minimum (in the same spirit as BBR's
+ * min_rtt). The outstanding request queue is then sized to cover the bandwidth-delay product
+ * of the peer, never exceeding the queue size the peer advertised via "reqq" in its LTEP handshake.
+ */
+
+public class
+PEPeerRequestPipeliner
+{
+		/** requests allowed when the peer doesn't advertise reqq - matches the piece picker's historical cap */
+
+	public static final int	DEFAULT_MAX_REQUESTS	= 256;
+
+		/** absolute cap even if the peer advertises a larger reqq */
+
+	public static final int	ABSOLUTE_MAX_REQUESTS	= 2048;
+
+	private static final int	MIN_RTT_WINDOW_MILLIS	= 10*1000;
+	private static final int	MIN_RTT_WINDOWS			= 3;
+
+		/** queue to BDP * GAIN/2 - a gain above 1 lets the receive rate, and hence the BDP, grow */
+
+	private static final int	BDP_GAIN_TIMES_2	= 3;
+
+	private static final int	MAX_TRACKED_REQUESTS	= ABSOLUTE_MAX_REQUESTS * 2;
+
+	private final Map<DiskManagerReadRequest,Long>	send_times = new HashMap<DiskManagerReadRequest,Long>();
+
+	private int		remote_queue_size;
+
+	private long	srtt	= -1;
+
+	private final long[]	min_rtt_windows		= new long[ MIN_RTT_WINDOWS ];
+	private long			min_rtt_window_start;
+	private int				min_rtt_window_index;
+
+	private long	samples;
+
+	private int		last_limit;
+	private long	last_receive_rate;
+
+	public
+	PEPeerRequestPipeliner()
+	{
+		for ( int i=0;i<MIN_RTT_WINDOWS;i++ ){
+
+			min_rtt_windows[i] = Long.MAX_VALUE;
+		}
+	}
+
+		/**
+		 * Sets the remote peer's advertised request queue size (LTEP "reqq"), 0 if unknown
+		 */
+
+	public synchronized void
+	setRemoteQueueSize(
+		int		size )
+	{
+		remote_queue_size = size;
+	}
+
+	public synchronized int
+	getRemoteQueueSize()
+	{
+		return( remote_queue_size );
+	}
+
+	public synchronized void
+	requestSent(
+		DiskManagerReadRequest	request,
+		long					now_mono )
+	{
+		if ( send_times.size() >= MAX_TRACKED_REQUESTS ){
+
+				// something's leaking (requests removed via a path we don't see), start afresh
+
+			send_times.clear();
+		}
+
+		send_times.put( request, new Long( now_mono ));
+	}
+
+	public synchronized void
+	requestRemoved(
+		DiskManagerReadRequest	request )
+	{
+		send_times.remove( request );
+	}
+
+	public synchronized void
+	reset()
+	{
+		send_times.clear();
+	}
+
+	public synchronized void
+	blockReceived(
+		DiskManagerReadRequest	request,
+		long					now_mono )
+	{
+		Long	sent = send_times.remove( request );
+
+		if ( sent == null ){
+
+			return;
+		}
+
+		long	rtt = now_mono - sent.longValue();
+
+		if ( rtt < 0 ){
+
+			return;
+		}
+
+		if ( rtt == 0 ){
+
+			rtt = 1;
+		}
+
+		samples++;
+
+		if ( srtt < 0 ){
+
+			srtt = rtt;
+
+		}else{
+
+			srtt = ( srtt*7 + rtt ) / 8;
+		}
+
+		if ( now_mono - min_rtt_window_start >= MIN_RTT_WINDOW_MILLIS || now_mono < min_rtt_window_start ){
+
+			min_rtt_window_start	= now_mono;
+			min_rtt_window_index	= ( min_rtt_window_index + 1 ) % MIN_RTT_WINDOWS;
+
+			min_rtt_windows[ min_rtt_window_index ] = rtt;
+
+		}else if ( rtt < min_rtt_windows[ min_rtt_window_index ]){
+
+			min_rtt_windows[ min_rtt_window_index ] = rtt;
+		}
+	}
+
+		/**
+		 * @return the base round trip time estimate in millis, -1 if unknown
+		 */
+
+	public synchronized long
+	getMinRTT()
+	{
+		long	min = Long.MAX_VALUE;
+
+		for ( int i=0;i<MIN_RTT_WINDOWS;i++ ){
+
+			min = Math.min( min, min_rtt_windows[i] );
+		}
+
+		return( min==Long.MAX_VALUE?-1:min );
+	}
+
+		/**
+		 * @return the smoothed request->piece time in millis (includes remote queueing), -1 if unknown
+		 */
+
+	public synchronized long
+	getSmoothedRTT()
+	{
+		return( srtt );
+	}
+
+		/**
+		 * Computes the number of requests to keep outstanding.
+		 * @param heuristic_limit	the limit computed by the piece picker's rate-based heuristic
+		 * @param receive_rate		current data receive rate from the peer in bytes/sec
+		 */
+
+	public synchronized int
+	getQueueLimit(
+		int		heuristic_limit,
+		long	receive_rate )
+	{
+		int	limit = heuristic_limit;
+
+		long	min_rtt = getMinRTT();
+
+		if ( min_rtt > 0 && receive_rate > 0 ){
+
+			long	bdp_bytes = ( receive_rate * min_rtt * BDP_GAIN_TIMES_2 ) / 2000;
+
+			long	bdp_blocks = ( bdp_bytes + DiskManager.BLOCK_SIZE - 1 ) / DiskManager.BLOCK_SIZE + 1;
+
+			if ( bdp_blocks > limit ){
+
+				limit = (int)Math.min( bdp_blocks, ABSOLUTE_MAX_REQUESTS );
+			}
+		}
+
+		int	cap = remote_queue_size > 0?Math.min( remote_queue_size, ABSOLUTE_MAX_REQUESTS ):DEFAULT_MAX_REQUESTS;
+
+		if ( limit > cap ){
+
+			limit = cap;
+		}
+
+		last_limit			= limit;
+		last_receive_rate	= receive_rate;
+
+		return( limit );
+	}
+
+		/**
+		 * @return the throughput (bytes/sec) the current queue limit could sustain given the base RTT, -1 if unknown
+		 */
+
+	public synchronized long
+	getPotentialRate()
+	{
+		long	min_rtt = getMinRTT();
+
+		if ( min_rtt <= 0 || last_limit <= 0 ){
+
+			return( -1 );
+		}
+
+		return(((long)last_limit * DiskManager.BLOCK_SIZE * 1000 ) / min_rtt );
+	}
+
+	public synchronized long
+	getAchievedRate()
+	{
+		return( last_receive_rate );
+	}
+
+	public synchronized String
+	getString()
+	{
+		return( "rtt=" + getMinRTT() + "/" + srtt + ",samp=" + samples + ",reqq=" + remote_queue_size +
+				",limit=" + last_limit + ",rate=" + last_receive_rate + "/" + getPotentialRate());
+	}
+}
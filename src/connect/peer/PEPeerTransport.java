@@ -61,6 +61,15 @@ PEPeerTransport
 	public void
 	sendHave(
 		int		piece );
+	
+		/**
+		 * Sends haves for a batch of pieces. The array is shared across peers and must not be modified
+		 * @param pieces
+		 */
+	
+	public void
+	sendHaves(
+		int[]	pieces );
 		
 	public void
 	sendCancel(
@@ -143,6 +152,13 @@ PEPeerTransport
 	
 	public int
 	getNbRequests();
+
+		/**
+		 * @return the request pipelining controller for this peer, null if the peer manages its own requests
+		 */
+
+	public PEPeerRequestPipeliner
+	getRequestPipeliner();
 	
 	public PEPeerControl
 	getControl();
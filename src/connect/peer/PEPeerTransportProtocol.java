@@ -190,6 +190,9 @@ implements PEPeerTransport
 	protected PEPeerStats peer_stats;
 
 	private final ArrayList requested = new ArrayList();
+	private final PEPeerRequestPipeliner	request_pipeliner = new PEPeerRequestPipeliner();
+	private int	cancels_sent;
+	private int	cancels_coalesced;
 	private final AEMonitor	requested_mon = new AEMonitor( "PEPeerTransportProtocol:Req" );
 
 	private Map data;
@@ -1512,6 +1515,8 @@ implements PEPeerTransport
 				}
 			}else{
 
+				request_pipeliner.requestSent( request, SystemTime.getMonotonousTime());
+
 				connection.getOutgoingMessageQueue().addMessage( new BTRequest( pieceNumber, pieceOffset, pieceLength, other_peer_request_version ), false );
 			}
 
@@ -1566,8 +1571,13 @@ implements PEPeerTransport
 	public void sendCancel( DiskManagerReadRequest request ) {
 		if ( current_peer_state != TRANSFERING ) return;
 		if ( hasBeenRequested( request ) ) {
-			removeRequest( request );
+			if ( removeRequest( request )){
+					// request was still queued locally so the peer never saw it - nothing to cancel
+				cancels_coalesced++;
+				return;
+			}
       connection.getOutgoingMessageQueue().addMessage( new BTCancel( request.getPieceNumber(), request.getOffset(), request.getLength(), other_peer_cancel_version ), false );
+      cancels_sent++;
 		}
 	}
 
@@ -1586,6 +1596,32 @@ implements PEPeerTransport
 		checkInterested();
 	}
 
+	public void sendHaves( int[] pieceNumbers ) {
+		if ( current_peer_state != TRANSFERING ) return;
+
+		final int hidden_piece = manager.getHiddenPiece();
+
+		boolean force = have_aggregation_disabled;
+
+		if ( !force && !other_peer_interested_in_me && peerHavePieces != null ){
+
+			for (int i=0;i<pieceNumbers.length;i++){
+
+				final int pieceNumber = pieceNumbers[i];
+
+				if ( pieceNumber != hidden_piece && !peerHavePieces.flags[pieceNumber] ){
+
+					force = true;
+
+					break;
+				}
+			}
+		}
+
+		outgoing_have_message_aggregator.queueHaveMessages( pieceNumbers, hidden_piece, force );
+		checkInterested();
+	}
+
 
 	public void sendChoke() {
 		if ( current_peer_state != TRANSFERING ) return;
@@ -2159,6 +2195,8 @@ implements PEPeerTransport
 					final DiskManagerReadRequest request =(DiskManagerReadRequest) requested.remove(i);
 					manager.requestCanceled(request);
 				}
+
+				request_pipeliner.reset();
 			}finally{
 
 				requested_mon.exit();
@@ -2177,6 +2215,12 @@ implements PEPeerTransport
 		return requested.size();
 	}
 
+	public PEPeerRequestPipeliner
+	getRequestPipeliner()
+	{
+		return( request_pipeliner );
+	}
+
 	/**
 	 *
 	 * @return	may be null for performance purposes
@@ -2223,7 +2267,11 @@ implements PEPeerTransport
 		finally{  requested_mon.exit();  }
 	}
 
-	protected void
+		/**
+		 * @return true if the request message hadn't been sent yet and was removed from the outgoing queue
+		 */
+
+	protected boolean
 	removeRequest(
 			DiskManagerReadRequest	request )
 	{
@@ -2235,9 +2283,13 @@ implements PEPeerTransport
 
 			requested_mon.exit();
 		}
+
+		request_pipeliner.requestRemoved( request );
+
 	    	final BTRequest msg = new BTRequest( request.getPieceNumber(), request.getOffset(), request.getLength(), other_peer_request_version );
-		connection.getOutgoingMessageQueue().removeMessage( msg, false );
+		boolean unsent = connection.getOutgoingMessageQueue().removeMessage( msg, false );
 		msg.destroy();
+		return( unsent );
 	}
 
 	private void
@@ -2877,6 +2929,8 @@ implements PEPeerTransport
 
 	  LTMessageEncoder encoder = (LTMessageEncoder)connection.getOutgoingMessageQueue().getEncoder();
 	  encoder.updateSupportedExtensions(handshake.getExtensionMapping());
+
+	  request_pipeliner.setRemoteQueueSize( handshake.getRequestQueueSize());
 	  this.ut_pex_enabled = encoder.supportsUTPEX();
 
 	  if ( is_metadata_download ){
@@ -3740,6 +3794,7 @@ implements PEPeerTransport
 		boolean piece_error = true;
 
 		if( hasBeenRequested( request ) ) {  //from active request
+			request_pipeliner.blockReceived( request, SystemTime.getMonotonousTime());
 			removeRequest( request );
 			final long now =SystemTime.getCurrentTime();
 			resetRequestsTime(now);
@@ -5574,6 +5629,7 @@ implements PEPeerTransport
 				",last_recv=" + last_message_received_time + "/" + last_data_message_received_time + "/" + last_good_data_time );
 		writer.println( "    conn_at=" + connection_established_time + ",cons_no_reqs=" + consecutive_no_request_count +
 				",discard=" + requests_discarded + "/" + requests_discarded_endgame + ",recov=" + requests_recovered + ",comp=" + requests_completed + ",curr=" + requested.size());
+		writer.println( "    pipeline: " + request_pipeliner.getString() + ",cancels=" + cancels_sent + "/" + cancels_coalesced );
 
 	}
 
@@ -21,7 +21,7 @@ package connect.peer.messaging;
 
 import torrentlib.Debug;
 import torrentlib.DirectByteBufferPool;
-import torrentlib.BEncoder;
+import torrentlib.BEncoderDirect;
 import torrentlib.BDecoder;
 import torrentlib.DirectByteBuffer;
 import java.util.Map;
@@ -37,24 +37,17 @@ public class MessagingUtil {
    * @return bencoded serialization
    */
   public static DirectByteBuffer convertPayloadToBencodedByteStream( Map payload, byte alloc_id ) {
-    byte[] raw_payload;
-    
     try {
-      raw_payload = BEncoder.encode( payload );
-      
-      if ( raw_payload == null || raw_payload.length == 0 ){
-    	  
-    	  throw( new Exception( "Encoding failed" ));
-      }
+    	// sized up front and encoded straight into the pooled buffer
+    	
+      return BEncoderDirect.encode( payload, alloc_id );
     }
     catch( Throwable t ) {
       System.err.println( "Payload encoding failed: " + payload );
       Debug.out( t );
-      raw_payload = new byte[0];
     }
     
-    DirectByteBuffer buffer = DirectByteBufferPool.getBuffer( alloc_id, raw_payload.length );
-    buffer.put( DirectByteBuffer.SS_MSG, raw_payload );
+    DirectByteBuffer buffer = DirectByteBufferPool.getBuffer( alloc_id, 0 );
     buffer.flip( DirectByteBuffer.SS_MSG );
     
     return buffer;
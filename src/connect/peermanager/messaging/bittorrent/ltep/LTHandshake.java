@@ -231,6 +231,28 @@ public class LTHandshake implements LTMessage {
 		return( 0 );
 	}
 	
+		/**
+		 * @return the number of outstanding requests the peer is willing to queue ("reqq"), 0 if not advertised
+		 */
+	
+	public int
+	getRequestQueueSize()
+	{
+		Object o = data_dict.get( "reqq" );
+		
+		if ( o instanceof Long ){
+			
+			long l = ((Long)o).longValue();
+			
+			if ( l > 0 && l <= 0xffff ){
+				
+				return((int)l );
+			}
+		}
+		
+		return( 0 );
+	}
+	
 	public void
 	addDefaultExtensionMappings(
 		boolean		enable_pex,
@@ -21,7 +21,14 @@
  */
 package connect.peermanager.piecepicker;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
 import torrentlib.disk.DiskManager;
+import torrentlib.disk.DiskManagerReadRequest;
+import connect.peer.PEPeer;
+import connect.peer.PEPeerTransport;
 import connect.peer.PEPiece;
 
 /**
@@ -37,6 +44,9 @@ public class EndGameModeChunk
 	private final int	offset;
 	private final int	length;
 
+		/** end-game requests issued for this chunk as [PEPeerTransport,DiskManagerReadRequest] */
+	private List<Object[]>	requests;
+
 	public EndGameModeChunk(PEPiece pePiece, int blockNum)
 	{
 		//this.piece = piece;
@@ -87,4 +97,116 @@ public class EndGameModeChunk
 	{
 		return length;
 	}
+
+	public void
+	addRequest(
+		PEPeerTransport			peer,
+		DiskManagerReadRequest	request )
+	{
+		if ( requests == null ){
+
+			requests = new ArrayList<Object[]>(2);
+		}
+
+		requests.add( new Object[]{ peer, request });
+	}
+
+		/**
+		 * Drops requests whose peer has gone away or which the peer no longer has outstanding
+		 * @return number of requests still outstanding for this chunk
+		 */
+
+	public int
+	pruneRequests()
+	{
+		if ( requests == null ){
+
+			return( 0 );
+		}
+
+		Iterator<Object[]>	it = requests.iterator();
+
+		while( it.hasNext()){
+
+			Object[]	entry = it.next();
+
+			PEPeerTransport	peer = (PEPeerTransport)entry[0];
+
+			if ( 	peer.getPeerState() != PEPeer.TRANSFERING ||
+					peer.getRequestIndex((DiskManagerReadRequest)entry[1]) == -1 ){
+
+				it.remove();
+			}
+		}
+
+		return( requests.size());
+	}
+
+	public boolean
+	isRequestedFrom(
+		PEPeerTransport		peer )
+	{
+		if ( requests != null ){
+
+			for ( Object[] entry: requests ){
+
+				if ( entry[0] == peer ){
+
+					return( true );
+				}
+			}
+		}
+
+		return( false );
+	}
+
+		/**
+		 * @return the earliest estimated arrival time (absolute millis) of this block across the
+		 * outstanding requests, Long.MAX_VALUE if none
+		 */
+
+	public long
+	getBestETA(
+		long		now )
+	{
+		long	best = Long.MAX_VALUE;
+
+		if ( requests != null ){
+
+			for ( Object[] entry: requests ){
+
+				PEPeerTransport	peer = (PEPeerTransport)entry[0];
+
+				int	index = peer.getRequestIndex((DiskManagerReadRequest)entry[1]);
+
+				if ( index >= 0 ){
+
+					best = Math.min( best, now + getETA( peer, index ));
+				}
+			}
+		}
+
+		return( best );
+	}
+
+	public static long
+	getETA(
+		PEPeerTransport		peer,
+		int					queue_position )
+	{
+		long	rate = peer.getStats().getDataReceiveRate();
+
+		if ( rate < 1 ){
+
+			rate = 1;
+		}
+
+		return((( queue_position + 1L ) * DiskManager.BLOCK_SIZE * 1000 ) / rate );
+	}
+
+	public String
+	toString()
+	{
+		return( pieceNumber + "/" + blockNumber + (requests==null?"":("[" + requests.size() + "]")));
+	}
 }
@@ -0,0 +1,37 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package connect.peermanager.piecepicker;
+
+	/**
+	 * An RTA provider whose RTAs are playback deadlines. Lagging blocks are only re-requested
+	 * from faster peers (endgame style) when their deadline falls within the duplicate horizon,
+	 * i.e. close to the playhead, to limit discard.
+	 */
+
+public interface 
+PieceDeadlineProvider 
+	extends PieceRTAProvider
+{
+		/**
+		 * @return millis from now within which lagging blocks may be duplicated to a faster peer
+		 */
+	
+	public long
+	getDuplicateHorizonMillis();
+}
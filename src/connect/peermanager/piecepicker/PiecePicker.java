@@ -67,6 +67,8 @@ public interface PiecePicker
 
 	public boolean	isInEndGameMode();
 	public boolean	hasEndGameModeBeenAbandoned();
+	/** @return total millis spent in end-game mode, including any current spell */
+	public long		getEndGameModeMillis();
 	public void		clearEndGameChunks();
 	/** adds all blocks in the piece to endGameModeChunks
 	 * @param pePiece
@@ -31,6 +31,7 @@ import torrentlib.RandomUtils;
 import torrentlib.LightHashMap;
 import torrentlib.AENetworkClassifier;
 import connect.peer.PEPeerTransport;
+import connect.peer.PEPeerRequestPipeliner;
 import connect.peer.PEPieceImpl;
 import connect.peer.PEPeerControl;
 import connect.peer.PEPeerManager;
@@ -130,6 +131,10 @@ implements PiecePicker
 	private static final long END_GAME_MODE_RESERVED_TRIGGER	= 5 * 1024*1024;
 	private static final long END_GAME_MODE_SIZE_TRIGGER		= 20 * 1024*1024;
 	private static final long END_GAME_MODE_TIMEOUT				= 60 * END_GAME_MODE_SIZE_TRIGGER / DiskManager.BLOCK_SIZE;
+	/** Max outstanding end-game requests per block, a further one is only issued if it is expected to beat the others */
+	private static final int END_GAME_MODE_MAX_DUPLICATES		= 3;
+	/** Number of chunks to consider per end-game allocation attempt */
+	private static final int END_GAME_MODE_CHUNK_ATTEMPTS		= 8;
 
 	protected static volatile boolean	firstPiecePriority	=COConfigurationManager.getBooleanParameter("Prioritize First Piece" );
 	protected static volatile boolean	completionPriority	=COConfigurationManager.getBooleanParameter("Prioritize Most Completed Files");
@@ -212,12 +217,17 @@ implements PiecePicker
 	private volatile boolean	endGameMode;
 	private volatile boolean	endGameModeAbandoned;
 	private volatile long		timeEndGameModeEntered;
+	private long				endGameModeTotalMillis;
+	private long				endGameModeRequests;
+	private long				endGameModeDuplicateRequests;
+	private long				endGameModeDuplicatesRefused;
 	/** The list of chunks needing to be downloaded (the mechanism change when entering end-game mode) */
 	private List 				endGameModeChunks;
 
 	private long				lastProviderRecalcTime;
 	private CopyOnWriteList		rta_providers = new CopyOnWriteList();
 	private long[]				provider_piece_rtas;
+	private long				provider_duplicate_horizon	= Long.MAX_VALUE;
 	private CopyOnWriteList		priority_providers = new CopyOnWriteList();
 	private long[]				provider_piece_priorities;
 
@@ -1033,6 +1043,15 @@ implements PiecePicker
 							maxRequests =peer_requests_min +(int) (pt.getStats().getDataReceiveRate() /SLOPE_REQUESTS);
 							if (maxRequests >REQUESTS_MAX ||maxRequests <0)
 								maxRequests =REQUESTS_MAX;
+
+								// size the queue to the peer's bandwidth-delay product where we have an RTT estimate
+							
+							final PEPeerRequestPipeliner pipeliner = pt.getRequestPipeliner();
+							
+							if ( pipeliner != null ){
+								
+								maxRequests = pipeliner.getQueueLimit( maxRequests, pt.getStats().getDataReceiveRate());
+							}
 						}else{
 							maxRequests =2;
 						}
@@ -1734,10 +1753,12 @@ implements PiecePicker
 	
 									break;	// earlier blocks always have priority
 	
-								}else if ( best_eta > piece_rta && ( best_uploader || !try_allocate_even_though_late )){
+								}else if ( 	best_eta > piece_rta && ( best_uploader || !try_allocate_even_though_late ) &&
+											piece_rta - now <= provider_duplicate_horizon ){
 	
 										// don't re-allocate when we're already running late as we'll end up
-										// with a lot of discard
+										// with a lot of discard. deadline providers also restrict duplication
+										// to blocks close to the playhead
 									
 									if ( LOG_RTA ) rta_log_str += "{lagging=" + i + ",block=" + j+ ",time=" + ( best_eta - piece_rta) + "}";
 	
@@ -2446,6 +2467,20 @@ implements PiecePicker
     	return( endGameModeAbandoned );
     }
     
+    public long
+    getEndGameModeMillis()
+    {
+		try{
+			endGameModeChunks_mon.enter();
+			
+			return( endGameModeTotalMillis + ( endGameMode?SystemTime.getMonotonousTime() - timeEndGameModeEntered:0 ));
+			
+		}finally{
+			
+			endGameModeChunks_mon.exit();
+		}
+    }
+    
 	/** adds every block from the piece to the list of chuncks to be selected for egm requesting
 	 * 
 	 */ 
@@ -2485,47 +2520,89 @@ implements PiecePicker
 			return 0;
 		}
 		
-			// Ok, we try one, if it doesn't work, we'll try another next time
+			// we try a few chunks, if none work we'll try again next time
 		
 		try{
 			endGameModeChunks_mon.enter();
 
-			final int nbChunks =endGameModeChunks.size();
+			int nbChunks =endGameModeChunks.size();
 			
 			if (nbChunks >0){
 				
-				final int random =RandomUtils.generateRandomIntUpto(nbChunks);
+				final long now = SystemTime.getMonotonousTime();
 				
-				final EndGameModeChunk chunk =(EndGameModeChunk) endGameModeChunks.get(random);
+				final long my_eta = now + EndGameModeChunk.getETA( pt, pt.getNbRequests());
 				
-				final int pieceNumber =chunk.getPieceNumber();
+				final int attempts = Math.min( nbChunks, END_GAME_MODE_CHUNK_ATTEMPTS );
 				
-				if (dmPieces[pieceNumber].isWritten(chunk.getBlockNumber())){
+				for ( int attempt=0; attempt<attempts && nbChunks > 0; attempt++ ){
+				
+					final int random =RandomUtils.generateRandomIntUpto(nbChunks);
 					
-					endGameModeChunks.remove(chunk);
+					final EndGameModeChunk chunk =(EndGameModeChunk) endGameModeChunks.get(random);
 					
-					return 0;
-				}
-				
-				final PEPiece	pePiece = pePieces[pieceNumber];
-				
-				if ( pt.isPieceAvailable(pieceNumber) && pePiece != null ){
+					final int pieceNumber =chunk.getPieceNumber();
+					
+					if (dmPieces[pieceNumber].isWritten(chunk.getBlockNumber())){
+						
+						endGameModeChunks.remove(random);
+						
+						nbChunks--;
+						
+						continue;
+					}
+					
+					final PEPiece	pePiece = pePieces[pieceNumber];
+					
+					if ( !pt.isPieceAvailable(pieceNumber) || pePiece == null ){
+						
+						continue;
+					}
+					
+					if ( pt.isSnubbed() && availability[pieceNumber] >peerControl.getNbPeersSnubbed()){
+						
+						continue;
+					}
 					
-					if ( ( !pt.isSnubbed() || availability[pieceNumber] <=peerControl.getNbPeersSnubbed()) &&
-							pt.request(pieceNumber, chunk.getOffset(), chunk.getLength(),false) != null ){
+						// bound the number of duplicates: only add another request for the block if
+						// this peer is expected to deliver it before those already asked
+					
+					final int outstanding = chunk.pruneRequests();
+					
+					if ( outstanding > 0 ){
+						
+						if ( 	outstanding >= END_GAME_MODE_MAX_DUPLICATES ||
+								chunk.isRequestedFrom( pt ) ||
+								my_eta >= chunk.getBestETA( now )){
+							
+							endGameModeDuplicatesRefused++;
+							
+							continue;
+						}
+					}
+					
+					final DiskManagerReadRequest request = pt.request(pieceNumber, chunk.getOffset(), chunk.getLength(),false);
+					
+					if ( request != null ){
 										
+						chunk.addRequest( pt, request );
+						
 						pePiece.setRequested(pt, chunk.getBlockNumber());
 					
 						pt.setLastPiece(pieceNumber);
 					
-						return( 1 );
-						
-					}else{
+						endGameModeRequests++;
 						
+						if ( outstanding > 0 ){
+							
+							endGameModeDuplicateRequests++;
+						}
 						
-						return( 0 );
+						return( 1 );
 					}
 				}
+				
+				return( 0 );
 			}
 			
 				// we're here because there are no endgame mode chunks left
@@ -2585,6 +2662,11 @@ implements PiecePicker
 			
 			endGameModeChunks.clear();
 			
+			if ( endGameMode ){
+				
+				endGameModeTotalMillis += SystemTime.getMonotonousTime() - timeEndGameModeEntered;
+			}
+			
 			endGameMode = false;
 			
 		}finally{
@@ -2611,6 +2693,8 @@ implements PiecePicker
 				
 				endGameModeChunks.clear();
 				
+				endGameModeTotalMillis += SystemTime.getMonotonousTime() - timeEndGameModeEntered;
+				
 				timeEndGameModeEntered = 0;
 			}
 		}finally{
@@ -2629,9 +2713,9 @@ implements PiecePicker
 
 				endGameModeAbandoned = true;
 				
-				endGameMode = false;
-				
 				clearEndGameChunks();
+				
+				endGameMode = false;
 		
 				if (Logger.isEnabled())
 					Logger.log(new LogEvent(diskManager.getTorrent(), LOGID, "Abandoning end-game mode: "
@@ -2713,6 +2797,8 @@ implements PiecePicker
 
 			boolean	has_rta = false;
 
+			long	duplicate_horizon = Long.MAX_VALUE;
+
 			// prolly more efficient to reallocate than reset to 0
 
 			provider_piece_rtas = new long[nbPieces];
@@ -2728,6 +2814,11 @@ implements PiecePicker
 					continue;
 				}
 
+				if ( shaper instanceof PieceDeadlineProvider ){
+
+					duplicate_horizon = Math.min( duplicate_horizon, ((PieceDeadlineProvider)shaper).getDuplicateHorizonMillis());
+				}
+
 				for (int j=0;j<offsets.length;j++){
 
 					long rta = offsets[j];
@@ -2748,6 +2839,8 @@ implements PiecePicker
 				}
 			}
 
+			provider_duplicate_horizon = duplicate_horizon;
+
 			return( has_rta );
 		}
 	}
@@ -3235,6 +3328,7 @@ implements PiecePicker
 			writer.println( "endGameMode: " + endGameMode );
 			writer.println( "endGameModeAbandoned: " + endGameModeAbandoned );
 			writer.println( "endGameModeChunks: " + endGameModeChunks );			
+			writer.println( "endGameMode: millis=" + getEndGameModeMillis() + ",req=" + endGameModeRequests + ",dup=" + endGameModeDuplicateRequests + ",refused=" + endGameModeDuplicatesRefused );
 
 		}finally{
 
@@ -127,6 +127,37 @@ public class OutgoingBTHaveMessageAggregator {
   }
   
   
+  /**
+   * Queue a batch of have messages for aggregated sending. The batch is typically
+   * shared across all of a download's connections so must not be modified.
+   * @param piece_numbers of the have messages
+   * @param exclude_piece piece to skip (e.g. hidden piece), -1 for none
+   * @param force if true, send these and any other pending haves right away
+   */
+  public void queueHaveMessages( int[] piece_numbers, int exclude_piece, boolean force ) {
+    if( destroyed )  return;
+    
+    try{
+      pending_haves_mon.enter();
+    
+      for( int i=0; i < piece_numbers.length; i++ ){
+    	  
+    	if ( piece_numbers[i] != exclude_piece ){
+    		
+    	  pending_haves.add( new Integer( piece_numbers[i] ));
+    	}
+      }
+      
+      if( force || pending_haves.size() * 9 >= outgoing_message_q.getMssSize()) {
+        sendPendingHaves();
+      }
+    }finally{
+    	
+    	pending_haves_mon.exit();
+    }
+  }
+  
+  
   /**
    * Destroy the aggregator, along with any pending messages.
    */
@@ -40,6 +40,7 @@ TRTrackerAnnouncerResponseImpl
 	private String			failure_reason;
 	
 	private boolean			was_udp_probe		= false;
+	private boolean			host_busy			= false;
 	private int				scrape_complete		= -1;
 	private int				scrape_incomplete	= -1;
 	private int				scrape_downloaded	= -1;
@@ -151,6 +152,23 @@ TRTrackerAnnouncerResponseImpl
 	{
 		return( was_udp_probe );
 	}
+
+		/**
+		 * Marks a response standing in for an announce that wasn't sent because we already had
+		 * as many requests running to the tracker as we allow. It says nothing about the tracker
+		 */
+
+	public void
+	setHostBusy()
+	{
+		host_busy = true;
+	}
+
+	public boolean
+	wasHostBusy()
+	{
+		return( host_busy );
+	}
 	
 	public long
 	getTimeToWait()
@@ -34,7 +34,6 @@ import torrentlib.UrlUtils;
 import torrentlib.BEncoder;
 import torrentlib.HashWrapper;
 import torrentlib.BDecoder;
-import torrentlib.RandomUtils;
 import torrentlib.AddressUtils;
 import torrentlib.AENetworkClassifier;
 import torrentlib.Base32;
@@ -45,7 +44,7 @@ import connect.tracker.protocol.udp.PRUDPPacketReplyConnect;
 import connect.tracker.protocol.udp.PRUDPPacketRequestAnnounce;
 import connect.tracker.protocol.udp.PRUDPPacketRequestAnnounce2;
 import connect.tracker.protocol.udp.PRUDPPacketReplyAnnounce;
-import connect.tracker.protocol.udp.PRUDPPacketRequestConnect;
+import connect.tracker.protocol.udp.PRUDPTrackerSession;
 import connect.tracker.protocol.udp.PRUDPPacketReplyAnnounce2;
 import connect.tracker.client.TRTrackerAnnouncerImpl;
 import connect.tracker.client.TRTrackerAnnouncerResponseImpl;
@@ -76,11 +75,8 @@ import java.util.zip.GZIPInputStream;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLSession;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
 
 import controller.config.COConfigurationManager;
 import controller.config.ParameterListener;
@@ -95,6 +91,7 @@ import torrentlib.data.torrent.TOTorrent;
 import torrentlib.data.torrent.TOTorrentAnnounceURLSet;
 import torrentlib.data.torrent.TOTorrentException;
 import connect.tracker.protocol.PRHelpers;
+import connect.tracker.util.TRTrackerHTTPConnections;
 import connect.tracker.util.TRTrackerUtils;
 import torrentlib.Timer;
 import plugins.clientid.ClientIDException;
@@ -715,6 +712,8 @@ TRTrackerBTAnnouncerImpl
 	
 			last_update_time_secs	= SystemTime.getCurrentTime()/1000;
 			
+			String	previous_status_str = tracker_status_str;
+			
 			tracker_status_str = MessageText.getString("PeerManager.status.checking") + "..."; //$NON-NLS-1$ //$NON-NLS-2$      
 		
 			TRTrackerAnnouncerResponseImpl	response = null;
@@ -785,6 +784,15 @@ TRTrackerBTAnnouncerImpl
 				response = updateSupport();
 			}
 						
+			if ( response != null && response.wasHostBusy()){
+				
+					// deferred rather than failed, the tracker's status is whatever it last was
+				
+				tracker_status_str = previous_status_str;
+				
+				return( response.getTimeToWait());
+			}
+			
 			if ( response != null ){
 
 				int	rs = response.getStatus();
@@ -955,6 +963,7 @@ TRTrackerBTAnnouncerImpl
   update2(String evt) 
   {
   	TRTrackerAnnouncerResponseImpl	last_failure_resp = null;
+  	TRTrackerAnnouncerResponseImpl	busy_resp			= null;
 	
   	String	skip_host = null;
   	
@@ -1077,6 +1086,23 @@ TRTrackerBTAnnouncerImpl
 				 last_failure_resp = resp;
 			 }
 			 
+		  }catch( TRTrackerHTTPConnections.HostBusyException e ){
+			  
+			  	// not the tracker's fault so neither a failure nor a backoff, just try again shortly
+			  
+			if ( busy_resp == null ){
+				
+				busy_resp = 
+			  		new TRTrackerAnnouncerResponseImpl( 
+			  				original_url,
+			  				torrent_hash,
+			  				TRTrackerAnnouncerResponse.ST_OFFLINE, 
+			  				TRTrackerHTTPConnections.getBusyRetrySecs(), 
+							e.getMessage());
+				
+				busy_resp.setHostBusy();
+			}
+			
 		  }catch( MalformedURLException e ){
 		  	
 			announceFailCount++;
@@ -1113,6 +1139,11 @@ TRTrackerBTAnnouncerImpl
 	   
 		// things no good here
 	
+		if ( last_failure_resp == null && busy_resp != null ){
+			
+			return( busy_resp );
+		}
+		
 		if ( last_failure_resp == null ){
 			
 		  	last_failure_resp = 
@@ -1323,6 +1354,12 @@ TRTrackerBTAnnouncerImpl
 						failure_reason = exceptionToString( e );
 						
 					}
+				}catch( TRTrackerHTTPConnections.HostBusyException e ){
+					
+						// nothing was sent, the caller reschedules
+					
+					throw( e );
+					
 				}catch( IOException e ){
 					
 					if ( e instanceof UnknownHostException || e instanceof ConnectException ){
@@ -1521,16 +1558,8 @@ TRTrackerBTAnnouncerImpl
  				
  					// meh, some https trackers are just screwed
  				
-				TrustManager[] trustAllCerts = SESecurityManager.getAllTrustingTrustManager();
-			
 				try{
-					SSLContext sc = SSLContext.getInstance("SSL");
-					
-					sc.init(null, trustAllCerts, RandomUtils.SECURE_RANDOM);
-					
-					SSLSocketFactory factory = sc.getSocketFactory();
-					
-					ssl_con.setSSLSocketFactory( factory );
+					ssl_con.setSSLSocketFactory( TRTrackerHTTPConnections.getTrustAllSocketFactory());
 					
 				}catch( Throwable e ){
 				}
@@ -1562,12 +1591,20 @@ TRTrackerBTAnnouncerImpl
  			con.setRequestProperty("User-Agent", user_agent );
  		}
  		
- 		con.setRequestProperty("Connection", "close" );
- 		
  		// some trackers support gzip encoding of replies
  		
  		con.addRequestProperty("Accept-Encoding","gzip");
  		
+ 			// connection is left open for reuse if we get the whole reply
+ 		
+ 			// a "stopped" is only sent once so it mustn't be turned away for being one too many
+ 		
+ 		boolean	stopping = "stopped".equals( getURLParam( reqUrl.toString(), "event" ));
+ 		
+ 		TRTrackerHTTPConnections.Request http_request = TRTrackerHTTPConnections.startRequest( reqUrl, TRTrackerHTTPConnections.RT_ANNOUNCE, stopping );
+ 		
+ 		boolean	complete = false;
+ 		
  		try{
  			
  			try{
@@ -1704,6 +1741,8 @@ TRTrackerBTAnnouncerImpl
  					}
  				}
  				
+ 				complete = failure_reason == null;
+ 				
  				if (Logger.isEnabled())
 					Logger.log(new LogEvent(torrent, LOGID, "Tracker Announcer ["
 							+ lastUsedUrl + "] has received : " + message));
@@ -1735,7 +1774,7 @@ TRTrackerBTAnnouncerImpl
  				}
  			}
  		}finally{
- 			con.disconnect();
+ 			http_request.end( con, complete );
  		}
  		
  		return( failure_reason );
@@ -1769,21 +1808,25 @@ TRTrackerBTAnnouncerImpl
  				 auth = SESecurityManager.getPasswordAuthentication( UDP_REALM, reqUrl );
  			}
  						
- 			PRUDPPacketHandler handler = PRUDPPacketHandlerFactory.getHandler( UDPNetworkManager.getSingleton().getUDPNonDataListeningPortNumber());
+ 			PRUDPPacketHandler base_handler = PRUDPPacketHandlerFactory.getHandler( UDPNetworkManager.getSingleton().getUDPNonDataListeningPortNumber());
  			
  			InetSocketAddress destination = new InetSocketAddress(reqUrl.getHost(),reqUrl.getPort()==-1?80:reqUrl.getPort());
 
- 			handler = handler.openSession( destination );
+ 			PRUDPPacketHandler handler = base_handler.openSession( destination );
+ 			
+ 				// connection ids are shared with other torrents on the tracker unless we're proxied
+ 			
+ 			PRUDPTrackerSession session = PRUDPTrackerSession.getSession( destination, handler == base_handler && auth == null );
  			
  			try{
 	 			
+ 				boolean	reconnected = false;
+ 				
 	 			for (int retry_loop=0;retry_loop<PRUDPPacketTracker.DEFAULT_RETRY_COUNT;retry_loop++){
 	 				
 	 				try{
 	 			
-			 			PRUDPPacket connect_request = new PRUDPPacketRequestConnect();
-			 			
-			 			PRUDPPacket reply = handler.sendAndReceive( auth, connect_request, destination, timeout );
+			 			PRUDPPacket reply = session.connect( handler, auth, timeout );
 			 			
 			 			if ( reply.getAction() == PRUDPPacketTracker.ACT_REPLY_CONNECT ){
 			 			
@@ -1902,7 +1945,7 @@ TRTrackerBTAnnouncerImpl
 									getLongURLParam( url_str, "uploaded" ));	
 			 				}
 			 				
-			 				reply = handler.sendAndReceive( auth, request, destination );
+			 				reply = session.sendAndReceive( handler, auth, request, PRUDPPacket.DEFAULT_UDP_TIMEOUT );
 			 			
 			 				if ( reply.getAction() == PRUDPPacketTracker.ACT_REPLY_ANNOUNCE ){
 			 					
@@ -1979,6 +2022,16 @@ TRTrackerBTAnnouncerImpl
 			 			
 			 				failure_reason = ((PRUDPPacketReplyError)reply).getMessage();
 			 				
+			 					// a shared connection id may have been expired early by the tracker, one
+			 					// retry with a new one
+			 				
+			 				if ( 	!reconnected &&
+			 						session.connectionRejected( request, (PRUDPPacketReplyError)reply )){
+			 					
+			 					reconnected = true;
+			 					
+			 					retry_loop--;
+			 				}
 			 			}else{
 			 				
 			 				failure_reason = ((PRUDPPacketReplyError)reply).getMessage();
@@ -339,6 +339,11 @@ public class TrackerChecker implements AEDiagnosticsEvidenceGenerator, SystemTim
 	
 	TRTrackerBTScraperResponseImpl oldResponse;
 	
+		// when the response returned by checkForNextScrape is due, taking its tracker's request
+		// budget into account
+	
+	private long nextResponseTime;
+	
   private void 
   runScrapes() 
   {
@@ -352,7 +357,7 @@ public class TrackerChecker implements AEDiagnosticsEvidenceGenerator, SystemTim
 					"Next scrape will be "
 							+ nextResponseScraping.getURL()
 							+ " in "
-							+ ((nextResponseScraping.getNextScrapeStartTime() - SystemTime.getCurrentTime())/1000)
+							+ ((nextResponseTime - SystemTime.getCurrentTime())/1000)
 							+ " sec,type="
 							+ (nextResponseScraping.getTrackerStatus().getSupportsMultipeHashScrapes()
 									? "multi" : "single")
@@ -368,7 +373,7 @@ public class TrackerChecker implements AEDiagnosticsEvidenceGenerator, SystemTim
 
 			} else {
 
-				long scrape_time = nextResponseScraping.getNextScrapeStartTime();
+				long scrape_time = nextResponseTime;
 
 				long time_to_scrape = scrape_time - SystemTime.getCurrentTime()
 						+ SystemTime.TIME_GRANULARITY_MILLIS;
@@ -426,6 +431,8 @@ public class TrackerChecker implements AEDiagnosticsEvidenceGenerator, SystemTim
 		long earliestNonBlocked = Long.MAX_VALUE;
 		TRTrackerBTScraperResponseImpl earliestNonBlockedResponse = null;
 
+		long now = SystemTime.getCurrentTime();
+
 		try {
 			trackers_mon.enter();
 
@@ -441,6 +448,12 @@ public class TrackerChecker implements AEDiagnosticsEvidenceGenerator, SystemTim
 
 				boolean hasActiveScrapes = ts.getNumActiveScrapes() > 0;
 
+					// a tracker that has used up its request budget doesn't hold up the others
+
+				long scrapeDelay = ts.getScrapeDelay();
+
+				long allowedTime = scrapeDelay > 0 ? now + scrapeDelay : 0;
+
 				Map hashmap = ts.getHashes();
 
 				try {
@@ -453,7 +466,7 @@ public class TrackerChecker implements AEDiagnosticsEvidenceGenerator, SystemTim
 						TRTrackerBTScraperResponseImpl response = (TRTrackerBTScraperResponseImpl) iterHashes.next();
 
 						if (response.getStatus() != TRTrackerScraperResponse.ST_SCRAPING) {
-							long nextScrapeStartTime = response.getNextScrapeStartTime();
+							long nextScrapeStartTime = Math.max( response.getNextScrapeStartTime(), allowedTime );
 
 							if (hasActiveScrapes) {
 								if (nextScrapeStartTime < earliestBlocked) {
@@ -484,8 +497,10 @@ public class TrackerChecker implements AEDiagnosticsEvidenceGenerator, SystemTim
 		// return the blocked scrape with in hopes that it gets unblocked soon
 		if (hasEarlierBlockedScrape
 				&& earliestNonBlocked - SystemTime.getCurrentTime() > 2000) {
+			nextResponseTime = earliestBlocked;
 			return earliestBlockedResponse;
 		} else {
+			nextResponseTime = earliestNonBlocked;
 			return earliestNonBlockedResponse;
 		}
 	}
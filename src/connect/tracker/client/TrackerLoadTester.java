@@ -20,6 +20,13 @@
  */
 package connect.tracker.client;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLEncoder;
@@ -44,11 +51,105 @@ public class TrackerLoadTester {
     }
   }
      
+  private int udpOk;
+  private int udpFailed;
+  
+  /**
+   * UDP (BEP 15) mode : each thread connects then announces for every client of its share of
+   * the torrents, reports announces per second
+   */
+  public TrackerLoadTester(final int nbTorrents,final int nbClientsPerTorrent,String host,int udpPort,final int nbThreads) {
+    final InetSocketAddress target = new InetSocketAddress(host,udpPort);
+    Thread[] threads = new Thread[nbThreads];
+    long start = System.currentTimeMillis();
+    for(int t = 0 ; t < nbThreads ; t++) {
+      final int first = t;
+      threads[t] = new Thread() {
+        public void run() {
+          udpAnnounces(target,first,nbThreads,nbTorrents,nbClientsPerTorrent);
+        }
+      };
+      threads[t].start();
+    }
+    try {
+      for(int t = 0 ; t < nbThreads ; t++) {
+        threads[t].join();
+      }
+    } catch(InterruptedException e) {
+      e.printStackTrace();
+    }
+    long elapsed = Math.max(1,System.currentTimeMillis() - start);
+    System.out.println("threads=" + nbThreads + ", announces=" + udpOk + ", failed=" + udpFailed + ", elapsed=" + elapsed + "ms, rate=" + (udpOk * 1000L / elapsed) + "/sec");
+  }
+  
+  private void udpAnnounces(InetSocketAddress target,int first,int step,int nbTorrents,int nbClientsPerTorrent) {
+    int ok = 0;
+    int failed = 0;
+    try {
+      DatagramSocket socket = new DatagramSocket();
+      socket.setSoTimeout(5000);
+      byte[] reply = new byte[8192];
+      DatagramPacket in = new DatagramPacket(reply,reply.length);
+      
+      long connectionId = 0x41727101980L;
+      socket.send(udpPacket(connectionId,0,0,null,null,0,target));
+      socket.receive(in);
+      connectionId = new DataInputStream(new ByteArrayInputStream(reply,8,8)).readLong();
+      
+      for(int i = first ; i < nbTorrents ; i += step) {
+        byte[] hash = generate20BytesHash(i);
+        for(int j = 0 ; j < nbClientsPerTorrent ; j++) {
+          byte[] peerId = generate20BytesHash(j);
+          socket.send(udpPacket(connectionId,1,i*nbClientsPerTorrent+j,hash,peerId,6881+j,target));
+          in.setData(reply);
+          socket.receive(in);
+          if(reply[3] == 1) ok++; else failed++;
+        }
+      }
+      socket.close();
+    } catch(Exception e) {
+      e.printStackTrace();
+    }
+    synchronized(this) {
+      udpOk += ok;
+      udpFailed += failed;
+    }
+  }
+     
   public static void main(String args[]) {
     if(args.length < 2) return;
     int nbTorrents = Integer.parseInt(args[0]);
     int nbClientsPerTorrent = Integer.parseInt(args[1]);
-    new TrackerLoadTester(nbTorrents,nbClientsPerTorrent);
+    if(args.length >= 3) {
+      // host:port of a UDP tracker, optionally followed by the number of threads
+      String[] bits = args[2].split(":");
+      int nbThreads = args.length >= 4 ? Integer.parseInt(args[3]) : 1;
+      new TrackerLoadTester(nbTorrents,nbClientsPerTorrent,bits[0],Integer.parseInt(bits[1]),nbThreads);
+    } else {
+      new TrackerLoadTester(nbTorrents,nbClientsPerTorrent);
+    }
+  }
+  
+  private DatagramPacket udpPacket(long connectionId,int action,int transactionId,byte[] hash,byte[] peerId,int port,InetSocketAddress target) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream(98);
+    DataOutputStream dos = new DataOutputStream(baos);
+    dos.writeLong(connectionId);
+    dos.writeInt(action);
+    dos.writeInt(transactionId);
+    if(action == 1) {
+      dos.write(hash);
+      dos.write(peerId);
+      dos.writeLong(0);   // downloaded
+      dos.writeLong(0);   // left
+      dos.writeLong(0);   // uploaded
+      dos.writeInt(0);    // event
+      dos.writeInt(0);    // ip
+      dos.writeInt(0);    // key
+      dos.writeInt(50);   // num want
+      dos.writeShort(port);
+    }
+    byte[] data = baos.toByteArray();
+    return new DatagramPacket(data,data.length,target);
   }
   
   private void announce(String trackerURL,byte[] hash,byte[] peerId,int port) {
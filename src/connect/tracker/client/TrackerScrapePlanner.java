@@ -0,0 +1,256 @@
+/*
+ * Created on 19-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package connect.tracker.client;
+
+import java.util.*;
+
+import controller.config.COConfigurationManager;
+import controller.config.ParameterListener;
+import torrentlib.RandomUtils;
+import torrentlib.SystemTime;
+
+/**
+ * Decides which hashes go into a tracker's next scrape and when that scrape may be sent.<br>
+ *
+ * A scrape takes every hash that falls due within GROUP_WINDOW of the one that triggered it,
+ * earliest first, up to the batch limit - so a tracker with many torrents gets a few full
+ * requests per interval rather than many small ones. The batch limit starts at the configured
+ * maximum (UDP packets are capped at UDP_HASH_LIMIT regardless) and is halved each time the
+ * tracker rejects a request as too long.<br>
+ *
+ * Requests to each tracker are paced by a token bucket refilled at the configured rate, and are
+ * never sent closer together than the tracker's recent average response time. Each batch is given
+ * a random delay of up to MAX_JITTER on its next scrape time so that batches that happened to be
+ * sent together drift apart rather than hitting the tracker in lock-step every interval.
+ */
+
+public class
+TrackerScrapePlanner
+{
+		// 28 + 16 + 70*20 -> IPv4/udp packet size of 1444 , that should go through most lines unfragmented
+
+	protected static final int	UDP_HASH_LIMIT	= 70;
+
+	private static final int	GROUP_WINDOW	= 15*60*1000;
+	private static final int	MAX_JITTER		= 2*60*1000;
+	private static final int	BURST			= 2;
+
+	private static int	max_hashes;
+	private static int	requests_per_min;
+
+	static{
+		COConfigurationManager.addAndFireParameterListeners(
+			new String[]{
+				"Tracker Client Scrape Max Hashes",
+				"Tracker Client Scrape Max Per Minute"
+			},
+			new ParameterListener()
+			{
+				public void
+				parameterChanged(
+					String	name )
+				{
+					max_hashes			= Math.max( 1, Math.min( UDP_HASH_LIMIT, COConfigurationManager.getIntParameter( "Tracker Client Scrape Max Hashes" )));
+					requests_per_min	= Math.max( 1, COConfigurationManager.getIntParameter( "Tracker Client Scrape Max Per Minute" ));
+				}
+			});
+	}
+
+	private static final Comparator<TRTrackerScraperResponseImpl>	due_comparator =
+		new Comparator<TRTrackerScraperResponseImpl>()
+		{
+			public int
+			compare(
+				TRTrackerScraperResponseImpl	r1,
+				TRTrackerScraperResponseImpl	r2 )
+			{
+				long	t1 = r1.getNextScrapeStartTime();
+				long	t2 = r2.getNextScrapeStartTime();
+
+				return( t1<t2?-1:(t1==t2?0:1));
+			}
+		};
+
+	private int		batch_limit		= UDP_HASH_LIMIT;
+
+	private double	tokens			= BURST;
+	private long	token_time		= SystemTime.getMonotonousTime();
+
+	private long	last_complete	= -1;
+	private long	avg_latency		= -1;
+	private long	max_latency;
+
+	private long	requests;
+	private long	failures;
+	private long	hashes_requested;
+
+		/**
+		 * @return the number of hashes that may be put into one request
+		 */
+
+	protected synchronized int
+	getBatchLimit()
+	{
+		return( Math.min( batch_limit, max_hashes ));
+	}
+
+		/**
+		 * Picks the hashes to scrape along with 'first', which has already been marked as scraping.
+		 * Caller must hold the tracker's hashes monitor
+		 */
+
+	protected List<TRTrackerScraperResponseImpl>
+	selectBatch(
+		TRTrackerScraperResponseImpl				first,
+		Collection<TRTrackerScraperResponseImpl>	candidates )
+	{
+		int	limit = getBatchLimit();
+
+		if ( limit <= 1 ){
+
+			return( Collections.emptyList());
+		}
+
+		long	horizon = Math.max( first.getNextScrapeStartTime(), SystemTime.getCurrentTime()) + GROUP_WINDOW;
+
+		List<TRTrackerScraperResponseImpl>	due = new ArrayList<TRTrackerScraperResponseImpl>();
+
+		for ( TRTrackerScraperResponseImpl r: candidates ){
+
+			if ( 	r != first &&
+					r.getStatus() != TRTrackerScraperResponse.ST_SCRAPING &&
+					r.getNextScrapeStartTime() <= horizon ){
+
+				due.add( r );
+			}
+		}
+
+		if ( due.size() >= limit ){
+
+			Collections.sort( due, due_comparator );
+
+			due = due.subList( 0, limit - 1 );
+		}
+
+		return( due );
+	}
+
+		/**
+		 * @return how long until the next request may be sent, 0 if it may be sent now
+		 */
+
+	protected synchronized long
+	getRequestDelay()
+	{
+		long	now = SystemTime.getMonotonousTime();
+
+		refill( now );
+
+		long	delay = 0;
+
+		if ( tokens < 1 ){
+
+			delay = (long)(( 1 - tokens ) * 60*1000 / requests_per_min );
+		}
+
+		if ( avg_latency > 0 && last_complete >= 0 ){
+
+			delay = Math.max( delay, last_complete + avg_latency - now );
+		}
+
+		return( delay );
+	}
+
+		/**
+		 * Charges a request against the budget. Forced scrapes are charged too and can overdraw it
+		 */
+
+	protected synchronized void
+	requestStarted(
+		int		num_hashes )
+	{
+		refill( SystemTime.getMonotonousTime());
+
+		tokens -= 1;
+
+		requests++;
+
+		hashes_requested += num_hashes;
+	}
+
+	protected synchronized void
+	requestCompleted(
+		boolean		ok,
+		long		latency )
+	{
+		last_complete = SystemTime.getMonotonousTime();
+
+		if ( !ok ){
+
+			failures++;
+		}
+
+		if ( latency >= 0 ){
+
+			avg_latency = avg_latency<0?latency:(( avg_latency*7 + latency ) / 8 );
+
+			max_latency	= Math.max( max_latency, latency );
+		}
+	}
+
+		/**
+		 * Called when the tracker has rejected a request of the given size as too long
+		 * @return false if the tracker can only take one hash at a time
+		 */
+
+	protected synchronized boolean
+	reduceBatchLimit(
+		int		attempted )
+	{
+		batch_limit = Math.max( 1, Math.min( batch_limit, attempted ) / 2 );
+
+		return( batch_limit > 1 );
+	}
+
+	protected long
+	getBatchJitter()
+	{
+		return( RandomUtils.RANDOM.nextInt( MAX_JITTER ));
+	}
+
+	private void
+	refill(
+		long	now )
+	{
+		if ( now > token_time ){
+
+			tokens = Math.min( BURST, tokens + ( now - token_time ) * requests_per_min / ( 60*1000.0 ));
+		}
+
+		token_time = now;
+	}
+
+	protected synchronized String
+	getString()
+	{
+		return( "batch=" + getBatchLimit() + ",req=" + requests + ",fail=" + failures +
+				",hashes=" + hashes_requested + ",latency=" + avg_latency + "/" + max_latency +
+				",tokens=" + ((int)( tokens*100 ))/100.0 );
+	}
+}
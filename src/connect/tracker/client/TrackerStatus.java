@@ -30,14 +30,13 @@ import torrentlib.HashWrapper;
 import torrentlib.BDecoder;
 import torrentlib.ByteEncodedKeyHashMap;
 import torrentlib.AENetworkClassifier;
-import torrentlib.RandomUtils;
 import torrentlib.StringInterner;
 import torrentlib.util.TorrentUtils;
 import torrentlib.UrlUtils;
 import connect.tracker.protocol.udp.PRUDPPacketRequestScrape;
 import connect.tracker.protocol.udp.PRUDPTrackerCodecs;
 import connect.tracker.protocol.udp.PRUDPPacketReplyError;
-import connect.tracker.protocol.udp.PRUDPPacketRequestConnect;
+import connect.tracker.protocol.udp.PRUDPTrackerSession;
 import connect.tracker.protocol.udp.PRUDPPacketReplyScrape2;
 import connect.tracker.protocol.udp.PRUDPPacketTracker;
 import connect.tracker.protocol.udp.PRUDPPacketReplyScrape;
@@ -53,11 +52,8 @@ import java.util.zip.GZIPInputStream;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLSession;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
 
 import controller.config.COConfigurationManager;
 import controller.config.ParameterListener;
@@ -71,6 +67,7 @@ import connect.tracker.client.TRTrackerScraperClientResolver;
 import connect.tracker.client.TRTrackerScraperResponse;
 import connect.tracker.client.TRTrackerScraperImpl;
 import connect.tracker.client.TRTrackerScraperResponseImpl;
+import connect.tracker.util.TRTrackerHTTPConnections;
 import connect.tracker.util.TRTrackerUtils;
 import plugins.clientid.ClientIDException;
 import plugins.clientid.ClientIDGenerator;
@@ -103,13 +100,6 @@ public class TrackerStatus {
   	private final static int		FAULTY_SCRAPE_RETRY_INTERVAL	= 60 * 10 * 1000;
 	private final static int		NOHASH_RETRY_INTERVAL			= 1000 * 60 * 60 * 3;							// 3 hrs
 	
-	/**
-	 * When scraping a single hash, also scrape other hashes that are going to
-	 * be scraped within this range.
-	 */
-	private final static int		GROUP_SCRAPES_MS				= 60 * 15 * 1000;
-	private final static int		GROUP_SCRAPES_LIMIT				= 20;
-	
 	private static boolean tcpScrapeEnabled; 
 	private static boolean udpScrapeEnabled; 
 	private static boolean udpProbeEnabled; 
@@ -159,6 +149,8 @@ public class TrackerStatus {
   
   private final AtomicInteger numActiveScrapes = new AtomicInteger(0);
 
+  private final TrackerScrapePlanner planner = new TrackerScrapePlanner();
+
   public 
   TrackerStatus(
   	TrackerChecker 			_checker, 
@@ -319,32 +311,19 @@ public class TrackerStatus {
 		    	try{
 		    	  hashes_mon.enter();
 		    		
-			      Iterator iterHashes = hashes.values().iterator();
-			      
-			      	// if we hit trackers with excessive scrapes they respond in varying fashions - from no reply
-			      	// to returning 414 to whatever. Rather than hit trackers with large payloads that they then
-			      	// reject we limit to MULTI_SCRAPE_LIMIT in one go
-			      
-			      while( iterHashes.hasNext() && responsesToUpdate.size() < GROUP_SCRAPES_LIMIT ){
-			      	
-			        TRTrackerScraperResponseImpl r = (TRTrackerScraperResponseImpl)iterHashes.next();
-			        
-			        if ( !r.getHash().equals( hash )) {
-			        	
-			          long lTimeDiff = Math.abs(lMainNextScrapeStartTime - r.getNextScrapeStartTime());
-			          
-			          if (lTimeDiff <= GROUP_SCRAPES_MS && r.getStatus() != TRTrackerScraperResponse.ST_SCRAPING) {
+		    	  	// if we hit trackers with excessive scrapes they respond in varying fashions - from no reply
+		    	  	// to returning 414 to whatever. The planner limits the batch and backs it off on 414s
+		    	  
+			      for ( TRTrackerScraperResponseImpl r: planner.selectBatch( response, hashes.values())){
 			          	
-			    	    	r.setStatus(TRTrackerScraperResponse.ST_SCRAPING,
-			    						MessageText.getString(SS + "scraping.queued"));
-			      			if (Logger.isEnabled()) {
-			    					Logger.log(new LogEvent(TorrentUtils.getDownloadManager(r.getHash()), LOGID,
-			    						"TrackerStatus:" + scrapeURL + ": setting to scraping via group scrape"));
-			      			}
+		    	    	r.setStatus(TRTrackerScraperResponse.ST_SCRAPING,
+		    						MessageText.getString(SS + "scraping.queued"));
+		      			if (Logger.isEnabled()) {
+		    					Logger.log(new LogEvent(TorrentUtils.getDownloadManager(r.getHash()), LOGID,
+		    						"TrackerStatus:" + scrapeURL + ": setting to scraping via group scrape"));
+		      			}
 			            
 			            responsesToUpdate.add(r);
-			          }
-			        }
 			      }
 		      }finally{
 		      	
@@ -352,6 +331,8 @@ public class TrackerStatus {
 		      }
 			}
 		    
+		    planner.requestStarted( responsesToUpdate.size());
+		    
 		    runScrapes(responsesToUpdate,  force, async);
 		    
   		}catch( Throwable t ) {
@@ -419,6 +400,10 @@ public class TrackerStatus {
 
 			List<TRTrackerScraperResponseImpl> activeResponses = responsesInQuery;
 
+			long	request_start	= -1;
+			long	request_latency	= -1;
+			boolean	request_ok		= false;
+
 			try {
 				// if URL already includes a query component then just append our
 				// params
@@ -505,9 +490,7 @@ public class TrackerStatus {
 												
 						one_of_the_hashes = hash;
 						
-							// 28 + 16 + 70*20 -> IPv4/udp packet size of 1444 , that should go through most lines unfragmented
-						
-						if ( hashesForUDP.size() < 70 ){
+						if ( hashesForUDP.size() < TrackerScrapePlanner.UDP_HASH_LIMIT ){
 							
 							hashesForUDP.add(hash);
 							responsesForUDP.add( response );
@@ -588,6 +571,8 @@ public class TrackerStatus {
 		  			}
 		  		}
 		  		
+		  		request_start = SystemTime.getMonotonousTime();
+		  		
 		  		try{
 		  				// set context in case authentication dialog is required
 		  			
@@ -630,9 +615,13 @@ public class TrackerStatus {
 					TorrentUtils.setTLSTorrentHash( null );
 				}
 				
+				request_latency = SystemTime.getMonotonousTime() - request_start;
+				
 				scrape_reply = message.toByteArray();
 				
 				Map map = BDecoder.decode( scrape_reply );
+				
+				request_ok = true;
 								
 				boolean	this_is_az_tracker = map.get( "aztracker" ) != null;
 				
@@ -780,6 +769,11 @@ public class TrackerStatus {
 								+ " hash scrape(s), but we asked for " + activeResponses.size()));
 				}
 
+					// one random offset for the whole batch keeps it together for the next round
+					// while spreading it relative to other batches
+				
+				long batch_jitter = planner.getBatchJitter();
+				
 				for ( TRTrackerScraperResponseImpl response: activeResponses ){
 
 					// LGLogger.log( "decoding response #" +i+ ": " +
@@ -908,7 +902,7 @@ public class TrackerStatus {
 								.calcScrapeIntervalSecs(iMinRequestInterval, seeds);
 
 						long nextScrapeTime = SystemTime.getCurrentTime()
-								+ (scrapeInterval * 1000);
+								+ (scrapeInterval * 1000) + batch_jitter;
 						response.setNextScrapeStartTime(nextScrapeTime);
 
 						// create the response
@@ -950,6 +944,19 @@ public class TrackerStatus {
 					}
 				} // for responses
 
+			} catch (TRTrackerHTTPConnections.HostBusyException e) {
+				
+					// nothing was sent - not a tracker failure, just retry shortly
+				
+				request_start = -1;
+				
+				for ( TRTrackerScraperResponseImpl response: activeResponses ){
+					response.setNextScrapeStartTime(SystemTime.getCurrentTime()
+							+ TRTrackerHTTPConnections.getBusyRetrySecs()*1000L);
+					response.setStatus(TRTrackerScraperResponse.ST_INITIALIZING, MessageText
+							.getString(SS + "scraping.queued"));
+					scraper.scrapeReceived(response);
+				}
 			} catch (NoClassDefFoundError ignoreSSL) { // javax/net/ssl/SSLSocket
 				for ( TRTrackerScraperResponseImpl response: activeResponses ){
 					response.setNextScrapeStartTime(SystemTime.getCurrentTime()
@@ -982,9 +989,8 @@ public class TrackerStatus {
 				setAllError(activeResponses,e);
 			} catch (Exception e) {
 				
-				// for apache we can get error 414 - URL too long. simplest solution
-				// for this
-				// is to fall back to single scraping
+				// for apache we can get error 414 - URL too long. back off the batch
+				// size, falling back to single scraping once it gets down to one
 
 				String error_message = e.getMessage();
 				
@@ -1002,7 +1008,13 @@ public class TrackerStatus {
 
   				if (error_message.indexOf("414") != -1
   						&& !bSingleHashScrapes) {
-  					bSingleHashScrapes = true;
+  					if ( !planner.reduceBatchLimit( activeResponses.size())){
+  						bSingleHashScrapes = true;
+  					}
+  					if (Logger.isEnabled())
+  						Logger.log(new LogEvent(LOGID, LogEvent.LT_WARNING, scrapeURL
+  								+ " rejected a scrape of " + activeResponses.size() + " hashes, limit now "
+  								+ planner.getBatchLimit()));
   					// Skip the setuing up the response.  We want to scrape again
   					return;
   				}
@@ -1043,8 +1055,13 @@ public class TrackerStatus {
 					// notifiy listeners
 					scraper.scrapeReceived(response);
 				}
+			}finally{
+				
+				if ( request_start >= 0 ){
+					
+					planner.requestCompleted( request_ok, request_latency>=0?request_latency:SystemTime.getMonotonousTime() - request_start );
+				}
 			}
-
 		} catch (Throwable t) {
 			Debug.out("runScrapesSupport failed", t);
 		} finally {
@@ -1262,8 +1279,13 @@ public class TrackerStatus {
 
 			InputStream is = null;
 
+			HttpURLConnection con = null;
+
+			TRTrackerHTTPConnections.Request http_request = null;
+
+			boolean complete = false;
+
 			try{
-				HttpURLConnection con = null;
 
 				if ( reqUrl.getProtocol().equalsIgnoreCase("https")){
 
@@ -1301,16 +1323,8 @@ public class TrackerStatus {
 			 				
 		 					// meh, some https trackers are just screwed
 		 				
-						TrustManager[] trustAllCerts = SESecurityManager.getAllTrustingTrustManager();
-					
 						try{
-							SSLContext sc = SSLContext.getInstance("SSL");
-							
-							sc.init(null, trustAllCerts, RandomUtils.SECURE_RANDOM);
-							
-							SSLSocketFactory factory = sc.getSocketFactory();
-							
-							ssl_con.setSSLSocketFactory( factory );
+							ssl_con.setSSLSocketFactory( TRTrackerHTTPConnections.getTrustAllSocketFactory());
 							
 						}catch( Throwable e ){
 						}
@@ -1346,7 +1360,9 @@ public class TrackerStatus {
 
 				con.addRequestProperty("Accept-Encoding","gzip");
 
-				con.setRequestProperty("Connection", "close" );
+					// connection is left open for reuse if we get the whole reply
+
+				http_request = TRTrackerHTTPConnections.startRequest( reqUrl, TRTrackerHTTPConnections.RT_SCRAPE );
 
 				try{
 					con.connect();
@@ -1437,6 +1453,9 @@ public class TrackerStatus {
 						return( null );
 					}
 				}
+
+				complete = true;
+
 			}catch( SSLException e ){
 				
 				if ( connect_loop < 3 ){
@@ -1502,6 +1521,11 @@ public class TrackerStatus {
 						is.close();
 					} catch (IOException e1) { }
 				}
+
+				if ( http_request != null ){
+
+					http_request.end( con, complete );
+				}
 			}
 
 			return( redirect_url );
@@ -1560,21 +1584,23 @@ public class TrackerStatus {
 	
 		int port = UDPNetworkManager.getSingleton().getUDPNonDataListeningPortNumber();
 		
-		PRUDPPacketHandler handler = PRUDPPacketHandlerFactory.getHandler( port );
+		PRUDPPacketHandler base_handler = PRUDPPacketHandlerFactory.getHandler( port );
 		
 		InetSocketAddress destination = new InetSocketAddress(reqUrl.getHost(),reqUrl.getPort()==-1?80:reqUrl.getPort());
 
-		handler = handler.openSession( destination );
+		PRUDPPacketHandler handler = base_handler.openSession( destination );
 
+			// connection id shared with the announces to this tracker
+		
+		PRUDPTrackerSession session = PRUDPTrackerSession.getSession( destination, handler == base_handler && auth == null );
+		
 		try{			
 			String	failure_reason = null;
 			
 			for (int retry_loop=0;retry_loop<PRUDPPacketTracker.DEFAULT_RETRY_COUNT;retry_loop++){
 			
 				try{
-					PRUDPPacket connect_request = new PRUDPPacketRequestConnect();
-					
-					PRUDPPacket reply = handler.sendAndReceive( auth, connect_request, destination );
+					PRUDPPacket reply = session.connect( handler, auth, PRUDPPacket.DEFAULT_UDP_TIMEOUT );
 					
 					if ( reply.getAction() == PRUDPPacketTracker.ACT_REPLY_CONNECT ){
 						
@@ -1584,7 +1610,7 @@ public class TrackerStatus {
 						
 						PRUDPPacketRequestScrape scrape_request = new PRUDPPacketRequestScrape( my_connection, hashes );
 										
-						reply = handler.sendAndReceive( auth, scrape_request, destination );
+						reply = session.sendAndReceive( handler, auth, scrape_request, PRUDPPacket.DEFAULT_UDP_TIMEOUT );
 						
 						if ( reply.getAction() == PRUDPPacketTracker.ACT_REPLY_SCRAPE ){
 		
@@ -1672,6 +1698,10 @@ public class TrackerStatus {
 									Logger.log(new LogEvent(LOGID, LogEvent.LT_ERROR,
 											"Response from scrape interface "+ reqUrl +" : " + failure_reason));
 							
+								// drop a shared connection id the tracker no longer accepts
+							
+							session.connectionRejected( scrape_request, (PRUDPPacketReplyError)reply );
+							
 							break;
 						}
 					}else{
@@ -1820,9 +1850,16 @@ public class TrackerStatus {
 	protected String
 	getString()
 	{	  
-	  return( tracker_url + ", " + scrapeURL + ", multi-scrape=" + !bSingleHashScrapes );
+	  return( tracker_url + ", " + scrapeURL + ", multi-scrape=" + !bSingleHashScrapes + ", " + planner.getString());
 	}
 	
+	/**
+	 * @return ms until the tracker's request budget allows the next (non-forced) scrape
+	 */
+	protected long getScrapeDelay() {
+		return planner.getRequestDelay();
+	}
+
 	public int getNumActiveScrapes() {
 		return numActiveScrapes.get();
 	}
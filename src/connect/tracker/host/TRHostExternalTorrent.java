@@ -218,6 +218,15 @@ TRHostExternalTorrent
 	{
 	}
 	
+	public byte[]
+	getPieceHash(
+		int		piece_number )
+	
+		throws TOTorrentException
+	{
+		throw( new TOTorrentException( "External torrent has no pieces", TOTorrentException.RT_READ_FAILS ));
+	}
+	
 	public int
 	getNumberOfPieces()
 	{
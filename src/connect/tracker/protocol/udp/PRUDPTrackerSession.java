@@ -0,0 +1,465 @@
+/*
+ * Created on 19-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package connect.tracker.protocol.udp;
+
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.util.*;
+
+import torrentlib.AEDiagnostics;
+import torrentlib.AEDiagnosticsEvidenceGenerator;
+import torrentlib.AEMonitor;
+import torrentlib.IndentWriter;
+import torrentlib.SystemTime;
+
+import comm.udp.PRUDPPacket;
+import comm.udp.PRUDPPacketHandler;
+import comm.udp.PRUDPPacketHandlerException;
+import comm.udp.PRUDPPacketHandlerTimeoutException;
+import comm.udp.PRUDPPacketRequest;
+
+/**
+ * Client side state for one UDP tracker, shared by all the torrents announcing to and scraping it.<br>
+ *
+ * The connection id from a connect exchange is reused by every request to the tracker for
+ * CONNECTION_ID_LIFETIME (trackers accept an id for at least two minutes) and concurrent requests
+ * that need a new one wait for a single connect rather than each sending their own, so starting
+ * a couple of thousand torrents costs one packet exchange per torrent rather than two. The requests
+ * themselves all go through the shared packet handler socket and so are in flight together.<br>
+ *
+ * Lost packets are retransmitted after a timeout derived from the tracker's measured round trip
+ * time (srtt + 4*rttvar, doubled on each retry) instead of waiting out the whole request timeout
+ * on one packet.<br>
+ *
+ * Connection ids are only shared between unauthenticated requests made directly from our socket -
+ * an id is tied to the address it was issued to, so requests via a socks proxy get a private session.
+ */
+
+public class
+PRUDPTrackerSession
+{
+	private static final long	CONNECTION_ID_LIFETIME	= 60*1000;
+
+	private static final long	INITIAL_RTO		= 5000;
+	private static final long	MIN_RTO			= 1000;
+	private static final long	MAX_RTO			= 15000;
+
+	private static final int	MAX_SESSIONS	= 1024;
+
+	private static final String[]	CONNECTION_ID_REJECTIONS = {
+		"connection id mismatch",
+		"connection id missmatch",
+		"bad connection id",
+		"invalid connection id",
+	};
+
+	private static final Map<InetSocketAddress,PRUDPTrackerSession>	sessions =
+		new LinkedHashMap<InetSocketAddress,PRUDPTrackerSession>( MAX_SESSIONS, 0.75f, true )
+		{
+			protected boolean
+			removeEldestEntry(
+				Map.Entry<InetSocketAddress,PRUDPTrackerSession>	eldest )
+			{
+				return( size() > MAX_SESSIONS );
+			}
+		};
+
+	private static final AEMonitor	class_mon	= new AEMonitor( "PRUDPTrackerSession" );
+
+	static{
+		AEDiagnostics.addEvidenceGenerator(
+			new AEDiagnosticsEvidenceGenerator()
+			{
+				public void
+				generate(
+					IndentWriter		writer )
+				{
+					List<PRUDPTrackerSession>	list;
+
+					try{
+						class_mon.enter();
+
+						list = new ArrayList<PRUDPTrackerSession>( sessions.values());
+
+					}finally{
+
+						class_mon.exit();
+					}
+
+					writer.println( "UDP tracker sessions: " + list.size());
+
+					try{
+						writer.indent();
+
+						for ( PRUDPTrackerSession session: list ){
+
+							writer.println( session.getString());
+						}
+					}finally{
+
+						writer.exdent();
+					}
+				}
+			});
+	}
+
+		/**
+		 * @param shareable	false for requests that can't use a shared connection id (authenticated,
+		 * proxied) - these get a new session of their own
+		 */
+
+	public static PRUDPTrackerSession
+	getSession(
+		InetSocketAddress		destination,
+		boolean					shareable )
+	{
+		if ( !shareable ){
+
+			return( new PRUDPTrackerSession( destination, false ));
+		}
+
+		try{
+			class_mon.enter();
+
+			PRUDPTrackerSession	session = sessions.get( destination );
+
+			if ( session == null ){
+
+				session = new PRUDPTrackerSession( destination, true );
+
+				sessions.put( destination, session );
+			}
+
+			return( session );
+
+		}finally{
+
+			class_mon.exit();
+		}
+	}
+
+	private final InetSocketAddress		destination;
+	private final boolean				shared;
+
+	private final AEMonitor				connect_mon	= new AEMonitor( "PRUDPTrackerSession:connect" );
+
+	private PRUDPPacketReplyConnect		connection;
+	private long						connection_time;
+
+	private long						connect_failures;
+	private Object						last_connect_failure;
+
+	private long	srtt	= -1;
+	private long	rttvar;
+	private long	rto		= INITIAL_RTO;
+
+	private long	requests;
+	private long	packets;
+	private long	connects;
+	private long	connect_reuses;
+	private long	retransmits;
+	private long	timeouts;
+
+	private
+	PRUDPTrackerSession(
+		InetSocketAddress		_destination,
+		boolean					_shared )
+	{
+		destination	= _destination;
+		shared		= _shared;
+	}
+
+		/**
+		 * @return a connect reply, possibly one shared with other requests, or the tracker's error reply
+		 */
+
+	public PRUDPPacket
+	connect(
+		PRUDPPacketHandler			handler,
+		PasswordAuthentication		auth,
+		long						timeout )
+
+		throws PRUDPPacketHandlerException
+	{
+		if ( !shared ){
+
+			return( connectSupport( handler, auth, timeout ));
+		}
+
+		long	failures_before;
+
+		synchronized( this ){
+
+			failures_before = connect_failures;
+		}
+
+		try{
+			connect_mon.enter();
+
+			synchronized( this ){
+
+				if ( 	connection != null &&
+						SystemTime.getMonotonousTime() - connection_time < CONNECTION_ID_LIFETIME ){
+
+					connect_reuses++;
+
+					return( connection );
+				}
+
+				connection = null;
+
+					// share the outcome of a connect that failed while we were waiting for it rather
+					// than queueing up behind each other on an unresponsive tracker
+
+				if ( connect_failures != failures_before ){
+
+					if ( last_connect_failure instanceof PRUDPPacket ){
+
+						return((PRUDPPacket)last_connect_failure );
+					}
+
+					throw((PRUDPPacketHandlerException)last_connect_failure );
+				}
+			}
+
+			return( connectSupport( handler, auth, timeout ));
+
+		}finally{
+
+			connect_mon.exit();
+		}
+	}
+
+	private PRUDPPacket
+	connectSupport(
+		PRUDPPacketHandler			handler,
+		PasswordAuthentication		auth,
+		long						timeout )
+
+		throws PRUDPPacketHandlerException
+	{
+		synchronized( this ){
+
+			connects++;
+		}
+
+		PRUDPPacket	reply;
+
+		try{
+			reply = sendAndReceive( handler, auth, new PRUDPPacketRequestConnect(), timeout );
+
+		}catch( PRUDPPacketHandlerException e ){
+
+			synchronized( this ){
+
+				connect_failures++;
+
+				last_connect_failure = e;
+			}
+
+			throw( e );
+		}
+
+		synchronized( this ){
+
+			if ( reply.getAction() == PRUDPPacketTracker.ACT_REPLY_CONNECT ){
+
+				connection		= (PRUDPPacketReplyConnect)reply;
+				connection_time	= SystemTime.getMonotonousTime();
+
+			}else{
+
+				connect_failures++;
+
+				last_connect_failure = reply;
+			}
+		}
+
+		return( reply );
+	}
+
+		/**
+		 * Called with an error reply to a request made with the session's connection id
+		 * @return true if the tracker rejected the request's connection id and it was the session's
+		 * current one, which has been dropped so a retry will get a new one
+		 */
+
+	public synchronized boolean
+	connectionRejected(
+		PRUDPPacketRequest		request,
+		PRUDPPacketReplyError	reply )
+	{
+		if ( reply.getTransactionId() != request.getTransactionId()){
+
+			return( false );
+		}
+
+		if ( !isConnectionIdRejection( reply.getMessage())){
+
+			return( false );
+		}
+
+		if ( connection != null && connection.getConnectionId() == request.getConnectionId()){
+
+			connection = null;
+
+			return( true );
+		}
+
+		return( false );
+	}
+
+		/**
+		 * Trackers don't have an error code for an unknown or expired connection id, so this matches
+		 * the messages the common ones send - our own tracker's "Connection ID mismatch",
+		 * opentracker's "Connection ID missmatch", chihaya's "bad connection ID" and the "invalid
+		 * connection id" of various others. Other errors that merely mention a connection (e.g.
+		 * "too many connections") leave the id alone.
+		 */
+
+	private static boolean
+	isConnectionIdRejection(
+		String		message )
+	{
+		if ( message == null ){
+
+			return( false );
+		}
+
+		String	lc = message.toLowerCase( Locale.US );
+
+		for ( String rejection: CONNECTION_ID_REJECTIONS ){
+
+			if ( lc.contains( rejection )){
+
+				return( true );
+			}
+		}
+
+		return( false );
+	}
+
+		/**
+		 * Sends the request, retransmitting on timeout, until a reply arrives or the overall timeout
+		 * is used up
+		 */
+
+	public PRUDPPacket
+	sendAndReceive(
+		PRUDPPacketHandler			handler,
+		PasswordAuthentication		auth,
+		PRUDPPacket					request,
+		long						timeout )
+
+		throws PRUDPPacketHandlerException
+	{
+		long	start = SystemTime.getMonotonousTime();
+
+		synchronized( this ){
+
+			requests++;
+		}
+
+		int	attempt = 0;
+
+		while( true ){
+
+			long	now = SystemTime.getMonotonousTime();
+
+			long	remaining = timeout - ( now - start );
+
+			long	attempt_timeout;
+
+			synchronized( this ){
+
+				attempt_timeout = Math.min( rto << Math.min( attempt, 4 ), remaining );
+
+				packets++;
+
+				if ( attempt > 0 ){
+
+					retransmits++;
+				}
+			}
+
+			try{
+				PRUDPPacket	reply = handler.sendAndReceive( auth, request, destination, attempt_timeout );
+
+				if ( attempt == 0 ){
+
+						// only unambiguous samples, a reply after a retransmit could be to either
+
+					updateRTT( SystemTime.getMonotonousTime() - now );
+				}
+
+				return( reply );
+
+			}catch( PRUDPPacketHandlerTimeoutException e ){
+
+				attempt++;
+
+				if ( timeout - ( SystemTime.getMonotonousTime() - start ) < MIN_RTO ){
+
+					synchronized( this ){
+
+						timeouts++;
+
+						rto = Math.min( MAX_RTO, rto*2 );
+					}
+
+					throw( e );
+				}
+			}
+		}
+	}
+
+	private synchronized void
+	updateRTT(
+		long	rtt )
+	{
+			// RFC 6298
+
+		if ( srtt < 0 ){
+
+			srtt	= rtt;
+			rttvar	= rtt/2;
+
+		}else{
+
+			rttvar	= ( 3*rttvar + Math.abs( srtt - rtt )) / 4;
+			srtt	= ( 7*srtt + rtt ) / 8;
+		}
+
+		rto = Math.max( MIN_RTO, Math.min( MAX_RTO, srtt + 4*rttvar ));
+	}
+
+	public synchronized String
+	getString()
+	{
+			// packets (connects and retransmits included) per announce or scrape
+
+		long	ops = requests - connects;
+
+		String	ppo = ops<=0?"-":String.valueOf(((double)( packets*100/ops ))/100 );
+
+		return( destination + ": requests=" + ops + ", packets=" + packets + " (" + ppo + " per request)" +
+				", connects=" + connects + ", reused=" + connect_reuses + ", retransmits=" + retransmits +
+				", timeouts=" + timeouts + ", srtt=" + srtt + ", rto=" + rto );
+	}
+}
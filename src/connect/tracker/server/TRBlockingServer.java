@@ -261,6 +261,8 @@ TRBlockingServer
 
 				successfull_accepts++;
 
+				updateConnectionStats( true );
+
 				String	ip = socket.getInetAddress().getHostAddress();
 
 				if ( (!isIPFilterEnabled()) || (!ip_filter.isInRange( ip, "Tracker", null ))){
@@ -79,6 +79,8 @@ TRBlockingServerProcessor
 		try{
 			InputStream	is = new BufferedInputStream( socket.getInputStream());
 
+			int	requests = 0;
+			
 			while( true ){
 				
 				setTaskState( "entry" );
@@ -319,6 +321,11 @@ TRBlockingServerProcessor
 						String	http_ver = header.substring( url_end, nl_pos ).trim();
 						
 						
+						if ( requests++ > 0 ){
+							
+							getServer().updateConnectionStats( false );
+						}
+						
 						String con_str = getHeaderField( header, lowercase_header, "connection:" );
 
 						if ( con_str == null ){
@@ -135,6 +135,8 @@ TRNonBlockingServer
 		
 		processor_factory	= _processor_factory;
 		
+		setEnableKeepAlive( COConfigurationManager.getBooleanParameter( "Tracker TCP NonBlocking Keep Alive" ));
+		
 		read_selector	 	= new VirtualChannelSelector( _name + ":" + _port, VirtualChannelSelector.OP_READ, false );
 		write_selector 		= new VirtualChannelSelector( _name + ":" + _port, VirtualChannelSelector.OP_WRITE, true );
 
@@ -300,6 +302,8 @@ TRNonBlockingServer
         	
         	total_connections++;
         	
+        	updateConnectionStats( true );
+        	
         	processors.add( processor );
         
         	num_processors	= processors.size();
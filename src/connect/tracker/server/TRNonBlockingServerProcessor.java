@@ -61,9 +61,13 @@ TRNonBlockingServerProcessor
 	private ByteBuffer					read_buffer;
 	private ByteBuffer					post_data_buffer;
 	
+	private int							header_scan_position;
+	
 	private String						request_header;
 	private String						lc_request_header;
 	
+	private int							requests;
+	
 	private ByteBuffer					write_buffer;
 	
 	private boolean						keep_alive;
@@ -146,6 +150,23 @@ TRNonBlockingServerProcessor
 			}
 		}
 		
+			// a pipelining client may already have sent the next request along with the previous one
+		
+		if ( read_buffer.position() > header_scan_position ){
+			
+			try{
+				int	result = processHeader();
+				
+				if ( result >= 0 ){
+					
+					return( result );
+				}
+			}catch( IOException e ){
+				
+				return( -1 );
+			}
+		}
+		
 		if ( read_buffer.remaining() == 0 ){
 			
 			int	capacity = read_buffer.capacity();
@@ -183,136 +204,158 @@ TRNonBlockingServerProcessor
 				return( 2 );	// no progress
 			}
 			
-			byte[]	data = read_buffer.array();
-					
-			int array_offset		= read_buffer.arrayOffset();
-			int	array_position 		= array_offset + read_buffer.position();
+			int	result = processHeader();
+			
+			return( result<0?1:result );
 			
-			for (int i=array_offset;i<=array_position-4;i++){
+		}catch( IOException e ){
+			
+			return( -1 );
+		}
+	}
+	
+		// 0 -> complete
+		// 1 -> more to do (post data)
+		// -1 -> header incomplete
+	
+	private int
+	processHeader()
+	
+		throws IOException
+	{
+		byte[]	data = read_buffer.array();
 				
-				if ( 	data[i]   == CR &&
-						data[i+1] == FF &&
-						data[i+2] == CR &&
-						data[i+3] == FF ){
+		int array_offset		= read_buffer.arrayOffset();
+		int	array_position 		= array_offset + read_buffer.position();
+		
+			// carry on from where the last scan of this header got to rather than rescanning
+		
+		int	scan_start = array_offset + Math.max( 0, header_scan_position - 3 );
+		
+		header_scan_position = read_buffer.position();
+		
+		for (int i=scan_start;i<=array_position-4;i++){
+		
+			if ( 	data[i]   == CR &&
+					data[i+1] == FF &&
+					data[i+2] == CR &&
+					data[i+3] == FF ){
+				
+				int	header_end 		= i + 4;
+				int	header_length 	= header_end - array_offset;
+				
+				header_scan_position	= 0;
+				
+				request_header 		= new String( data, array_offset, header_length );
+				lc_request_header 	= request_header.toLowerCase();
+			
+				int	rem = array_position - header_end;
+				
+				if ( rem == 0 ){
+					
+					read_buffer = ByteBuffer.allocate( READ_BUFFER_INITIAL );
 					
-					int	header_end 		= i + 4;
-					int	header_length 	= header_end - array_offset;
+				}else{
+										
+					read_buffer = ByteBuffer.allocate( rem + READ_BUFFER_INCREMENT );
 					
-					request_header 		= new String( data, array_offset, header_length );
-					lc_request_header 	= request_header.toLowerCase();
+					read_buffer.put( data, header_end, rem );
+				}
+				
+				post_data_buffer = null;
 				
-					int	rem = array_position - header_end;
+				int	pos1 = lc_request_header.indexOf( "content-length" );
+				
+				if ( pos1 == -1 ){
 					
-					if ( rem == 0 ){
-						
-						read_buffer = ByteBuffer.allocate( READ_BUFFER_INITIAL );
+					if ( 	lc_request_header.contains( "transfer-encoding" ) && 
+							lc_request_header.contains( "chunked" )){
 						
-					}else{
-											
-						read_buffer = ByteBuffer.allocate( rem + READ_BUFFER_INCREMENT );
-						
-						read_buffer.put( data, header_end, rem );
+						Debug.out( "Chunked transfer-encoding not supported!!!!" );
 					}
+				}else{
 					
-					post_data_buffer = null;
-					
-					int	pos1 = lc_request_header.indexOf( "content-length" );
+					int pos2 = lc_request_header.indexOf( NL, pos1 );
+				
+					String entry;
 					
-					if ( pos1 == -1 ){
+					if ( pos2 == -1 ){
+						
+						entry = lc_request_header.substring( pos1 );
 						
-						if ( 	lc_request_header.contains( "transfer-encoding" ) && 
-								lc_request_header.contains( "chunked" )){
-							
-							Debug.out( "Chunked transfer-encoding not supported!!!!" );
-						}
 					}else{
 						
-						int pos2 = lc_request_header.indexOf( NL, pos1 );
+						entry = lc_request_header.substring( pos1, pos2 );
+					}
+				
+					int	pos = entry.indexOf(':');
 					
-						String entry;
+					if ( pos != -1 ){
+												
+						int content_length = 0;
 						
-						if ( pos2 == -1 ){
-							
-							entry = lc_request_header.substring( pos1 );
+						try{
+							content_length = Integer.parseInt( entry.substring( pos+1 ).trim());
 							
-						}else{
-							
-							entry = lc_request_header.substring( pos1, pos2 );
+						}catch( Throwable e ){
 						}
-					
-						int	pos = entry.indexOf(':');
 						
-						if ( pos != -1 ){
-													
-							int content_length = 0;
+						if ( content_length > 0 ){
 							
-							try{
-								content_length = Integer.parseInt( entry.substring( pos+1 ).trim());
+							if ( content_length > MAX_POST ){
 								
-							}catch( Throwable e ){
+								throw( new IOException( "content-length too large, max=" + MAX_POST ));
 							}
 							
-							if ( content_length > 0 ){
+							post_data_buffer = ByteBuffer.allocate( content_length );
+							
+							int buffer_position = read_buffer.position();
+							
+							if ( buffer_position > 0 ){
 								
-								if ( content_length > MAX_POST ){
-									
-									throw( new IOException( "content-length too large, max=" + MAX_POST ));
-								}
+								byte[] already_read = new byte[Math.min( buffer_position, content_length )];
 								
-								post_data_buffer = ByteBuffer.allocate( content_length );
+								read_buffer.flip();
 								
-								int buffer_position = read_buffer.position();
+								read_buffer.get( already_read );
 								
-								if ( buffer_position > 0 ){
-									
-									byte[] already_read = new byte[Math.min( buffer_position, content_length )];
-									
-									read_buffer.flip();
-									
-									read_buffer.get( already_read );
-									
-									byte[] xrem = new byte[ read_buffer.remaining()];
-									
-									read_buffer.get( xrem );
-									
-									read_buffer = ByteBuffer.allocate( xrem.length + READ_BUFFER_INCREMENT );
-									
-									read_buffer.put( xrem );
+								byte[] xrem = new byte[ read_buffer.remaining()];
+								
+								read_buffer.get( xrem );
+								
+								read_buffer = ByteBuffer.allocate( xrem.length + READ_BUFFER_INCREMENT );
+								
+								read_buffer.put( xrem );
 
-									post_data_buffer.put( already_read );
+								post_data_buffer.put( already_read );
+								
+								if ( post_data_buffer.remaining() == 0 ){
 									
-									if ( post_data_buffer.remaining() == 0 ){
-										
-										getServer().runProcessor( this );
-										
-										return( 0 );
-									}
+									getServer().runProcessor( this );
+									
+									return( 0 );
 								}
 							}
 						}
 					}
+				}
+				
+				if ( post_data_buffer == null ){
 					
-					if ( post_data_buffer == null ){
-						
-						// System.out.println( "read done: " + System.currentTimeMillis());
-						
-						getServer().runProcessor( this );
-						
-						return( 0 );
-						
-					}else{
-						
-						return( 1 );
-					}
+					// System.out.println( "read done: " + System.currentTimeMillis());
+					
+					getServer().runProcessor( this );
+					
+					return( 0 );
+					
+				}else{
+					
+					return( 1 );
 				}
 			}
-			
-			return( 1 );
-			
-		}catch( IOException e ){
-			
-			return( -1 );
 		}
+		
+		return( -1 );
 	}
 	
 		// 0 -> complete
@@ -369,7 +412,14 @@ TRNonBlockingServerProcessor
 			int	pos = url.indexOf( " " );
 									
 			url = url.substring(0,pos);
+			
+			if ( requests++ > 0 ){
 				
+				getServer().updateConnectionStats( false );
+			}
+			
+			final boolean[]	request_keep_alive = { getServer().isKeepAliveEnabled() && isKeepAliveRequested( request_header, lc_request_header ) };
+			
 			final AESemaphore[]				went_async 		= { null };
 			final ByteArrayOutputStream[]	async_stream	= { null };
 			
@@ -399,7 +449,8 @@ TRNonBlockingServerProcessor
 								(InetSocketAddress)socket_channel.socket().getRemoteSocketAddress(),
 								getServer().getRestrictNonBlocking(),
 								new ByteArrayInputStream(new byte[0]),
-								async_control );
+								async_control,
+								request_keep_alive );
 				
 					// two ways of going async
 					//	1) return is null and something else will call asyncProcessComplete later
@@ -407,16 +458,22 @@ TRNonBlockingServerProcessor
 				
 				if ( response == null ){
 					
+					keep_alive	= false;
+					
 					async = true;
 					
 				}else if ( went_async[0] != null ){
 					
+					keep_alive	= false;
+					
 					async_stream[0] = response;
 					
 					async = true;
 					
 				}else{
 					
+					keep_alive	= request_keep_alive[0];
+					
 					write_buffer = ByteBuffer.wrap( response.toByteArray());
 				}
 			}finally{
@@ -428,6 +485,7 @@ TRNonBlockingServerProcessor
 			}
 		}catch( Throwable e ){
 			
+			keep_alive	= false;
 			
 		}finally{
 			
@@ -446,10 +504,48 @@ TRNonBlockingServerProcessor
 		InetSocketAddress	client_address,
 		boolean				announce_and_scrape_only,
 		InputStream			is,
-		AsyncController		async )
+		AsyncController		async,
+		boolean[]			keep_alive )
 	
 		throws IOException;
 	
+		/**
+		 * HTTP/1.1 connections persist unless the client says otherwise, HTTP/1.0 ones only if
+		 * the client asks
+		 */
+	
+	protected static boolean
+	isKeepAliveRequested(
+		String		header,
+		String		lowercase_header )
+	{
+		int	line_end = header.indexOf( NL );
+		
+		String	first_line = line_end==-1?header:header.substring( 0, line_end );
+		
+		boolean	http_11 = first_line.trim().toUpperCase().endsWith( "HTTP/1.1" );
+		
+		int	pos = lowercase_header.indexOf( NL + "connection:" );
+		
+		if ( pos == -1 ){
+			
+			return( http_11 );
+		}
+		
+		int	value_start = pos + NL.length() + 11;
+		
+		int	value_end = lowercase_header.indexOf( NL, value_start );
+		
+		String	value = lowercase_header.substring( value_start, value_end==-1?lowercase_header.length():value_end ).trim();
+		
+		if ( value.equals( "close" )){
+			
+			return( false );
+		}
+		
+		return( http_11 || value.equals( "keep-alive" ));
+	}
+	
 	protected void
 	asyncProcessComplete(
 		ByteArrayOutputStream	response )
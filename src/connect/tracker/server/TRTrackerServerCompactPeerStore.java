@@ -0,0 +1,497 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package connect.tracker.server;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Pre-encoded compact endpoints of a torrent's peers, used to build compact (BEP 23 "peers" and
+ * BEP 7 "peers6") announce replies by copying rather than by visiting peer objects.<br>
+ *
+ * IPv4 and IPv6 peers are held in separate blocks, each a byte array of 6 or 18 byte entries
+ * (address then port) with a parallel array of owning peers. Within a block leechers occupy the
+ * front and seeds the back so that a seed's request (no seeds wanted) is a prefix of the block.
+ * Peers are inserted at a random position within their region, keeping each region a random
+ * permutation, so a reply is a contiguous run from a random start - normally one or two array
+ * copies. Removal swaps the last entry of the region into the gap.<br>
+ *
+ * Only peers that can be returned at all (resolved address, non-zero port, not biased) are held.
+ * State that changes independently of announces (NAT status, timeout) is checked against the owner
+ * when exporting. Not thread safe - the torrent accesses it under its monitor.
+ */
+
+public class
+TRTrackerServerCompactPeerStore
+{
+	private static final int	INITIAL_CAPACITY	= 16;
+	
+	private final Block		v4	= new Block( 6 );
+	private final Block		v6	= new Block( 18 );
+	
+	private final Random	random;
+	
+	private byte[]			scratch		= new byte[0];
+	private byte[]			scratch_crypto;
+	
+	protected
+	TRTrackerServerCompactPeerStore(
+		Random		_random )
+	{
+		random	= _random;
+	}
+	
+		/**
+		 * Adds, refreshes or removes the peer's entry to reflect its current state
+		 */
+	
+	protected void
+	update(
+		TRTrackerServerPeerImpl		peer )
+	{
+		byte[]	ip		= peer.getIPAddressBytes();
+		int		port	= peer.getTCPPort();
+		
+		Block	target = null;
+		
+		if ( ip != null && port != 0 && !peer.isBiased()){
+			
+			if ( ip.length == 4 ){
+				
+				target = v4;
+				
+			}else if ( ip.length == 16 ){
+				
+				target = v6;
+			}
+		}
+		
+		int		index	= peer.getCompactIndex();
+		Block	current = index<0?null:(peer.isCompactV6()?v6:v4);
+		
+		if ( current != null ){
+			
+			if ( current != target || current.isSeedSlot( index ) != peer.isSeed()){
+				
+				current.remove( index );
+				
+				current = null;
+			}
+		}
+		
+		if ( target == null ){
+			
+			return;
+		}
+		
+		if ( current == null ){
+			
+			target.add( peer, ip, port );
+			
+		}else{
+			
+				// address or port may have changed
+			
+			target.set( index, peer, ip, port );
+		}
+	}
+	
+	protected void
+	remove(
+		TRTrackerServerPeerImpl		peer )
+	{
+		int	index = peer.getCompactIndex();
+		
+		if ( index >= 0 ){
+			
+			( peer.isCompactV6()?v6:v4 ).remove( index );
+		}
+	}
+	
+	protected int
+	getCount(
+		boolean		ipv6,
+		boolean		include_seeds )
+	{
+		return(( ipv6?v6:v4 ).getRegionSize( include_seeds ));
+	}
+	
+		/**
+		 * Writes up to num_want entries from the IPv4 or IPv6 block into the buffer
+		 * @param crypto_flags	if non-null receives a flag per entry written, 1 if the peer requires crypto
+		 * @return number of entries written
+		 */
+	
+	protected int
+	export(
+		boolean						ipv6,
+		TRTrackerServerPeerImpl		requesting_peer,
+		boolean						include_seeds,
+		int							num_want,
+		byte						crypto_level,
+		boolean						nat_check_enabled,
+		long						now,
+		byte[]						buffer,
+		int							offset,
+		byte[]						crypto_flags,
+		int							crypto_offset )
+	{
+		Block	block = ipv6?v6:v4;
+		
+		int	region = block.getRegionSize( include_seeds );
+		
+		if ( region == 0 || num_want <= 0 ){
+			
+			return( 0 );
+		}
+		
+		int	start = random.nextInt( region );
+		
+		boolean	exclude_crypto = crypto_level == TRTrackerServerPeer.CRYPTO_NONE;
+		
+		int	added = 0;
+		
+			// two passes when NAT checking, peers known to be unreachable are only used to make up the numbers
+		
+		for (int pass=nat_check_enabled?0:1;pass<2 && added < num_want;pass++){
+			
+			int	run_start	= 0;
+			int	run_length	= 0;
+			
+			for (int n=0;n<region && added < num_want;n++){
+				
+				int	i = start + n;
+				
+				if ( i >= region ){
+					
+					i -= region;
+					
+					if ( i == 0 && run_length > 0 ){
+						
+							// wrapped, runs have to be contiguous
+						
+						block.copy( run_start, run_length, buffer, offset + added*block.entry_size, crypto_flags, crypto_offset + added );
+						
+						added += run_length;
+						
+						run_length = 0;
+						
+						if ( added >= num_want ){
+							
+							break;
+						}
+					}
+				}
+				
+				TRTrackerServerPeerImpl	peer = block.owners[i];
+				
+				boolean	ok = 	peer != requesting_peer &&
+								now <= peer.getTimeout() &&
+								!( exclude_crypto && block.crypto[i] != 0 );
+				
+				if ( ok && nat_check_enabled ){
+					
+					boolean	bad_nat = peer.isNATStatusBad();
+					
+					ok = pass==0?!bad_nat:bad_nat;
+				}
+				
+				if ( ok ){
+					
+					if ( run_length == 0 ){
+						
+						run_start = i;
+					}
+					
+					run_length++;
+					
+					if ( added + run_length >= num_want ){
+						
+						break;
+					}
+				}else if ( run_length > 0 ){
+					
+					block.copy( run_start, run_length, buffer, offset + added*block.entry_size, crypto_flags, crypto_offset + added );
+					
+					added += run_length;
+					
+					run_length = 0;
+				}
+			}
+			
+			if ( run_length > 0 ){
+				
+				block.copy( run_start, run_length, buffer, offset + added*block.entry_size, crypto_flags, crypto_offset + added );
+				
+				added += run_length;
+			}
+		}
+		
+		return( added );
+	}
+	
+		/**
+		 * Exports into a scratch buffer (valid until the next call) sized for num_want entries
+		 * @return number of entries written
+		 */
+	
+	protected int
+	export(
+		boolean						ipv6,
+		TRTrackerServerPeerImpl		requesting_peer,
+		boolean						include_seeds,
+		int							num_want,
+		byte						crypto_level,
+		boolean						nat_check_enabled,
+		long						now,
+		boolean						want_crypto_flags )
+	{
+		num_want = Math.min( num_want, getCount( ipv6, include_seeds ));
+		
+		int	required = num_want * ( ipv6?v6:v4 ).entry_size;
+		
+		if ( scratch.length < required ){
+			
+			scratch = new byte[ required ];
+		}
+		
+		if ( want_crypto_flags && ( scratch_crypto == null || scratch_crypto.length < num_want )){
+			
+			scratch_crypto = new byte[ num_want ];
+		}
+		
+		return( export( ipv6, requesting_peer, include_seeds, num_want, crypto_level, nat_check_enabled, now, scratch, 0, want_crypto_flags?scratch_crypto:null, 0 ));
+	}
+	
+	protected byte[]
+	getScratch()
+	{
+		return( scratch );
+	}
+	
+	protected byte[]
+	getScratchCryptoFlags()
+	{
+		return( scratch_crypto );
+	}
+	
+	protected String
+	getString()
+	{
+		return( "v4=" + v4.size + "/" + v4.seeds + ",v6=" + v6.size + "/" + v6.seeds );
+	}
+	
+	private class
+	Block
+	{
+		private final int					entry_size;
+		private final boolean				is_v6;
+		
+		private byte[]						data;
+		private byte[]						crypto;
+		private TRTrackerServerPeerImpl[]	owners;
+		
+		private int		size;
+		private int		seeds;
+		
+		private
+		Block(
+			int		_entry_size )
+		{
+			entry_size	= _entry_size;
+			is_v6		= entry_size > 6;
+			
+			data	= new byte[ INITIAL_CAPACITY*entry_size ];
+			crypto	= new byte[ INITIAL_CAPACITY ];
+			owners	= new TRTrackerServerPeerImpl[ INITIAL_CAPACITY ];
+		}
+		
+		private int
+		getRegionSize(
+			boolean		include_seeds )
+		{
+			return( include_seeds?size:size-seeds );
+		}
+		
+		private boolean
+		isSeedSlot(
+			int		index )
+		{
+			return( index >= size - seeds );
+		}
+		
+		private void
+		add(
+			TRTrackerServerPeerImpl		peer,
+			byte[]						ip,
+			int							port )
+		{
+			if ( size == owners.length ){
+				
+				int	capacity = size*2;
+				
+				data	= Arrays.copyOf( data, capacity*entry_size );
+				crypto	= Arrays.copyOf( crypto, capacity );
+				owners	= Arrays.copyOf( owners, capacity );
+			}
+			
+			int	region_start;
+			int	pos;
+			
+			if ( peer.isSeed()){
+				
+				pos				= size;
+				region_start	= size - seeds;
+				
+				seeds++;
+				
+			}else{
+				
+				pos				= size - seeds;
+				region_start	= 0;
+				
+					// make room by moving the first seed to the end
+				
+				if ( seeds > 0 ){
+					
+					move( pos, size );
+				}
+			}
+			
+			size++;
+			
+			set( pos, peer, ip, port );
+			
+				// random position within the region
+			
+			int	target = region_start + random.nextInt( pos - region_start + 1 );
+			
+			if ( target != pos ){
+				
+				move( target, size );	// use the slot beyond the end as temporary space
+				move( pos, target );
+				move( size, pos );
+				
+				owners[size] = null;
+			}
+		}
+		
+		private void
+		set(
+			int							index,
+			TRTrackerServerPeerImpl		peer,
+			byte[]						ip,
+			int							port )
+		{
+			int	pos = index*entry_size;
+			
+			System.arraycopy( ip, 0, data, pos, ip.length );
+			
+			pos += ip.length;
+			
+			data[pos++]	= (byte)( port >> 8 );
+			data[pos]	= (byte)port;
+			
+			crypto[index]	= (byte)( peer.getCryptoLevel() == TRTrackerServerPeer.CRYPTO_REQUIRED?1:0 );
+			owners[index]	= peer;
+			
+			peer.setCompactIndex( index, is_v6 );
+		}
+		
+		private void
+		remove(
+			int		index )
+		{
+			TRTrackerServerPeerImpl	peer = owners[index];
+			
+			if ( isSeedSlot( index )){
+				
+				int	last = size - 1;
+				
+				if ( index != last ){
+					
+					move( last, index );
+				}
+				
+				seeds--;
+				
+			}else{
+				
+				int	last_leecher = size - seeds - 1;
+				
+				if ( index != last_leecher ){
+					
+					move( last_leecher, index );
+				}
+				
+					// and close the gap at the leecher/seed boundary
+				
+				if ( seeds > 0 ){
+					
+					move( size - 1, last_leecher );
+				}
+			}
+			
+			size--;
+			
+			owners[size] = null;
+			
+			peer.setCompactIndex( -1, false );
+		}
+		
+		private void
+		move(
+			int		from,
+			int		to )
+		{
+			if ( to >= owners.length ){
+				
+				int	capacity = owners.length*2;
+				
+				data	= Arrays.copyOf( data, capacity*entry_size );
+				crypto	= Arrays.copyOf( crypto, capacity );
+				owners	= Arrays.copyOf( owners, capacity );
+			}
+			
+			System.arraycopy( data, from*entry_size, data, to*entry_size, entry_size );
+			
+			crypto[to]	= crypto[from];
+			owners[to]	= owners[from];
+			
+			owners[to].setCompactIndex( to, is_v6 );
+		}
+		
+		private void
+		copy(
+			int		index,
+			int		num,
+			byte[]	buffer,
+			int		offset,
+			byte[]	crypto_flags,
+			int		crypto_offset )
+		{
+			System.arraycopy( data, index*entry_size, buffer, offset, num*entry_size );
+			
+			if ( crypto_flags != null ){
+				
+				System.arraycopy( crypto, index, crypto_flags, crypto_offset, num );
+			}
+		}
+	}
+}
@@ -305,7 +305,8 @@ TRTrackerServerFactoryImpl
 			InetSocketAddress 	remote_address, 
 			boolean 			announce_and_scrape_only, 
 			InputStream 		is,
-			AsyncController		async )
+			AsyncController		async,
+			boolean[]			keep_alive )
 		
 			throws IOException 
 		{
@@ -313,7 +314,7 @@ TRTrackerServerFactoryImpl
 			
 			InetSocketAddress	local_address = null;	// TODO
 			
-			processRequest(input_header, lowercase_input_header, url_path, local_address, remote_address, announce_and_scrape_only, false, is, os, async );
+			keep_alive[0] = processRequest(input_header, lowercase_input_header, url_path, local_address, remote_address, announce_and_scrape_only, keep_alive[0], is, os, async );
 			
 			return( os );
 		}
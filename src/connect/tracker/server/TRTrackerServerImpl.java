@@ -85,9 +85,9 @@ TRTrackerServerImpl
 
 	public static List<String>	banned_clients = new ArrayList<String>();
 
-		// torrent map is static across all protocol servers
+		// torrent registry is static across all protocol servers
 
-	private static Map		torrent_map = new HashMap();
+	private static TRTrackerServerTorrentRegistry	torrent_registry = new TRTrackerServerTorrentRegistry();
 
 	private static Map		link_map	= new HashMap();
 
@@ -389,7 +389,7 @@ TRTrackerServerImpl
 	setEnableKeepAlive(
 		boolean	enable )
 	{
-		keep_alive_enabled = enabled;
+		keep_alive_enabled = enable;
 	}
 
 	public boolean
@@ -455,11 +455,7 @@ TRTrackerServerImpl
 
 			biased_peers = new HashSet( peers );
 
-			Iterator	tit = torrent_map.values().iterator();
-
-			while(tit.hasNext()){
-
-				TRTrackerServerTorrentImpl	this_torrent = (TRTrackerServerTorrentImpl)tit.next();
+			for ( TRTrackerServerTorrentImpl this_torrent: torrent_registry.getTorrents()){
 
 				this_torrent.updateBiasedPeers( biased_peers );
 			}
@@ -670,52 +666,59 @@ TRTrackerServerImpl
 
 		}else{
 
-			int	num = torrent_map.size();
+			int	num = torrent_registry.size();
 
 				// this gets too expensive to do when we have a lot of torrents so just ignore
 				// stats if so
 
-			if ( num < 256 ){
+			if ( num > 0 && num < 256 ){
 
-				try{
-					class_mon.enter();
+				List<TRTrackerServerTorrentImpl>	torrents = torrent_registry.getTorrents();
 
+				num = torrents.size();
 
-					if ( num > 0 ){
+				if ( num > 0 ){
 
-						// full scrape or error - spread the reported bytes across the torrents
+					// full scrape or error - spread the reported bytes across the torrents
 
-						int	ave_in	= bytes_in/num;
-						int	ave_out	= bytes_out/num;
+					int	ave_in	= bytes_in/num;
+					int	ave_out	= bytes_out/num;
 
-						int	rem_in 	= bytes_in-(ave_in*num);
-						int rem_out	= bytes_out-(ave_out*num);
+					int	rem_in 	= bytes_in-(ave_in*num);
+					int rem_out	= bytes_out-(ave_out*num);
 
-						Iterator	it = torrent_map.values().iterator();
+					Iterator<TRTrackerServerTorrentImpl>	it = torrents.iterator();
 
-						while(it.hasNext()){
+					while(it.hasNext()){
 
-							TRTrackerServerTorrentImpl	this_torrent = (TRTrackerServerTorrentImpl)it.next();
+						TRTrackerServerTorrentImpl	this_torrent = it.next();
 
-							if ( it.hasNext()){
+						if ( it.hasNext()){
 
-								this_torrent.updateXferStats( ave_in, ave_out );
+							this_torrent.updateXferStats( ave_in, ave_out );
 
-							}else{
+						}else{
 
-								this_torrent.updateXferStats( ave_in+rem_in, ave_out+rem_out );
+							this_torrent.updateXferStats( ave_in+rem_in, ave_out+rem_out );
 
-							}
 						}
 					}
-				}finally{
-
-					class_mon.exit();
 				}
 			}
 		}
 	}
 
+		/**
+		 * @param new_connection	true for an accepted connection, false for a further request on a kept-alive one
+		 */
+
+	protected void
+	updateConnectionStats(
+		boolean		new_connection )
+	{
+		stats.updateConnection( new_connection );
+	}
+
 	protected void
 	updateTime(
 		int		request_type,
@@ -757,20 +760,9 @@ TRTrackerServerImpl
 
 				int	clients = 0;
 
-				try{
-					class_mon.enter();
-
-					Iterator	it = torrent_map.values().iterator();
-
-					while(it.hasNext()){
-
-						TRTrackerServerTorrentImpl	t = (TRTrackerServerTorrentImpl)it.next();
+				for ( TRTrackerServerTorrentImpl t: torrent_registry.getTorrents()){
 
-						clients += t.getPeerCount();
-					}
-				}finally{
-
-					class_mon.exit();
+					clients += t.getPeerCount();
 				}
 
 				if ( inc_by > 0 && inc_per > 0 ){
@@ -800,20 +792,9 @@ TRTrackerServerImpl
 
 					time_to_go = TIMEOUT_CHECK;
 
-					try{
-						class_mon.enter();
-
-						Iterator	it = torrent_map.values().iterator();
-
-						while(it.hasNext()){
+					for ( TRTrackerServerTorrentImpl t: torrent_registry.getTorrents()){
 
-							TRTrackerServerTorrentImpl	t = (TRTrackerServerTorrentImpl)it.next();
-
-							t.checkTimeouts();
-						}
-					}finally{
-
-						class_mon.exit();
+						t.checkTimeouts();
 					}
 				}
 
@@ -851,17 +832,7 @@ TRTrackerServerImpl
 
 			// don't invoke listeners when synched, deadlock possible
 
-		TRTrackerServerTorrentImpl	entry;
-
-		try{
-			class_mon.enter();
-
-			entry = (TRTrackerServerTorrentImpl)torrent_map.get( hash );
-
-		}finally{
-
-			class_mon.exit();
-		}
+		TRTrackerServerTorrentImpl	entry = torrent_registry.get( hash );
 
 		if ( entry == null ){
 
@@ -875,23 +846,9 @@ TRTrackerServerImpl
 				}
 			}
 
-			try{
-				class_mon.enter();
-
-					// double check in-case added in parallel
-
-				entry = (TRTrackerServerTorrentImpl)torrent_map.get( hash );
-
-				if ( entry == null ){
-
-					entry = new TRTrackerServerTorrentImpl( this, hash, _enabled );
+				// returns any entry added in parallel
 
-					torrent_map.put( hash, entry );
-				}
-			}finally{
-
-				class_mon.exit();
-			}
+			entry = torrent_registry.add( hash, new TRTrackerServerTorrentImpl( this, hash, _enabled ));
 		}
 
 		return( entry );
@@ -918,21 +875,11 @@ TRTrackerServerImpl
 			}
 		}
 
-		try{
-			class_mon.enter();
-
-			TRTrackerServerTorrentImpl	entry = (TRTrackerServerTorrentImpl)torrent_map.get( hash );
-
-			if ( entry != null ){
-
-				entry.delete();
-			}
-
-			torrent_map.remove( hash );
+		TRTrackerServerTorrentImpl	entry = torrent_registry.remove( hash );
 
-		}finally{
+		if ( entry != null ){
 
-			class_mon.exit();
+			entry.delete();
 		}
 	}
 
@@ -940,15 +887,7 @@ TRTrackerServerImpl
 	getTorrent(
 		byte[]		hash )
 	{
-		try{
-			class_mon.enter();
-
-			return((TRTrackerServerTorrentImpl)torrent_map.get(new HashWrapper(hash)));
-
-		}finally{
-
-			class_mon.exit();
-		}
+		return( torrent_registry.get( new HashWrapper( hash )));
 	}
 
 	public TRTrackerServerTorrentImpl
@@ -969,24 +908,15 @@ TRTrackerServerImpl
 	public TRTrackerServerTorrentImpl[]
 	getTorrents()
 	{
-		try{
-			class_mon.enter();
-
-			TRTrackerServerTorrentImpl[]	res = new TRTrackerServerTorrentImpl[torrent_map.size()];
-
-			torrent_map.values().toArray( res );
+		List<TRTrackerServerTorrentImpl>	torrents = torrent_registry.getTorrents();
 
-			return( res );
-		}finally{
-
-			class_mon.exit();
-		}
+		return( torrents.toArray( new TRTrackerServerTorrentImpl[ torrents.size()]));
 	}
 
 	public int
 	getTorrentCount()
 	{
-		return( torrent_map.size());
+		return( torrent_registry.size());
 	}
 
 	public TRTrackerServerTorrentStats
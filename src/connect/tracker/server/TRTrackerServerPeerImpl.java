@@ -68,6 +68,11 @@ TRTrackerServerPeerImpl
 	private DHTNetworkPosition	network_position;
 	private Object				user_data;
 	
+		// position in the torrent's compact peer store, -1 if not held
+	
+	private int					compact_index	= -1;
+	private boolean				compact_v6;
+	
 	protected
 	TRTrackerServerPeerImpl(
 		HashWrapper			_peer_id,
@@ -296,6 +301,27 @@ TRTrackerServerPeerImpl
 		return( biased );
 	}
 	
+	protected int
+	getCompactIndex()
+	{
+		return( compact_index );
+	}
+	
+	protected boolean
+	isCompactV6()
+	{
+		return( compact_v6 );
+	}
+	
+	protected void
+	setCompactIndex(
+		int			index,
+		boolean		v6 )
+	{
+		compact_index	= index;
+		compact_v6		= v6;
+	}
+	
 	public void
 	setBiased(
 		boolean	_biased )
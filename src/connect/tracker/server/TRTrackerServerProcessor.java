@@ -64,6 +64,17 @@ TRTrackerServerProcessor
 	private long					start;
 	private int						request_type;
 	
+		// announce intervals as computed by processTrackerRequest, for callers that export the
+		// announce themselves
+	
+	protected long					announce_interval;
+	protected long					announce_min_interval;
+	
+		/**
+		 * For announces a null root_out skips the export to map, the caller is then responsible for
+		 * exporting the reply (using announce_interval/announce_min_interval)
+		 */
+	
 	protected TRTrackerServerTorrentImpl
 	processTrackerRequest(
 		TRTrackerServerImpl			_server,
@@ -267,6 +278,9 @@ TRTrackerServerProcessor
 					torrent.peerQueued( client_ip_address, port, udp_port, http_port, crypto_level, az_ver, interval, left==0 );
 				}
 				
+				announce_interval		= interval;
+				announce_min_interval	= min_interval;
+				
 				HashMap	pre_map = new HashMap();
 				
 				TRTrackerServerPeer	pre_process_peer = peer;
@@ -284,7 +298,10 @@ TRTrackerServerProcessor
 				
 				boolean	stopped 	= event != null && event.equalsIgnoreCase("stopped");
 				
-				root_out[0] = torrent.exportAnnounceToMap( client_ip_address, pre_map, peer, left > 0, stopped?0:num_want, interval, min_interval, no_peer_id, compact_mode, crypto_level, network_position );
+				if ( root_out != null ){
+				
+					root_out[0] = torrent.exportAnnounceToMap( client_ip_address, pre_map, peer, left > 0, stopped?0:num_want, interval, min_interval, no_peer_id, compact_mode, crypto_level, network_position );
+				}
 				
 				peer_out[0]	= peer;	
 				
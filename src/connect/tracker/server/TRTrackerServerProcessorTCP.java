@@ -33,6 +33,7 @@ import torrentlib.Base32;
 import torrentlib.UrlUtils;
 import torrentlib.BDecoder;
 import torrentlib.BEncoder;
+import torrentlib.BEncoderDirect;
 import torrentlib.HashWrapper;
 import connect.tracker.server.TRTrackerServerPeerImpl;
 import connect.tracker.server.TRTrackerServerTorrentImpl;
@@ -80,6 +81,22 @@ TRTrackerServerProcessorTCP
 			"Connection: close" + NL +
 			"Content-Length: ").getBytes();
 
+		// as above for connections that are being kept alive
+
+	protected static final byte[]	HTTP_RESPONSE_START_KA = (
+		"HTTP/1.1 200 OK" + NL +
+		"Content-Type: text/html" + NL +
+		"Server: " + Constants.AZUREUS_NAME + " " + Constants.AZUREUS_VERSION + NL +
+		"Connection: keep-alive" + NL +
+		"Content-Length: ").getBytes();
+
+	protected static final byte[]	HTTP_RESPONSE_XML_START_KA = (
+			"HTTP/1.1 200 OK" + NL +
+			"Content-Type: text/xml; charset=\"utf-8\"" + NL +
+			"Server: " + Constants.AZUREUS_NAME + " " + Constants.AZUREUS_VERSION + NL +
+			"Connection: keep-alive" + NL +
+			"Content-Length: ").getBytes();
+
 	protected static final byte[]	HTTP_RESPONSE_END_GZIP 		= (NL + "Content-Encoding: gzip" + NL + NL).getBytes();
 	protected static final byte[]	HTTP_RESPONSE_END_NOGZIP 	= (NL + NL).getBytes();
 
@@ -333,34 +350,30 @@ TRTrackerServerProcessorTCP
 
 					int	p1 = str.indexOf( '&', pos );
 
-					String	token;
+					int	token_end = p1==-1?str.length():p1;
 
-					if ( p1 == -1 ){
+					int	p2 = str.indexOf( '=', pos );
 
-						token = str.substring( pos );
+					if ( p2 == -1 || p2 > token_end ){
 
-					}else{
-
-						token = str.substring( pos, p1 );
-
-						pos = p1+1;
+						throw( new Exception( "format invalid" ));
 					}
 
-					int	p2 = token.indexOf('=');
+					int	token_start = pos;
 
-					if ( p2 == -1 ){
+					pos = p1+1;
 
-						throw( new Exception( "format invalid" ));
-					}
+						// the parameters every announce carries are decoded in place, without
+						// creating strings for the name and value
 
-					String	lhs = token.substring( 0, p2 ).toLowerCase();
-					String	rhs = URLDecoder.decode(token.substring( p2+1 ), Constants.BYTE_ENCODING );
+					int	lhs_len		= p2 - token_start;
+					int	rhs_start	= p2 + 1;
 
-					// System.out.println( "param:" + lhs + " = " + rhs );
+					long	number = lhs_len<=10?parseNumber( str, rhs_start, token_end ):-1;
 
-					if ( lhs.equals( "info_hash" )){
+					if ( lhs_len == 9 && str.regionMatches( true, token_start, "info_hash", 0, 9 )){
 
-						byte[] b = rhs.getBytes(Constants.BYTE_ENCODING);
+						byte[] b = decodeParameter( str, rhs_start, token_end );
 
 						if ( hash == null ){
 
@@ -378,151 +391,179 @@ TRTrackerServerProcessorTCP
 							hash_list.add( b );
 						}
 
-					}else if ( lhs.equals( "peer_id" )){
+					}else if ( lhs_len == 7 && str.regionMatches( true, token_start, "peer_id", 0, 7 )){
 
-						peer_id	= new HashWrapper(rhs.getBytes(Constants.BYTE_ENCODING));
+						peer_id	= new HashWrapper( decodeParameter( str, rhs_start, token_end ));
 
-					}else if ( lhs.equals( "no_peer_id" )){
+					}else if ( lhs_len == 10 && str.regionMatches( true, token_start, "no_peer_id", 0, 10 )){
 
-						no_peer_id = rhs.equals("1");
+						no_peer_id = number == 1 && token_end - rhs_start == 1;
 
-					}else if ( lhs.equals( "compact" )){
+					}else if ( lhs_len == 7 && str.regionMatches( true, token_start, "compact", 0, 7 )){
 
 						if ( compact_enabled ){
 
-							if ( rhs.equals("1") && compact_mode == TRTrackerServerTorrentImpl.COMPACT_MODE_NONE ){
+							if ( number == 1 && token_end - rhs_start == 1 && compact_mode == TRTrackerServerTorrentImpl.COMPACT_MODE_NONE ){
 
 								compact_mode = TRTrackerServerTorrentImpl.COMPACT_MODE_NORMAL;
 							}
 						}
-					}else if ( lhs.equals( "key" )){
+					}else if ( number >= 0 && number <= Integer.MAX_VALUE && lhs_len == 4 && str.regionMatches( true, token_start, "port", 0, 4 )){
 
-						if ( server.isKeyEnabled()){
+						tcp_port = (int)number;
 
-							key = rhs;
-						}
+					}else if ( number >= 0 && lhs_len == 8 && str.regionMatches( true, token_start, "uploaded", 0, 8 )){
 
-					}else if ( lhs.equals( "port" )){
+						uploaded = number;
 
-						tcp_port = Integer.parseInt( rhs );
+					}else if ( number >= 0 && lhs_len == 10 && str.regionMatches( true, token_start, "downloaded", 0, 10 )){
 
-					}else if ( lhs.equals( "event" )){
+						downloaded = number;
 
-						event = rhs;
+					}else if ( number >= 0 && lhs_len == 4 && str.regionMatches( true, token_start, "left", 0, 4 )){
 
-					}else if ( lhs.equals( "ip" )){
+						left = number;
 
-						// System.out.println( "override: " + real_ip_address + " -> " + rhs + " [" + input_header + "]" );
+					}else if ( number >= 0 && number <= Integer.MAX_VALUE && lhs_len == 7 && str.regionMatches( true, token_start, "numwant", 0, 7 )){
 
-						if ( !HostNameToIPResolver.isNonDNSName( rhs )){
+						num_want = (int)number;
 
-							for (int i=0;i<rhs.length();i++){
+					}else{
 
-								char	c = rhs.charAt(i);
+						String	lhs = str.substring( token_start, p2 ).toLowerCase();
+						String	rhs = URLDecoder.decode( str.substring( rhs_start, token_end ), Constants.BYTE_ENCODING );
 
-								if ( c != '.' && c != ':' && !Character.isDigit( c )){
+						// System.out.println( "param:" + lhs + " = " + rhs );
 
-									throw( new Exception( "IP override address must be resolved by the client" ));
-								}
+						if ( lhs.equals( "key" )){
+
+							if ( server.isKeyEnabled()){
+
+								key = rhs;
 							}
 
-							try{
-								rhs	= HostNameToIPResolver.syncResolve( rhs ).getHostAddress();
+						}else if ( lhs.equals( "port" )){
 
-							}catch( UnknownHostException e ){
+							tcp_port = Integer.parseInt( rhs );
 
-								throw( new Exception( "IP override address must be resolved by the client" ));
-							}
-						}
+						}else if ( lhs.equals( "event" )){
 
-						client_ip_address = rhs;
+							event = rhs;
 
-					}else if ( lhs.equals( "uploaded" )){
+						}else if ( lhs.equals( "ip" )){
 
-						uploaded = Long.parseLong( rhs );
+							// System.out.println( "override: " + real_ip_address + " -> " + rhs + " [" + input_header + "]" );
 
-					}else if ( lhs.equals( "downloaded" )){
+							if ( !HostNameToIPResolver.isNonDNSName( rhs )){
 
-						downloaded = Long.parseLong( rhs );
+								for (int i=0;i<rhs.length();i++){
 
-					}else if ( lhs.equals( "left" )){
+									char	c = rhs.charAt(i);
 
-						left = Long.parseLong( rhs );
+									if ( c != '.' && c != ':' && !Character.isDigit( c )){
 
-					}else if ( lhs.equals( "numwant" )){
+										throw( new Exception( "IP override address must be resolved by the client" ));
+									}
+								}
 
-						num_want = Integer.parseInt( rhs );
+								try{
+									rhs	= HostNameToIPResolver.syncResolve( rhs ).getHostAddress();
 
-					}else if ( lhs.equals( "azudp" )){
+								}catch( UnknownHostException e ){
 
-						udp_port 	= Integer.parseInt( rhs );
+									throw( new Exception( "IP override address must be resolved by the client" ));
+								}
+							}
 
-							// implicit compact mode for 2500 indicated by presence of udp port
+							client_ip_address = rhs;
 
-						if ( compact_enabled ){
+						}else if ( lhs.equals( "uploaded" )){
 
-							compact_mode = TRTrackerServerTorrentImpl.COMPACT_MODE_AZ;
-						}
+							uploaded = Long.parseLong( rhs );
 
-					}else if ( lhs.equals( "azhttp" )){
+						}else if ( lhs.equals( "downloaded" )){
 
-						http_port 	= Integer.parseInt( rhs );
+							downloaded = Long.parseLong( rhs );
 
-					}else if ( lhs.equals( "azver" )){
+						}else if ( lhs.equals( "left" )){
 
-						az_ver 	= Integer.parseInt( rhs );
+							left = Long.parseLong( rhs );
 
-					}else if ( lhs.equals( "supportcrypto" )){
+						}else if ( lhs.equals( "numwant" )){
 
-						if ( crypto_level == TRTrackerServerPeer.CRYPTO_NONE ){
+							num_want = Integer.parseInt( rhs );
 
-							crypto_level	= TRTrackerServerPeer.CRYPTO_SUPPORTED;
-						}
+						}else if ( lhs.equals( "azudp" )){
 
-					}else if ( lhs.equals( "requirecrypto" )){
+							udp_port 	= Integer.parseInt( rhs );
 
-						crypto_level	= TRTrackerServerPeer.CRYPTO_REQUIRED;
+								// implicit compact mode for 2500 indicated by presence of udp port
 
-					}else if ( lhs.equals( "cryptoport" )){
+							if ( compact_enabled ){
 
-						crypto_port = Integer.parseInt( rhs );
+								compact_mode = TRTrackerServerTorrentImpl.COMPACT_MODE_AZ;
+							}
 
-					}else if ( lhs.equals( "azq" )){
+						}else if ( lhs.equals( "azhttp" )){
 
-						stop_to_queue	= true;
+							http_port 	= Integer.parseInt( rhs );
 
-					}else if ( lhs.equals( "azsf" )){
+						}else if ( lhs.equals( "azver" )){
 
-						scrape_flags = rhs;
+							az_ver 	= Integer.parseInt( rhs );
 
-					}else if ( lhs.equals( "link" )){
+						}else if ( lhs.equals( "supportcrypto" )){
 
-						link = rhs;
+							if ( crypto_level == TRTrackerServerPeer.CRYPTO_NONE ){
 
-					}else if ( lhs.equals( "outform" )){
+								crypto_level	= TRTrackerServerPeer.CRYPTO_SUPPORTED;
+							}
 
-						if ( rhs.equals( "xml" )){
+						}else if ( lhs.equals( "requirecrypto" )){
 
-							xml_output	= true;
-						}
+							crypto_level	= TRTrackerServerPeer.CRYPTO_REQUIRED;
 
-					}else if ( lhs.equals( "hide" )){
+						}else if ( lhs.equals( "cryptoport" )){
 
-						hide 	= Integer.parseInt( rhs ) == 1;
+							crypto_port = Integer.parseInt( rhs );
 
-					}else if ( TRTrackerServerImpl.supportsExtensions()){
+						}else if ( lhs.equals( "azq" )){
 
-						if ( lhs.equals( "aznp" )){
+							stop_to_queue	= true;
 
-							try{
-								network_position = DHTNetworkPositionManager.deserialisePosition( remote_address.getAddress(), Base32.decode( rhs ));
+						}else if ( lhs.equals( "azsf" )){
 
-							}catch( Throwable e ){
+							scrape_flags = rhs;
+
+						}else if ( lhs.equals( "link" )){
+
+							link = rhs;
+
+						}else if ( lhs.equals( "outform" )){
+
+							if ( rhs.equals( "xml" )){
 
+								xml_output	= true;
 							}
-						}else if ( lhs.equals( "azup" )){
 
-							up_speed = Integer.parseInt( rhs );
+						}else if ( lhs.equals( "hide" )){
+
+							hide 	= Integer.parseInt( rhs ) == 1;
+
+						}else if ( TRTrackerServerImpl.supportsExtensions()){
+
+							if ( lhs.equals( "aznp" )){
+
+								try{
+									network_position = DHTNetworkPositionManager.deserialisePosition( remote_address.getAddress(), Base32.decode( rhs ));
+
+								}catch( Throwable e ){
+
+								}
+							}else if ( lhs.equals( "azup" )){
+
+								up_speed = Integer.parseInt( rhs );
+							}
 						}
 					}
 
@@ -756,7 +797,7 @@ TRTrackerServerProcessorTCP
 
 				data			= xml.toString().getBytes("UTF-8" );
 
-				header_start = HTTP_RESPONSE_XML_START;
+				header_start = keep_alive?HTTP_RESPONSE_XML_START_KA:HTTP_RESPONSE_XML_START;
 
 			}else{
 					// cache both plain and gzip encoded data for possible reuse
@@ -765,7 +806,7 @@ TRTrackerServerProcessorTCP
 
 				if ( data == null ){
 
-					data = BEncoder.encode( root );
+					data = BEncoderDirect.encode( root );
 
 					if ( data.length > 1000000 ){
 
@@ -791,7 +832,7 @@ TRTrackerServerProcessorTCP
 					root.put( "_data", data );
 				}
 
-				header_start = HTTP_RESPONSE_START;
+				header_start = keep_alive?HTTP_RESPONSE_START_KA:HTTP_RESPONSE_START;
 			}
 
 			if ( gzip_reply ){
@@ -855,7 +896,102 @@ TRTrackerServerProcessorTCP
 			os.flush();
 		}
 
-		return( false );
+		return( keep_alive );
+	}
+
+		/**
+		 * @return the value of an all-digit parameter, -1 if it is empty, too long or not all digits
+		 */
+
+	protected static long
+	parseNumber(
+		String		str,
+		int			start,
+		int			end )
+	{
+		int	len = end - start;
+
+		if ( len == 0 || len > 18 ){
+
+			return( -1 );
+		}
+
+		long	result = 0;
+
+		for ( int i=start;i<end;i++){
+
+			char	c = str.charAt( i );
+
+			if ( c < '0' || c > '9' ){
+
+				return( -1 );
+			}
+
+			result = result*10 + ( c - '0' );
+		}
+
+		return( result );
+	}
+
+		/**
+		 * URL decodes a parameter value straight to bytes, equivalent to URLDecoder.decode with
+		 * the byte encoding followed by getBytes
+		 */
+
+	protected static byte[]
+	decodeParameter(
+		String		str,
+		int			start,
+		int			end )
+
+		throws Exception
+	{
+		byte[]	result	= new byte[ end - start ];
+		int		pos		= 0;
+
+		for ( int i=start;i<end;i++){
+
+			char	c = str.charAt( i );
+
+			if ( c == '+' ){
+
+				result[pos++] = ' ';
+
+			}else if ( c == '%' ){
+
+				if ( i + 2 >= end ){
+
+					throw( new Exception( "format invalid" ));
+				}
+
+				int	hi = Character.digit( str.charAt( i+1 ), 16 );
+				int	lo = Character.digit( str.charAt( i+2 ), 16 );
+
+				if ( hi < 0 || lo < 0 ){
+
+					throw( new Exception( "format invalid" ));
+				}
+
+				result[pos++] = (byte)(( hi << 4 ) | lo );
+
+				i += 2;
+
+			}else{
+
+				result[pos++] = c<256?(byte)c:(byte)'?';
+			}
+		}
+
+		if ( pos < result.length ){
+
+			byte[]	trimmed = new byte[ pos ];
+
+			System.arraycopy( result, 0, trimmed, 0, pos );
+
+			result = trimmed;
+		}
+
+		return( result );
 	}
 
 	protected String
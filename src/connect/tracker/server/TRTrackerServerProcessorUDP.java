@@ -30,11 +30,9 @@ package connect.tracker.server;
 import torrentlib.Constants;
 import torrentlib.SystemTime;
 import torrentlib.Debug;
-import torrentlib.AEMonitor;
 import torrentlib.util.logging.LogEvent;
 import torrentlib.util.logging.Logger;
 import torrentlib.util.logging.LogIDs;
-import torrentlib.RandomUtils;
 import torrentlib.HashWrapper;
 import stdlib.security.types.SHA1Hasher;
 import connect.tracker.server.TRTrackerServerPeerImpl;
@@ -56,7 +54,6 @@ import connect.tracker.protocol.udp.PRUDPPacketRequestAnnounce;
 import connect.tracker.protocol.PRHelpers;
 import java.net.*;
 import java.io.*;
-import java.security.SecureRandom;
 import java.util.*;
 
 
@@ -77,12 +74,28 @@ TRTrackerServerProcessorUDP
 	private DatagramSocket			socket;
 	private DatagramPacket			request_dg;
 	
-	private static Map<Long,connectionData>				connection_id_map 	= new LinkedHashMap<Long,connectionData>();
-	private static Map<String,List<connectionData>>		connection_ip_map 	= new HashMap<String,List<connectionData>>();
-	private static long									last_timeout_check;
+	private static final int	HEADER_LENGTH			= 16;		// connection id, action, transaction id
+	private static final int	ANNOUNCE_BODY_LENGTH	= 82;
+	private static final int	ANNOUNCE_REPLY_HEADER	= 20;
+	private static final int	SCRAPE_ENTRY_LENGTH		= 12;
 	
-	private static SecureRandom		random				= RandomUtils.SECURE_RANDOM;
-	private static AEMonitor		random_mon 			= new AEMonitor( "TRTrackerServerUDP:rand" );
+	private static final String[]	EVENTS = { null, "completed", "started", "stopped" };
+	
+	private static TRTrackerServerUDPConnectionTable	connection_table = new TRTrackerServerUDPConnectionTable( CONNECTION_ID_LIFETIME );
+	
+		// replies are built in a per-thread buffer and sent from it
+	
+	private static ThreadLocal<Object[]>	reply_buffers =
+		new ThreadLocal<Object[]>()
+		{
+			protected Object[]
+			initialValue()
+			{
+				byte[]	buffer = new byte[ PRUDPPacket.MAX_PACKET_SIZE ];
+				
+				return( new Object[]{ buffer, new DatagramPacket( buffer, buffer.length )});
+			}
+		};
 
 	static{
 	  	PRUDPTrackerCodecs.registerCodecs();
@@ -101,10 +114,486 @@ TRTrackerServerProcessorUDP
 	
 	public void
 	runSupport()
+	{
+		if ( PRUDPPacketTracker.VERSION == 1 ){
+			
+			runLegacy();
+			
+		}else{
+			
+			runBinary();
+		}
+	}
+	
+		/**
+		 * Protocol version 2 (the standard one): requests are decoded from, and replies encoded into,
+		 * the datagram buffers directly without going via packet objects or announce maps
+		 */
+	
+	protected void
+	runBinary()
+	{
+		byte[]	data	= request_dg.getData();
+		int		offset	= request_dg.getOffset();
+		int		length	= request_dg.getLength();
+		
+		if ( server.isTrackerPasswordEnabled()){
+			
+			if ( length < HEADER_LENGTH + 16 ){
+				
+				Logger.log(new LogEvent(LOGID, LogEvent.LT_WARNING,
+						"TRTrackerServerProcessorUDP: "
+								+ "packet received but authorisation missing")); 
+
+				return;
+			}
+			
+			length -= 16;
+			
+		}else if ( length < HEADER_LENGTH ){
+			
+			return;
+		}
+		
+		long	connection_id	= readLong( data, offset );
+		int		action			= readInt( data, offset + 8 );
+		int		transaction_id	= readInt( data, offset + 12 );
+		
+		if ( Logger.isEnabled()){
+			
+			Logger.log(new LogEvent(LOGID,
+					"TRTrackerServerProcessorUDP: packet received: action=" + action + ",trans=" + transaction_id + ",len=" + length )); 
+		}
+		
+		Object[]		rb				= reply_buffers.get();
+		byte[]			reply			= (byte[])rb[0];
+		DatagramPacket	reply_packet	= (DatagramPacket)rb[1];
+		
+		int							reply_length;
+		int							request_type	= TRTrackerServerRequest.RT_UNKNOWN;
+		TRTrackerServerTorrentImpl	torrent			= null;
+		
+		try{
+			String	error = null;
+			
+			if ( server.isTrackerPasswordEnabled()){
+				
+				error = checkAuthorisation( data, offset, length );
+			}
+			
+			if ( error != null ){
+				
+				reply_length = writeError( reply, transaction_id, error );
+				
+			}else if ( !server.isEnabled()){
+				
+				System.out.println( "UDP Tracker: replying 'disabled' to " + request_dg.getAddress().getHostAddress());
+				
+				reply_length = writeError( reply, transaction_id, "UDP Tracker disabled" );
+				
+			}else{
+				
+				try{
+					InetAddress	address = request_dg.getAddress();
+					
+					if ( action == PRUDPPacketTracker.ACT_REQUEST_CONNECT ){
+						
+						writeInt( reply, 0, PRUDPPacketTracker.ACT_REPLY_CONNECT );
+						writeInt( reply, 4, transaction_id );
+						writeLong( reply, 8, connection_table.allocate( address ));
+						
+						reply_length = 16;
+						
+					}else if ( action == PRUDPPacketTracker.ACT_REQUEST_ANNOUNCE || action == PRUDPPacketTracker.ACT_REQUEST_SCRAPE ){
+						
+						if ( !connection_table.check( connection_id, address )){
+							
+							throw( new Exception( "Connection ID mismatch" ));
+						}
+						
+						TRTrackerServerTorrentImpl[]	torrent_out = new TRTrackerServerTorrentImpl[1];
+						
+						if ( action == PRUDPPacketTracker.ACT_REQUEST_ANNOUNCE ){
+							
+							request_type = TRTrackerServerRequest.RT_ANNOUNCE;
+
+							reply_length = handleAnnounce( data, offset + HEADER_LENGTH, length - HEADER_LENGTH, transaction_id, reply, torrent_out );
+							
+						}else{
+							
+							request_type = TRTrackerServerRequest.RT_SCRAPE;
+
+							reply_length = handleScrape( data, offset + HEADER_LENGTH, length - HEADER_LENGTH, transaction_id, reply, torrent_out );
+						}
+						
+						torrent = torrent_out[0];
+						
+					}else{
+						
+						reply_length = writeError( reply, transaction_id, "unsupported action" );
+					}
+				}catch( Throwable e ){
+					
+					String	message = e.getMessage();
+					
+					if ( message == null ){
+						
+						message = e.toString();
+					}
+					
+					request_type	= TRTrackerServerRequest.RT_UNKNOWN;
+					torrent			= null;
+					
+					reply_length = writeError( reply, transaction_id, message );
+				}
+			}
+			
+			reply_packet.setData( reply, 0, reply_length );
+			reply_packet.setAddress( request_dg.getAddress());
+			reply_packet.setPort( request_dg.getPort());
+			
+			socket.send( reply_packet );
+		
+			server.updateStats( request_type, torrent, request_dg.getLength(), reply_length );
+			
+		}catch( Throwable e ){
+			
+			Logger.log(new LogEvent(LOGID,
+					"TRTrackerServerProcessorUDP: processing fails", e)); 
+		}
+	}
+	
+		/**
+		 * @return null if ok, error message otherwise
+		 */
+	
+	protected String
+	checkAuthorisation(
+		byte[]		data,
+		int			offset,
+		int			packet_data_length )
+	{
+			// auth details are appended to the packet: 8 bytes of user name followed by the first
+			// 8 bytes of sha1(<packet> + <user_padded_to_8> + sha1(pass))
+		
+		int	auth_offset = offset + packet_data_length;
+		
+		int	user_len = 0;
+		
+		while( user_len < 8 && data[auth_offset+user_len] != 0 ){
+			
+			user_len++;
+		}
+		
+		String	auth_user = new String( data, auth_offset, user_len );
+		
+		byte[] sha1_pw = null;
+		
+		if ( server.hasExternalAuthorisation()){
+			
+			try{
+				URL	resource = new URL( "udp://" + server.getHost() + ":" + server.getPort() + "/" );
+			
+				sha1_pw = server.performExternalAuthorisation( resource, auth_user );
+				
+			}catch( MalformedURLException e ){
+				
+				Debug.printStackTrace( e );
+			}
+		}else{
+			
+			sha1_pw = server.getPassword();
+		}
+		
+		boolean	ok = sha1_pw != null;
+		
+		if ( ok ){
+			
+			SHA1Hasher	hasher = new SHA1Hasher();
+			
+			hasher.update( data, offset, packet_data_length );
+			hasher.update( data, auth_offset, 8 );
+			hasher.update( sha1_pw );
+			
+			byte[]	digest = hasher.getDigest();
+			
+			for (int i=0;i<8;i++){
+				
+				if ( data[auth_offset+8+i] != digest[i] ){
+			
+					ok = false;
+					
+					break;
+				}
+			}
+		}
+		
+		if ( !ok ){
+			
+			Logger.log(new LogEvent(LOGID, LogEvent.LT_ERROR,
+					"TRTrackerServerProcessorUDP: auth fails for user '"
+							+ auth_user + "'")); 
+
+			return( "Access Denied" );
+		}
+		
+		return( null );
+	}
+	
+	protected int
+	handleAnnounce(
+		byte[]							data,
+		int								pos,
+		int								length,
+		int								transaction_id,
+		byte[]							reply,
+		TRTrackerServerTorrentImpl[]	torrent_out )
+	
+		throws Exception
+	{
+		if ( length < ANNOUNCE_BODY_LENGTH ){
+			
+			throw( new Exception( "Invalid announce" ));
+		}
+		
+		byte[]	hash = new byte[20];
+		
+		System.arraycopy( data, pos, hash, 0, 20 );
+		
+		byte[]	peer_id_bytes = new byte[20];
+		
+		System.arraycopy( data, pos+20, peer_id_bytes, 0, 20 );
+		
+		long	downloaded	= readLong( data, pos+40 );
+		long	left		= readLong( data, pos+48 );
+		long	uploaded	= readLong( data, pos+56 );
+		int		i_event		= readInt( data, pos+64 );
+		int		i_ip		= readInt( data, pos+68 );
+		int		i_key		= readInt( data, pos+72 );
+		int		num_want	= readInt( data, pos+76 );
+		int		port		= (( data[pos+80]&0xff ) << 8 ) | ( data[pos+81]&0xff );
+		
+		String	event = i_event>=0 && i_event<EVENTS.length?EVENTS[i_event]:null;
+		
+		String	client_ip_address = i_ip==0?request_dg.getAddress().getHostAddress():PRHelpers.intToAddress( i_ip );
+		
+		TRTrackerServerPeerImpl[]	peer_out = new TRTrackerServerPeerImpl[1];
+		
+		TRTrackerServerTorrentImpl torrent =
+			processTrackerRequest( 
+				server, "", null, peer_out, 
+				TRTrackerServerRequest.RT_ANNOUNCE,
+				new byte[][]{ hash }, null, null,
+				new HashWrapper( peer_id_bytes ), false, TRTrackerServerTorrentImpl.COMPACT_MODE_NONE, String.valueOf( i_key ),
+				event, false,
+				port,
+				0, 0,
+				client_ip_address, client_ip_address,
+				downloaded, uploaded, left,
+				num_want,
+				TRTrackerServerPeer.CRYPTO_NONE,
+				(byte)1,
+				0,
+				null );
+		
+		torrent_out[0] = torrent;
+		
+		boolean	stopped = "stopped".equals( event );
+		
+		int	want = stopped?0:num_want;
+		
+		int	num_peers = torrent.exportAnnounceToBuffer( peer_out[0], left > 0, want, TRTrackerServerPeer.CRYPTO_NONE, reply, ANNOUNCE_REPLY_HEADER );
+		
+		if ( num_peers < 0 ){
+			
+				// torrent needs the full export (listeners, biased peers...), copy out of its map
+			
+			Map root = torrent.exportAnnounceToMap( 
+							client_ip_address, new HashMap(), peer_out[0], left > 0, want, 
+							announce_interval, announce_min_interval, true, TRTrackerServerTorrentImpl.COMPACT_MODE_NONE, 
+							TRTrackerServerPeer.CRYPTO_NONE, null );
+			
+			List	peers = (List)root.get( "peers" );
+			
+			int	max = ( reply.length - ANNOUNCE_REPLY_HEADER ) / 6;
+			
+			num_peers = 0;
+			
+			for (int i=0;i<peers.size() && num_peers < max;i++){
+				
+				Map	peer = (Map)peers.get(i);
+				
+				int	p_pos = ANNOUNCE_REPLY_HEADER + num_peers*6;
+				
+				writeInt( reply, p_pos, PRHelpers.addressToInt(new String((byte[])peer.get("ip"))));
+				
+				int	p_port = ((Long)peer.get("port")).intValue();
+				
+				reply[p_pos+4]	= (byte)( p_port >> 8 );
+				reply[p_pos+5]	= (byte)p_port;
+				
+				num_peers++;
+			}
+		}
+		
+		boolean	local_scrape = client_ip_address.equals( "127.0.0.1" );
+
+		Map scrape_details = torrent.exportScrapeToMap( "", client_ip_address, !local_scrape );
+		
+		writeInt( reply, 0, PRUDPPacketTracker.ACT_REPLY_ANNOUNCE );
+		writeInt( reply, 4, transaction_id );
+		writeInt( reply, 8, (int)announce_interval );
+		writeInt( reply, 12, ((Long)scrape_details.get("incomplete")).intValue());
+		writeInt( reply, 16, ((Long)scrape_details.get("complete")).intValue());
+		
+		return( ANNOUNCE_REPLY_HEADER + num_peers*6 );
+	}
+	
+	protected int
+	handleScrape(
+		byte[]							data,
+		int								pos,
+		int								length,
+		int								transaction_id,
+		byte[]							reply,
+		TRTrackerServerTorrentImpl[]	torrent_out )
+	
+		throws Exception
+	{
+		int	num_hashes = Math.min( length / 20, ( reply.length - 8 ) / SCRAPE_ENTRY_LENGTH );
+		
+		byte[][]	hashes = new byte[num_hashes][];
+		
+		for (int i=0;i<num_hashes;i++){
+			
+			byte[]	hash = new byte[20];
+			
+			System.arraycopy( data, pos + i*20, hash, 0, 20 );
+			
+			hashes[i] = hash;
+		}
+		
+		Map[]						root_out = new Map[1];
+		TRTrackerServerPeerImpl[]	peer_out = new TRTrackerServerPeerImpl[1];
+		
+		String	client_ip_address = request_dg.getAddress().getHostAddress();
+		
+		torrent_out[0] =
+			processTrackerRequest( 
+				server, "", root_out, peer_out, 
+				TRTrackerServerRequest.RT_SCRAPE,
+				hashes, null, null,
+				null, false, TRTrackerServerTorrentImpl.COMPACT_MODE_NONE, null,
+				null, false,
+				0,
+				0, 0,
+				client_ip_address, client_ip_address,
+				0, 0, 0,
+				-1,
+				TRTrackerServerPeer.CRYPTO_NONE,
+				(byte)1,
+				0,
+				null );
+		
+		Map	files = (Map)root_out[0].get( "files" );
+		
+		writeInt( reply, 0, PRUDPPacketTracker.ACT_REPLY_SCRAPE );
+		writeInt( reply, 4, transaction_id );
+		
+			// entries go in request order, zero for unknown torrents
+		
+		int	r_pos = 8;
+		
+		for (int i=0;i<num_hashes;i++){
+			
+			Map	details = (Map)files.get( new String( hashes[i], Constants.BYTE_ENCODING ));
+			
+			if ( details == null ){
+				
+				writeInt( reply, r_pos, 0 );
+				writeInt( reply, r_pos+4, 0 );
+				writeInt( reply, r_pos+8, 0 );
+				
+			}else{
+				
+				writeInt( reply, r_pos, ((Long)details.get("complete")).intValue());
+				writeInt( reply, r_pos+4, ((Long)details.get("downloaded")).intValue());
+				writeInt( reply, r_pos+8, ((Long)details.get("incomplete")).intValue());
+			}
+			
+			r_pos += SCRAPE_ENTRY_LENGTH;
+		}
+		
+		return( r_pos );
+	}
+	
+	protected static int
+	writeError(
+		byte[]		reply,
+		int			transaction_id,
+		String		message )
+	{
+		writeInt( reply, 0, PRUDPPacketTracker.ACT_REPLY_ERROR );
+		writeInt( reply, 4, transaction_id );
+		
+		byte[]	bytes = message.getBytes();
+		
+		int	len = Math.min( bytes.length, reply.length - 8 );
+		
+		System.arraycopy( bytes, 0, reply, 8, len );
+		
+		return( 8 + len );
+	}
+	
+	protected static int
+	readInt(
+		byte[]		data,
+		int			pos )
+	{
+		return(	(( data[pos]&0xff ) << 24 ) | (( data[pos+1]&0xff ) << 16 ) |
+				(( data[pos+2]&0xff ) << 8 ) | ( data[pos+3]&0xff ));
+	}
+	
+	protected static long
+	readLong(
+		byte[]		data,
+		int			pos )
+	{
+		return(((long)readInt( data, pos ) << 32 ) | ( readInt( data, pos+4 ) & 0xffffffffL ));
+	}
+	
+	protected static void
+	writeInt(
+		byte[]		data,
+		int			pos,
+		int			value )
+	{
+		data[pos]	= (byte)( value >> 24 );
+		data[pos+1]	= (byte)( value >> 16 );
+		data[pos+2]	= (byte)( value >> 8 );
+		data[pos+3]	= (byte)value;
+	}
+	
+	protected static void
+	writeLong(
+		byte[]		data,
+		int			pos,
+		long		value )
+	{
+		writeInt( data, pos, (int)( value >> 32 ));
+		writeInt( data, pos+4, (int)value );
+	}
+	
+		/**
+		 * Protocol version 1, via packet objects
+		 */
+	
+	protected void
+	runLegacy()
 	{				
 		byte[]	input_buffer = new byte[request_dg.getLength()];
 		
-		System.arraycopy( request_dg.getData(), 0, input_buffer, 0, input_buffer.length );
+		System.arraycopy( request_dg.getData(), request_dg.getOffset(), input_buffer, 0, input_buffer.length );
 		
 		int	packet_data_length = input_buffer.length;
 		
@@ -332,134 +821,16 @@ TRTrackerServerProcessorUDP
 	}
 	
 	protected long
-	allocateConnectionId(
-		String	client_address )
+	allocateConnectionId()
 	{
-		try{
-			random_mon.enter();
-	
-			long	id = random.nextLong();
-			
-			Long	new_key = new Long(id);
-			
-			connectionData	new_data = new connectionData( client_address, id );
-			
-				// check for timeouts
-			
-			if ( new_data.getTime() - last_timeout_check > 500 ){
-				
-				last_timeout_check = new_data.getTime();
-				
-				Iterator<Long>	it = connection_id_map.keySet().iterator();
-							
-				while(it.hasNext()){
-					
-					Long	key = it.next();
-					
-					connectionData	data = connection_id_map.get(key);
-				
-					if ( new_data.getTime() - data.getTime() > CONNECTION_ID_LIFETIME ){
-						
-						// System.out.println( "TRTrackerServerProcessorUDP: connection id timeout" );
-						
-						it.remove();
-						
-						List<connectionData> cds = connection_ip_map.get( client_address );
-
-						if ( cds != null ){
-							
-							Iterator<connectionData> it2 = cds.iterator();
-								
-							while( it2.hasNext()){
-								
-								if ( it2.next().getID() == key ){
-									
-									it2.remove();
-									
-									break;
-								}
-							}
-							
-							if ( cds.size() == 0 ){
-								
-								connection_ip_map.remove( client_address );
-							}
-						}
-						
-					}else{
-							// insertion order into map is time based - LinkedHashMap returns keys in same order
-						
-						break;
-					}
-				}
-			}
-				
-			List<connectionData> cds = connection_ip_map.get( client_address );
-			
-			if ( cds == null ){
-			
-				cds = new ArrayList<connectionData>();
-				
-				connection_ip_map.put( client_address, cds );
-			}
-			
-			cds.add( new_data );
-			
-			if ( cds.size() > 512 ){
-				
-				connectionData dead = cds.remove(0);
-				
-				connection_id_map.remove( dead.getID());
-			}
-			
-			connection_id_map.put( new_key, new_data );
-			
-			// System.out.println( "TRTrackerServerProcessorUDP: allocated:" + id + ", connection id map size = " + connection_id_map.size());
-			
-			return( id );
-			
-		}finally{
-			
-			random_mon.exit();
-		}
+		return( connection_table.allocate( request_dg.getAddress()));
 	}
 	
 	protected boolean
 	checkConnectionId(
-		String	client_address,
 		long	id )
 	{
-		try{
-			random_mon.enter();
-			
-			Long	key = new Long(id);
-			
-			connectionData data = (connectionData)connection_id_map.get( key );
-			
-			if ( data == null ){
-				
-				// System.out.println( "TRTrackerServerProcessorUDP: rejected:" + id + ", data not found" );
-				
-				return( false );
-				
-			}else{
-				
-				if ( SystemTime.getMonotonousTime() - data.getTime() > CONNECTION_ID_LIFETIME ){
-					
-					return( false );
-				}
-			}
-			
-			boolean	ok = data.getAddress().equals( client_address );
-			
-			// System.out.println( "TRTrackerServerProcessorUDP: tested:" + id + "/" + client_address + " -> " + ok );
-			
-			return( ok );
-			
-		}finally{
-			
-			random_mon.exit();
-		}
+		return( connection_table.check( id, request_dg.getAddress()));
 	}
 	
 	protected PRUDPPacket
@@ -467,7 +838,7 @@ TRTrackerServerProcessorUDP
 		String					client_ip_address,
 		PRUDPPacketRequest		request )
 	{
-		long	conn_id = allocateConnectionId( client_ip_address );
+		long	conn_id = allocateConnectionId();
 		
 		PRUDPPacket reply = new PRUDPPacketReplyConnect(request.getTransactionId(), conn_id );
 		
@@ -484,7 +855,7 @@ TRTrackerServerProcessorUDP
 	
 		throws Exception
 	{
-		if ( !checkConnectionId( client_ip_address, request.getConnectionId())){
+		if ( !checkConnectionId( request.getConnectionId())){
 			
 			return( null );
 		}
@@ -768,41 +1139,4 @@ TRTrackerServerProcessorUDP
 			}
 		}
 	}
-	
-	protected static class
-	connectionData
-	{
-		private String		address;
-		private long		id;
-		private long		time;
-		
-		private
-		connectionData(
-			String		_address,
-			long		_id )
-		{
-			address	= _address;
-			id		= _id;
-			
-			time	= SystemTime.getMonotonousTime();
-		}
-		
-		private String
-		getAddress()
-		{
-			return( address );
-		}
-		
-		private long
-		getID()
-		{
-			return( id );
-		}
-		
-		private long
-		getTime()
-		{
-			return( time );
-		}
-	}
 }
@@ -50,4 +50,24 @@ TRTrackerServerStats
 	
 	public long
 	getScrapeTime();
+	
+		/**
+		 * TCP connections accepted
+		 */
+	
+	public long
+	getConnectionCount();
+	
+		/**
+		 * Requests received on a connection that had already served one (HTTP keep-alive)
+		 */
+	
+	public long
+	getKeepAliveRequestCount();
+	
+	public long
+	getConnectionsPerSecond();
+	
+	public long
+	getRequestsPerSecond();
 }
@@ -29,6 +29,7 @@ package connect.tracker.server;
 
 import connect.tracker.server.TRTrackerServerRequest;
 import connect.tracker.server.TRTrackerServerStats;
+import torrentlib.Average;
 
 public class 
 TRTrackerServerStatsImpl
@@ -45,6 +46,12 @@ TRTrackerServerStatsImpl
 	private long		announce_time;
 	private long		scrape_time;
 	
+	private long		connections;
+	private long		keep_alive_requests;
+	
+	private Average		connection_average	= Average.getInstance( 1000, 10 );
+	private Average		request_average		= Average.getInstance( 1000, 10 );
+	
 	protected
 	TRTrackerServerStatsImpl(
 		TRTrackerServerImpl	_server )
@@ -79,6 +86,8 @@ TRTrackerServerStatsImpl
 		bytes_in		+= in;
 		bytes_out		+= out;
 		
+		request_average.addValue( 1 );
+		
 		if ( request_type == TRTrackerServerRequest.RT_ANNOUNCE || request_type == TRTrackerServerRequest.RT_QUERY ){
 			
 			announces++;
@@ -103,6 +112,22 @@ TRTrackerServerStatsImpl
 		}
 	}
 	
+	protected void
+	updateConnection(
+		boolean		new_connection )
+	{
+		if ( new_connection ){
+			
+			connections++;
+			
+			connection_average.addValue( 1 );
+			
+		}else{
+			
+			keep_alive_requests++;
+		}
+	}
+	
 	public long
 	getAnnounceCount()
 	{
@@ -126,4 +151,28 @@ TRTrackerServerStatsImpl
 	{
 		return( scrape_time );
 	}
+	
+	public long
+	getConnectionCount()
+	{
+		return( connections );
+	}
+	
+	public long
+	getKeepAliveRequestCount()
+	{
+		return( keep_alive_requests );
+	}
+	
+	public long
+	getConnectionsPerSecond()
+	{
+		return( connection_average.getAverage());
+	}
+	
+	public long
+	getRequestsPerSecond()
+	{
+		return( request_average.getAverage());
+	}
 }
@@ -107,6 +107,8 @@ TRTrackerServerTorrentImpl
 
 	private Random			random		= new Random( SystemTime.getCurrentTime());
 
+	private TRTrackerServerCompactPeerStore	compact_peer_store	= new TRTrackerServerCompactPeerStore( random );
+
 	private long			last_scrape_calc_time;
 	private Map				last_scrape;
 
@@ -201,6 +203,8 @@ TRTrackerServerTorrentImpl
 
 						peer_reuse_map.put( reuse_key, peer );
 
+						compact_peer_store.update( peer );
+
 						if ( peer.isSeed()){
 
 							seed_count++;
@@ -632,6 +636,13 @@ TRTrackerServerTorrentImpl
 					seed_count++;
 				}
 
+				if ( !peer_already_removed ){
+
+						// picks up new peers and changes of address, port or seed status
+
+					compact_peer_store.update( peer );
+				}
+
 					// report event *after* updating totals above so listeners get a valid initial
 					// view of the peer (e.g. is it a seed)
 
@@ -992,6 +1003,8 @@ TRTrackerServerTorrentImpl
 
 			checkForPeerListCompaction( false );
 
+			compact_peer_store.remove( peer );
+
 			try{
 				Object o = peer_reuse_map.remove( new String( peer.getIPAsRead(), Constants.BYTE_ENCODING ) + ":" + peer.getTCPPort());
 
@@ -1045,6 +1058,8 @@ TRTrackerServerTorrentImpl
 
 					 this_peer.setBiased( biased );
 
+					 compact_peer_store.update( this_peer );
+
 					 if ( biased ){
 
 						 if ( !biased_peers.contains( this_peer )){
@@ -1250,6 +1265,19 @@ TRTrackerServerTorrentImpl
 				requester_is_biased = requesting_peer.isBiased();
 			}
 
+				// the common case of a plain compact request is served straight from the compact
+				// peer store, which is cheaper than building (or even looking up) a cache entry
+
+			if ( 	compact_mode == COMPACT_MODE_NORMAL &&
+					explicit_limited_peers == null &&
+					explicit_biased_peers == null &&
+					remove_ips == null &&
+					!requester_is_biased &&
+					canExportCompact( requesting_peer, include_seeds )){
+
+				return( exportCompactAnnounce( preprocess_map, requesting_peer, include_seeds, num_want, interval, min_interval, crypto_level ));
+			}
+
 			if ( 	caching_enabled &&
 					explicit_limited_peers == null &&
 					explicit_biased_peers == null &&
@@ -2260,6 +2288,175 @@ TRTrackerServerTorrentImpl
 	}
 
 
+		/**
+		 * Binary announce export for the UDP tracker: writes up to num_want IPv4 peers, as a 4 byte
+		 * address followed by a 2 byte port, directly into the buffer from the compact peer store
+		 * @return number of peers written or -1 if the torrent's state (peer listeners, biased or
+		 * queued peers, a NAT warning for the requester) needs the full exportAnnounceToMap
+		 */
+
+	public int
+	exportAnnounceToBuffer(
+		TRTrackerServerPeerImpl		requesting_peer,		// maybe null for an initial announce from a stopped peer
+		boolean						include_seeds,
+		int							num_want,
+		byte						crypto_level,
+		byte[]						buffer,
+		int							offset )
+	{
+		try{
+			this_mon.enter();
+
+			if ( 	peer_listeners != null ||
+					!canExportCompact( requesting_peer, include_seeds )){
+
+				return( -1 );
+			}
+
+			num_want = getNumWant( num_want );
+
+			int	capacity = ( buffer.length - offset ) / 6;
+
+			return( compact_peer_store.export( 
+						false, requesting_peer, include_seeds, Math.min( num_want, capacity ), crypto_level, 
+						TRTrackerServerNATChecker.getSingleton().isEnabled(), SystemTime.getCurrentTime(), 
+						buffer, offset, null, 0 ));
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+		/**
+		 * @return whether the reply can be taken from the compact peer store alone - i.e. there are no
+		 * biased or queued peers to merge in and the requester doesn't need special treatment
+		 */
+
+	private boolean
+	canExportCompact(
+		TRTrackerServerPeerImpl		requesting_peer,
+		boolean						include_seeds )
+	{
+		if ( 	( biased_peers != null && biased_peers.size() > 0 ) ||
+				explicit_manual_biased_peers != null ||
+				( include_seeds && seed_count < 3 && queued_peers != null && queued_peers.size() > 0 )){
+
+			return( false );
+		}
+
+		if ( 	requesting_peer != null &&
+				( requesting_peer.isBiased() || requesting_peer.getNATStatus() == TRTrackerServerPeerImpl.NAT_CHECK_FAILED )){
+
+			return( false );
+		}
+
+		return( true );
+	}
+
+	private int
+	getNumWant(
+		int		num_want )
+	{
+		int	max_peers	= TRTrackerServerImpl.getMaxPeersToSend();
+
+		if ( num_want < 0 ){
+
+			num_want = peer_map.size();
+		}
+
+		if ( max_peers > 0 && num_want > max_peers ){
+
+			num_want	= max_peers;
+		}
+
+		return( num_want );
+	}
+
+		/**
+		 * Compact (BEP 23/7) announce reply built from the compact peer store
+		 */
+
+	private Map
+	exportCompactAnnounce(
+		HashMap						preprocess_map,
+		TRTrackerServerPeerImpl		requesting_peer,
+		boolean						include_seeds,
+		int							num_want,
+		long						interval,
+		long						min_interval,
+		byte						crypto_level )
+	{
+		long	now = SystemTime.getCurrentTime();
+
+		boolean	nat_check = TRTrackerServerNATChecker.getSingleton().isEnabled();
+
+		boolean	want_crypto_flags = crypto_level != TRTrackerServerPeer.CRYPTO_NONE;
+
+			// split the request between the address families in proportion to their numbers
+
+		int	num_v4	= compact_peer_store.getCount( false, include_seeds );
+		int	num_v6	= compact_peer_store.getCount( true, include_seeds );
+
+		int	want_v6 = num_v6==0?0:(int)((long)num_want * num_v6 / ( num_v4 + num_v6 ));
+		int	want_v4 = num_want - want_v6;
+
+		int	got_v4 = compact_peer_store.export( false, requesting_peer, include_seeds, want_v4, crypto_level, nat_check, now, want_crypto_flags );
+
+		byte[]	peers			= Arrays.copyOf( compact_peer_store.getScratch(), got_v4*6 );
+		byte[]	crypto_flags	= want_crypto_flags?Arrays.copyOf( compact_peer_store.getScratchCryptoFlags(), got_v4 ):null;
+
+		byte[]	peers6	= null;
+
+		if ( num_v6 > 0 ){
+
+			int	got_v6 = compact_peer_store.export( true, requesting_peer, include_seeds, num_want - got_v4, crypto_level, nat_check, now, want_crypto_flags );
+
+			if ( got_v6 > 0 ){
+
+				peers6 = Arrays.copyOf( compact_peer_store.getScratch(), got_v6*18 );
+
+				if ( want_crypto_flags ){
+
+					byte[]	all_flags = Arrays.copyOf( crypto_flags, got_v4 + got_v6 );
+
+					System.arraycopy( compact_peer_store.getScratchCryptoFlags(), 0, all_flags, got_v4, got_v6 );
+
+					crypto_flags = all_flags;
+				}
+			}
+		}
+
+		Map	root = new TreeMap();
+
+		if ( preprocess_map.size() > 0 ){
+
+			root.putAll( preprocess_map );
+		}
+
+		root.put( "peers", peers );
+
+		if ( peers6 != null ){
+
+			root.put( "peers6", peers6 );
+		}
+
+		if ( crypto_flags != null ){
+
+			root.put( "crypto_flags", crypto_flags );
+		}
+
+		root.put( "interval", new Long( interval ));
+
+		root.put( "min interval", new Long( min_interval ));
+
+		root.put( "complete", new Long( getSeedCountForScrape( false )));
+		root.put( "incomplete", new Long( getLeecherCount() ));
+		root.put( "downloaded", new Long(stats.getCompletedCount()));
+
+		return( root );
+	}
+
 	private void
 	exportPeer(
 		LinkedList					rep_peers,
@@ -0,0 +1,81 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package connect.tracker.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import torrentlib.HashWrapper;
+
+/**
+ * Hosted torrents keyed by info-hash.<br>
+ *
+ * Backed by a ConcurrentHashMap: lookups, which happen on every announce and scrape, take no lock
+ * and adds/removes only contend within a segment. Registration is O(1) whatever the number of
+ * torrents, which matters when running non-authorised as every announce for an unknown hash adds one.
+ * Iteration is weakly consistent.
+ */
+
+public class
+TRTrackerServerTorrentRegistry
+{
+	private final ConcurrentHashMap<HashWrapper,TRTrackerServerTorrentImpl>	map = new ConcurrentHashMap<HashWrapper,TRTrackerServerTorrentImpl>( 1024, 0.75f, 64 );
+
+	public TRTrackerServerTorrentImpl
+	get(
+		HashWrapper		hash )
+	{
+		return( map.get( hash ));
+	}
+
+		/**
+		 * @return the existing torrent if one is already registered for the hash (in which case 'torrent'
+		 * is not added), otherwise 'torrent'
+		 */
+
+	public TRTrackerServerTorrentImpl
+	add(
+		HashWrapper					hash,
+		TRTrackerServerTorrentImpl	torrent )
+	{
+		TRTrackerServerTorrentImpl	existing = map.putIfAbsent( hash, torrent );
+
+		return( existing==null?torrent:existing );
+	}
+
+	public TRTrackerServerTorrentImpl
+	remove(
+		HashWrapper		hash )
+	{
+		return( map.remove( hash ));
+	}
+
+	public int
+	size()
+	{
+		return( map.size());
+	}
+
+	public List<TRTrackerServerTorrentImpl>
+	getTorrents()
+	{
+		return( new ArrayList<TRTrackerServerTorrentImpl>( map.values()));
+	}
+}
@@ -137,12 +137,17 @@ TRTrackerServerUDP
 		long	successful_accepts 	= 0;
 		long	failed_accepts		= 0;
 		
+			// receive into a single buffer and hand the processor an exactly sized copy
+			// rather than allocating a max sized buffer per packet
+		
+		byte[] buf = new byte[PRUDPPacket.MAX_PACKET_SIZE];
+		
+		DatagramPacket packet = new DatagramPacket( buf, buf.length, address );
+
 		while( !closed ){
 			
 			try{				
-				byte[] buf = new byte[PRUDPPacket.MAX_PACKET_SIZE];
-								
-				DatagramPacket packet = new DatagramPacket( buf, buf.length, address );
+				packet.setData( buf, 0, buf.length );
 				
 				socket.receive( packet );
 				
@@ -153,8 +158,14 @@ TRTrackerServerUDP
 				String	ip = packet.getAddress().getHostAddress();
 								
 				if ( !ip_filter.isInRange( ip, "Tracker", null )){
-										
-					thread_pool.run( new TRTrackerServerProcessorUDP( this, socket, packet ));
+					
+					int	len = packet.getLength();
+					
+					byte[]	data = new byte[len];
+					
+					System.arraycopy( buf, 0, data, 0, len );
+					
+					thread_pool.run( new TRTrackerServerProcessorUDP( this, socket, new DatagramPacket( data, len, packet.getSocketAddress())));
 				}					
 				
 			}catch( Throwable e ){
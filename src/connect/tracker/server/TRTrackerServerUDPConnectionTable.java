@@ -0,0 +1,447 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package connect.tracker.server;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import torrentlib.RandomUtils;
+import torrentlib.SystemTime;
+
+import connect.tracker.protocol.udp.PRUDPPacketTracker;
+
+/**
+ * UDP tracker connection ids.<br>
+ *
+ * Ids are held in a ring of time buckets, each an open addressing table of (id, address) entries
+ * in primitive arrays, the address being held in full as two longs (IPv4 as IPv4-mapped IPv6). New ids go into the current bucket; when a bucket's time is up the
+ * oldest bucket is cleared and becomes current, so expiry costs nothing per id and an id remains
+ * valid for between lifetime and lifetime + lifetime/(BUCKETS-1). Should a bucket fill before its
+ * time is up the ring is rotated early, which bounds memory under a connect flood at the expense
+ * of shortening id lifetimes.<br>
+ *
+ * A single address can hold at most MAX_IDS_PER_ADDRESS live ids, beyond that it is handed back its
+ * most recent one, so one source flooding connects can't force early rotations and expire everyone
+ * else's ids.
+ */
+
+public class
+TRTrackerServerUDPConnectionTable
+{
+	private static final int	BUCKETS				= 4;
+	private static final int	INITIAL_CAPACITY	= 1024;
+	private static final int	MAX_BUCKET_ENTRIES	= 256*1024;
+	private static final int	MAX_IDS_PER_ADDRESS	= 512;
+
+	private final long			bucket_millis;
+
+	private final long[][]		ids			= new long[BUCKETS][];
+	private final long[][]		addresses_hi	= new long[BUCKETS][];
+	private final long[][]		addresses_lo	= new long[BUCKETS][];
+	private final int[]			sizes		= new int[BUCKETS];
+
+	private int					current;
+	private long				current_start;
+
+	private final SecureRandom	random	= RandomUtils.SECURE_RANDOM;
+
+	private final Map<AddressKey,AddressEntry>	address_map	= new HashMap<AddressKey,AddressEntry>();
+
+	private final AddressKey	probe	= new AddressKey( 0, 0 );
+
+	private long				early_rotations;
+	private long				address_limited;
+
+	public
+	TRTrackerServerUDPConnectionTable(
+		long		lifetime )
+	{
+		bucket_millis	= Math.max( 1, lifetime / ( BUCKETS - 1 ));
+
+		for ( int i=0;i<BUCKETS;i++){
+
+			ids[i]			= new long[ INITIAL_CAPACITY ];
+			addresses_hi[i]	= new long[ INITIAL_CAPACITY ];
+			addresses_lo[i]	= new long[ INITIAL_CAPACITY ];
+		}
+
+		current_start = SystemTime.getMonotonousTime();
+	}
+
+	private static long
+	getAddressHigh(
+		InetAddress		address )
+	{
+		if ( address instanceof Inet4Address ){
+
+			return( 0 );
+		}
+
+		byte[]	bytes = address.getAddress();
+
+		return( readLong( bytes, 0 ));
+	}
+
+	private static long
+	getAddressLow(
+		InetAddress		address )
+	{
+		if ( address instanceof Inet4Address ){
+
+				// hashCode is the address, avoids cloning the byte[]
+
+			return( 0x0000ffff00000000L | ( address.hashCode() & 0xffffffffL ));
+		}
+
+		byte[]	bytes = address.getAddress();
+
+		return( readLong( bytes, 8 ));
+	}
+
+	private static long
+	readLong(
+		byte[]		bytes,
+		int			offset )
+	{
+		long	res = 0;
+
+		for ( int i=offset;i<offset+8;i++){
+
+			res = ( res << 8 ) | ( bytes[i]&0xff );
+		}
+
+		return( res );
+	}
+
+	public synchronized long
+	allocate(
+		InetAddress		address )
+	{
+		long	hi	= getAddressHigh( address );
+		long	lo	= getAddressLow( address );
+
+		long	now = SystemTime.getMonotonousTime();
+
+		checkRotation( now );
+
+		probe.hi	= hi;
+		probe.lo	= lo;
+
+		AddressEntry	entry = address_map.get( probe );
+
+		if ( entry == null ){
+
+			entry = new AddressEntry();
+
+			address_map.put( new AddressKey( hi, lo ), entry );
+
+		}else if ( entry.count >= MAX_IDS_PER_ADDRESS ){
+
+				// the latest is in the newest of the address's buckets so still live
+
+			address_limited++;
+
+			return( entry.last_id );
+		}
+
+		if ( sizes[current] >= MAX_BUCKET_ENTRIES ){
+
+			early_rotations++;
+
+			rotate( now );
+		}
+
+		long	id;
+
+		do{
+			id = random.nextLong();
+
+		}while( id == 0 || id == PRUDPPacketTracker.INITIAL_CONNECTION_ID );
+
+		if (( sizes[current] + 1 ) * 2 > ids[current].length ){
+
+			grow( current );
+		}
+
+		insert( ids[current], addresses_hi[current], addresses_lo[current], id, hi, lo );
+
+		sizes[current]++;
+
+		entry.count++;
+		entry.last_id	= id;
+
+		return( id );
+	}
+
+	public synchronized boolean
+	check(
+		long			id,
+		InetAddress		address )
+	{
+		if ( id == 0 ){
+
+			return( false );
+		}
+
+		long	hi	= getAddressHigh( address );
+		long	lo	= getAddressLow( address );
+
+		checkRotation( SystemTime.getMonotonousTime());
+
+		for ( int i=0;i<BUCKETS;i++){
+
+			int	bucket = ( current - i + BUCKETS ) % BUCKETS;
+
+			if ( sizes[bucket] == 0 ){
+
+				continue;
+			}
+
+			long[]	b_ids = ids[bucket];
+
+			int	mask = b_ids.length - 1;
+
+			int	slot = hash( id ) & mask;
+
+			while( true ){
+
+				long	x = b_ids[slot];
+
+				if ( x == 0 ){
+
+					break;
+				}
+
+				if ( x == id ){
+
+					return( addresses_hi[bucket][slot] == hi && addresses_lo[bucket][slot] == lo );
+				}
+
+				slot = ( slot + 1 ) & mask;
+			}
+		}
+
+		return( false );
+	}
+
+	public synchronized int
+	size()
+	{
+		int	total = 0;
+
+		for ( int i=0;i<BUCKETS;i++){
+
+			total += sizes[i];
+		}
+
+		return( total );
+	}
+
+	public synchronized String
+	getString()
+	{
+		return( "ids=" + size() + ",current=" + sizes[current] + ",addresses=" + address_map.size() + ",early=" + early_rotations + ",limited=" + address_limited );
+	}
+
+	private void
+	checkRotation(
+		long		now )
+	{
+		if ( now < current_start ){
+
+			current_start = now;
+		}
+
+		int	rotations = 0;
+
+		while( now - current_start >= bucket_millis && rotations < BUCKETS ){
+
+			rotate( current_start + bucket_millis );
+
+			rotations++;
+		}
+
+		if ( now - current_start >= bucket_millis ){
+
+				// idle for longer than the whole ring, everything has been cleared
+
+			current_start = now;
+		}
+	}
+
+	private void
+	rotate(
+		long		start )
+	{
+		current = ( current + 1 ) % BUCKETS;
+
+		current_start = start;
+
+		if ( sizes[current] > 0 ){
+
+			releaseAddresses( current );
+
+			if ( ids[current].length > INITIAL_CAPACITY*4 && sizes[current]*8 < ids[current].length ){
+
+					// shrink back if it was inflated by a burst
+
+				ids[current]			= new long[ Math.max( INITIAL_CAPACITY, Integer.highestOneBit( sizes[current] )*4 )];
+				addresses_hi[current]	= new long[ ids[current].length ];
+				addresses_lo[current]	= new long[ ids[current].length ];
+
+			}else{
+
+				Arrays.fill( ids[current], 0 );
+			}
+
+			sizes[current] = 0;
+		}
+	}
+
+	private void
+	releaseAddresses(
+		int		bucket )
+	{
+		long[]	b_ids	= ids[bucket];
+		long[]	b_hi	= addresses_hi[bucket];
+		long[]	b_lo	= addresses_lo[bucket];
+
+		for ( int i=0;i<b_ids.length;i++){
+
+			if ( b_ids[i] != 0 ){
+
+				probe.hi	= b_hi[i];
+				probe.lo	= b_lo[i];
+
+				AddressEntry	entry = address_map.get( probe );
+
+				if ( entry != null && --entry.count <= 0 ){
+
+					address_map.remove( probe );
+				}
+			}
+		}
+	}
+
+	private void
+	grow(
+		int		bucket )
+	{
+		long[]	old_ids 	= ids[bucket];
+		long[]	old_hi		= addresses_hi[bucket];
+		long[]	old_lo		= addresses_lo[bucket];
+
+		long[]	new_ids		= new long[ old_ids.length*2 ];
+		long[]	new_hi		= new long[ new_ids.length ];
+		long[]	new_lo		= new long[ new_ids.length ];
+
+		for ( int i=0;i<old_ids.length;i++){
+
+			if ( old_ids[i] != 0 ){
+
+				insert( new_ids, new_hi, new_lo, old_ids[i], old_hi[i], old_lo[i] );
+			}
+		}
+
+		ids[bucket]				= new_ids;
+		addresses_hi[bucket]	= new_hi;
+		addresses_lo[bucket]	= new_lo;
+	}
+
+	private static void
+	insert(
+		long[]		b_ids,
+		long[]		b_hi,
+		long[]		b_lo,
+		long		id,
+		long		hi,
+		long		lo )
+	{
+		int	mask = b_ids.length - 1;
+
+		int	slot = hash( id ) & mask;
+
+		while( b_ids[slot] != 0 ){
+
+			slot = ( slot + 1 ) & mask;
+		}
+
+		b_ids[slot]	= id;
+		b_hi[slot]	= hi;
+		b_lo[slot]	= lo;
+	}
+
+	private static int
+	hash(
+		long		id )
+	{
+			// ids are random already
+
+		return((int)( id ^ ( id >>> 32 )));
+	}
+
+	private static class
+	AddressKey
+	{
+		private long	hi;
+		private long	lo;
+
+		private
+		AddressKey(
+			long	_hi,
+			long	_lo )
+		{
+			hi	= _hi;
+			lo	= _lo;
+		}
+
+		public int
+		hashCode()
+		{
+			long	x = hi ^ lo;
+
+			return((int)( x ^ ( x >>> 32 )));
+		}
+
+		public boolean
+		equals(
+			Object	other )
+		{
+			if ( other instanceof AddressKey ){
+
+				AddressKey	o = (AddressKey)other;
+
+				return( hi == o.hi && lo == o.lo );
+			}
+
+			return( false );
+		}
+	}
+
+	private static class
+	AddressEntry
+	{
+		private int		count;
+		private long	last_id;
+	}
+}
@@ -0,0 +1,415 @@
+/*
+ * Created on 19-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package connect.tracker.util;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+import controller.config.COConfigurationManager;
+import controller.config.ParameterListener;
+import torrentlib.AEDiagnostics;
+import torrentlib.AEDiagnosticsEvidenceGenerator;
+import torrentlib.AEMonitor;
+import torrentlib.IndentWriter;
+import torrentlib.RandomUtils;
+import torrentlib.SystemTime;
+import torrentlib.security.SESecurityManager;
+
+/**
+ * Connection policy shared by the HTTP(S) announcer and scraper.<br>
+ *
+ * Requests leave their connection open and hand it back to the JRE's keep-alive cache once the
+ * reply has been read in full, so a burst of announces to one tracker reuses a handful of
+ * connections (and, for https, TLS sessions) rather than connecting and handshaking for each.
+ * Connections are only dropped when a request fails. The number of concurrent requests to a
+ * host is limited to what the keep-alive cache holds for it. Beyond that a request fails straight
+ * away with a HostBusyException rather than tying up the caller's thread, and the caller reschedules
+ * it a little later (BUSY_RETRY_SECS) without treating it as a tracker failure. The exception is a
+ * "stopped" announce, which is only ever sent once and so always goes ahead.<br>
+ *
+ * Request latencies are kept as a histogram per host and request type for diagnostics.
+ */
+
+public class
+TRTrackerHTTPConnections
+{
+	public static final int	RT_ANNOUNCE		= 0;
+	public static final int	RT_SCRAPE		= 1;
+
+	private static final String[]	RT_NAMES = { "announce", "scrape" };
+
+	private static final long[]		BUCKET_LIMITS = { 50, 100, 250, 500, 1000, 2000, 5000, 10000, 30000 };
+
+		/**
+		 * Base delay before retrying a request that found its host busy, callers add some jitter
+		 */
+
+	private static final int		BUSY_RETRY_SECS	= 10;
+
+	private static volatile int	max_per_host;
+
+	private static final Map<String,HostEntry>	hosts		= new HashMap<String,HostEntry>();
+	private static final AEMonitor				class_mon	= new AEMonitor( "TRTrackerHTTPConnections" );
+
+	private static SSLSocketFactory		trust_all_factory;
+
+	static{
+		COConfigurationManager.addAndFireParameterListener(
+			"Tracker Client Max Connections Per Host",
+			new ParameterListener()
+			{
+				public void
+				parameterChanged(
+					String	name )
+				{
+					max_per_host = Math.max( 1, COConfigurationManager.getIntParameter( name ));
+				}
+			});
+
+		AEDiagnostics.addEvidenceGenerator(
+			new AEDiagnosticsEvidenceGenerator()
+			{
+				public void
+				generate(
+					IndentWriter		writer )
+				{
+					TRTrackerHTTPConnections.generate( writer );
+				}
+			});
+	}
+
+		/**
+		 * Takes a slot on the url's host, never blocks
+		 * @throws HostBusyException if the host already has its maximum number of requests running
+		 */
+
+	public static Request
+	startRequest(
+		URL		url,
+		int		type )
+
+		throws HostBusyException
+	{
+		return( startRequest( url, type, false ));
+	}
+
+		/**
+		 * @param unlimited	true for a request that won't be retried (e.g. a "stopped" announce) and so
+		 * 					mustn't be refused, it takes a slot beyond the limit if need be
+		 */
+
+	public static Request
+	startRequest(
+		URL			url,
+		int			type,
+		boolean		unlimited )
+
+		throws HostBusyException
+	{
+		HostEntry	host = getHost( url );
+
+		if ( !host.reserve( unlimited )){
+
+			throw( new HostBusyException( "Too many concurrent requests to " + url.getHost() + ", retrying shortly" ));
+		}
+
+		return( new Request( host, type ));
+	}
+
+		/**
+		 * @return the delay in seconds before retrying a request that found its host busy
+		 */
+
+	public static int
+	getBusyRetrySecs()
+	{
+		return( BUSY_RETRY_SECS + RandomUtils.nextInt( BUSY_RETRY_SECS ));
+	}
+
+		/**
+		 * The trust-all factory used on retries against trackers with broken certificates. A single
+		 * instance so that such connections can be pooled and their TLS sessions resumed
+		 */
+
+	public static SSLSocketFactory
+	getTrustAllSocketFactory()
+
+		throws Exception
+	{
+		try{
+			class_mon.enter();
+
+			if ( trust_all_factory == null ){
+
+				TrustManager[] trustAllCerts = SESecurityManager.getAllTrustingTrustManager();
+
+				SSLContext sc = SSLContext.getInstance("SSL");
+
+				sc.init( null, trustAllCerts, RandomUtils.SECURE_RANDOM );
+
+				trust_all_factory = sc.getSocketFactory();
+			}
+
+			return( trust_all_factory );
+
+		}finally{
+
+			class_mon.exit();
+		}
+	}
+
+	private static HostEntry
+	getHost(
+		URL		url )
+	{
+		int	port = url.getPort();
+
+		if ( port == -1 ){
+
+			port = url.getDefaultPort();
+		}
+
+		String	key = url.getProtocol().toLowerCase( Locale.US ) + "://" + url.getHost().toLowerCase( Locale.US ) + ":" + port;
+
+		try{
+			class_mon.enter();
+
+			HostEntry	host = hosts.get( key );
+
+			if ( host == null ){
+
+				host = new HostEntry( key );
+
+				hosts.put( key, host );
+			}
+
+			return( host );
+
+		}finally{
+
+			class_mon.exit();
+		}
+	}
+
+	private static void
+	generate(
+		IndentWriter		writer )
+	{
+		List<HostEntry>	entries;
+
+		try{
+			class_mon.enter();
+
+			entries = new ArrayList<HostEntry>( hosts.values());
+
+		}finally{
+
+			class_mon.exit();
+		}
+
+		writer.println( "Tracker HTTP connections: hosts=" + entries.size() + ", max per host=" + max_per_host );
+
+		try{
+			writer.indent();
+
+			StringBuilder	header = new StringBuilder( "buckets (ms):" );
+
+			for ( long limit: BUCKET_LIMITS ){
+
+				header.append( " <" ).append( limit );
+			}
+
+			header.append( " >=" ).append( BUCKET_LIMITS[BUCKET_LIMITS.length-1] );
+
+			writer.println( header.toString());
+
+			for ( HostEntry host: entries ){
+
+				writer.println( host.getString());
+			}
+		}finally{
+
+			writer.exdent();
+		}
+	}
+
+	public static class
+	Request
+	{
+		private final HostEntry		host;
+		private final int			type;
+		private final long			start		= SystemTime.getMonotonousTime();
+
+		private boolean				slot_held	= true;
+
+		private
+		Request(
+			HostEntry		_host,
+			int				_type )
+		{
+			host		= _host;
+			type		= _type;
+		}
+
+			/**
+			 * Must be called once the request is over, after the reply stream has been closed
+			 * @param complete	true if the reply was read to the end, the connection is then left for reuse
+			 */
+
+		public void
+		end(
+			HttpURLConnection	con,
+			boolean				complete )
+		{
+			if ( slot_held ){
+
+				slot_held = false;
+
+				host.release();
+			}
+
+			if ( con != null && !complete ){
+
+				con.disconnect();
+			}
+
+			host.record( type, SystemTime.getMonotonousTime() - start, complete );
+		}
+	}
+
+	private static class
+	HostEntry
+	{
+		private final String		key;
+
+		private int					active;
+
+		private final long[][]		histogram	= new long[RT_NAMES.length][BUCKET_LIMITS.length+1];
+		private final long[]		failures	= new long[RT_NAMES.length];
+		private final long[]		total_time	= new long[RT_NAMES.length];
+
+		private long				busy;
+
+		private
+		HostEntry(
+			String		_key )
+		{
+			key		= _key;
+		}
+
+			// checked against the current limit each time so config changes apply to known hosts
+
+		private synchronized boolean
+		reserve(
+			boolean		unlimited )
+		{
+			if ( active >= max_per_host && !unlimited ){
+
+				busy++;
+
+				return( false );
+			}
+
+			active++;
+
+			return( true );
+		}
+
+		private synchronized void
+		release()
+		{
+			active--;
+		}
+
+		private synchronized void
+		record(
+			int			type,
+			long		latency,
+			boolean		ok )
+		{
+			if ( !ok ){
+
+				failures[type]++;
+
+				return;
+			}
+
+			int	bucket = 0;
+
+			while( bucket < BUCKET_LIMITS.length && latency >= BUCKET_LIMITS[bucket] ){
+
+				bucket++;
+			}
+
+			histogram[type][bucket]++;
+
+			total_time[type] += latency;
+		}
+
+		private synchronized String
+		getString()
+		{
+			StringBuilder	str = new StringBuilder( key );
+
+			str.append( ": active=" ).append( active ).append( ", busy=" ).append( busy );
+
+			for ( int type=0;type<RT_NAMES.length;type++){
+
+				long	count = 0;
+
+				for ( long c: histogram[type] ){
+
+					count += c;
+				}
+
+				if ( count == 0 && failures[type] == 0 ){
+
+					continue;
+				}
+
+				str.append( "; " ).append( RT_NAMES[type] ).append( ": ok=" ).append( count );
+				str.append( ", fail=" ).append( failures[type] );
+				str.append( ", avg=" ).append( count==0?0:total_time[type]/count );
+				str.append( ", hist=" ).append( Arrays.toString( histogram[type] ));
+			}
+
+			return( str.toString());
+		}
+	}
+
+	public static class
+	HostBusyException
+		extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		private
+		HostBusyException(
+			String	str )
+		{
+			super( str );
+		}
+	}
+}
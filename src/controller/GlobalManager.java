@@ -36,6 +36,7 @@ import torrentlib.Debug;
 import torrentlib.AERunnable;
 import torrentlib.AEDiagnosticsEvidenceGenerator;
 import torrentlib.AEThread;
+import torrentlib.AEThread2;
 import torrentlib.SimpleTimer;
 import torrentlib.Constants;
 import torrentlib.AEMonitor;
@@ -2048,8 +2049,30 @@ public class GlobalManager
 		  }
 
 
+		  long	start_time	= SystemTime.getMonotonousTime();
+		  long	phase_start	= start_time;
+
+		  StringBuilder	timings = new StringBuilder();
+
 		  try{
-			  DownloadManagerStateFactory.loadGlobalStateCache();
+				  // the state cache and the download list are independent, read them concurrently
+
+			  final AESemaphore	cache_sem = new AESemaphore( "GM:loadCache" );
+
+			  new AEThread2( "GM:loadCache", true )
+			  {
+				  public void
+				  run()
+				  {
+					  try{
+						  DownloadManagerStateFactory.loadGlobalStateCache();
+
+					  }finally{
+
+						  cache_sem.releaseForever();
+					  }
+				  }
+			  }.start();
 
 			  int triggerOnCount = 2;
 			  ArrayList<DownloadManager> downloadsAdded = new ArrayList<DownloadManager>();
@@ -2059,7 +2082,17 @@ public class GlobalManager
 					  progress_listener.reportCurrentTask(MessageText.getString("splash.loadingTorrents"));
 				  }
 
-				  Map map = FileUtil.readResilientConfigFile("downloads.config");
+				  Map map;
+
+				  try{
+					  map = FileUtil.readResilientConfigFile("downloads.config");
+
+				  }finally{
+
+					  cache_sem.reserve();
+				  }
+
+				  phase_start = addTiming( timings, "config+cache", phase_start );
 
 				  boolean debug = Boolean.getBoolean("debug");
 
@@ -2076,6 +2109,30 @@ public class GlobalManager
 					  //New way, downloads stored in a list
 					  iter = downloads.iterator();
 					  nbDownloads = downloads.size();
+
+						  // kick off decoding of the per-download state files so that it overlaps
+						  // with the creation of the download managers below
+
+					  List<byte[]>	hashes = new ArrayList<byte[]>( nbDownloads );
+
+					  for ( Object o: downloads ){
+
+						  if ( o instanceof Map ){
+
+							  Map		mDownload		= (Map)o;
+							  byte[]	torrent_hash	= (byte[])mDownload.get( "torrent_hash" );
+							  Long		lPersistent		= (Long)mDownload.get( "persistent" );
+
+							  if ( torrent_hash != null && ( lPersistent == null || lPersistent.longValue() == 1 )){
+
+								  hashes.add( torrent_hash );
+							  }
+						  }
+					  }
+
+					  int	prefetching = DownloadManagerStateFactory.prefetchDownloadStates( hashes );
+
+					  phase_start = addTiming( timings, "prefetch(" + prefetching + ")", phase_start );
 				  }
 				  int currentDownload = 0;
 				  while (iter.hasNext()) {
@@ -2102,6 +2159,8 @@ public class GlobalManager
 					  }
 				  }
 
+				  phase_start = addTiming( timings, "create(" + nbDownloads + ")", phase_start );
+
 				  // This is set to true by default, but once the downloads have been loaded, we have no reason to ever
 				  // to do this check again - we only want to do it once to upgrade the state of existing downloads
 				  // created before this code was around.
@@ -2137,6 +2196,9 @@ public class GlobalManager
 				  // Someone could have mucked with the config file and set weird positions,
 				  // so fix them up.
 				  fixUpDownloadManagerPositions();
+
+				  phase_start = addTiming( timings, "fixup", phase_start );
+
 				  Logger.log(new LogEvent(LOGID, "Loaded " + managers_cow.size()
 						  + " torrents"));
 
@@ -2150,11 +2212,15 @@ public class GlobalManager
 				  triggerAddListener(downloadsAdded);
 
 				  loadingSem.releaseForever();
+
+				  phase_start = addTiming( timings, "listeners", phase_start );
 			  }
 
 		  }finally{
 
 			  DownloadManagerStateFactory.discardGlobalStateCache();
+
+			  Logger.log(new LogEvent(LOGID, "Startup load took " + ( SystemTime.getMonotonousTime() - start_time ) + "ms: " + timings ));
 		  }
 	  }finally{
 
@@ -2162,6 +2228,24 @@ public class GlobalManager
 	  }
   }
 
+  private static long
+  addTiming(
+	StringBuilder	timings,
+	String			phase,
+	long			phase_start )
+  {
+	  long	now = SystemTime.getMonotonousTime();
+
+	  if ( timings.length() > 0 ){
+
+		  timings.append( ", " );
+	  }
+
+	  timings.append( phase ).append( "=" ).append( now - phase_start ).append( "ms" );
+
+	  return( now );
+  }
+
   private void triggerAddListener(List downloadsToAdd) {
 		try {
 			managers_mon.enter();
@@ -216,6 +216,9 @@ public class ConfigurationDefaults {
 
     def.put("Use Resume", TRUE);
     def.put("On Resume Recheck All", FALSE);
+    	// resume data written in the compact form isn't understood by builds before it was
+    	// introduced, downgrading from one that has written it forces a full recheck of each download
+    def.put("Use Compact Resume", TRUE);
     def.put("Save Resume Interval", new Long(5));
     def.put("Check Pieces on Completion", TRUE);
     def.put("Merge Same Size Files", TRUE );
@@ -415,6 +418,7 @@ public class ConfigurationDefaults {
     def.put( "Tracker Separate Peer IDs", FALSE);
     def.put( "Tracker Client Connect Timeout", new Long(120));
     def.put( "Tracker Client Read Timeout", SIXTY );
+    def.put( "Tracker Client Max Connections Per Host", new Long(5));
 	def.put( "Tracker Client Send OS and Java Version", TRUE);
 	def.put( "Tracker Client Show Warnings", TRUE);
 	def.put( "Tracker Client Min Announce Interval", ZERO);
@@ -463,11 +467,14 @@ public class ConfigurationDefaults {
     def.put( "Tracker TCP NonBlocking Restrict Request Types", TRUE);
     def.put( "Tracker TCP NonBlocking Conc Max", new Long(2048));
     def.put( "Tracker TCP NonBlocking Immediate Close", FALSE );
+    def.put( "Tracker TCP NonBlocking Keep Alive", TRUE );
 
     def.put( "Tracker Client Scrape Enable", TRUE);
     def.put( "Tracker Client Scrape Total Disable", FALSE );
     def.put( "Tracker Client Scrape Stopped Enable", TRUE);
     def.put( "Tracker Client Scrape Single Only", FALSE);
+    def.put( "Tracker Client Scrape Max Hashes", new Long(40));
+    def.put( "Tracker Client Scrape Max Per Minute", new Long(6));
     def.put( "Tracker Server Full Scrape Enable", TRUE );
     def.put( "Tracker Server Not Found Redirect", "" );
     def.put( "Tracker Server Support Experimental Extensions", FALSE );
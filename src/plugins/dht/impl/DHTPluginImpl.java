@@ -35,6 +35,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import controller.config.COConfigurationManager;
 import torrentlib.AENetworkClassifier;
 import torrentlib.Constants;
 import torrentlib.Debug;
@@ -234,6 +235,11 @@ DHTPluginImpl
 				props.put( DHT.PR_CACHE_REPUBLISH_INTERVAL, new Integer( 1*60*60*1000 ));
 			}
 			
+			if ( COConfigurationManager.getBooleanParameter( "DHT.proximity.routing.enable", false )){
+				
+				props.put( DHT.PR_ENABLE_PROXIMITY_ROUTING, new Integer( 1 ));
+			}
+			
 			dht = DHTFactory.create( 
 						transport, 
 						props,
@@ -261,7 +267,16 @@ DHTPluginImpl
 			
 			DHTTransportContact root_seed = importRootSeed();
 			
-			storage_manager.importContacts( dht );
+			long	restart_start = SystemTime.getMonotonousTime();
+			
+				// snapshot restores routing and stored values, contacts.dat is just a handful of contacts
+			
+			boolean	warm = storage_manager.importSnapshot( dht );
+			
+			if ( !warm ){
+			
+				storage_manager.importContacts( dht );
+			}
 			
 			plugin_interface.getUtilities().createTimer( "DHTExport", true ).addPeriodicEvent(
 					2*60*1000,
@@ -281,11 +296,15 @@ DHTPluginImpl
 								
 								storage_manager.exportContacts( dht );
 							}
+							
+							storage_manager.exportSnapshot( dht, false );
 						}
 					});
 
 			integrateDHT( true, root_seed );
 			
+			log.log( "DHT " + (warm?"warm":"cold") + " start, healthy after " + ( SystemTime.getMonotonousTime() - restart_start ) + " ms" );
+			
 			status = DHTPlugin.STATUS_RUNNING;
 			
 			status_text = "Running";
@@ -446,6 +465,19 @@ DHTPluginImpl
 				   	",div_f=" + dbv_details[DHTDBStats.VD_DIV_FREQ]+
 				   	",div_s=" + dbv_details[DHTDBStats.VD_DIV_SIZE] );
 		
+		long[]	ls = c_stats.getLookupStats();
+		
+		log.log(	"Lookups" +
+					":queued=" + ls[DHTControlStats.LS_QUEUED] +
+					",active=" + ls[DHTControlStats.LS_ACTIVE] +
+					",done=" + ls[DHTControlStats.LS_COMPLETED] +
+					",wait=" + ls[DHTControlStats.LS_AVG_QUEUE_MILLIS] + "/" + ls[DHTControlStats.LS_MAX_QUEUE_MILLIS] +
+					",lat=" + ls[DHTControlStats.LS_AVG_LATENCY_MILLIS] + "/" + ls[DHTControlStats.LS_MAX_LATENCY_MILLIS] +
+					",rpcs=" + ls[DHTControlStats.LS_RPCS_IN_FLIGHT] +
+					",peak=" + ls[DHTControlStats.LS_RPCS_PEAK] +
+					",issued=" + ls[DHTControlStats.LS_RPCS_ISSUED] +
+					",waits=" + ls[DHTControlStats.LS_RPC_WAITS] );
+		
 		DHTNATPuncher np = dht.getNATPuncher();
 		
 		if ( np != null ){
@@ -1424,6 +1456,8 @@ outer:
 	{
 		storage_manager.exportContacts( dht );
 		
+		storage_manager.exportSnapshot( dht, true );
+		
 		dht.destroy();
 	}
 
@@ -94,6 +94,8 @@ DHTPluginStorageManager
 	private DHTLogger		log;
 	private File			data_dir;
 	
+	private DHTPluginStorageSnapshot	snapshot;
+	
 	private AEMonitor	address_mon	= new AEMonitor( "DHTPluginStorageManager:address" );
 	private AEMonitor	contact_mon	= new AEMonitor( "DHTPluginStorageManager:contact" );
 	private AEMonitor	storage_mon	= new AEMonitor( "DHTPluginStorageManager:storage" );
@@ -143,6 +145,8 @@ DHTPluginStorageManager
 		log			= _log;
 		data_dir	= _data_dir;
 		
+		snapshot	= new DHTPluginStorageSnapshot( network, log, data_dir );
+		
 		if (  network == DHT.NW_CVS ){
 			
 				// work around issue whereby puts to the CVS dht went out of control and
@@ -244,6 +248,26 @@ DHTPluginStorageManager
 		}
 	}
 	
+		/**
+		 * Restores routing and stored values from the last snapshot
+		 * @return true if routing was restored, otherwise fall back to importContacts
+		 */
+	
+	public boolean
+	importSnapshot(
+		DHT		dht )
+	{
+		return( snapshot.importSnapshot( dht ));
+	}
+	
+	public void
+	exportSnapshot(
+		DHT			dht,
+		boolean		closing )
+	{
+		snapshot.exportSnapshot( dht, closing );
+	}
+	
 	public void
 	exportContacts(
 		DHT		dht )
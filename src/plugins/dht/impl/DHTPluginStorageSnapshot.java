@@ -0,0 +1,908 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package plugins.dht.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import torrentlib.AEMonitor;
+import torrentlib.Debug;
+import torrentlib.HashWrapper;
+import torrentlib.SystemTime;
+
+import connect.dht.DHT;
+import connect.dht.DHTLogger;
+import connect.dht.db.DHTDB;
+import connect.dht.router.DHTRouterContact;
+
+/**
+ * Versioned on-disk snapshot of a DHT's routing table (including the contacts' network positions)
+ * and of the values it holds on behalf of other nodes, so that a restarted node comes back warm
+ * rather than having to re-bootstrap and wait for values to be republished to it.<br>
+ *
+ * Routing is a single small file (bounded by MAX_CONTACTS). Contacts' positions and liveness drift
+ * all the time so there's nothing stable to write incrementally; instead it is only rewritten when
+ * the set of contacts has changed noticeably, when it hasn't been written for a while, or on close.<br>
+ *
+ * Values are a full export plus a log of changes: each export tick appends a segment with the
+ * current values of just the keys that changed since the last one. Segments are stamped with the
+ * time of the full export they apply to and the full export is redone, and the log discarded, once
+ * the log gets large or the database has changed too much to track.<br>
+ *
+ * Everything is streamed to and from disk. Each file and log segment carries a CRC of its payload,
+ * checked in a first pass before anything is imported; a torn log segment ends the log.
+ */
+
+public class
+DHTPluginStorageSnapshot
+{
+	private static final int	MAGIC		= 0x44485453;	// "DHTS"
+	private static final int	VERSION		= 2;
+
+		// payload length and crc, these precede every payload
+
+	private static final int	PAYLOAD_FIELDS_SIZE	= 8 + 8;
+
+		// file: magic, version, network, time. log segment: time of the full export it applies to
+
+	private static final int	HEADER_SIZE			= 4 + 4 + 4 + 8 + PAYLOAD_FIELDS_SIZE;
+	private static final int	SEGMENT_HEADER_SIZE	= 8 + PAYLOAD_FIELDS_SIZE;
+
+	private static final String	ROUTING_FILE	= "snapshot_routing";
+	private static final String	VALUES_FILE		= "snapshot_values";
+	private static final String	VALUES_LOG		= "snapshot_values.log";
+
+	private static final int	MAX_CONTACTS	= 4096;
+
+	private static final int	ROUTING_REFRESH_PERIOD	= 30*60*1000;
+	private static final int	ROUTING_CHANGE_PERCENT	= 10;
+
+	private static final int	LOG_MAX_SEGMENTS	= 64;
+	private static final int	LOG_MIN_COMPACT		= 256*1024;
+
+	private final int			network;
+	private final DHTLogger		log;
+	private final File			data_dir;
+
+	private final AEMonitor		this_mon	= new AEMonitor( "DHTPluginStorageSnapshot" );
+
+	private Set<HashWrapper>	routing_written;
+	private long				routing_write_time;
+
+		// time of the full values export on disk, -1 if there isn't a usable one
+
+	private long	values_base_time	= -1;
+	private long	values_base_length;
+
+	private long	values_log_length;
+	private int		values_log_segments;
+
+	private long	values_mod_count	= -1;
+
+	protected
+	DHTPluginStorageSnapshot(
+		int			_network,
+		DHTLogger	_log,
+		File		_data_dir )
+	{
+		network		= _network;
+		log			= _log;
+		data_dir	= _data_dir;
+	}
+
+		/**
+		 * @return true if a routing snapshot was loaded
+		 */
+
+	protected boolean
+	importSnapshot(
+		DHT		dht )
+	{
+		try{
+			this_mon.enter();
+
+			long	start = SystemTime.getMonotonousTime();
+
+			int	contacts	= -1;
+			int	values		= -1;
+
+			Payload	routing = find( ROUTING_FILE );
+
+			if ( routing != null ){
+
+				try{
+					DataInputStream	dis = routing.open();
+
+					try{
+						dis.mark( 4 );
+
+						contacts = dis.readInt();
+
+						dis.reset();
+
+						dht.getControl().importState( dis, true );
+
+					}finally{
+
+						dis.close();
+					}
+				}catch( Throwable e ){
+
+					Debug.out( "Routing snapshot import failed", e );
+
+					contacts = -1;
+				}
+			}
+
+			Payload	base = find( VALUES_FILE );
+
+			if ( base != null ){
+
+				List<DataInputStream>	streams = new ArrayList<DataInputStream>();
+
+				values_base_time	= base.time;
+				values_base_length	= base.length;
+
+				try{
+						// clears values_base_time if the log doesn't go with this export
+
+					List<Payload>	segments = readLog( base.time );
+
+					DataInputStream	dis = base.open();
+
+					streams.add( dis );
+
+					List<DataInputStream>	changes = new ArrayList<DataInputStream>( segments.size());
+
+					for ( Payload segment: segments ){
+
+						DataInputStream	cis = segment.open();
+
+						streams.add( cis );
+
+						changes.add( cis );
+					}
+
+					DHTDB	db = dht.getDataBase();
+
+					values = db.importValues( dis, changes );
+
+						// what we've just loaded matches what's on disk
+
+					values_mod_count = db.getModificationCount();
+				}catch( Throwable e ){
+
+					Debug.out( "Value snapshot import failed", e );
+
+					values_base_time = -1;
+
+				}finally{
+
+					for ( DataInputStream dis: streams ){
+
+						try{
+							dis.close();
+
+						}catch( Throwable e ){
+						}
+					}
+				}
+			}
+
+			if ( routing != null || base != null ){
+
+				log.log( "Snapshot imported: contacts=" + contacts + ", values=" + values + ", log segments=" + values_log_segments + ", elapsed=" + ( SystemTime.getMonotonousTime() - start ));
+			}
+
+			return( contacts >= 0 );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+		/**
+		 * @param closing	the DHT is closing down, make sure the routing is up to date
+		 */
+
+	protected void
+	exportSnapshot(
+		DHT			dht,
+		boolean		closing )
+	{
+		try{
+			this_mon.enter();
+
+			exportRouting( dht, closing );
+
+			exportValues( dht.getDataBase());
+
+		}catch( Throwable e ){
+
+			Debug.printStackTrace( e );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	private void
+	exportRouting(
+		final DHT		dht,
+		boolean			closing )
+
+		throws IOException
+	{
+		List<DHTRouterContact>	contacts = dht.getRouter().findBestContacts( 0 );
+
+		Set<HashWrapper>	ids = new HashSet<HashWrapper>( contacts.size()*2 );
+
+		for ( DHTRouterContact contact: contacts ){
+
+			ids.add( new HashWrapper( contact.getID()));
+		}
+
+		long	now = SystemTime.getMonotonousTime();
+
+		if ( !closing && routing_written != null && now - routing_write_time < ROUTING_REFRESH_PERIOD ){
+
+			int	changed = 0;
+
+			for ( HashWrapper id: ids ){
+
+				if ( !routing_written.contains( id )){
+
+					changed++;
+				}
+			}
+
+			for ( HashWrapper id: routing_written ){
+
+				if ( !ids.contains( id )){
+
+					changed++;
+				}
+			}
+
+			if ( changed * 100 <= ROUTING_CHANGE_PERCENT * Math.max( ids.size(), routing_written.size())){
+
+				return;
+			}
+		}
+
+		write(
+			ROUTING_FILE,
+			SystemTime.getCurrentTime(),
+			new PayloadWriter()
+			{
+				public void
+				write(
+					DataOutputStream	dos )
+
+					throws IOException
+				{
+					dht.getControl().exportState( dos, MAX_CONTACTS, true );
+				}
+			});
+
+		routing_written		= ids;
+		routing_write_time	= now;
+	}
+
+	private void
+	exportValues(
+		final DHTDB		db )
+
+		throws IOException
+	{
+		long	mod_count = db.getModificationCount();
+
+		if ( values_base_time >= 0 ){
+
+			if ( mod_count == values_mod_count ){
+
+				return;
+			}
+
+			if ( 	values_log_segments < LOG_MAX_SEGMENTS &&
+					values_log_length <= Math.max( values_base_length/2, LOG_MIN_COMPACT )){
+
+				try{
+					if ( appendLog( db )){
+
+						values_mod_count = mod_count;
+
+						return;
+					}
+				}catch( IOException e ){
+
+						// the changes handed to us are lost, only a full export is safe now
+
+					values_base_time = -1;
+
+					throw( e );
+				}
+			}
+		}
+
+		long	time = Math.max( SystemTime.getCurrentTime(), values_base_time + 1 );
+
+		values_base_time = -1;
+
+		values_base_length =
+			write(
+				VALUES_FILE,
+				time,
+				new PayloadWriter()
+				{
+					public void
+					write(
+						DataOutputStream	dos )
+
+						throws IOException
+					{
+						db.exportValues( dos, 0 );
+					}
+				});
+
+		new File( data_dir, VALUES_LOG ).delete();
+
+		values_base_time	= time;
+		values_log_length	= 0;
+		values_log_segments	= 0;
+		values_mod_count	= mod_count;
+	}
+
+		/**
+		 * @return false if nothing was appended as a full export is required
+		 */
+
+	private boolean
+	appendLog(
+		final DHTDB		db )
+
+		throws IOException
+	{
+		RandomAccessFile	raf = new RandomAccessFile( new File( data_dir, VALUES_LOG ), "rw" );
+
+		try{
+				// drop anything after the last good segment
+
+			if ( raf.length() != values_log_length ){
+
+				raf.setLength( values_log_length );
+			}
+
+			raf.seek( values_log_length );
+
+			raf.writeLong( values_base_time );
+
+			final boolean[]	tracked = { true };
+
+			writePayload(
+				raf,
+				new PayloadWriter()
+				{
+					public void
+					write(
+						DataOutputStream	dos )
+
+						throws IOException
+					{
+						tracked[0] = db.exportModifiedValues( dos ) >= 0;
+					}
+				});
+
+			if ( !tracked[0] ){
+
+				raf.setLength( values_log_length );
+
+				return( false );
+			}
+
+			raf.getFD().sync();
+
+			values_log_length = raf.getFilePointer();
+
+			values_log_segments++;
+
+			return( true );
+
+		}finally{
+
+			raf.close();
+		}
+	}
+
+		/**
+		 * Writes a header and the payload to a new file that then replaces the existing one
+		 * @return payload length
+		 */
+
+	private long
+	write(
+		String				file_prefix,
+		long				time,
+		PayloadWriter		writer )
+
+		throws IOException
+	{
+		File	saving = new File( data_dir, file_prefix + ".saving" );
+		File	target = new File( data_dir, file_prefix + ".dat" );
+
+		saving.delete();
+
+		RandomAccessFile	raf = new RandomAccessFile( saving, "rw" );
+
+		boolean	ok = false;
+
+		long	length;
+
+		try{
+			raf.writeInt( MAGIC );
+			raf.writeInt( VERSION );
+			raf.writeInt( network );
+			raf.writeLong( time );
+
+			length = writePayload( raf, writer );
+
+			raf.getFD().sync();
+
+			ok = true;
+
+		}finally{
+
+			raf.close();
+
+			if ( ok ){
+
+					// if the rename fails the import picks the newer of the two
+
+				target.delete();
+
+				saving.renameTo( target );
+			}
+		}
+
+		return( length );
+	}
+
+		/**
+		 * Streams the payload to the file at its current position, preceded by its length and CRC.
+		 * The file is left positioned after the payload
+		 * @return payload length
+		 */
+
+	private long
+	writePayload(
+		RandomAccessFile	raf,
+		PayloadWriter		writer )
+
+		throws IOException
+	{
+		long	fields_pos = raf.getFilePointer();
+
+			// length and crc aren't known until the payload's been written, a crash in between
+			// leaves a zero length which is never valid
+
+		raf.writeLong( 0 );
+		raf.writeLong( 0 );
+
+		CRC32	crc = new CRC32();
+
+			// the channel shares the file's position. Not closed as that would close the file
+
+		DataOutputStream	dos =
+			new DataOutputStream(
+				new BufferedOutputStream(
+					new CheckedOutputStream( Channels.newOutputStream( raf.getChannel()), crc ), 64*1024 ));
+
+		writer.write( dos );
+
+		dos.flush();
+
+		long	length	= dos.size();
+		long	end		= raf.getFilePointer();
+
+		raf.seek( fields_pos );
+
+		raf.writeLong( length );
+		raf.writeLong( crc.getValue());
+
+		raf.seek( end );
+
+		return( length );
+	}
+
+		/**
+		 * @return the payload of the newest valid snapshot file with the given prefix, null if none
+		 */
+
+	private Payload
+	find(
+		String		file_prefix )
+	{
+		Payload		best = null;
+
+		File[]	files = { new File( data_dir, file_prefix + ".dat" ), new File( data_dir, file_prefix + ".saving" )};
+
+		for ( File file: files ){
+
+			if ( !file.exists()){
+
+				continue;
+			}
+
+			try{
+				RandomAccessFile	raf = new RandomAccessFile( file, "r" );
+
+				try{
+					if ( raf.length() < HEADER_SIZE ){
+
+						continue;
+					}
+
+					if ( raf.readInt() != MAGIC ){
+
+						continue;
+					}
+
+					int	version = raf.readInt();
+
+					if ( version != VERSION ){
+
+						log.log( "Ignoring " + file.getName() + ": unsupported version " + version );
+
+						continue;
+					}
+
+					if ( raf.readInt() != network ){
+
+						continue;
+					}
+
+					long	time = raf.readLong();
+
+					Payload	payload = readPayload( file, raf );
+
+					if ( payload == null ){
+
+						log.log( "Ignoring " + file.getName() + ": invalid payload" );
+
+						continue;
+					}
+
+					if ( best == null || time > best.time ){
+
+						payload.time = time;
+
+						best = payload;
+					}
+				}finally{
+
+					raf.close();
+				}
+			}catch( Throwable e ){
+
+				Debug.printStackTrace( e );
+			}
+		}
+
+		return( best );
+	}
+
+		/**
+		 * Reads the values log, setting up the log state for subsequent appends
+		 * @return the valid segments that apply to the given full export, oldest first
+		 */
+
+	private List<Payload>
+	readLog(
+		long		base_time )
+
+		throws IOException
+	{
+		List<Payload>	result = new ArrayList<Payload>();
+
+		values_log_length	= 0;
+		values_log_segments	= 0;
+
+		File	file = new File( data_dir, VALUES_LOG );
+
+		if ( !file.exists()){
+
+			return( result );
+		}
+
+		RandomAccessFile	raf = new RandomAccessFile( file, "r" );
+
+		try{
+			long	file_length = raf.length();
+
+			long	pos = 0;
+
+			while( file_length - pos >= SEGMENT_HEADER_SIZE ){
+
+				raf.seek( pos );
+
+				long	time = raf.readLong();
+
+				Payload	segment = readPayload( file, raf );
+
+				if ( segment == null ){
+
+					break;
+				}
+
+				if ( time != base_time ){
+
+						// belongs to a different full export, so the log's no use for appending either
+
+					log.log( "Ignoring " + file.getName() + ": stale" );
+
+					values_base_time = -1;
+
+					result.clear();
+
+					return( result );
+				}
+
+				result.add( segment );
+
+				pos = segment.offset + segment.length;
+			}
+
+			if ( pos != file_length ){
+
+				log.log( file.getName() + ": " + ( file_length - pos ) + " bytes of incomplete data discarded" );
+			}
+
+			values_log_length	= pos;
+			values_log_segments	= result.size();
+
+		}finally{
+
+			raf.close();
+		}
+
+		return( result );
+	}
+
+		/**
+		 * Reads the payload length and CRC at the file's current position and checks the payload
+		 * against them
+		 * @return the payload, null if it isn't valid
+		 */
+
+	private Payload
+	readPayload(
+		File				file,
+		RandomAccessFile	raf )
+
+		throws IOException
+	{
+		long	length	= raf.readLong();
+		long	crc		= raf.readLong();
+
+		long	offset = raf.getFilePointer();
+
+			// an export always has at least its terminator
+
+		if ( length < 2 || length > raf.length() - offset ){
+
+			return( null );
+		}
+
+		FileChannel	channel = raf.getChannel();
+
+		ByteBuffer	buffer = ByteBuffer.allocate((int)Math.min( length, 64*1024 ));
+
+		CRC32	check = new CRC32();
+
+		long	pos = offset;
+		long	end	= offset + length;
+
+		while( pos < end ){
+
+			buffer.clear();
+
+			buffer.limit((int)Math.min( buffer.capacity(), end - pos ));
+
+			int	len = channel.read( buffer, pos );
+
+			if ( len <= 0 ){
+
+				return( null );
+			}
+
+			check.update( buffer.array(), 0, len );
+
+			pos += len;
+		}
+
+		if ( check.getValue() != crc ){
+
+			return( null );
+		}
+
+		return( new Payload( file, offset, length ));
+	}
+
+	private interface
+	PayloadWriter
+	{
+		public void
+		write(
+			DataOutputStream	dos )
+
+			throws IOException;
+	}
+
+	private static class
+	Payload
+	{
+		private final File		file;
+		private final long		offset;
+		private final long		length;
+
+		private long			time;
+
+		private
+		Payload(
+			File		_file,
+			long		_offset,
+			long		_length )
+		{
+			file	= _file;
+			offset	= _offset;
+			length	= _length;
+		}
+
+		private DataInputStream
+		open()
+
+			throws IOException
+		{
+			FileInputStream	fis = new FileInputStream( file );
+
+			try{
+				fis.getChannel().position( offset );
+
+			}catch( IOException e ){
+
+				fis.close();
+
+				throw( e );
+			}
+
+			return( new DataInputStream( new BufferedInputStream( new LimitedInputStream( fis, length ), 64*1024 )));
+		}
+	}
+
+	private static class
+	LimitedInputStream
+		extends FilterInputStream
+	{
+		private long	remaining;
+
+		private
+		LimitedInputStream(
+			InputStream		is,
+			long			limit )
+		{
+			super( is );
+
+			remaining = limit;
+		}
+
+		public int
+		read()
+
+			throws IOException
+		{
+			if ( remaining <= 0 ){
+
+				return( -1 );
+			}
+
+			int	b = in.read();
+
+			if ( b >= 0 ){
+
+				remaining--;
+			}
+
+			return( b );
+		}
+
+		public int
+		read(
+			byte[]	b,
+			int		offset,
+			int		length )
+
+			throws IOException
+		{
+			if ( length == 0 ){
+
+				return( 0 );
+			}
+
+			if ( remaining <= 0 ){
+
+				return( -1 );
+			}
+
+			int	num = in.read( b, offset, (int)Math.min( length, remaining ));
+
+			if ( num > 0 ){
+
+				remaining -= num;
+			}
+
+			return( num );
+		}
+
+		public long
+		skip(
+			long	n )
+
+			throws IOException
+		{
+			long	num = in.skip( Math.min( n, remaining ));
+
+			remaining -= num;
+
+			return( num );
+		}
+
+		public int
+		available()
+
+			throws IOException
+		{
+			return((int)Math.min( in.available(), remaining ));
+		}
+
+		public boolean
+		markSupported()
+		{
+			return( false );
+		}
+	}
+}
@@ -1147,6 +1147,29 @@ Download extends DownloadEventNotifier, DownloadStub, Taggable
   public List<DistributedDatabase>
   getDistributedDatabases();
 
+	/**
+	 * Enables or disables streaming mode. In streaming mode each piece ahead of the playhead gets a
+	 * playback deadline derived from the stream rate and pieces are requested from the peers best
+	 * able to meet them. Calling this again while enabled just updates the stream rate.
+	 * 
+	 * @param enabled
+	 * @param bytes_per_second	stream rate, ignored when disabling
+	 */
+	public void setStreamingMode(boolean enabled, long bytes_per_second);
+	
+	public boolean isStreamingMode();
+	
+	/**
+	 * Reports the playback position, as an absolute byte offset within the torrent, while in
+	 * streaming mode. Between reports the position is projected forward at the stream rate.
+	 */
+	public void setStreamingPosition(long torrent_offset);
+	
+	/**
+	 * @return buffer health and stall metrics, null if not in streaming mode
+	 */
+	public DownloadStreamingStats getStreamingStats();
+
 	/**
 	 * Returns the "Primary" file in the download.  Usually the largest one
 	 * 
@@ -0,0 +1,72 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package plugins.download;
+
+/**
+ * Buffer health and stall metrics for a download in streaming mode
+ * @see Download#setStreamingMode(boolean, long)
+ */
+
+public interface 
+DownloadStreamingStats 
+{
+		/**
+		 * @return current (projected) playhead as an absolute byte offset within the torrent
+		 */
+	
+	public long
+	getPosition();
+	
+		/**
+		 * @return stream rate in bytes per second used to compute piece deadlines
+		 */
+	
+	public long
+	getBytesPerSecond();
+	
+		/**
+		 * @return contiguous bytes available ahead of the playhead
+		 */
+	
+	public long
+	getBufferedBytes();
+	
+		/**
+		 * @return playback time covered by the buffered bytes at the stream rate
+		 */
+	
+	public long
+	getBufferedMillis();
+	
+	public boolean
+	isStalled();
+	
+	public int
+	getStallCount();
+	
+	public long
+	getTotalStallMillis();
+	
+		/**
+		 * @return number of pieces that weren't available when the playhead reached them
+		 */
+	
+	public int
+	getLatePieceCount();
+}
@@ -32,6 +32,7 @@ import plugins.download.DownloadAttributeListener;
 import plugins.download.DownloadStub;
 import plugins.download.DownloadException;
 import plugins.download.DownloadStats;
+import plugins.download.DownloadStreamingStats;
 import plugins.download.DownloadTrackerListener;
 import plugins.download.DownloadPeerListener;
 import plugins.download.Download;
@@ -101,6 +102,7 @@ import torrentlib.CopyOnWriteList;
 import torrentlib.util.CopyOnWriteMap;
 import controller.GlobalManager;
 import xfer.download.DownloadManager;
+import xfer.download.DownloadManagerDeadlineScheduler;
 
 public class 
 DownloadImpl
@@ -144,6 +146,8 @@ DownloadImpl
 	
 	private Map<String,int[]>	announce_response_map;
 	
+	private DownloadManagerDeadlineScheduler	streaming_scheduler;
+	
 	protected
 	DownloadImpl(
 		DownloadManagerImpl	_manager,
@@ -888,6 +892,8 @@ DownloadImpl
 	destroy()
 	{
 		download_manager.removeListener( this );
+		
+		setStreamingMode( false, 0 );
 	}
 	
 
@@ -2036,6 +2042,73 @@ DownloadImpl
 		return new DiskManagerFileInfoImpl(this, primaryFile);
 	}
 	
+	public void
+	setStreamingMode(
+		boolean		enabled,
+		long		bytes_per_second )
+	{
+		DownloadManagerDeadlineScheduler	to_destroy = null;
+		
+		synchronized( this ){
+			
+			if ( enabled ){
+				
+				if ( streaming_scheduler == null ){
+					
+					streaming_scheduler = new DownloadManagerDeadlineScheduler( download_manager, bytes_per_second );
+					
+				}else{
+					
+					streaming_scheduler.setBytesPerSecond( bytes_per_second );
+				}
+			}else{
+				
+				to_destroy = streaming_scheduler;
+				
+				streaming_scheduler = null;
+			}
+		}
+		
+		if ( to_destroy != null ){
+			
+			to_destroy.destroy();
+		}
+	}
+	
+	public synchronized boolean
+	isStreamingMode()
+	{
+		return( streaming_scheduler != null );
+	}
+	
+	public void
+	setStreamingPosition(
+		long		torrent_offset )
+	{
+		DownloadManagerDeadlineScheduler	scheduler;
+		
+		synchronized( this ){
+			
+			scheduler = streaming_scheduler;
+		}
+		
+		if ( scheduler != null ){
+			
+			scheduler.setPosition( torrent_offset );
+		}
+	}
+	
+	public synchronized DownloadStreamingStats
+	getStreamingStats()
+	{
+		if ( streaming_scheduler == null ){
+			
+			return( null );
+		}
+		
+		return( new DownloadStreamingStatsImpl( streaming_scheduler ));
+	}
+	
 	public DiskManagerFileInfo[]
 	getDiskManagerFileInfo()
 	{
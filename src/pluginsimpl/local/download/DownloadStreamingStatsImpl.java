@@ -0,0 +1,84 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package pluginsimpl.local.download;
+
+import plugins.download.DownloadStreamingStats;
+import xfer.download.DownloadManagerDeadlineScheduler;
+
+public class 
+DownloadStreamingStatsImpl 
+	implements DownloadStreamingStats
+{
+	private final DownloadManagerDeadlineScheduler	scheduler;
+	
+	protected
+	DownloadStreamingStatsImpl(
+		DownloadManagerDeadlineScheduler	_scheduler )
+	{
+		scheduler	= _scheduler;
+	}
+	
+	public long
+	getPosition()
+	{
+		return( scheduler.getPosition());
+	}
+	
+	public long
+	getBytesPerSecond()
+	{
+		return( scheduler.getBytesPerSecond());
+	}
+	
+	public long
+	getBufferedBytes()
+	{
+		return( scheduler.getBufferedBytes());
+	}
+	
+	public long
+	getBufferedMillis()
+	{
+		return( scheduler.getBufferedMillis());
+	}
+	
+	public boolean
+	isStalled()
+	{
+		return( scheduler.isStalled());
+	}
+	
+	public int
+	getStallCount()
+	{
+		return( scheduler.getStallCount());
+	}
+	
+	public long
+	getTotalStallMillis()
+	{
+		return( scheduler.getTotalStallMillis());
+	}
+	
+	public int
+	getLatePieceCount()
+	{
+		return( scheduler.getLatePieceCount());
+	}
+}
@@ -42,6 +42,7 @@ import torrentlib.AENetworkClassifier;
 import torrentlib.LightHashMap;
 import torrentlib.AddressUtils;
 import connect.peer.PEPeer;
+import connect.peer.PEPeerRequestPipeliner;
 import connect.peer.PEPeerListener;
 import connect.peer.PEPeerManager;
 import connect.peer.PEPeerSource;
@@ -198,6 +199,8 @@ PeerForeignDelegate
      * Nothing to do if called
      */
     public void sendHave(int piece) {}
+    
+    public void sendHaves(int[] pieces) {}
 
     /**
      * Should never be called
@@ -313,6 +316,12 @@ PeerForeignDelegate
 	{
 		return( foreign.getNumberOfRequests());
 	}
+
+	public PEPeerRequestPipeliner
+	getRequestPipeliner()
+	{
+		return( null );
+	}
 		
 	public int[]
 	getPriorityOffsets()
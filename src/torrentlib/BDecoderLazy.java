@@ -0,0 +1,1180 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package torrentlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Lazy bdecoding over a ByteBuffer (heap, direct or memory-mapped).<br>
+ *
+ * Decoding makes a single validating pass over the encoding that only locates the end of each
+ * value - byte strings are stepped over rather than read, so a multi-megabyte 'pieces' costs
+ * the same as a short one. Dictionaries and lists are returned as read-only Map and List views
+ * that index the offsets of their own entries the first time they're accessed and decode
+ * values on demand, caching them. Nested dictionaries and lists are views in turn, so parts
+ * of the structure that aren't looked at are never materialised.<br>
+ *
+ * Values follow the BDecoder conventions (Long, byte[], List, Map) so the views can be passed to
+ * existing code. Byte strings can also be obtained without copying as slices of the underlying
+ * buffer via getSlice, as can the raw encoding of any value (e.g. for hashing an 'info'
+ * dictionary) via getEncodedSlice. Slices share the buffer so they, and the views, must not be
+ * used once the buffer's contents have changed.<br>
+ *
+ * As with a decoded HashMap, repeated gets of a byte string return the same byte[] - it's decoded
+ * once and cached - so callers must copy it before modifying it.<br>
+ *
+ * Dictionary keys are decoded as BYTE_ENCODING strings through a small shared cache, torrents
+ * and tracker replies use the same few dozen keys over and over.
+ */
+
+public class
+BDecoderLazy
+{
+	private static final int		KEY_CACHE_SIZE	= 1024;		// power of 2
+	private static final int		MAX_CACHED_KEY	= 64;
+
+	private static final String[]	key_cache	= new String[ KEY_CACHE_SIZE ];
+
+	private static final int		MAX_DEPTH	= 1024;
+
+		/**
+		 * @param buffer	the encoding from position to limit, the buffer's position and limit
+		 * 					aren't changed
+		 */
+
+	public static LazyMap
+	decode(
+		ByteBuffer		buffer )
+
+		throws IOException
+	{
+		int	start	= buffer.position();
+		int	limit	= buffer.limit();
+
+		if ( start >= limit ){
+
+			throw( new BEncodingException( "BDecoder: zero length file" ));
+		}
+
+		if ( buffer.get( start ) != 'd' ){
+
+			throw( new BEncodingException( "BDecoder: top level isn't a Map" ));
+		}
+
+		int	end = validate( buffer, start, limit );
+
+		return( new LazyMap( buffer, start, end ));
+	}
+
+	public static LazyMap
+	decode(
+		byte[]		data )
+
+		throws IOException
+	{
+		return( decode( ByteBuffer.wrap( data )));
+	}
+
+		/**
+		 * Maps the file read-only and decodes it. The mapping stays valid after the file has been
+		 * closed and is released when the returned map is garbage collected
+		 */
+
+	public static LazyMap
+	decode(
+		File		file )
+
+		throws IOException
+	{
+		RandomAccessFile	raf = new RandomAccessFile( file, "r" );
+
+		try{
+			FileChannel	channel = raf.getChannel();
+
+			return( decode( channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+
+		}finally{
+
+			raf.close();
+		}
+	}
+
+		/**
+		 * Walks the value starting at pos checking its structure
+		 * @return the position following it
+		 */
+
+	private static int
+	validate(
+		ByteBuffer		buffer,
+		int				pos,
+		int				limit )
+
+		throws IOException
+	{
+			// iterative to cope with deep nesting, tracks whether each open container is
+			// a dictionary expecting a key next
+
+		boolean[]	in_dict		= new boolean[ 16 ];
+		boolean[]	want_key	= new boolean[ 16 ];
+
+		int	depth = 0;
+
+		do{
+			if ( pos >= limit ){
+
+				throw( new BEncodingException( "BDecoder: unexpected end of data" ));
+			}
+
+			byte	b = buffer.get( pos );
+
+			if ( depth > 0 && in_dict[depth-1] ){
+
+				if ( b != 'e' ){
+
+					if ( want_key[depth-1] && ( b < '0' || b > '9' )){
+
+						throw( new BEncodingException( "BDecoder: dictionary key isn't a string at " + pos ));
+					}
+
+					want_key[depth-1] = !want_key[depth-1];
+
+				}else if ( !want_key[depth-1] ){
+
+					throw( new BEncodingException( "BDecoder: dictionary key without value at " + pos ));
+				}
+			}
+
+			if ( b == 'e' ){
+
+				if ( depth == 0 ){
+
+					throw( new BEncodingException( "BDecoder: unexpected 'e' at " + pos ));
+				}
+
+				depth--;
+
+				pos++;
+
+			}else if ( b == 'd' || b == 'l' ){
+
+				if ( depth == MAX_DEPTH ){
+
+					throw( new BEncodingException( "BDecoder: nesting too deep" ));
+				}
+
+				if ( depth == in_dict.length ){
+
+					in_dict		= Arrays.copyOf( in_dict, depth*2 );
+					want_key	= Arrays.copyOf( want_key, depth*2 );
+				}
+
+				in_dict[depth]	= b == 'd';
+				want_key[depth]	= true;
+
+				depth++;
+
+				pos++;
+
+			}else{
+
+				pos = skipScalar( buffer, pos, limit );
+			}
+		}while( depth > 0 );
+
+		return( pos );
+	}
+
+		/**
+		 * @return the position following the integer or byte string starting at pos
+		 */
+
+	private static int
+	skipScalar(
+		ByteBuffer		buffer,
+		int				pos,
+		int				limit )
+
+		throws IOException
+	{
+		byte	b = buffer.get( pos );
+
+		if ( b == 'i' ){
+
+			pos++;
+
+			if ( pos < limit && buffer.get( pos ) == '-' ){
+
+				pos++;
+			}
+
+			int	digits_start = pos;
+
+			while( pos < limit ){
+
+				b = buffer.get( pos );
+
+				if ( b == 'e' ){
+
+					if ( pos == digits_start ){
+
+						throw( new BEncodingException( "BDecoder: empty integer at " + pos ));
+					}
+
+					return( pos + 1 );
+				}
+
+				if ( b < '0' || b > '9' ){
+
+					throw( new BEncodingException( "BDecoder: invalid integer at " + pos ));
+				}
+
+				pos++;
+			}
+
+			throw( new BEncodingException( "BDecoder: unexpected end of data" ));
+
+		}else if ( b >= '0' && b <= '9' ){
+
+			long	length = 0;
+
+			while( pos < limit ){
+
+				b = buffer.get( pos++ );
+
+				if ( b == ':' ){
+
+					if ( length > limit - pos ){
+
+						throw( new BEncodingException( "BDecoder: byte string length " + length + " exceeds data" ));
+					}
+
+					return((int)( pos + length ));
+				}
+
+				if ( b < '0' || b > '9' ){
+
+					throw( new BEncodingException( "BDecoder: invalid string length at " + pos ));
+				}
+
+				length = length*10 + ( b - '0' );
+
+				if ( length > BDecoder.MAX_BYTE_ARRAY_SIZE ){
+
+					throw( new BEncodingException( "BDecoder: byte string length " + length + " too large" ));
+				}
+			}
+
+			throw( new BEncodingException( "BDecoder: unexpected end of data" ));
+
+		}else{
+
+			throw( new BEncodingException( "BDecoder: unknown command '" + (char)b + "' at " + pos ));
+		}
+	}
+
+		/**
+		 * Position following a value that has already been validated
+		 */
+
+	private static int
+	skip(
+		ByteBuffer		buffer,
+		int				pos )
+	{
+		int	depth = 0;
+
+		do{
+			byte	b = buffer.get( pos );
+
+			if ( b == 'e' ){
+
+				depth--;
+
+				pos++;
+
+			}else if ( b == 'd' || b == 'l' ){
+
+				depth++;
+
+				pos++;
+
+			}else if ( b == 'i' ){
+
+				while( buffer.get( ++pos ) != 'e' );
+
+				pos++;
+
+			}else{
+
+				int	length = 0;
+
+				while(( b = buffer.get( pos++ )) != ':' ){
+
+					length = length*10 + ( b - '0' );
+				}
+
+				pos += length;
+			}
+		}while( depth > 0 );
+
+		return( pos );
+	}
+
+		/**
+		 * @return the position of the first content byte of the byte string at pos
+		 */
+
+	private static int
+	stringStart(
+		ByteBuffer		buffer,
+		int				pos )
+	{
+		while( buffer.get( pos++ ) != ':' );
+
+		return( pos );
+	}
+
+	private static int
+	stringLength(
+		ByteBuffer		buffer,
+		int				pos )
+	{
+		int	length = 0;
+
+		byte	b;
+
+		while(( b = buffer.get( pos++ )) != ':' ){
+
+			length = length*10 + ( b - '0' );
+		}
+
+		return( length );
+	}
+
+	private static Object
+	decodeValue(
+		ByteBuffer		buffer,
+		int				pos )
+	{
+		byte	b = buffer.get( pos );
+
+		if ( b == 'd' ){
+
+			return( new LazyMap( buffer, pos, skip( buffer, pos )));
+
+		}else if ( b == 'l' ){
+
+			return( new LazyList( buffer, pos, skip( buffer, pos )));
+
+		}else if ( b == 'i' ){
+
+			pos++;
+
+			boolean	negative = buffer.get( pos ) == '-';
+
+			if ( negative ){
+
+				pos++;
+			}
+
+			long	value = 0;
+
+			while(( b = buffer.get( pos++ )) != 'e' ){
+
+				value = value*10 + ( b - '0' );
+			}
+
+			return( new Long( negative?-value:value ));
+
+		}else{
+
+			int	length	= stringLength( buffer, pos );
+			int	start	= stringStart( buffer, pos );
+
+			byte[]	result = new byte[ length ];
+
+			ByteBuffer	dup = buffer.duplicate();
+
+			dup.limit( start + length );
+			dup.position( start );
+
+			dup.get( result );
+
+			return( result );
+		}
+	}
+
+	private static ByteBuffer
+	slice(
+		ByteBuffer		buffer,
+		int				start,
+		int				end )
+	{
+		ByteBuffer	dup = buffer.duplicate();
+
+		dup.limit( end );
+		dup.position( start );
+
+		return( dup.slice());
+	}
+
+	private static String
+	getKey(
+		ByteBuffer		buffer,
+		int				start,
+		int				length )
+	{
+		if ( length > MAX_CACHED_KEY ){
+
+			return( decodeKey( buffer, start, length ));
+		}
+
+		int	hash = length;
+
+		for ( int i=0;i<length;i++){
+
+			hash = 31*hash + buffer.get( start + i );
+		}
+
+		hash ^= ( hash >>> 16 );
+
+		int	slot = hash & ( KEY_CACHE_SIZE - 1 );
+
+			// racy but benign, strings are immutable and a lost update just costs a miss
+
+		String	cached = key_cache[slot];
+
+		if ( cached != null && keyEquals( buffer, start, length, cached )){
+
+			return( cached );
+		}
+
+		String	key = decodeKey( buffer, start, length );
+
+		key_cache[slot] = key;
+
+		return( key );
+	}
+
+	private static String
+	decodeKey(
+		ByteBuffer		buffer,
+		int				start,
+		int				length )
+	{
+			// BYTE_ENCODING is ISO-8859-1, one char per byte
+
+		char[]	chars = new char[ length ];
+
+		for ( int i=0;i<length;i++){
+
+			chars[i] = (char)( buffer.get( start + i ) & 0xff );
+		}
+
+		return( new String( chars ));
+	}
+
+	private static boolean
+	keyEquals(
+		ByteBuffer		buffer,
+		int				start,
+		int				length,
+		String			key )
+	{
+		if ( key.length() != length ){
+
+			return( false );
+		}
+
+		for ( int i=0;i<length;i++){
+
+			if (( buffer.get( start + i ) & 0xff ) != key.charAt( i )){
+
+				return( false );
+			}
+		}
+
+		return( true );
+	}
+
+		/**
+		 * @return the hashCode of the String the key decodes to
+		 */
+
+	private static int
+	keyHash(
+		ByteBuffer		buffer,
+		int				start,
+		int				length )
+	{
+		int	hash = 0;
+
+		for ( int i=0;i<length;i++){
+
+			hash = 31*hash + ( buffer.get( start + i ) & 0xff );
+		}
+
+		return( hash );
+	}
+
+	private static int
+	spread(
+		int		hash )
+	{
+		return( hash ^ ( hash >>> 16 ));
+	}
+
+	public static class
+	LazyMap
+		extends AbstractMap<String,Object>
+	{
+		private final ByteBuffer	buffer;
+		private final int			start;
+		private final int			end;
+
+		private int		size	= -1;
+
+		private int[]		key_starts;
+		private int[]		key_lengths;
+		private int[]		value_starts;
+		private Object[]	values;
+
+		private int[]		hash_table;		// open addressed, entry index + 1, 0 = empty
+
+		private Set<Map.Entry<String,Object>>	entry_set;
+
+		private
+		LazyMap(
+			ByteBuffer		_buffer,
+			int				_start,
+			int				_end )
+		{
+			buffer	= _buffer;
+			start	= _start;
+			end		= _end;
+		}
+
+		private synchronized void
+		index()
+		{
+			if ( size >= 0 ){
+
+				return;
+			}
+
+			int	capacity = 8;
+
+			int[]	ks = new int[ capacity ];
+			int[]	kl = new int[ capacity ];
+			int[]	vs = new int[ capacity ];
+
+			int	num = 0;
+
+			int	pos = start + 1;
+
+			while( buffer.get( pos ) != 'e' ){
+
+				if ( num == capacity ){
+
+					capacity *= 2;
+
+					ks = Arrays.copyOf( ks, capacity );
+					kl = Arrays.copyOf( kl, capacity );
+					vs = Arrays.copyOf( vs, capacity );
+				}
+
+				kl[num]	= stringLength( buffer, pos );
+				ks[num]	= stringStart( buffer, pos );
+
+				pos = ks[num] + kl[num];
+
+				vs[num] = pos;
+
+				pos = skip( buffer, pos );
+
+				num++;
+			}
+
+				// keys hash as the String they decode to so lookups can use String.hashCode, which
+				// is cached, and no key needs to be decoded to build the table
+
+			int	table_size = Integer.highestOneBit( Math.max( num, 1 ) * 2 ) * 2;
+
+			int[]	table	= new int[ table_size ];
+			int		mask	= table_size - 1;
+
+			for ( int i=0;i<num;i++){
+
+				int	slot = spread( keyHash( buffer, ks[i], kl[i] )) & mask;
+
+				while( table[slot] != 0 ){
+
+					slot = ( slot + 1 ) & mask;
+				}
+
+				table[slot] = i + 1;
+			}
+
+			key_starts		= ks;
+			key_lengths		= kl;
+			value_starts	= vs;
+			values			= new Object[ num ];
+			hash_table		= table;
+
+			size = num;
+		}
+
+		private int
+		find(
+			Object		key )
+		{
+			if ( !( key instanceof String )){
+
+				return( -1 );
+			}
+
+			index();
+
+			String	k = (String)key;
+
+			int[]	table	= hash_table;
+			int		mask	= table.length - 1;
+
+			int	slot = spread( k.hashCode()) & mask;
+
+			while( true ){
+
+				int	entry = table[slot];
+
+				if ( entry == 0 ){
+
+					return( -1 );
+				}
+
+				int	i = entry - 1;
+
+				if ( keyEquals( buffer, key_starts[i], key_lengths[i], k )){
+
+					return( i );
+				}
+
+				slot = ( slot + 1 ) & mask;
+			}
+		}
+
+		private synchronized Object
+		getValue(
+			int			index )
+		{
+			Object	value = values[index];
+
+			if ( value == null ){
+
+				value = values[index] = decodeValue( buffer, value_starts[index] );
+			}
+
+			return( value );
+		}
+
+		public int
+		size()
+		{
+			index();
+
+			return( size );
+		}
+
+		public boolean
+		containsKey(
+			Object		key )
+		{
+			return( find( key ) >= 0 );
+		}
+
+		public Object
+		get(
+			Object		key )
+		{
+			int	index = find( key );
+
+			return( index<0?null:getValue( index ));
+		}
+
+			/**
+			 * @return the content of a byte string value without copying, null if there's no such
+			 * key or the value isn't a byte string
+			 */
+
+		public ByteBuffer
+		getSlice(
+			String		key )
+		{
+			int	index = find( key );
+
+			if ( index < 0 ){
+
+				return( null );
+			}
+
+			int	pos = value_starts[index];
+
+			byte	b = buffer.get( pos );
+
+			if ( b < '0' || b > '9' ){
+
+				return( null );
+			}
+
+			int	content = stringStart( buffer, pos );
+
+			return( slice( buffer, content, content + stringLength( buffer, pos )));
+		}
+
+			/**
+			 * @return the bencoding of a value, e.g. to hash a torrent's info dictionary, null if there's
+			 * no such key
+			 */
+
+		public ByteBuffer
+		getEncodedSlice(
+			String		key )
+		{
+			int	index = find( key );
+
+			if ( index < 0 ){
+
+				return( null );
+			}
+
+			int	pos = value_starts[index];
+
+			return( slice( buffer, pos, skip( buffer, pos )));
+		}
+
+			/**
+			 * @return the bencoding of this dictionary
+			 */
+
+		public ByteBuffer
+		getEncoded()
+		{
+			return( slice( buffer, start, end ));
+		}
+
+		public Set<Map.Entry<String,Object>>
+		entrySet()
+		{
+			if ( entry_set == null ){
+
+				entry_set =
+					new AbstractSet<Map.Entry<String,Object>>()
+					{
+						public int
+						size()
+						{
+							return( LazyMap.this.size());
+						}
+
+						public Iterator<Map.Entry<String,Object>>
+						iterator()
+						{
+							index();
+
+							return(
+								new Iterator<Map.Entry<String,Object>>()
+								{
+									private int	pos;
+
+									public boolean
+									hasNext()
+									{
+										return( pos < size );
+									}
+
+									public Map.Entry<String,Object>
+									next()
+									{
+										if ( pos >= size ){
+
+											throw( new NoSuchElementException());
+										}
+
+										int	i = pos++;
+
+										return( new AbstractMap.SimpleImmutableEntry<String,Object>( getKey( buffer, key_starts[i], key_lengths[i] ), getValue( i )));
+									}
+
+									public void
+									remove()
+									{
+										throw( new UnsupportedOperationException());
+									}
+								});
+						}
+					};
+			}
+
+			return( entry_set );
+		}
+	}
+
+	public static class
+	LazyList
+		extends AbstractList<Object>
+		implements RandomAccess
+	{
+		private final ByteBuffer	buffer;
+		private final int			start;
+		private final int			end;
+
+		private int			size	= -1;
+
+		private int[]		starts;
+		private Object[]	values;
+
+		private
+		LazyList(
+			ByteBuffer		_buffer,
+			int				_start,
+			int				_end )
+		{
+			buffer	= _buffer;
+			start	= _start;
+			end		= _end;
+		}
+
+		private synchronized void
+		index()
+		{
+			if ( size >= 0 ){
+
+				return;
+			}
+
+			int[]	s = new int[ 8 ];
+
+			int	num = 0;
+
+			int	pos = start + 1;
+
+			while( buffer.get( pos ) != 'e' ){
+
+				if ( num == s.length ){
+
+					s = Arrays.copyOf( s, num*2 );
+				}
+
+				s[num++] = pos;
+
+				pos = skip( buffer, pos );
+			}
+
+			starts	= s;
+			values	= new Object[ num ];
+
+			size = num;
+		}
+
+		public int
+		size()
+		{
+			index();
+
+			return( size );
+		}
+
+		public synchronized Object
+		get(
+			int		index )
+		{
+			index();
+
+			if ( index < 0 || index >= size ){
+
+				throw( new IndexOutOfBoundsException( "index=" + index + ", size=" + size ));
+			}
+
+			Object	value = values[index];
+
+			if ( value == null ){
+
+				value = values[index] = decodeValue( buffer, starts[index] );
+			}
+
+			return( value );
+		}
+
+		public ByteBuffer
+		getSlice(
+			int		index )
+		{
+			index();
+
+			if ( index < 0 || index >= size ){
+
+				throw( new IndexOutOfBoundsException( "index=" + index + ", size=" + size ));
+			}
+
+			int	pos = starts[index];
+
+			byte	b = buffer.get( pos );
+
+			if ( b < '0' || b > '9' ){
+
+				return( null );
+			}
+
+			int	content = stringStart( buffer, pos );
+
+			return( slice( buffer, content, content + stringLength( buffer, pos )));
+		}
+
+		public ByteBuffer
+		getEncoded()
+		{
+			return( slice( buffer, start, end ));
+		}
+	}
+
+		/**
+		 * Compares eager and lazy decoding of synthetic tracker replies, resume data and torrents.
+		 * Optional argument: the size of the large torrent's content in MB (default 100)
+		 */
+
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		int	content_mb = args.length>0?Integer.parseInt( args[0] ):100;
+
+		Random	random = new Random( 0 );
+
+			// tracker reply: 50 compact peers
+
+		Map<String,Object>	reply = new HashMap<String,Object>();
+
+		byte[]	peers = new byte[ 50*6 ];
+
+		random.nextBytes( peers );
+
+		reply.put( "interval", new Long( 1800 ));
+		reply.put( "min interval", new Long( 900 ));
+		reply.put( "complete", new Long( 123 ));
+		reply.put( "incomplete", new Long( 456 ));
+		reply.put( "peers", peers );
+
+			// resume data: per-piece state plus partial block maps
+
+		Map<String,Object>	resume = new HashMap<String,Object>();
+
+		byte[]	piece_state = new byte[ 4000 ];
+
+		random.nextBytes( piece_state );
+
+		resume.put( "resume data", piece_state );
+		resume.put( "valid", new Long( 1 ));
+
+		Map<String,Object>	blocks = new HashMap<String,Object>();
+
+		for ( int i=0;i<200;i++){
+
+			List<Long>	l = new ArrayList<Long>();
+
+			for ( int j=0;j<16;j++){
+
+				l.add( new Long( random.nextInt( 2 )));
+			}
+
+			blocks.put( String.valueOf( i*17 ), l );
+		}
+
+		resume.put( "blocks", blocks );
+
+		Map<String,Object>	resume_outer = new HashMap<String,Object>();
+
+		resume_outer.put( "data", resume );
+
+			// torrent: content_mb of content over many files, 16K pieces so the piece hashes dominate
+
+		Map<String,Object>	info = new HashMap<String,Object>();
+
+		long	total		= (long)content_mb*1024*1024;
+		int		piece_size	= 16*1024;
+		int		num_pieces	= (int)(( total + piece_size - 1 ) / piece_size );
+
+		byte[]	pieces = new byte[ num_pieces*20 ];
+
+		random.nextBytes( pieces );
+
+		List<Map<String,Object>>	files = new ArrayList<Map<String,Object>>();
+
+		int	num_files = Math.max( 1, content_mb * 10 );
+
+		for ( int i=0;i<num_files;i++){
+
+			Map<String,Object>	file = new HashMap<String,Object>();
+
+			file.put( "length", new Long( total / num_files ));
+
+			List<byte[]>	path = new ArrayList<byte[]>();
+
+			path.add( ( "dir" + ( i % 10 )).getBytes());
+			path.add( ( "file" + i + ".bin" ).getBytes());
+
+			file.put( "path", path );
+
+			files.add( file );
+		}
+
+		info.put( "name", "benchmark".getBytes());
+		info.put( "piece length", new Long( piece_size ));
+		info.put( "pieces", pieces );
+		info.put( "files", files );
+
+		Map<String,Object>	torrent = new HashMap<String,Object>();
+
+		torrent.put( "announce", "http://tracker.example.com/announce".getBytes());
+		torrent.put( "info", info );
+
+		run( "tracker reply", BEncoder.encode( reply ), 200000, new String[]{ "interval", "peers" });
+		run( "resume data", BEncoder.encode( resume_outer ), 20000, new String[]{ "data" });
+		run( "torrent (" + content_mb + "MB)", BEncoder.encode( torrent ), 20, new String[]{ "announce", "info" });
+	}
+
+	private static void
+	run(
+		String		name,
+		byte[]		encoded,
+		int			iterations,
+		String[]	keys )
+
+		throws Exception
+	{
+		System.out.println( name + ": " + encoded.length + " bytes" );
+
+		if ( !Arrays.equals( BEncoder.encode( decode( encoded )), encoded )){
+
+			throw( new Exception( name + ": lazy decode doesn't re-encode to the original" ));
+		}
+
+			// warm up both paths
+
+		for ( int i=0;i<Math.min( iterations, 1000 );i++){
+
+			touch( BDecoder.decode( encoded ), keys );
+			touch( decode( encoded ), keys );
+		}
+
+		for ( int mode=0;mode<2;mode++){
+
+			long	alloc_before	= getAllocatedBytes();
+			long	start			= System.nanoTime();
+
+			for ( int i=0;i<iterations;i++){
+
+				Map	map = mode==0?BDecoder.decode( encoded ):decode( encoded );
+
+				touch( map, keys );
+			}
+
+			long	elapsed	= System.nanoTime() - start;
+			long	alloc	= getAllocatedBytes() - alloc_before;
+
+			double	mb_per_sec = ((double)encoded.length * iterations / ( 1024*1024 )) / ( elapsed / 1000000000.0 );
+
+			System.out.println(
+				"    " + ( mode==0?"eager":"lazy " ) +
+				": " + ( elapsed / iterations ) + " ns/op, " +
+				String.format( "%.1f", mb_per_sec ) + " MB/s" +
+				( alloc_before<0?"":( ", " + ( alloc / iterations ) + " bytes allocated/op" )));
+		}
+	}
+
+		/**
+		 * Typical partial access - a few top level values and the size of any nested containers
+		 */
+
+	private static int
+	touch(
+		Map			map,
+		String[]	keys )
+	{
+		int	result = 0;
+
+		for ( String key: keys ){
+
+			Object	value = map.get( key );
+
+			if ( value instanceof Map ){
+
+				Map	m = (Map)value;
+
+				result += m.size();
+
+				Object	name = m.get( "name" );
+
+				if ( name instanceof byte[] ){
+
+					result += ((byte[])name).length;
+				}
+			}else if ( value instanceof byte[] ){
+
+				result += ((byte[])value).length;
+
+			}else if ( value instanceof Long ){
+
+				result += ((Long)value).intValue();
+			}
+		}
+
+		return( result );
+	}
+
+	private static long
+	getAllocatedBytes()
+	{
+			// the HotSpot extension of the bean, public API so unlike reflecting on the
+			// implementation class it works on 9+ as well
+
+		ThreadMXBean	bean = ManagementFactory.getThreadMXBean();
+
+		if ( !( bean instanceof com.sun.management.ThreadMXBean )){
+
+			return( -1 );
+		}
+
+		try{
+			return(((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes( Thread.currentThread().getId()));
+
+		}catch( UnsupportedOperationException e ){
+
+			return( -1 );
+		}
+	}
+}
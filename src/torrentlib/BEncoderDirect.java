@@ -0,0 +1,1047 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package torrentlib;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Bencoder that writes straight into a buffer of exactly the right size rather than via BEncoder's
+ * growable chunk list and final copy.<br>
+ *
+ * Encoding is two passes over the map: the first computes the encoded size, the second writes into
+ * a buffer of that size - a byte[], a pooled DirectByteBuffer or one supplied by the caller. Map key
+ * orders are cached by shape (the set of keys) so the recurring maps of tracker replies, peer
+ * exchange messages and the like are neither copied into a TreeMap nor have their keys re-encoded
+ * each time.<br>
+ *
+ * The output is identical to BEncoder's. Content this encoder doesn't handle (BEncodableObjects,
+ * byte[] keys, nulls in lists, unsupported types) is passed to BEncoder instead so that its
+ * behaviour, logging included, is preserved.
+ */
+
+public class
+BEncoderDirect
+{
+	private static final int	SHAPE_CACHE_SIZE	= 512;		// power of 2
+	private static final int	MAX_SHAPE_KEYS		= 32;
+
+		// racy but benign, shapes are immutable and a lost update just means a rebuild
+
+	private static final Shape[]	shape_cache = new Shape[ SHAPE_CACHE_SIZE ];
+
+	private static final Shape		EMPTY_SHAPE	= new Shape( 0, false, new String[0], new byte[0][] );
+
+		/**
+		 * @return the bencoding of the map in an array of exactly the right size
+		 */
+
+	public static byte[]
+	encode(
+		Map		map )
+
+		throws IOException
+	{
+		int	size;
+
+		try{
+			size = getEncodedSize( map );
+
+		}catch( UnsupportedContentException e ){
+
+			return( BEncoder.encode( map ));
+		}
+
+		byte[]	result = new byte[ size ];
+
+		ByteBuffer	buffer = ByteBuffer.wrap( result );
+
+		encode( map, buffer );
+
+		checkSize( buffer, size );
+
+		return( result );
+	}
+
+		/**
+		 * @return the bencoding of the map in a pooled buffer, flipped ready for reading. The caller
+		 * is responsible for returning it to the pool
+		 */
+
+	public static DirectByteBuffer
+	encode(
+		Map		map,
+		byte	allocator )
+
+		throws IOException
+	{
+		int	size;
+
+		try{
+			size = getEncodedSize( map );
+
+		}catch( UnsupportedContentException e ){
+
+			byte[]	encoded = BEncoder.encode( map );
+
+			DirectByteBuffer	buffer = DirectByteBufferPool.getBuffer( allocator, encoded.length );
+
+			try{
+				buffer.put( DirectByteBuffer.SS_OTHER, encoded );
+				buffer.flip( DirectByteBuffer.SS_OTHER );
+
+			}catch( Throwable f ){
+
+				buffer.returnToPool();
+
+				throw( f );
+			}
+
+			return( buffer );
+		}
+
+		DirectByteBuffer	buffer = DirectByteBufferPool.getBuffer( allocator, size );
+
+		try{
+			ByteBuffer	bb = buffer.getBuffer( DirectByteBuffer.SS_OTHER );
+
+			encode( map, bb );
+
+			checkSize( bb, size );
+
+		}catch( Throwable e ){
+
+				// unchecked failures (overflow if the size was wrong, bad content) must return it too
+
+			buffer.returnToPool();
+
+			throw( e );
+		}
+
+		buffer.flip( DirectByteBuffer.SS_OTHER );
+
+		return( buffer );
+	}
+
+		/**
+		 * Writes the bencoding of the map at the buffer's position, advancing it by
+		 * getEncodedSize( map ) bytes
+		 */
+
+	public static void
+	encode(
+		Map				map,
+		ByteBuffer		buffer )
+
+		throws IOException
+	{
+		encodeMap( map, buffer );
+	}
+
+	private static void
+	checkSize(
+		ByteBuffer		buffer,
+		int				size )
+
+		throws IOException
+	{
+		if ( buffer.position() != size ){
+
+				// map modified while being encoded
+
+			throw( new IOException( "Encoded size mismatch" ));
+		}
+	}
+
+		/**
+		 * @throws UnsupportedContentException if the map contains something only BEncoder can encode
+		 */
+
+	public static int
+	getEncodedSize(
+		Map		map )
+
+		throws IOException
+	{
+		return( sizeOfMap( map ));
+	}
+
+	private static int
+	sizeOf(
+		Object		object )
+
+		throws IOException
+	{
+		if ( object instanceof byte[] ){
+
+			int	length = ((byte[])object).length;
+
+			return( digits( length ) + 1 + length );
+
+		}else if ( object instanceof String ){
+
+			int	length = getUTF8Length((String)object );
+
+			return( digits( length ) + 1 + length );
+
+		}else if ( object instanceof Long ){
+
+			return( 2 + digits(((Long)object).longValue()));
+
+		}else if ( object instanceof Map ){
+
+			return( sizeOfMap((Map)object ));
+
+		}else if ( object instanceof List ){
+
+			List	list = (List)object;
+
+			int	size = 2;
+
+			int	num = list.size();
+
+			if ( list instanceof RandomAccess ){
+
+				for ( int i=0;i<num;i++){
+
+					size += sizeOfListEntry( list.get(i));
+				}
+			}else{
+
+				for ( Object o: list ){
+
+					size += sizeOfListEntry( o );
+				}
+			}
+
+			return( size );
+
+		}else if ( object instanceof Integer ){
+
+			return( 2 + digits(((Integer)object).intValue()));
+
+		}else if ( object instanceof Byte ){
+
+			return( 2 + digits(((Byte)object).byteValue() & 0xff ));
+
+		}else if ( object instanceof Float || object instanceof Double ){
+
+			return( sizeOf( String.valueOf( object )));
+
+		}else if ( object instanceof ByteBuffer ){
+
+			ByteBuffer	bb = (ByteBuffer)object;
+
+				// BEncoder writes the limit as the length but the bytes from the position on,
+				// leave any buffer where the two differ to it
+
+			if ( !bb.hasArray() || bb.position() != 0 ){
+
+				throw( new UnsupportedContentException());
+			}
+
+			int	length = bb.limit();
+
+			return( digits( length ) + 1 + length );
+		}
+
+		throw( new UnsupportedContentException());
+	}
+
+	private static int
+	sizeOfListEntry(
+		Object		object )
+
+		throws IOException
+	{
+		if ( object == null ){
+
+			throw( new UnsupportedContentException());
+		}
+
+		return( sizeOf( object ));
+	}
+
+	private static int
+	sizeOfMap(
+		Map		map )
+
+		throws IOException
+	{
+		int	size = 2;
+
+		if ( map instanceof TreeMap ){
+
+				// BEncoder uses the map's own ordering
+
+			boolean	byte_keys = map instanceof ByteEncodedKeyHashMap;
+
+			for ( Map.Entry entry: (Set<Map.Entry>)map.entrySet()){
+
+				Object	value = entry.getValue();
+
+				if ( value != null ){
+
+					size += getKeyBytes( entry.getKey(), byte_keys ).length + sizeOf( value );
+				}
+			}
+		}else{
+
+			Shape	shape = getShape( map );
+
+			String[]	keys		= shape.keys;
+			byte[][]	key_bytes	= shape.key_bytes;
+
+			for ( int i=0;i<keys.length;i++){
+
+				Object	value = map.get( keys[i] );
+
+				if ( value != null ){
+
+					size += key_bytes[i].length + sizeOf( value );
+				}
+			}
+		}
+
+		return( size );
+	}
+
+	private static void
+	encodeObject(
+		Object			object,
+		ByteBuffer		buffer )
+
+		throws IOException
+	{
+		if ( object instanceof byte[] ){
+
+			byte[]	bytes = (byte[])object;
+
+			putLong( buffer, bytes.length );
+
+			buffer.put((byte)':' );
+
+			buffer.put( bytes );
+
+		}else if ( object instanceof String ){
+
+			putString( buffer, (String)object );
+
+		}else if ( object instanceof Long ){
+
+			buffer.put((byte)'i' );
+
+			putLong( buffer, ((Long)object).longValue());
+
+			buffer.put((byte)'e' );
+
+		}else if ( object instanceof Map ){
+
+			encodeMap((Map)object, buffer );
+
+		}else if ( object instanceof List ){
+
+			List	list = (List)object;
+
+			buffer.put((byte)'l' );
+
+			int	num = list.size();
+
+			if ( list instanceof RandomAccess ){
+
+				for ( int i=0;i<num;i++){
+
+					encodeObject( list.get(i), buffer );
+				}
+			}else{
+
+				for ( Object o: list ){
+
+					encodeObject( o, buffer );
+				}
+			}
+
+			buffer.put((byte)'e' );
+
+		}else if ( object instanceof Integer ){
+
+			buffer.put((byte)'i' );
+
+			putLong( buffer, ((Integer)object).intValue());
+
+			buffer.put((byte)'e' );
+
+		}else if ( object instanceof Byte ){
+
+			buffer.put((byte)'i' );
+
+			putLong( buffer, ((Byte)object).byteValue() & 0xff );
+
+			buffer.put((byte)'e' );
+
+		}else if ( object instanceof Float || object instanceof Double ){
+
+			putString( buffer, String.valueOf( object ));
+
+		}else if ( object instanceof ByteBuffer ){
+
+			ByteBuffer	bb = (ByteBuffer)object;
+
+			putLong( buffer, bb.limit());
+
+			buffer.put((byte)':' );
+
+			buffer.put( bb.array(), bb.arrayOffset(), bb.limit());
+
+		}else{
+
+				// sizing should have caught this
+
+			throw( new UnsupportedContentException());
+		}
+	}
+
+	private static void
+	encodeMap(
+		Map				map,
+		ByteBuffer		buffer )
+
+		throws IOException
+	{
+		buffer.put((byte)'d' );
+
+		if ( map instanceof TreeMap ){
+
+			boolean	byte_keys = map instanceof ByteEncodedKeyHashMap;
+
+			for ( Map.Entry entry: (Set<Map.Entry>)map.entrySet()){
+
+				Object	value = entry.getValue();
+
+				if ( value != null ){
+
+					buffer.put( getKeyBytes( entry.getKey(), byte_keys ));
+
+					encodeObject( value, buffer );
+				}
+			}
+		}else{
+
+			Shape	shape = getShape( map );
+
+			String[]	keys		= shape.keys;
+			byte[][]	key_bytes	= shape.key_bytes;
+
+			for ( int i=0;i<keys.length;i++){
+
+				Object	value = map.get( keys[i] );
+
+				if ( value != null ){
+
+					buffer.put( key_bytes[i] );
+
+					encodeObject( value, buffer );
+				}
+			}
+		}
+
+		buffer.put((byte)'e' );
+	}
+
+		/**
+		 * @return the sorted keys of the map and their encodings, from the cache if a map with the
+		 * same keys has been seen recently
+		 */
+
+	private static Shape
+	getShape(
+		Map		map )
+
+		throws IOException
+	{
+		int	size = map.size();
+
+		if ( size == 0 ){
+
+			return( EMPTY_SHAPE );
+		}
+
+		boolean	byte_keys = map instanceof ByteEncodedKeyHashMap;
+
+			// order independent so the key set can be hashed in iteration order
+
+		int	hash = size;
+
+		for ( Object key: map.keySet()){
+
+			if ( !( key instanceof String )){
+
+				throw( new UnsupportedContentException());
+			}
+
+			hash += key.hashCode();
+		}
+
+		if ( byte_keys ){
+
+			hash = ~hash;
+		}
+
+		hash ^= ( hash >>> 16 );
+
+		int	slot = hash & ( SHAPE_CACHE_SIZE - 1 );
+
+		Shape	shape = shape_cache[slot];
+
+		if ( shape != null && shape.matches( map, hash, byte_keys )){
+
+			return( shape );
+		}
+
+		String[]	keys = (String[])map.keySet().toArray( new String[size] );
+
+		Arrays.sort( keys );
+
+		byte[][]	key_bytes = new byte[size][];
+
+		for ( int i=0;i<size;i++){
+
+			key_bytes[i] = getKeyBytes( keys[i], byte_keys );
+		}
+
+		shape = new Shape( hash, byte_keys, keys, key_bytes );
+
+			// byte keyed maps are keyed by hashes, their shapes don't recur
+
+		if ( size <= MAX_SHAPE_KEYS && !byte_keys ){
+
+			shape_cache[slot] = shape;
+		}
+
+		return( shape );
+	}
+
+	private static byte[]
+	getKeyBytes(
+		Object		key,
+		boolean		byte_keys )
+
+		throws IOException
+	{
+		if ( !( key instanceof String )){
+
+			throw( new UnsupportedContentException());
+		}
+
+			// same charset conversions as BEncoder, only done when a shape is built
+
+		ByteBuffer	bb = ( byte_keys?Constants.BYTE_CHARSET:Constants.DEFAULT_CHARSET ).encode((String)key );
+
+		int	length = bb.remaining();
+
+		ByteBuffer	result = ByteBuffer.allocate( digits( length ) + 1 + length );
+
+		putLong( result, length );
+
+		result.put((byte)':' );
+
+		result.put( bb );
+
+		return( result.array());
+	}
+
+		/**
+		 * @return the length of the string as encoded by the default charset, unpaired surrogates
+		 * being replaced by a single '?'
+		 */
+
+	private static int
+	getUTF8Length(
+		String		str )
+	{
+		int	num = str.length();
+
+		int	length = num;
+
+		for ( int i=0;i<num;i++){
+
+			char	c = str.charAt(i);
+
+			if ( c < 0x80 ){
+
+				continue;
+
+			}else if ( c < 0x800 ){
+
+				length += 1;
+
+			}else if ( Character.isHighSurrogate( c ) && i+1 < num && Character.isLowSurrogate( str.charAt(i+1))){
+
+					// two chars, four bytes
+
+				length += 2;
+
+				i++;
+
+			}else if ( !Character.isSurrogate( c )){
+
+				length += 2;
+			}
+		}
+
+		return( length );
+	}
+
+	private static void
+	putString(
+		ByteBuffer		buffer,
+		String			str )
+	{
+		int	num		= str.length();
+		int	length	= getUTF8Length( str );
+
+		putLong( buffer, length );
+
+		buffer.put((byte)':' );
+
+		int	i = 0;
+
+			// plain ascii is the usual case
+
+		while( i < num ){
+
+			char	c = str.charAt(i);
+
+			if ( c >= 0x80 ){
+
+				break;
+			}
+
+			buffer.put((byte)c );
+
+			i++;
+		}
+
+		for ( ;i<num;i++){
+
+			char	c = str.charAt(i);
+
+			if ( c < 0x80 ){
+
+				buffer.put((byte)c );
+
+			}else if ( c < 0x800 ){
+
+				buffer.put((byte)( 0xc0 | ( c >> 6 )));
+				buffer.put((byte)( 0x80 | ( c & 0x3f )));
+
+			}else if ( Character.isHighSurrogate( c ) && i+1 < num && Character.isLowSurrogate( str.charAt(i+1))){
+
+				int	cp = Character.toCodePoint( c, str.charAt(++i));
+
+				buffer.put((byte)( 0xf0 | ( cp >> 18 )));
+				buffer.put((byte)( 0x80 | (( cp >> 12 ) & 0x3f )));
+				buffer.put((byte)( 0x80 | (( cp >> 6 ) & 0x3f )));
+				buffer.put((byte)( 0x80 | ( cp & 0x3f )));
+
+			}else if ( Character.isSurrogate( c )){
+
+				buffer.put((byte)'?' );
+
+			}else{
+
+				buffer.put((byte)( 0xe0 | ( c >> 12 )));
+				buffer.put((byte)( 0x80 | (( c >> 6 ) & 0x3f )));
+				buffer.put((byte)( 0x80 | ( c & 0x3f )));
+			}
+		}
+	}
+
+	private static int
+	digits(
+		long		value )
+	{
+		int	num = 1;
+
+		if ( value < 0 ){
+
+			num++;
+
+		}else{
+
+			value = -value;
+		}
+
+			// negative so Long.MIN_VALUE needs no special case
+
+		while( value <= -10 ){
+
+			value /= 10;
+
+			num++;
+		}
+
+		return( num );
+	}
+
+	private static void
+	putLong(
+		ByteBuffer		buffer,
+		long			value )
+	{
+		int	pos = buffer.position();
+		int	end = pos + digits( value );
+
+		if ( value < 0 ){
+
+			buffer.put( pos, (byte)'-' );
+
+		}else{
+
+			value = -value;
+		}
+
+		int	p = end;
+
+		do{
+			buffer.put( --p, (byte)( '0' - ( value % 10 )));
+
+			value /= 10;
+
+		}while( value != 0 );
+
+		buffer.position( end );
+	}
+
+	private static class
+	Shape
+	{
+		private final int			hash;
+		private final boolean		byte_keys;
+		private final String[]		keys;
+		private final byte[][]		key_bytes;
+
+		private
+		Shape(
+			int			_hash,
+			boolean		_byte_keys,
+			String[]	_keys,
+			byte[][]	_key_bytes )
+		{
+			hash		= _hash;
+			byte_keys	= _byte_keys;
+			keys		= _keys;
+			key_bytes	= _key_bytes;
+		}
+
+		private boolean
+		matches(
+			Map			map,
+			int			_hash,
+			boolean		_byte_keys )
+		{
+			if ( hash != _hash || byte_keys != _byte_keys || keys.length != map.size()){
+
+				return( false );
+			}
+
+				// same number of keys and all of ours present means the same key set
+
+			for ( String key: keys ){
+
+				if ( !map.containsKey( key )){
+
+					return( false );
+				}
+			}
+
+			return( true );
+		}
+	}
+
+	public static class
+	UnsupportedContentException
+		extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		private
+		UnsupportedContentException()
+		{
+			super( "Content requires BEncoder" );
+		}
+	}
+
+		/**
+		 * Compares BEncoder and this encoder on synthetic tracker replies, DHT values, peer exchange
+		 * messages and download state, checking the output is identical
+		 */
+
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		Random	random = new Random( 0 );
+
+		checkStrings( random );
+
+			// tracker reply: 50 compact peers
+
+		Map<String,Object>	reply = new HashMap<String,Object>();
+
+		byte[]	peers = new byte[ 50*6 ];
+
+		random.nextBytes( peers );
+
+		reply.put( "interval", new Long( 1800 ));
+		reply.put( "min interval", new Long( 900 ));
+		reply.put( "complete", new Long( 123 ));
+		reply.put( "incomplete", new Long( 456 ));
+		reply.put( "peers", peers );
+
+			// DHT value: small map of mixed types
+
+		Map<String,Object>	dht_value = new HashMap<String,Object>();
+
+		dht_value.put( "n", "some name - \u00e9t\u00e9" );
+		dht_value.put( "s", new Long( 12345678901L ));
+		dht_value.put( "h", new byte[20] );
+		dht_value.put( "f", new Integer( 3 ));
+		dht_value.put( "v", new Byte((byte)200 ));
+
+			// peer exchange: added and dropped peers
+
+		Map<String,Object>	pex = new HashMap<String,Object>();
+
+		byte[]	added = new byte[ 30*6 ];
+
+		random.nextBytes( added );
+
+		pex.put( "added", added );
+		pex.put( "added.f", new byte[30] );
+		pex.put( "dropped", new byte[ 10*6 ]);
+		pex.put( "added6", new byte[0] );
+		pex.put( "dropped6", new byte[0] );
+
+			// download state: nested attribute maps and lists
+
+		Map<String,Object>	state = new HashMap<String,Object>();
+
+		Map<String,Object>	attributes = new HashMap<String,Object>();
+
+		for ( int i=0;i<20;i++){
+
+			attributes.put( "attr" + i, i%2==0?(Object)new Long( random.nextLong()):( "value" + i ).getBytes());
+		}
+
+		List<Object>	files = new ArrayList<Object>();
+
+		for ( int i=0;i<100;i++){
+
+			Map<String,Object>	file = new HashMap<String,Object>();
+
+			file.put( "length", new Long( random.nextInt( 1000000 )));
+			file.put( "priority", new Long( i%3 ));
+			file.put( "path", "dir/file" + i + ".bin" );
+
+			files.add( file );
+		}
+
+		state.put( "attributes", attributes );
+		state.put( "files", files );
+		state.put( "torrent", new byte[ 2000 ]);
+
+		ByteEncodedKeyHashMap<String,Object>	scrape = new ByteEncodedKeyHashMap<String,Object>();
+
+		for ( int i=0;i<5;i++){
+
+			byte[]	hash = new byte[20];
+
+			random.nextBytes( hash );
+
+			Map<String,Object>	entry = new HashMap<String,Object>();
+
+			entry.put( "complete", new Long( i ));
+			entry.put( "incomplete", new Long( i*2 ));
+			entry.put( "downloaded", new Long( i*3 ));
+
+			scrape.put( new String( hash, Constants.BYTE_ENCODING ), entry );
+		}
+
+		Map<String,Object>	scrape_reply = new TreeMap<String,Object>();
+
+		scrape_reply.put( "files", scrape );
+
+		ByteBuffer	direct = ByteBuffer.allocateDirect( 64*1024 );
+
+		run( "tracker reply", reply, 500000, direct );
+		run( "DHT value", dht_value, 500000, direct );
+		run( "peer exchange", pex, 500000, direct );
+		run( "scrape reply", scrape_reply, 200000, direct );
+		run( "download state", state, 20000, direct );
+	}
+
+	private static void
+	checkStrings(
+		Random		random )
+
+		throws Exception
+	{
+		char[]	samples = { 'a', '~', '\u0080', '\u07ff', '\u0800', '\uffff', '\ud800', '\udbff', '\udc00', '\udfff' };
+
+		for ( int i=0;i<100000;i++){
+
+			char[]	chars = new char[ random.nextInt( 8 )];
+
+			for ( int j=0;j<chars.length;j++){
+
+				chars[j] = random.nextBoolean()?samples[random.nextInt( samples.length )]:(char)random.nextInt( 0x10000 );
+			}
+
+			Map<String,Object>	map = new HashMap<String,Object>();
+
+			map.put( "s", new String( chars ));
+
+			check( "string " + i, map );
+		}
+	}
+
+	private static void
+	check(
+		String		name,
+		Map			map )
+
+		throws Exception
+	{
+		if ( !Arrays.equals( BEncoder.encode( map ), encode( map ))){
+
+			throw( new Exception( name + ": output differs from BEncoder" ));
+		}
+	}
+
+	private static void
+	run(
+		String		name,
+		Map			map,
+		int			iterations,
+		ByteBuffer	direct )
+
+		throws Exception
+	{
+		check( name, map );
+
+		byte[]	expected = BEncoder.encode( map );
+
+		direct.clear();
+
+		encode( map, direct );
+
+		direct.flip();
+
+		if ( !direct.equals( ByteBuffer.wrap( expected ))){
+
+			throw( new Exception( name + ": direct buffer output differs from BEncoder" ));
+		}
+
+		System.out.println( name + ": " + expected.length + " bytes" );
+
+		for ( int i=0;i<Math.min( iterations, 20000 );i++){
+
+			for ( int mode=0;mode<3;mode++){
+
+				encode( map, mode, direct );
+			}
+		}
+
+		String[]	modes = { "BEncoder     ", "exact byte[] ", "direct buffer" };
+
+		for ( int mode=0;mode<3;mode++){
+
+			long	alloc_before	= getAllocatedBytes();
+			long	start			= System.nanoTime();
+
+			for ( int i=0;i<iterations;i++){
+
+				encode( map, mode, direct );
+			}
+
+			long	elapsed	= System.nanoTime() - start;
+			long	alloc	= getAllocatedBytes() - alloc_before;
+
+			System.out.println(
+				"    " + modes[mode] + ": " + ( elapsed / iterations ) + " ns/op" +
+				( alloc_before<0?"":( ", " + ( alloc / iterations ) + " bytes allocated/op" )));
+		}
+	}
+
+	private static int
+	encode(
+		Map			map,
+		int			mode,
+		ByteBuffer	direct )
+
+		throws IOException
+	{
+		if ( mode == 0 ){
+
+			return( BEncoder.encode( map ).length );
+
+		}else if ( mode == 1 ){
+
+			return( encode( map ).length );
+
+		}else{
+
+				// stands in for a pooled buffer
+
+			direct.clear();
+
+			encode( map, direct );
+
+			return( direct.position());
+		}
+	}
+
+	private static long
+	getAllocatedBytes()
+	{
+			// the HotSpot extension of the bean, public API so unlike reflecting on the
+			// implementation class it works on 9+ as well
+
+		ThreadMXBean	bean = ManagementFactory.getThreadMXBean();
+
+		if ( !( bean instanceof com.sun.management.ThreadMXBean )){
+
+			return( -1 );
+		}
+
+		try{
+			return(((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes( Thread.currentThread().getId()));
+
+		}catch( UnsupportedOperationException e ){
+
+			return( -1 );
+		}
+	}
+}
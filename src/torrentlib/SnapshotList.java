@@ -0,0 +1,389 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package torrentlib;
+
+import java.util.*;
+
+/**
+ * A set-like list with O(1) add/remove/contains that hands out immutable snapshots for
+ * iteration.<br>
+ *
+ * Unlike {@link CopyOnWriteList} a mutation never copies the list. Instead each mutation
+ * starts a new epoch and the snapshot is rebuilt lazily, at most once per epoch, by the
+ * first reader that asks for it. Under heavy churn between two reads (e.g. hundreds of
+ * peer connects/disconnects between two peer manager loop iterations) the copying cost is
+ * therefore bounded by the read rate and not by the mutation rate.<br>
+ *
+ * Removed entries leave a hole in the backing array so that insertion order is retained; the
+ * array is compacted once holes dominate.<br>
+ *
+ * Snapshots must be treated as read-only by callers.
+ */
+
+public class
+SnapshotList<T>
+{
+	private static final int	COMPACT_MIN_HOLES	= 16;
+
+	private Object[]				slots;
+	private int						tail;
+	private int						live;
+
+	private final Map<T,Integer>	index;
+
+	private long					epoch;
+
+	private volatile ArrayList<T>	snapshot;
+	private long					snapshot_epoch	= -1;
+
+	private long					snapshot_builds;
+
+	public
+	SnapshotList()
+	{
+		this( 16 );
+	}
+
+	public
+	SnapshotList(
+		int		initial_capacity )
+	{
+		slots	= new Object[ Math.max( 1, initial_capacity )];
+		index	= new HashMap<T,Integer>( Math.max( 4, initial_capacity*4/3 ));
+
+		snapshot = new ArrayList<T>( 0 );
+	}
+
+		/**
+		 * @return true if added, false if already present
+		 */
+
+	public synchronized boolean
+	add(
+		T		obj )
+	{
+		if ( index.containsKey( obj )){
+
+			return( false );
+		}
+
+		if ( tail == slots.length ){
+
+			if ( tail - live >= COMPACT_MIN_HOLES && tail - live >= live ){
+
+				compact();
+
+			}else{
+
+				slots = Arrays.copyOf( slots, slots.length * 2 );
+			}
+		}
+
+		index.put( obj, tail );
+
+		slots[tail++] = obj;
+
+		live++;
+
+		mutated();
+
+		return( true );
+	}
+
+		/**
+		 * @return true if removed, false if not present
+		 */
+
+	public synchronized boolean
+	remove(
+		T		obj )
+	{
+		Integer	pos = index.remove( obj );
+
+		if ( pos == null ){
+
+			return( false );
+		}
+
+		slots[pos] = null;
+
+		live--;
+
+		if ( live == 0 ){
+
+			tail = 0;
+		}
+
+		mutated();
+
+		return( true );
+	}
+
+	public synchronized boolean
+	contains(
+		T		obj )
+	{
+		return( index.containsKey( obj ));
+	}
+
+	public synchronized int
+	size()
+	{
+		return( live );
+	}
+
+		/**
+		 * Removes all entries
+		 * @return snapshot of the entries removed
+		 */
+
+	public synchronized List<T>
+	clear()
+	{
+		ArrayList<T>	result = getList();
+
+		Arrays.fill( slots, 0, tail, null );
+
+		tail	= 0;
+		live	= 0;
+
+		index.clear();
+
+		mutated();
+
+		return( result );
+	}
+
+		/**
+		 * Returns an immutable-by-convention snapshot of the current entries, in insertion order.
+		 * Repeated calls within the same epoch return the same instance.
+		 */
+
+	public ArrayList<T>
+	getList()
+	{
+		ArrayList<T>	result = snapshot;
+
+		if ( result != null ){
+
+			return( result );
+		}
+
+		synchronized( this ){
+
+			if ( snapshot == null || snapshot_epoch != epoch ){
+
+				ArrayList<T>	list = new ArrayList<T>( live );
+
+				for ( int i=0;i<tail;i++){
+
+					Object	o = slots[i];
+
+					if ( o != null ){
+
+						list.add((T)o);
+					}
+				}
+
+				snapshot_epoch	= epoch;
+
+				snapshot_builds++;
+
+				snapshot = list;
+			}
+
+			return( snapshot );
+		}
+	}
+
+	public synchronized long
+	getEpoch()
+	{
+		return( epoch );
+	}
+
+	public synchronized long
+	getSnapshotBuildCount()
+	{
+		return( snapshot_builds );
+	}
+
+	private void
+	mutated()
+	{
+		epoch++;
+
+		snapshot = null;
+	}
+
+	private void
+	compact()
+	{
+		int	pos = 0;
+
+		for ( int i=0;i<tail;i++){
+
+			Object	o = slots[i];
+
+			if ( o != null ){
+
+				if ( pos != i ){
+
+					slots[pos] = o;
+
+					index.put((T)o, pos );
+				}
+
+				pos++;
+			}
+		}
+
+		Arrays.fill( slots, pos, tail, null );
+
+		tail = pos;
+	}
+
+	public static void
+	main(
+		String[]	args )
+	{
+		int[]	sizes = { 1000, 10000 };
+
+		for ( int size: sizes ){
+
+			for ( int run=0;run<3;run++ ){
+
+				benchmark( size );
+			}
+		}
+	}
+
+	private static void
+	benchmark(
+		int		size )
+	{
+		final int CHURN		= size * 10;
+		final int READ_EVERY	= 100;
+
+		Integer[]	peers = new Integer[ size * 2 ];
+
+		for ( int i=0;i<peers.length;i++){
+
+			peers[i] = new Integer( i );
+		}
+
+		Random	rand = new Random( 0 );
+
+			// copy-on-write ArrayList as previously used by the peer manager
+
+		long	start = System.nanoTime();
+
+		ArrayList<Integer>	cow = new ArrayList<Integer>();
+
+		for ( int i=0;i<size;i++){
+
+			ArrayList<Integer>	copy = new ArrayList<Integer>( cow.size() + 1 );
+
+			copy.addAll( cow );
+
+			copy.add( peers[i] );
+
+			cow = copy;
+		}
+
+		long	sum = 0;
+
+		for ( int i=0;i<CHURN;i++){
+
+			Integer	peer = peers[ rand.nextInt( peers.length )];
+
+			if ( cow.contains( peer )){
+
+				ArrayList<Integer>	copy = new ArrayList<Integer>( cow );
+
+				copy.remove( peer );
+
+				cow = copy;
+
+			}else{
+
+				ArrayList<Integer>	copy = new ArrayList<Integer>( cow.size() + 1 );
+
+				copy.addAll( cow );
+
+				copy.add( peer );
+
+				cow = copy;
+			}
+
+			if ( i % READ_EVERY == 0 ){
+
+				List<Integer>	l = cow;
+
+				for ( int j=0;j<l.size();j++){
+
+					sum += l.get(j);
+				}
+			}
+		}
+
+		long	cow_time = System.nanoTime() - start;
+
+		rand = new Random( 0 );
+
+		start = System.nanoTime();
+
+		SnapshotList<Integer>	snap = new SnapshotList<Integer>();
+
+		for ( int i=0;i<size;i++){
+
+			snap.add( peers[i] );
+		}
+
+		long	sum2 = 0;
+
+		for ( int i=0;i<CHURN;i++){
+
+			Integer	peer = peers[ rand.nextInt( peers.length )];
+
+			if ( !snap.remove( peer )){
+
+				snap.add( peer );
+			}
+
+			if ( i % READ_EVERY == 0 ){
+
+				List<Integer>	l = snap.getList();
+
+				for ( int j=0;j<l.size();j++){
+
+					sum2 += l.get(j);
+				}
+			}
+		}
+
+		long	snap_time = System.nanoTime() - start;
+
+		System.out.println(
+			"peers=" + size + ", churn=" + CHURN + ", read every " + READ_EVERY +
+			": cow=" + (cow_time/1000000) + "ms, snapshot=" + (snap_time/1000000) + "ms" +
+			", rebuilds=" + snap.getSnapshotBuildCount() +
+			(sum==sum2?"":" MISMATCH" ));
+	}
+}
@@ -783,12 +783,20 @@ ThreadPool
 							reserved_actual++;
 							
 						}else{
-							
+
 							thread_sem.release();
+
+								// a task queued after we found the queue empty but before the release
+								// above found no free thread and would otherwise be stranded
+
+							if ( queue_when_full && task_queue.size() > 0 && thread_sem.reserveIfAvailable()){
+
+								new threadPoolWorker();
+							}
 						}
 					}
 				}
-				
+
 				tls.set(null);
 			}
 		}
@@ -153,6 +153,20 @@ TOTorrent
 	
 		throws TOTorrentException;
 	
+		/**
+		 * Piece hashes are held in a single buffer, getPieces() has to split them into an array
+		 * per piece. Use this where only individual hashes are needed
+		 * @param piece_number
+		 * @return the 20 byte SHA1 hash of the piece
+		 * @exception	can fail if re-reading of piece hashes for space saving fails 
+		 */
+	
+	public byte[]
+	getPieceHash(
+		int			piece_number )
+	
+		throws TOTorrentException;
+	
 	/**
 	 * Returns the piece length used for the torrent
 	 * @return
@@ -26,6 +26,7 @@ import torrentlib.Constants;
 import torrentlib.SystemTime;
 import torrentlib.DisplayFormatters;
 import torrentlib.BEncoder;
+import torrentlib.ByteEncodedKeyHashMap;
 import torrentlib.util.TorrentUtils;
 import torrentlib.data.torrent.TOTorrentProgressListener;
 import torrentlib.data.torrent.TOTorrentException;
@@ -44,6 +45,10 @@ TOTorrentCreateImpl
 {
 	private static final Comparator<File> file_comparator;
 
+		// adds the BEP 52 per-file 'pieces root' and 'piece layers' alongside the v1 hashes
+
+	private static final boolean	add_v2_hashes = System.getProperty( "az.create.torrent.v2.hashes", "0" ).equals( "1" );
+
 	static{
 		if ( System.getProperty( "az.create.torrent.alphanumeric.sort", "0" ).equals( "1" )){
 
@@ -292,6 +297,7 @@ TOTorrentCreateImpl
 			new TOTorrentFileHasher(
 					add_other_hashes,
 					add_other_per_file_hashes,
+					add_v2_hashes,
 					(int)_piece_length,
 					progress_listeners.size()==0?null:this );
 
@@ -346,6 +352,11 @@ TOTorrentCreateImpl
 				//System.out.println( "overall:ed2k = " + ByteFormatter.nicePrint( ed2k_digest, true));
 			}
 
+			if ( file_hasher.isDoingV2Hashes()){
+
+				addV2Hashes( file_hasher );
+			}
+
 			return( ignored );
 
 		}finally{
@@ -354,6 +365,57 @@ TOTorrentCreateImpl
 		}
 	}
 
+	private void
+	addV2Hashes(
+		TOTorrentFileHasher		hasher )
+
+		throws TOTorrentException
+	{
+		List<byte[]>	roots	= hasher.getV2PiecesRoots();
+		List<byte[]>	layers	= hasher.getV2PieceLayers();
+
+		TOTorrentFile[]	files = getFiles();
+
+		Map<String,byte[]>	piece_layers = new ByteEncodedKeyHashMap<String,byte[]>();
+
+		for ( int i=0;i<files.length;i++){
+
+			byte[]	root = roots.get(i);
+
+			if ( root == null ){
+
+				continue;
+			}
+
+			if ( getSimpleTorrent()){
+
+				addAdditionalInfoProperty( "pieces root", root );
+
+			}else{
+
+				((TOTorrentFileImpl)files[i]).setAdditionalProperty( "pieces root", root );
+			}
+
+			byte[]	layer = layers.get(i);
+
+			if ( layer != null ){
+
+				try{
+					piece_layers.put( new String( root, Constants.BYTE_ENCODING ), layer );
+
+				}catch( UnsupportedEncodingException e ){
+
+					throw( new TOTorrentException( "TOTorrentCreate: unsupported encoding", TOTorrentException.RT_UNSUPPORTED_ENCODING ));
+				}
+			}
+		}
+
+		if ( piece_layers.size() > 0 ){
+
+			setAdditionalMapProperty( "piece layers", piece_layers );
+		}
+	}
+
 	private int
 	processDir(
 		TOTorrentFileHasher			hasher,
@@ -719,14 +719,18 @@ TOTorrentDeserialiseImpl
 				Debug.out( "Torrent '" + new String( getName()) + "' has too many pieces (required=" + pieces_required + ",supplied=" + pieces_supplied + ") - ignoring excess" );
 			}
 
-			byte[][]pieces = new byte[pieces_supplied][20];
+				// kept flat, splitting into an array per piece more than doubles their size
 			
-			for (int i=0;i<pieces.length;i++){
+			if ( flat_pieces.length != pieces_supplied*20 ){
 				
-				System.arraycopy( flat_pieces, i*20, pieces[i], 0, 20 );
-			}	
+				byte[]	temp = new byte[pieces_supplied*20];
 				
-			setPieces( pieces );	
+				System.arraycopy( flat_pieces, 0, temp, 0, temp.length );
+				
+				flat_pieces = temp;
+			}
+			
+			setPieceHashes( flat_pieces );	
 			
 				// extract and additional info elements
 				
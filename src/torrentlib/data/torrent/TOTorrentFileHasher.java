@@ -15,7 +15,7 @@
  * You should have received a copy of the GNU General Public License
  * along with this program; if not, write to the Free Software
  * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
- * 
+ *
  */
 
 package torrentlib.data.torrent;
@@ -23,139 +23,238 @@ package torrentlib.data.torrent;
 
 import stdlib.security.types.ED2KHasher;
 import stdlib.security.types.SHA1Hasher;
+import torrentlib.AERunnable;
+import torrentlib.ThreadPool;
 import torrentlib.data.torrent.TOTorrentException;
 import java.io.*;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
 
+/**
+ * Hashes the content of a new torrent.<br>
+ *
+ * Files are read sequentially on the calling thread straight into piece sized buffers and each
+ * full piece is handed to a shared pool for hashing, so pieces are hashed on all cores while the
+ * next ones are being read. Buffers are allocated as the reader finds none free, up to a bound
+ * (MAX_BUFFER_BYTES) that limits memory with large pieces, so a small torrent only ever has a
+ * couple. The overall and per-file sha1/ed2k hashes are inherently sequential
+ * and stay on the reading thread.<br>
+ *
+ * Optionally the BEP 52 (v2) per-file merkle roots and piece layers are computed in the same pass:
+ * the data is also copied into file-aligned piece sized chunks whose 16KiB block hashes and subtree
+ * roots are computed in the pool.
+ */
 
-public class 
-TOTorrentFileHasher 
+public class
+TOTorrentFileHasher
 {
+	private static final int	MAX_BUFFER_BYTES	= 64*1024*1024;
+
+	private static final int	V2_BLOCK_SIZE		= 16*1024;
+	private static final int	V2_HASH_LENGTH		= 32;
+
+	private static final int	HASH_THREADS		= Math.max( 1, Runtime.getRuntime().availableProcessors());
+
+	private static final ThreadPool	hash_pool = new ThreadPool( "TOTorrentFileHasher", HASH_THREADS, true );
+
 	protected boolean	do_other_per_file_hash;
 	protected int		piece_length;
-	
-	protected Vector	pieces = new Vector();
-	
+
 	protected byte[]	buffer;
 	protected int		buffer_pos;
-	 
+
 	protected SHA1Hasher					overall_sha1_hash;
 	protected ED2KHasher					overall_ed2k_hash;
-	
+
 	protected byte[]						sha1_digest;
 	protected byte[]						ed2k_digest;
-	
+
 	protected byte[]						per_file_sha1_digest;
 	protected byte[]						per_file_ed2k_digest;
-	
+
 	protected TOTorrentFileHasherListener	listener;
-		
-	protected boolean						cancelled;
-	
+
+	protected volatile boolean				cancelled;
+
+	private final BufferPool	free_buffers;
+
+	private byte[][]		piece_hashes	= new byte[256][];
+	private int				pieces_dispatched;
+	private int				pieces_hashed;
+	private int				pieces_reported;
+
+	private int				outstanding;
+	private Throwable		hash_error;
+
+		// v2
+
+	private final boolean	do_v2;
+
+	private final BufferPool	free_v2_buffers;
+
+	private List<V2File>	v2_files;
+
+	private V2File			v2_current;
+	private byte[]			v2_buffer;
+	private int				v2_buffer_pos;
+
 	protected
 	TOTorrentFileHasher(
 		boolean							_do_other_overall_hashes,
-		boolean							_do_other_per_file_hash,				
+		boolean							_do_other_per_file_hash,
+		int								_piece_length,
+		TOTorrentFileHasherListener		_listener )
+	{
+		this( _do_other_overall_hashes, _do_other_per_file_hash, false, _piece_length, _listener );
+	}
+
+	protected
+	TOTorrentFileHasher(
+		boolean							_do_other_overall_hashes,
+		boolean							_do_other_per_file_hash,
+		boolean							_do_v2_hashes,
 		int								_piece_length,
 		TOTorrentFileHasherListener		_listener )
 	{
 		if ( _do_other_overall_hashes ){
 		  overall_sha1_hash 	= new SHA1Hasher();
-						
+
 		  overall_ed2k_hash 	= new ED2KHasher();
 		}
-		
+
 		do_other_per_file_hash	= _do_other_per_file_hash;
 		piece_length			= _piece_length;
 		listener				= _listener;
-		
-		buffer = new byte[piece_length];
+
+			// v2 needs a power of two piece size of at least one block
+
+		do_v2 = _do_v2_hashes && piece_length >= V2_BLOCK_SIZE && Integer.bitCount( piece_length ) == 1;
+
+		int	max_buffers = Math.max( 2, Math.min( HASH_THREADS*2, MAX_BUFFER_BYTES / ( piece_length * ( do_v2?2:1 ))));
+
+		free_buffers = new BufferPool( piece_length, max_buffers );
+
+		buffer = free_buffers.take();
+
+		if ( do_v2 ){
+
+			free_v2_buffers = new BufferPool( piece_length, max_buffers );
+
+			v2_files = new ArrayList<V2File>();
+
+		}else{
+
+			free_v2_buffers = null;
+		}
 	}
-		
+
+	protected boolean
+	isDoingV2Hashes()
+	{
+		return( do_v2 );
+	}
+
 	long
 	add(
 		File		_file )
-		
+
 		throws TOTorrentException
 	{
 		long		file_length = 0;
-		
+
 		InputStream is = null;
-		
+
 		SHA1Hasher	sha1_hash		= null;
 		ED2KHasher	ed2k_hash		= null;
-		
+
 		try{
 			if ( do_other_per_file_hash ){
-				
+
 				sha1_hash		= new SHA1Hasher();
 				ed2k_hash		= new ED2KHasher();
 			}
-			
-			is = new BufferedInputStream(new FileInputStream( _file ), 65536);
+
+			if ( do_v2 ){
+
+				v2_current = new V2File((int)Math.min( 1024, _file.length() / piece_length + 1 ));
+
+				v2_files.add( v2_current );
+			}
+
+				// reads go straight into the piece buffer, which is large enough not to need
+				// any further buffering
+
+			is = new FileInputStream( _file );
 
 			while(true){
-	
+
 				if ( cancelled ){
-						
+
 					throw( new TOTorrentException( 	"TOTorrentCreate: operation cancelled",
 													TOTorrentException.RT_CANCELLED ));
 				}
-				
+
+				checkError();
+
 				int	len = is.read( buffer, buffer_pos, piece_length - buffer_pos );
-				
+
 				if ( len > 0 ){
-					
+
 					if ( do_other_per_file_hash ){
-						
+
 						sha1_hash.update( buffer, buffer_pos, len );
 						ed2k_hash.update( buffer, buffer_pos, len );
 					}
-					
-					
+
+					if ( do_v2 ){
+
+						addV2( buffer, buffer_pos, len );
+					}
+
 					file_length += len;
-					
+
 					buffer_pos += len;
-					
+
 					if ( buffer_pos == piece_length ){
-						
-						// hash this piece
-						
-						byte[] hash = new SHA1Hasher().calculateHash(buffer);
 
 						if ( overall_sha1_hash != null ){
-							
+
 							overall_sha1_hash.update( buffer );
 							overall_ed2k_hash.update( buffer );
 						}
-						
-						pieces.add( hash );
-						
-						if ( listener != null ){
-							
-							listener.pieceHashed( pieces.size() );
-						}
-						
-						buffer_pos = 0;					
+
+						dispatchPiece( buffer );
+
+						buffer = free_buffers.take();
+
+						buffer_pos = 0;
+
+						reportProgress();
 					}
 				}else{
-					
+
 					break;
-				}		
+				}
 			}
-			
+
 			if ( do_other_per_file_hash ){
-				
+
 				per_file_sha1_digest = sha1_hash.getDigest();
 				per_file_ed2k_digest = ed2k_hash.getDigest();
 			}
-			
+
+			if ( do_v2 ){
+
+				endV2File();
+			}
+
 		}catch( TOTorrentException e ){
-			
+
 			throw( e );
-			
+
 		}catch( Throwable e ){
-			
+
 			throw( new TOTorrentException( 	"TOTorrentFileHasher: file read fails '" + e.toString() + "'",
 											TOTorrentException.RT_READ_FAILS ));
 		}finally {
@@ -167,98 +266,595 @@ TOTorrentFileHasher
 				}
 			}
 		}
-		
+
 		return( file_length );
 	}
-	
+
+	private void
+	dispatchPiece(
+		final byte[]	piece )
+	{
+		final int	piece_number = pieces_dispatched++;
+
+		synchronized( this ){
+
+			if ( piece_number >= piece_hashes.length ){
+
+				piece_hashes = Arrays.copyOf( piece_hashes, piece_hashes.length*2 );
+			}
+
+			outstanding++;
+		}
+
+		hash_pool.run(
+			new AERunnable()
+			{
+				public void
+				runSupport()
+				{
+					byte[]	hash = null;
+
+					try{
+						if ( !cancelled ){
+
+							hash = new SHA1Hasher().calculateHash( piece );
+						}
+					}catch( Throwable e ){
+
+						failed( e );
+
+					}finally{
+
+							// the short last piece is a one-off copy, don't let it into the pool
+
+						if ( piece.length == piece_length ){
+
+							free_buffers.give( piece );
+						}
+
+						pieceDone( piece_number, hash );
+					}
+				}
+			});
+	}
+
+	private void
+	pieceDone(
+		int			piece_number,
+		byte[]		hash )
+	{
+		synchronized( this ){
+
+			if ( hash != null ){
+
+				piece_hashes[piece_number] = hash;
+
+				pieces_hashed++;
+			}
+
+			outstanding--;
+
+				// wakes the reading thread if it's waiting to report progress or finish
+
+			notifyAll();
+		}
+	}
+
+		/**
+		 * Reading thread only - keeps the listener off the hashing threads and out of our lock
+		 */
+
+	private void
+	reportProgress()
+	{
+		if ( listener == null ){
+
+			return;
+		}
+
+		int	hashed;
+
+		synchronized( this ){
+
+			hashed = pieces_hashed;
+		}
+
+		if ( hashed > pieces_reported ){
+
+			pieces_reported = hashed;
+
+			listener.pieceHashed( hashed );
+		}
+	}
+
+	private synchronized void
+	failed(
+		Throwable	e )
+	{
+		if ( hash_error == null ){
+
+			hash_error = e;
+		}
+	}
+
+	private void
+	checkError()
+
+		throws TOTorrentException
+	{
+		Throwable	e;
+
+		synchronized( this ){
+
+			e = hash_error;
+		}
+
+		if ( e != null ){
+
+			throw( new TOTorrentException( 	"TOTorrentFileHasher: hash fails '" + e.toString() + "'",
+											TOTorrentException.RT_HASH_FAILS ));
+		}
+	}
+
+	private void
+	waitForOutstanding()
+
+		throws TOTorrentException
+	{
+		while( true ){
+
+			synchronized( this ){
+
+				if ( outstanding == 0 ){
+
+					break;
+				}
+
+				try{
+					wait();
+
+				}catch( InterruptedException e ){
+
+					throw( new TOTorrentException( 	"TOTorrentCreate: operation cancelled",
+													TOTorrentException.RT_CANCELLED ));
+				}
+			}
+
+			reportProgress();
+		}
+
+		reportProgress();
+	}
+
+	private void
+	addV2(
+		byte[]		data,
+		int			offset,
+		int			length )
+	{
+		while( length > 0 ){
+
+			if ( v2_buffer == null ){
+
+				v2_buffer		= free_v2_buffers.take();
+				v2_buffer_pos	= 0;
+			}
+
+			int	chunk = Math.min( length, piece_length - v2_buffer_pos );
+
+			System.arraycopy( data, offset, v2_buffer, v2_buffer_pos, chunk );
+
+			v2_buffer_pos	+= chunk;
+			offset			+= chunk;
+			length			-= chunk;
+
+			if ( v2_buffer_pos == piece_length ){
+
+				dispatchV2( v2_current, v2_current.chunks++, v2_buffer, piece_length, false );
+
+				v2_buffer = null;
+			}
+		}
+	}
+
+	private void
+	endV2File()
+	{
+		V2File	file = v2_current;
+
+		if ( v2_buffer != null ){
+
+				// a short chunk is either a file's only one, in which case its tree is only as large as it
+				// needs to be, or the last of several, padded to a full piece
+
+			boolean	only_chunk = file.chunks == 0;
+
+			dispatchV2( file, file.chunks++, v2_buffer, v2_buffer_pos, only_chunk );
+
+			v2_buffer = null;
+		}
+
+		v2_current = null;
+	}
+
+	private void
+	dispatchV2(
+		final V2File	file,
+		final int		chunk_number,
+		final byte[]	data,
+		final int		length,
+		final boolean	only_chunk )
+	{
+		synchronized( this ){
+
+			file.ensureCapacity( chunk_number + 1 );
+
+			outstanding++;
+		}
+
+		hash_pool.run(
+			new AERunnable()
+			{
+				public void
+				runSupport()
+				{
+					try{
+						if ( !cancelled ){
+
+							int	blocks = ( length + V2_BLOCK_SIZE - 1 ) / V2_BLOCK_SIZE;
+
+							int	leaves = only_chunk?Integer.highestOneBit( Math.max( 1, blocks*2-1 )):piece_length/V2_BLOCK_SIZE;
+
+							MessageDigest	sha256 = MessageDigest.getInstance( "SHA-256" );
+
+							byte[]	tree = new byte[ leaves*V2_HASH_LENGTH ];
+
+							for ( int i=0;i<blocks;i++){
+
+								int	pos = i*V2_BLOCK_SIZE;
+
+								sha256.update( data, pos, Math.min( V2_BLOCK_SIZE, length - pos ));
+
+								sha256.digest( tree, i*V2_HASH_LENGTH, V2_HASH_LENGTH );
+							}
+
+								// remaining leaves are zero
+
+							byte[]	root = merkleRoot( sha256, tree, leaves );
+
+							synchronized( TOTorrentFileHasher.this ){
+
+								System.arraycopy( root, 0, file.layer, chunk_number*V2_HASH_LENGTH, V2_HASH_LENGTH );
+							}
+						}
+					}catch( Throwable e ){
+
+						failed( e );
+
+					}finally{
+
+						free_v2_buffers.give( data );
+
+						pieceDone( -1, null );
+					}
+				}
+			});
+	}
+
+		/**
+		 * Reduces the given layer of hashes, whose number must be a power of two, to its root.
+		 * Overwrites the layer
+		 */
+
+	private static byte[]
+	merkleRoot(
+		MessageDigest	sha256,
+		byte[]			layer,
+		int				count )
+
+		throws Exception
+	{
+		while( count > 1 ){
+
+			for ( int i=0;i<count;i+=2 ){
+
+				sha256.update( layer, i*V2_HASH_LENGTH, V2_HASH_LENGTH*2 );
+
+				sha256.digest( layer, (i/2)*V2_HASH_LENGTH, V2_HASH_LENGTH );
+			}
+
+			count /= 2;
+		}
+
+		return( Arrays.copyOf( layer, V2_HASH_LENGTH ));
+	}
+
 	protected byte[]
 	getPerFileSHA1Digest()
 	{
 		return( per_file_sha1_digest );
 	}
-	
+
 	protected byte[]
 	getPerFileED2KDigest()
 	{
 		return( per_file_ed2k_digest );
 	}
-	
+
 	protected byte[][]
 	getPieces()
-		
+
 		throws TOTorrentException
 	{
 		try{
 			if ( buffer_pos > 0 ){
-								
+
 				byte[] rem = new byte[buffer_pos];
-				
+
 				System.arraycopy( buffer, 0, rem, 0, buffer_pos );
-				
-				pieces.addElement(new SHA1Hasher().calculateHash(rem));
-				
+
 				if ( overall_sha1_hash != null ){
-					
+
 					overall_sha1_hash.update( rem );
 					overall_ed2k_hash.update( rem );
 				}
-				
-				if ( listener != null ){
-							
-					listener.pieceHashed( pieces.size() );
-				}
-				
+
+				dispatchPiece( rem );
+
 				buffer_pos = 0;
 			}
-		
+
+			waitForOutstanding();
+
+			checkError();
+
+			if ( cancelled ){
+
+				throw( new TOTorrentException( 	"TOTorrentCreate: operation cancelled",
+												TOTorrentException.RT_CANCELLED ));
+			}
+
 			if ( overall_sha1_hash != null && sha1_digest == null ){
-				
+
 				sha1_digest	= overall_sha1_hash.getDigest();
 				ed2k_digest	= overall_ed2k_hash.getDigest();
 			}
-			
-			byte[][] res = new byte[pieces.size()][];
-		
-			pieces.copyInto( res );
-		
+
+			byte[][] res = new byte[pieces_dispatched][];
+
+			System.arraycopy( piece_hashes, 0, res, 0, pieces_dispatched );
+
 			return( res );
-			
+
+		}catch( TOTorrentException e ){
+
+			throw( e );
+
 		}catch( Throwable e ){
-			
+
 			throw( new TOTorrentException( 	"TOTorrentFileHasher: file read fails '" + e.toString() + "'",
 											TOTorrentException.RT_READ_FAILS ));
 		}
 	}
-	
+
+		/**
+		 * v2 'pieces root' of each file added, in order, null for empty files. Call after getPieces
+		 */
+
+	protected List<byte[]>
+	getV2PiecesRoots()
+
+		throws TOTorrentException
+	{
+		computeV2Roots();
+
+		List<byte[]>	res = new ArrayList<byte[]>( v2_files.size());
+
+		for ( V2File file: v2_files ){
+
+			res.add( file.root );
+		}
+
+		return( res );
+	}
+
+		/**
+		 * v2 piece layer of each file added, in order, null for files no larger than a piece.
+		 * Call after getPieces
+		 */
+
+	protected List<byte[]>
+	getV2PieceLayers()
+
+		throws TOTorrentException
+	{
+		computeV2Roots();
+
+		List<byte[]>	res = new ArrayList<byte[]>( v2_files.size());
+
+		for ( V2File file: v2_files ){
+
+			res.add( file.chunks > 1?Arrays.copyOf( file.layer, file.chunks*V2_HASH_LENGTH ):null );
+		}
+
+		return( res );
+	}
+
+	private void
+	computeV2Roots()
+
+		throws TOTorrentException
+	{
+		if ( !do_v2 ){
+
+			throw( new TOTorrentException( "TOTorrentFileHasher: v2 hashes not enabled", TOTorrentException.RT_HASH_FAILS ));
+		}
+
+		waitForOutstanding();
+
+		checkError();
+
+		try{
+			MessageDigest	sha256 = MessageDigest.getInstance( "SHA-256" );
+
+			byte[]	pad_root = null;
+
+			for ( V2File file: v2_files ){
+
+				if ( file.root != null || file.chunks == 0 ){
+
+					continue;
+				}
+
+				if ( file.chunks == 1 ){
+
+					file.root = Arrays.copyOf( file.layer, V2_HASH_LENGTH );
+
+					continue;
+				}
+
+					// piece layer padded with the roots of all-zero pieces
+
+				if ( pad_root == null ){
+
+					int	leaves = piece_length/V2_BLOCK_SIZE;
+
+					pad_root = merkleRoot( sha256, new byte[ leaves*V2_HASH_LENGTH ], leaves );
+				}
+
+				int	count = Integer.highestOneBit( file.chunks*2-1 );
+
+				byte[]	tree = new byte[ count*V2_HASH_LENGTH ];
+
+				System.arraycopy( file.layer, 0, tree, 0, file.chunks*V2_HASH_LENGTH );
+
+				for ( int i=file.chunks;i<count;i++){
+
+					System.arraycopy( pad_root, 0, tree, i*V2_HASH_LENGTH, V2_HASH_LENGTH );
+				}
+
+				file.root = merkleRoot( sha256, tree, count );
+			}
+		}catch( Throwable e ){
+
+			throw( new TOTorrentException( 	"TOTorrentFileHasher: hash fails '" + e.toString() + "'",
+											TOTorrentException.RT_HASH_FAILS ));
+		}
+	}
+
 	protected byte[]
 	getED2KDigest()
-	
+
 		throws TOTorrentException
 	{
 		if ( ed2k_digest == null ){
-			
+
 			getPieces();
 		}
-		
+
 		return( ed2k_digest );
 	}
-	
+
 	protected byte[]
 	getSHA1Digest()
-	
+
 		throws TOTorrentException
 	{
 		if ( sha1_digest == null ){
-			
+
 			getPieces();
 		}
-		
+
 		return( sha1_digest );
 	}
-	
+
 	protected void
 	cancel()
 	{
 		cancelled	= true;
 	}
+
+		/**
+		 * Piece buffers, allocated on demand up to a limit. Only the reading thread takes them so
+		 * the allocation count needs no locking, the hashing threads give them back
+		 */
+
+	private static class
+	BufferPool
+	{
+		private final LinkedBlockingQueue<byte[]>	free	= new LinkedBlockingQueue<byte[]>();
+
+		private final int		size;
+		private final int		max;
+
+		private int				allocated;
+
+		private
+		BufferPool(
+			int		_size,
+			int		_max )
+		{
+			size	= _size;
+			max		= _max;
+		}
+
+		private byte[]
+		take()
+		{
+			byte[]	buffer = free.poll();
+
+			if ( buffer != null ){
+
+				return( buffer );
+			}
+
+			if ( allocated < max ){
+
+				allocated++;
+
+				return( new byte[ size ]);
+			}
+
+			while( true ){
+
+				try{
+					return( free.take());
+
+				}catch( InterruptedException e ){
+				}
+			}
+		}
+
+		private void
+		give(
+			byte[]		buffer )
+		{
+			free.add( buffer );
+		}
+	}
+
+	private static class
+	V2File
+	{
+		private int			chunks;
+		private byte[]		layer;
+		private byte[]		root;
+
+		private
+		V2File(
+			int			expected_chunks )
+		{
+			layer = new byte[ V2_HASH_LENGTH * expected_chunks ];
+		}
+
+		private void
+		ensureCapacity(
+			int		num_chunks )
+		{
+			if ( num_chunks*V2_HASH_LENGTH > layer.length ){
+
+				layer = Arrays.copyOf( layer, Math.max( num_chunks*V2_HASH_LENGTH, layer.length*2 ));
+			}
+		}
+	}
 }
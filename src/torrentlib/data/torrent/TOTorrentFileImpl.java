@@ -101,9 +101,7 @@ TOTorrentFileImpl
 			
 			temp.copyInto( path_components );
 
-			path_components_utf8		= new byte[temp.size()][];
-			
-			temp.copyInto( path_components_utf8 );
+			path_components_utf8		= path_components;
 
 			checkComponents();
 			
@@ -153,7 +151,10 @@ TOTorrentFileImpl
 		index				= _index;
 		file_length			= _len;
 		path_components		= _path_components;
-		path_components_utf8 = _path_components_utf8;
+		
+			// the utf-8 path is usually the same as the plain one, don't hold it twice
+		
+		path_components_utf8 = sameComponents( _path_components, _path_components_utf8 )?_path_components:_path_components_utf8;
 		
 		first_piece_number 	= (int)( _torrent_offset / torrent.getPieceLength());
 		last_piece_number	= (int)(( _torrent_offset + file_length - 1 ) /  torrent.getPieceLength());
@@ -168,7 +169,7 @@ TOTorrentFileImpl
 	
 		throws TOTorrentException
 	{
-		byte[][][] to_do = { path_components, path_components_utf8 };
+		byte[][][] to_do = { path_components, path_components_utf8==path_components?null:path_components_utf8 };
 		
 		for (byte[][] pc: to_do ){
 			
@@ -189,6 +190,27 @@ TOTorrentFileImpl
 		}
 	}
 	
+	private static boolean
+	sameComponents(
+		byte[][]	pc1,
+		byte[][]	pc2 )
+	{
+		if ( pc1 == null || pc2 == null || pc1.length != pc2.length ){
+			
+			return( false );
+		}
+		
+		for (int i=0;i<pc1.length;i++){
+			
+			if ( !Arrays.equals( pc1[i], pc2[i] )){
+				
+				return( false );
+			}
+		}
+		
+		return( true );
+	}
+	
 	public TOTorrent
 	getTorrent()
 	{
@@ -43,6 +43,7 @@ import torrentlib.data.torrent.TOTorrentFile;
 import torrentlib.data.torrent.TOTorrent;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import torrentlib.util.logging.LogRelation;
@@ -82,6 +83,12 @@ TOTorrentImpl
 	protected static final List	TK_ADDITIONAL_OK_ATTRS = 
 		Arrays.asList(new String[]{ TK_COMMENT_UTF8, AZUREUS_PROPERTIES, TK_WEBSEED_BT, TK_WEBSEED_GR });
 	
+	protected static final int	PIECE_HASH_LENGTH	= 20;
+	
+		// piece hashes of large libraries can be kept out of the java heap
+	
+	private static final boolean	PIECE_HASHES_OFF_HEAP = System.getProperty( "az.torrent.pieces.offheap", "0" ).equals( "1" );
+	
 	private byte[]							torrent_name;
 	private byte[]							torrent_name_utf8;
 	
@@ -90,7 +97,7 @@ TOTorrentImpl
 	private TOTorrentAnnounceURLGroupImpl	announce_group = new TOTorrentAnnounceURLGroupImpl(this);
 	
 	private long		piece_length;
-	private byte[][]	pieces;
+	private volatile ByteBuffer	piece_hashes;		// all hashes back to back, null if discarded (read unlocked)
 	private int			number_of_pieces;
 	
 	private byte[]		torrent_hash_override;
@@ -393,16 +400,26 @@ TOTorrentImpl
 		
 		info.put( TK_PIECE_LENGTH, new Long( piece_length ));
 		
-		if ( pieces == null ){
+		ByteBuffer	hashes = piece_hashes;
+		
+		if ( hashes == null ){
 			
 			throw( new TOTorrentException( "Pieces is null", TOTorrentException.RT_WRITE_FAILS ));
 		}
 		
-		byte[]	flat_pieces = new byte[pieces.length*20];
+		byte[]	flat_pieces;
 		
-		for (int i=0;i<pieces.length;i++){
+		if ( hashes.hasArray() && hashes.arrayOffset() == 0 && hashes.array().length == hashes.capacity()){
+			
+				// the usual case, as decoded - never modified so can be shared
+			
+			flat_pieces = hashes.array();
+			
+		}else{
+			
+			flat_pieces = new byte[ hashes.capacity()];
 			
-			System.arraycopy( pieces[i], 0, flat_pieces, i*20, 20 );
+			hashes.duplicate().get( flat_pieces );
 		}
 		
 		info.put( TK_PIECES, flat_pieces );
@@ -850,14 +867,115 @@ TOTorrentImpl
 	public byte[][]
 	getPieces()
 	{
+		ByteBuffer	hashes = piece_hashes;
+		
+		if ( hashes == null ){
+			
+			return( null );
+		}
+		
+			// built on demand, per-piece arrays more than double the memory needed
+		
+		hashes = hashes.duplicate();
+		
+		byte[][]	pieces = new byte[ hashes.capacity() / PIECE_HASH_LENGTH ][ PIECE_HASH_LENGTH ];
+		
+		for (int i=0;i<pieces.length;i++){
+			
+			hashes.get( pieces[i] );
+		}
+		
 		return( pieces );
 	}
 	
+	public byte[]
+	getPieceHash(
+		int		piece_number )
+	
+		throws TOTorrentException
+	{
+		ByteBuffer	hashes = piece_hashes;
+		
+		if ( hashes == null ){
+			
+			throw( new TOTorrentException( "Pieces have been discarded", TOTorrentException.RT_READ_FAILS ));
+		}
+		
+		byte[]	hash = new byte[ PIECE_HASH_LENGTH ];
+		
+		int	pos = piece_number * PIECE_HASH_LENGTH;
+		
+		for (int i=0;i<PIECE_HASH_LENGTH;i++){
+			
+			hash[i] = hashes.get( pos + i );
+		}
+		
+		return( hash );
+	}
+	
 	public void
 	setPieces(
 		byte[][]	_pieces )
 	{
-		pieces = _pieces;
+		if ( _pieces == null ){
+			
+			piece_hashes = null;
+			
+			return;
+		}
+		
+		ByteBuffer	hashes = allocatePieceHashes( _pieces.length * PIECE_HASH_LENGTH );
+		
+		for (int i=0;i<_pieces.length;i++){
+			
+			hashes.put( _pieces[i], 0, PIECE_HASH_LENGTH );
+		}
+		
+		hashes.clear();
+		
+		piece_hashes = hashes;
+	}
+	
+		/**
+		 * @return true if the piece hashes are present, i.e. not discarded
+		 */
+	
+	public boolean
+	hasPieces()
+	{
+		return( piece_hashes != null );
+	}
+	
+		/**
+		 * Sets the piece hashes from their flat (as encoded) form. The array is used as is, not copied,
+		 * unless the hashes are being held off-heap
+		 */
+	
+	public void
+	setPieceHashes(
+		byte[]		flat_pieces )
+	{
+		if ( PIECE_HASHES_OFF_HEAP ){
+			
+			ByteBuffer	hashes = allocatePieceHashes( flat_pieces.length );
+			
+			hashes.put( flat_pieces );
+			
+			hashes.clear();
+			
+			piece_hashes = hashes;
+			
+		}else{
+			
+			piece_hashes = ByteBuffer.wrap( flat_pieces );
+		}
+	}
+	
+	private static ByteBuffer
+	allocatePieceHashes(
+		int		length )
+	{
+		return( PIECE_HASHES_OFF_HEAP?ByteBuffer.allocateDirect( length ):ByteBuffer.allocate( length ));
 	}
 	
 	public int
@@ -1244,6 +1362,8 @@ TOTorrentImpl
 				}
 			}
 			
+			byte[][]	pieces = getPieces();
+			
 			if ( pieces == null ){
 			
 				System.out.println( "\tpieces = null" );
@@ -1381,5 +1501,131 @@ TOTorrentImpl
 		}
 
 		return null;
+	}	
+		/**
+		 * Measures the heap held per torrent for a library of synthetic torrents, with the piece
+		 * hashes held flat, split into per-piece arrays (as getPieces() returns them) and discarded.
+		 * Optional arguments: number of torrents (default 100), pieces per torrent (default 20000)
+		 */
+	
+	public static void
+	main(
+		String[]	args )
+	
+		throws Exception
+	{
+		int	num_torrents	= args.length>0?Integer.parseInt( args[0] ):100;
+		int	num_pieces		= args.length>1?Integer.parseInt( args[1] ):20000;
+		int	num_files		= 50;
+		
+		Random	random = new Random( 0 );
+		
+		List<byte[]>	encoded = new ArrayList<byte[]>();
+		
+		for (int t=0;t<num_torrents;t++){
+			
+			Map	info = new HashMap();
+			
+			byte[]	pieces = new byte[ num_pieces*PIECE_HASH_LENGTH ];
+			
+			random.nextBytes( pieces );
+			
+			long	piece_size = 256*1024;
+			
+			List	files = new ArrayList();
+			
+			for (int f=0;f<num_files;f++){
+				
+				Map	file = new HashMap();
+				
+				file.put( TK_LENGTH, new Long( piece_size * num_pieces / num_files ));
+				
+				List	path = new ArrayList();
+				
+				path.add(( "Season " + ( f % 3 )).getBytes());
+				path.add(( "Episode " + t + "-" + f + ".mkv" ).getBytes());
+				
+				file.put( TK_PATH, path );
+				file.put( TK_PATH_UTF8, new ArrayList( path ));
+				
+				files.add( file );
+			}
+			
+			info.put( TK_NAME, ( "torrent " + t ).getBytes());
+			info.put( TK_PIECE_LENGTH, new Long( piece_size ));
+			info.put( TK_PIECES, pieces );
+			info.put( TK_FILES, files );
+			
+			Map	root = new HashMap();
+			
+			root.put( TK_ANNOUNCE, "http://tracker.example.com/announce".getBytes());
+			root.put( TK_INFO, info );
+			
+			encoded.add( BEncoder.encode( root ));
+		}
+		
+		long	base = getUsedHeap();
+		
+		TOTorrent[]	torrents = new TOTorrent[ num_torrents ];
+		
+		for (int t=0;t<num_torrents;t++){
+			
+			torrents[t] = TOTorrentFactory.deserialiseFromBEncodedByteArray( encoded.get(t));
+		}
+		
+		long	flat = getUsedHeap() - base;
+		
+		byte[][][]	split = new byte[ num_torrents ][][];
+		
+		for (int t=0;t<num_torrents;t++){
+			
+			split[t] = torrents[t].getPieces();
+		}
+		
+		long	split_extra = getUsedHeap() - base - flat;
+		
+		split = null;
+		
+		for (int t=0;t<num_torrents;t++){
+			
+			torrents[t].setPieces( null );
+		}
+		
+		long	discarded = getUsedHeap() - base;
+		
+		long	hash_bytes = (long)num_pieces*PIECE_HASH_LENGTH;
+		
+		System.out.println( num_torrents + " torrents, " + num_pieces + " pieces and " + num_files + " files each" + ( PIECE_HASHES_OFF_HEAP?" (hashes off-heap)":"" ));
+		System.out.println( "    flat hashes     : " + ( flat / num_torrents ) + " bytes/torrent" );
+		System.out.println( "    per-piece arrays: " + (( flat + split_extra - ( PIECE_HASHES_OFF_HEAP?0:hash_bytes*num_torrents )) / num_torrents ) + " bytes/torrent" );
+		System.out.println( "    hashes discarded: " + ( discarded / num_torrents ) + " bytes/torrent" );
+		
+		if ( torrents.length > 0 && torrents[0].getFiles().length == 0 ){
+			
+			throw( new Exception( "decode failed" ));
+		}
+	}
+	
+	private static long
+	getUsedHeap()
+	
+		throws Exception
+	{
+		Runtime	rt = Runtime.getRuntime();
+		
+		long	used = Long.MAX_VALUE;
+		
+			// take the lowest of a few collections
+		
+		for (int i=0;i<5;i++){
+		
+			System.gc();
+			
+			Thread.sleep( 100 );
+			
+			used = Math.min( used, rt.totalMemory() - rt.freeMemory());
+		}
+		
+		return( used );
 	}
 }
\ No newline at end of file
@@ -1989,7 +1989,7 @@ DiskManagerImpl
 
         throws TOTorrentException
     {
-        return( torrent.getPieces()[ piece_number ]);
+        return( torrent.getPieceHash( piece_number ));
     }
 
     public DiskManagerReadRequest
@@ -0,0 +1,483 @@
+/*
+ * Created on 19-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package torrentlib.disk.impl.resume;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import torrentlib.BDecoder;
+import torrentlib.BEncoder;
+import torrentlib.Debug;
+
+/**
+ * Binary form of the resume data map ("resume data" piece states, "blocks" partial pieces, "valid").<br>
+ *
+ * Piece states are run-length encoded - in practice a torrent is long runs of done and not done pieces,
+ * so even with hundreds of thousands of pieces the result is small - and each partial piece's written
+ * blocks are a bitmap rather than a list of block numbers. A trailing CRC32 guards against a truncated
+ * or corrupted state file: data that fails to decode is treated as missing, which forces a recheck.<br>
+ *
+ * Layout (numbers are unsigned LEB128 varints unless noted):
+ * <pre>
+ *   version (byte), flags (byte, bit 0 = valid), piece count
+ *   runs of [state (byte), run length] covering the piece count
+ *   partial count, then for each partial piece: piece number delta from the previous one,
+ *     bitmap length in blocks, bitmap bytes (block 0 = bit 0x80 of the first byte)
+ *   crc32 of all the above (4 bytes, big endian)
+ * </pre>
+ */
+
+public class
+RDCompactResumeData
+{
+	private static final byte	VERSION			= 1;
+
+	private static final int	FLAG_VALID		= 0x01;
+
+	private static final int	MAX_STATE		= RDResumeHandler.PIECE_STARTED;
+
+		/**
+		 * @return the encoded form of the given resume data map, null if it has no piece states
+		 */
+
+	public static byte[]
+	encode(
+		Map		resume_data )
+	{
+		byte[]	pieces = (byte[])resume_data.get( "resume data" );
+
+		if ( pieces == null ){
+
+			return( null );
+		}
+
+		Long	valid = (Long)resume_data.get( "valid" );
+
+		Map		blocks = (Map)resume_data.get( "blocks" );
+
+		ByteArrayOutputStream	baos = new ByteArrayOutputStream( 64 );
+
+		baos.write( VERSION );
+		baos.write( valid != null && valid.intValue() == 1?FLAG_VALID:0 );
+
+		writeVarInt( baos, pieces.length );
+
+		int	pos = 0;
+
+		while( pos < pieces.length ){
+
+			byte	state = pieces[pos];
+
+			int	end = pos + 1;
+
+			while( end < pieces.length && pieces[end] == state ){
+
+				end++;
+			}
+
+			baos.write( state );
+
+			writeVarInt( baos, end - pos );
+
+			pos = end;
+		}
+
+		int[]	partial_numbers;
+
+		if ( blocks == null ){
+
+			partial_numbers = new int[0];
+
+		}else{
+
+			partial_numbers = new int[ blocks.size()];
+
+			int	i = 0;
+
+			for ( Object key: blocks.keySet()){
+
+				partial_numbers[i++] = Integer.parseInt((String)key );
+			}
+
+			Arrays.sort( partial_numbers );
+		}
+
+		writeVarInt( baos, partial_numbers.length );
+
+		int	previous = 0;
+
+		for ( int piece_number: partial_numbers ){
+
+			List	written = (List)blocks.get( String.valueOf( piece_number ));
+
+			int	num_blocks = 0;
+
+			for ( Object o: written ){
+
+				num_blocks = Math.max( num_blocks, ((Long)o).intValue() + 1 );
+			}
+
+			byte[]	bitmap = new byte[( num_blocks + 7 ) / 8 ];
+
+			for ( Object o: written ){
+
+				int	block = ((Long)o).intValue();
+
+				bitmap[block>>3] |= 0x80 >>> ( block & 0x07 );
+			}
+
+			writeVarInt( baos, piece_number - previous );
+			writeVarInt( baos, num_blocks );
+
+			baos.write( bitmap, 0, bitmap.length );
+
+			previous = piece_number;
+		}
+
+		CRC32	crc = new CRC32();
+
+		byte[]	data = baos.toByteArray();
+
+		crc.update( data );
+
+		long	value = crc.getValue();
+
+		byte[]	res = Arrays.copyOf( data, data.length + 4 );
+
+		res[data.length]	= (byte)( value >> 24 );
+		res[data.length+1]	= (byte)( value >> 16 );
+		res[data.length+2]	= (byte)( value >> 8 );
+		res[data.length+3]	= (byte)value;
+
+		return( res );
+	}
+
+		/**
+		 * @return the resume data map encoded in the given bytes, null if they're not valid
+		 */
+
+	public static Map
+	decode(
+		byte[]		data )
+	{
+		try{
+			if ( data.length < 6 ){
+
+				throw( new Exception( "too short" ));
+			}
+
+			int	len = data.length - 4;
+
+			CRC32	crc = new CRC32();
+
+			crc.update( data, 0, len );
+
+			long	expected = 	(( data[len] & 0xffL ) << 24 ) | (( data[len+1] & 0xffL ) << 16 ) |
+								(( data[len+2] & 0xffL ) << 8 ) | ( data[len+3] & 0xffL );
+
+			if ( crc.getValue() != expected ){
+
+				throw( new Exception( "checksum mismatch" ));
+			}
+
+			if ( data[0] != VERSION ){
+
+				throw( new Exception( "unsupported version " + data[0] ));
+			}
+
+			boolean	valid = ( data[1] & FLAG_VALID ) != 0;
+
+			int[]	pos = { 2 };
+
+			int	piece_count = readVarInt( data, pos, len );
+
+			byte[]	pieces = new byte[ piece_count ];
+
+			int	piece = 0;
+
+			while( piece < piece_count ){
+
+				if ( pos[0] >= len ){
+
+					throw( new Exception( "truncated" ));
+				}
+
+				byte	state = data[pos[0]++];
+
+				int		run = readVarInt( data, pos, len );
+
+				if ( state < 0 || state > MAX_STATE || run <= 0 || run > piece_count - piece ){
+
+					throw( new Exception( "invalid run" ));
+				}
+
+				Arrays.fill( pieces, piece, piece + run, state );
+
+				piece += run;
+			}
+
+			int	partial_count = readVarInt( data, pos, len );
+
+			Map	blocks = new HashMap();
+
+			int	piece_number = 0;
+
+			for ( int i=0;i<partial_count;i++){
+
+				piece_number += readVarInt( data, pos, len );
+
+				int	num_blocks = readVarInt( data, pos, len );
+
+				int	bitmap_length = ( num_blocks + 7 ) / 8;
+
+				if ( piece_number >= piece_count || bitmap_length > len - pos[0] ){
+
+					throw( new Exception( "invalid partial piece" ));
+				}
+
+				List	written = new ArrayList();
+
+				for ( int block=0;block<num_blocks;block++){
+
+					if (( data[pos[0] + (block>>3)] & ( 0x80 >>> ( block & 0x07 ))) != 0 ){
+
+						written.add( new Long( block ));
+					}
+				}
+
+				pos[0] += bitmap_length;
+
+				blocks.put( String.valueOf( piece_number ), written );
+			}
+
+			if ( pos[0] != len ){
+
+				throw( new Exception( "trailing data" ));
+			}
+
+			Map	resume_data = new HashMap();
+
+			resume_data.put( "resume data", pieces );
+			resume_data.put( "blocks", blocks );
+			resume_data.put( "valid", new Long( valid?1:0 ));
+
+			return( resume_data );
+
+		}catch( Throwable e ){
+
+			Debug.out( "Compact resume data invalid: " + e.getMessage());
+
+			return( null );
+		}
+	}
+
+	private static void
+	writeVarInt(
+		ByteArrayOutputStream	baos,
+		int						value )
+	{
+		while(( value & ~0x7f ) != 0 ){
+
+			baos.write(( value & 0x7f ) | 0x80 );
+
+			value >>>= 7;
+		}
+
+		baos.write( value );
+	}
+
+	private static int
+	readVarInt(
+		byte[]		data,
+		int[]		pos,
+		int			limit )
+
+		throws Exception
+	{
+		int	value	= 0;
+		int	shift	= 0;
+
+		while( true ){
+
+			if ( pos[0] >= limit || shift > 28 ){
+
+				throw( new Exception( "invalid varint" ));
+			}
+
+			int	b = data[pos[0]++] & 0xff;
+
+			value |= ( b & 0x7f ) << shift;
+
+			if (( b & 0x80 ) == 0 ){
+
+				if ( value < 0 ){
+
+					throw( new Exception( "invalid varint" ));
+				}
+
+				return( value );
+			}
+
+			shift += 7;
+		}
+	}
+
+		/**
+		 * Compares save (encode) and load (decode) times and sizes of the two formats for a large torrent.
+		 * Optional argument: the number of pieces (default 500000)
+		 */
+
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		int	num_pieces = args.length>0?Integer.parseInt( args[0] ):500000;
+
+		Random	random = new Random( 0 );
+
+			// a download part way through: done and not done in runs, a scattering of rechecks and
+			// 200 partial pieces of 16 blocks
+
+		byte[]	pieces = new byte[ num_pieces ];
+
+		int	pos = 0;
+
+		while( pos < num_pieces ){
+
+			int	run = Math.min( num_pieces - pos, 1 + random.nextInt( 2000 ));
+
+			Arrays.fill( pieces, pos, pos + run, random.nextInt( 3 ) == 0?RDResumeHandler.PIECE_NOT_DONE:RDResumeHandler.PIECE_DONE );
+
+			pos += run;
+		}
+
+		for ( int i=0;i<50;i++){
+
+			pieces[random.nextInt( num_pieces )] = RDResumeHandler.PIECE_RECHECK_REQUIRED;
+		}
+
+		Map	blocks = new HashMap();
+
+		for ( int i=0;i<200;i++){
+
+			int	piece = random.nextInt( num_pieces );
+
+			pieces[piece] = RDResumeHandler.PIECE_STARTED;
+
+			List	written = new ArrayList();
+
+			for ( int j=0;j<16;j++){
+
+				if ( random.nextBoolean()){
+
+					written.add( new Long( j ));
+				}
+			}
+
+			blocks.put( String.valueOf( piece ), written );
+		}
+
+		Map	resume_data = new HashMap();
+
+		resume_data.put( "resume data", pieces );
+		resume_data.put( "blocks", blocks );
+		resume_data.put( "valid", new Long( 1 ));
+
+		Map	legacy_outer = new HashMap();
+
+		legacy_outer.put( "data", resume_data );
+
+		byte[]	compact = encode( resume_data );
+
+		Map	compact_outer = new HashMap();
+
+		compact_outer.put( "compact", compact );
+
+		Map	decoded = decode( compact );
+
+		boolean	ok =
+			Arrays.equals( pieces, (byte[])decoded.get( "resume data" )) &&
+			BEncoder.mapsAreIdentical( blocks, (Map)decoded.get( "blocks" )) &&
+			((Long)decoded.get( "valid" )).intValue() == 1;
+
+		byte[]	corrupt = compact.clone();
+
+		corrupt[ corrupt.length/2 ] ^= 0x01;
+
+		ok &= decode( corrupt ) == null;
+
+		System.out.println( "pieces=" + num_pieces + ", round trip " + ( ok?"OK":"FAILED" ));
+
+		for ( int loop=0;loop<3;loop++){
+
+			int	iterations = 100;
+
+			long	legacy_save = 0;
+			long	legacy_load = 0;
+			long	compact_save = 0;
+			long	compact_load = 0;
+
+			int	legacy_size		= 0;
+			int	compact_size	= 0;
+
+			for ( int i=0;i<iterations;i++){
+
+				long	start = System.nanoTime();
+
+				byte[]	legacy_bytes = BEncoder.encode( legacy_outer );
+
+				legacy_save += System.nanoTime() - start;
+
+				start = System.nanoTime();
+
+				Map	m = (Map)new BDecoder().decodeByteArray( legacy_bytes ).get( "data" );
+
+				((byte[])m.get( "resume data" )).clone();
+
+				legacy_load += System.nanoTime() - start;
+
+				start = System.nanoTime();
+
+				Map	outer = new HashMap();
+
+				outer.put( "compact", encode( resume_data ));
+
+				byte[]	compact_bytes = BEncoder.encode( outer );
+
+				compact_save += System.nanoTime() - start;
+
+				start = System.nanoTime();
+
+				decode((byte[])new BDecoder().decodeByteArray( compact_bytes ).get( "compact" ));
+
+				compact_load += System.nanoTime() - start;
+
+				legacy_size		= legacy_bytes.length;
+				compact_size	= compact_bytes.length;
+			}
+
+			System.out.println(
+				"legacy: size=" + legacy_size + ", save=" + legacy_save/iterations/1000 + "us, load=" + legacy_load/iterations/1000 + "us; " +
+				"compact: size=" + compact_size + ", save=" + compact_save/iterations/1000 + "us, load=" + compact_load/iterations/1000 + "us" );
+		}
+	}
+}
@@ -67,20 +67,28 @@ RDResumeHandler
 		}
 	}
 	
-	private static final byte		PIECE_NOT_DONE			= 0;
-	private static final byte		PIECE_DONE				= 1;
-	private static final byte		PIECE_RECHECK_REQUIRED	= 2;
-	private static final byte		PIECE_STARTED			= 3;
+	protected static final byte		PIECE_NOT_DONE			= 0;
+	protected static final byte		PIECE_DONE				= 1;
+	protected static final byte		PIECE_RECHECK_REQUIRED	= 2;
+	protected static final byte		PIECE_STARTED			= 3;
 		
 	private static boolean	use_fast_resume;
 	private static boolean	use_fast_resume_recheck_all;
+	private static boolean	use_compact_resume;
+	
+		// decoded compact resume data keyed on the identity of the stored blob, so it is decoded
+		// once rather than on every read. Weak so entries go with the blob when it is replaced
+	
+	private static final Map<byte[],Object>	compact_cache 	= new WeakHashMap<byte[],Object>();
+	private static final Object				DECODE_FAILED	= new Object();
 	
 	static{
 	    	
 		COConfigurationManager.addAndFireParameterListeners(
 			new String[]{ 
 					"Use Resume", 
-					"On Resume Recheck All" },
+					"On Resume Recheck All",
+					"Use Compact Resume" },
 			new ParameterListener() {
 	    	    public void 
 				parameterChanged( 
@@ -88,6 +96,7 @@ RDResumeHandler
 	    	    {
 	    	    	use_fast_resume				= COConfigurationManager.getBooleanParameter("Use Resume");
 	    	    	use_fast_resume_recheck_all	= COConfigurationManager.getBooleanParameter("On Resume Recheck All");
+	    	    	use_compact_resume			= COConfigurationManager.getBooleanParameter("Use Compact Resume");
 	    	    }
 	    	 });
 	}
@@ -978,14 +987,75 @@ RDResumeHandler
 		return( getResumeData( download_manager.getDownloadState()));
 	}
 	
+		/**
+		 * @return the resume data, which the caller may modify
+		 */
+	
 	protected static Map
 	getResumeData(
 		DownloadManagerState	download_manager_state )
+	{
+		return( getResumeData( download_manager_state, true ));
+	}
+	
+		/**
+		 * @return the resume data, which must not be modified
+		 */
+	
+	protected static Map
+	peekResumeData(
+		DownloadManagerState	download_manager_state )
+	{
+		return( getResumeData( download_manager_state, false ));
+	}
+	
+	private static Map
+	getResumeData(
+		DownloadManagerState	download_manager_state,
+		boolean					for_update )
 	{
 		Map resume_map = download_manager_state.getResumeData();
 		
 		if ( resume_map != null ){
+			
+				// compact form is written in place of the map when enabled, either may be present
+			
+			byte[]	compact = (byte[])resume_map.get( "compact" );
+			
+			if ( compact != null ){
+				
+				Object	decoded;
+				
+				synchronized( compact_cache ){
+					
+					decoded = compact_cache.get( compact );
+				}
+				
+				if ( decoded == null ){
+					
+						// logs a failure, once as the outcome is cached too
+					
+					decoded = RDCompactResumeData.decode( compact );
+					
+					if ( decoded == null ){
 						
+						decoded = DECODE_FAILED;
+					}
+					
+					synchronized( compact_cache ){
+						
+						compact_cache.put( compact, decoded );
+					}
+				}
+				
+				if ( decoded == DECODE_FAILED ){
+					
+					return( null );
+				}
+				
+				return( for_update?copyResumeData((Map)decoded ):(Map)decoded );
+			}
+			
 			Map	resume_data = (Map)resume_map.get( "data" );
 			
 			return( resume_data );
@@ -996,6 +1066,29 @@ RDResumeHandler
 		}
 	}
 
+	private static Map
+	copyResumeData(
+		Map		resume_data )
+	{
+		Map	copy = new HashMap( resume_data );
+		
+		copy.put( "resume data", ((byte[])resume_data.get( "resume data" )).clone());
+		
+		Map	blocks 		= (Map)resume_data.get( "blocks" );
+		Map	blocks_copy	= new HashMap();
+		
+		for ( Object o: blocks.entrySet()){
+			
+			Map.Entry	entry = (Map.Entry)o;
+			
+			blocks_copy.put( entry.getKey(), new ArrayList((List)entry.getValue()));
+		}
+		
+		copy.put( "blocks", blocks_copy );
+		
+		return( copy );
+	}
+	
 	protected void
 	saveResumeData(
 		Map		resume_data )
@@ -1010,7 +1103,26 @@ RDResumeHandler
 	{		
 		Map	resume_map = new HashMap();
 		
-		resume_map.put( "data", resume_data );
+		byte[]	compact = use_compact_resume?RDCompactResumeData.encode( resume_data ):null;
+		
+		if ( compact != null ){
+			
+				// interim saves of an idle download produce the same state each time, skip the
+				// rewrite of the state file in that case
+			
+			Map	existing = download_manager_state.getResumeData();
+			
+			if ( existing != null && Arrays.equals( compact, (byte[])existing.get( "compact" ))){
+				
+				return;
+			}
+			
+			resume_map.put( "compact", compact );
+			
+		}else{
+		
+			resume_map.put( "data", resume_data );
+		}
 		
 		download_manager_state.setResumeData( resume_map );
 	}
@@ -1174,7 +1286,7 @@ RDResumeHandler
 	
 	public static boolean fileMustExist(DownloadManager download_manager, DiskManagerFileInfo file) {
 		
-		Map resumeData = getResumeData( download_manager );
+		Map resumeData = peekResumeData( download_manager.getDownloadState());
 
 		byte[]	resumePieces = resumeData != null ? (byte[])resumeData.get("resume data") : null;
 		
@@ -1272,7 +1384,7 @@ RDResumeHandler
 	{				
 			// backwards compatability, resume data key is the dir
 		
-		Map	resume_data = getResumeData( dms );
+		Map	resume_data = peekResumeData( dms );
 		
 		return( isTorrentResumeDataComplete( dms, resume_data ));
 	}
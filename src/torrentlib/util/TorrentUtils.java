@@ -35,11 +35,13 @@ import torrentlib.data.torrent.TOTorrent;
 import torrentlib.data.torrent.TOTorrentAnnounceURLSet;
 import torrentlib.data.torrent.TOTorrentException;
 import torrentlib.data.torrent.TOTorrentFactory;
+import torrentlib.data.torrent.TOTorrentImpl;
 import torrentlib.data.torrent.TOTorrentFile;
 import torrentlib.data.torrent.TOTorrentAnnounceURLGroup;
 import torrentlib.AzureusCoreFactory;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -61,6 +63,7 @@ import torrentlib.AESemaphore;
 import torrentlib.AEThread2;
 import torrentlib.AsyncDispatcher;
 import torrentlib.BDecoder;
+import torrentlib.BDecoderLazy;
 import torrentlib.Base32;
 import torrentlib.ByteFormatter;
 import torrentlib.Constants;
@@ -2355,7 +2358,12 @@ public class TorrentUtils {
     public interface ExtendedTorrent
             extends TOTorrent {
 
-        public byte[][]
+        /**
+         * peeks the pieces without recovering them
+         *
+         * @return false if they are discarded
+         */
+        public boolean
                 peekPieces()
                 throws TOTorrentException;
 
@@ -2615,7 +2623,7 @@ public class TorrentUtils {
 
                 try {
                     if ((now - last_pieces_read_time > PIECE_HASH_TIMEOUT || force)
-                            && delegate.getPieces() != null) {
+                            && delegateHasPieces()) {
 
                         try {
                             getMonitor().enter();
@@ -2660,6 +2668,107 @@ public class TorrentUtils {
             return (res);
         }
 
+        public byte[]
+                getPieceHash(
+                        int piece_number)
+                throws TOTorrentException {
+            last_pieces_read_time = SystemTime.getCurrentTime();
+
+            // called for every piece check - when the hashes are there (nearly always) there's no
+            // need for the monitor
+            if (delegateHasPieces()) {
+
+                try {
+                    return (delegate.getPieceHash(piece_number));
+
+                } catch (TOTorrentException e) {
+
+                    // discarded since we looked, restore them as below
+                }
+            }
+
+            try {
+                getMonitor().enter();
+
+                restoreState(true, false);
+
+                return (delegate.getPieceHash(piece_number));
+
+            } finally {
+
+                getMonitor().exit();
+            }
+        }
+
+        private boolean
+                delegateHasPieces()
+                throws TOTorrentException {
+            if (delegate instanceof TOTorrentImpl) {
+
+                // avoid building the per-piece arrays just to test for them
+                return (((TOTorrentImpl) delegate).hasPieces());
+            }
+
+            return (delegate.getPieces() != null);
+        }
+
+        /**
+         * Recovers just the piece hashes from the torrent file. The lazy decoder steps over the rest
+         * of the file rather than building a whole torrent (files, paths, properties) to throw away
+         *
+         * @return false if they couldn't be, the caller should fall back to reading the torrent
+         */
+        private boolean
+                restorePieceHashes() {
+            if (!(delegate instanceof TOTorrentImpl)) {
+
+                return (false);
+            }
+
+            try {
+                FileInputStream fis = new FileInputStream(file);
+
+                byte[] data;
+
+                try {
+                    data = FileUtil.readInputStreamAsByteArray(fis);
+
+                } finally {
+
+                    fis.close();
+                }
+
+                Object info = BDecoderLazy.decode(data).get("info");
+
+                if (!(info instanceof BDecoderLazy.LazyMap)) {
+
+                    return (false);
+                }
+
+                ByteBuffer slice = ((BDecoderLazy.LazyMap) info).getSlice("pieces");
+
+                int num_pieces = delegate.getNumberOfPieces();
+
+                if (slice == null || slice.remaining() / 20 < num_pieces) {
+
+                    return (false);
+                }
+
+                // ignore any trailing junk, the torrent only knows num_pieces hashes
+                byte[] flat_pieces = new byte[num_pieces * 20];
+
+                slice.get(flat_pieces);
+
+                ((TOTorrentImpl) delegate).setPieceHashes(flat_pieces);
+
+                return (true);
+
+            } catch (Throwable e) {
+
+                return (false);
+            }
+        }
+
         /**
          * monitor must be held before calling me
          *
@@ -2672,13 +2781,16 @@ public class TorrentUtils {
                         boolean do_pieces,
                         boolean do_fluff)
                 throws TOTorrentException {
-            boolean had_pieces = delegate.getPieces() != null;
+            boolean had_pieces = delegateHasPieces();
 
             boolean had_fluff = true;
 
-            for (Iterator it = torrentFluffKeyset.iterator(); it.hasNext();) {
+            if (do_fluff) {
+
+                for (Iterator it = torrentFluffKeyset.iterator(); it.hasNext();) {
 
-                had_fluff &= delegate.getAdditionalMapProperty((String) it.next()) != fluffThombstone;
+                    had_fluff &= delegate.getAdditionalMapProperty((String) it.next()) != fluffThombstone;
+                }
             }
 
             if (had_pieces) {
@@ -2691,6 +2803,11 @@ public class TorrentUtils {
                 do_fluff = false;
             }
 
+            if (do_pieces && !do_fluff && restorePieceHashes()) {
+
+                return (new boolean[]{true, false});
+            }
+
             if (do_pieces || do_fluff) {
 
                 TOTorrent temp = readFromFile(file, false);
@@ -2722,14 +2839,14 @@ public class TorrentUtils {
         }
 
         /**
-         * peeks the pieces, will return null if they are discarded
+         * peeks the pieces, will return false if they are discarded
          *
          * @return
          */
-        public byte[][]
+        public boolean
                 peekPieces()
                 throws TOTorrentException {
-            return (delegate.getPieces());
+            return (delegateHasPieces());
         }
 
         public void
@@ -1428,7 +1428,7 @@ DownloadManagerController
 		
 		if ( secrets_map.size() == 0 ){
 		
-			secrets_map.put( "p1", torrent.getPieces()[0] );
+			secrets_map.put( "p1", torrent.getPieceHash( 0 ));
 				
 			download_manager.getDownloadState().setMapAttribute( DownloadManagerState.AT_SECRETS, secrets_map );
 		}
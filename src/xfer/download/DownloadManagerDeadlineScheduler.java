@@ -0,0 +1,414 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package xfer.download;
+
+import connect.peer.PEPeer;
+import connect.peer.PEPeerManager;
+import connect.peermanager.piecepicker.PieceDeadlineProvider;
+import connect.peermanager.piecepicker.PiecePicker;
+import torrentlib.SystemTime;
+import torrentlib.disk.DiskManager;
+import torrentlib.disk.DiskManagerPiece;
+
+/**
+ * Streaming mode for a download. Each piece ahead of the playhead gets a playback deadline derived
+ * from the stream bit rate and the piece picker's real-time logic requests pieces from the peers able
+ * to meet those deadlines.<br>
+ *
+ * The playhead is reported by the consumer via {@link #setPosition(long)} and is projected forward
+ * at the stream rate in between reports, freezing while playback is stalled (the piece under the
+ * playhead isn't available). Buffer health and stall statistics are maintained as a side effect of
+ * deadline computation.
+ */
+
+public class
+DownloadManagerDeadlineScheduler
+	implements PieceDeadlineProvider, DownloadManagerPeerListener
+{
+	public static final long	DEFAULT_LOOKAHEAD_MILLIS			= 60*1000;
+	public static final long	DEFAULT_DUPLICATE_HORIZON_MILLIS	= 5*1000;
+
+	private static final int	RECALC_MILLIS	= 250;
+
+	private final DownloadManager	download_manager;
+
+	private PEPeerManager	peer_manager;
+
+	private long	bytes_per_second;
+	private long	lookahead_millis		= DEFAULT_LOOKAHEAD_MILLIS;
+	private long	duplicate_horizon		= DEFAULT_DUPLICATE_HORIZON_MILLIS;
+
+	private long	start_time				= SystemTime.getCurrentTime();
+	private long	start_position;
+
+	private long	position;
+	private long	position_time			= SystemTime.getMonotonousTime();
+
+	private long[]	piece_deadlines;
+	private long	last_recalc				= -1;
+
+	private long	buffered_bytes;
+	private boolean	stalled;
+	private long	stall_start;
+	private int		stall_count;
+	private long	total_stall_millis;
+	private int		late_pieces;
+	private int		last_late_piece			= -1;
+
+	private boolean	destroyed;
+
+	public
+	DownloadManagerDeadlineScheduler(
+		DownloadManager		_dm,
+		long				_bytes_per_second )
+	{
+		download_manager	= _dm;
+
+		setBytesPerSecond( _bytes_per_second );
+
+		download_manager.addPeerListener( this );
+	}
+
+	public synchronized void
+	setBytesPerSecond(
+		long		bps )
+	{
+		position		= getProjectedPosition( SystemTime.getMonotonousTime());
+		position_time	= SystemTime.getMonotonousTime();
+
+		bytes_per_second = Math.max( 1, bps );
+	}
+
+	public synchronized long
+	getBytesPerSecond()
+	{
+		return( bytes_per_second );
+	}
+
+	public synchronized void
+	setLookaheadMillis(
+		long		millis )
+	{
+		lookahead_millis = Math.max( 1000, millis );
+	}
+
+	public synchronized void
+	setDuplicateHorizonMillis(
+		long		millis )
+	{
+		duplicate_horizon = Math.max( 0, millis );
+	}
+
+		/**
+		 * Reports the current playback position as an absolute byte offset within the torrent
+		 */
+
+	public synchronized void
+	setPosition(
+		long		torrent_offset )
+	{
+		if ( start_position == 0 && position == 0 ){
+
+			start_position	= torrent_offset;
+			start_time		= SystemTime.getCurrentTime();
+		}
+
+		position		= Math.max( 0, torrent_offset );
+		position_time	= SystemTime.getMonotonousTime();
+	}
+
+	public synchronized long
+	getPosition()
+	{
+		return( getProjectedPosition( SystemTime.getMonotonousTime()));
+	}
+
+	private long
+	getProjectedPosition(
+		long		mono_now )
+	{
+		if ( stalled || mono_now <= position_time ){
+
+			return( position );
+		}
+
+		return( position + (( mono_now - position_time ) * bytes_per_second ) / 1000 );
+	}
+
+	public long[]
+	updateRTAs(
+		PiecePicker		picker )
+	{
+		DiskManager	disk_manager = download_manager.getDiskManager();
+
+		if ( disk_manager == null ){
+
+			return( null );
+		}
+
+		synchronized( this ){
+
+			if ( destroyed ){
+
+				return( null );
+			}
+
+			long	mono_now = SystemTime.getMonotonousTime();
+
+			if ( piece_deadlines != null && last_recalc >= 0 && mono_now - last_recalc < RECALC_MILLIS ){
+
+				return( piece_deadlines );
+			}
+
+			last_recalc = mono_now;
+
+			DiskManagerPiece[]	pieces = disk_manager.getPieces();
+
+			long	piece_length	= disk_manager.getPieceLength();
+			long	total_length	= disk_manager.getTotalLength();
+
+			long	pos = Math.min( getProjectedPosition( mono_now ), total_length );
+
+			int		first_piece = (int)( pos / piece_length );
+
+				// contiguous data available from the playhead
+
+			int	contiguous_end = first_piece;
+
+			while( contiguous_end < pieces.length && pieces[contiguous_end].isDone()){
+
+				contiguous_end++;
+			}
+
+			buffered_bytes = Math.max( 0, Math.min( total_length, contiguous_end * piece_length ) - pos );
+
+			boolean	now_stalled = pos < total_length && buffered_bytes == 0;
+
+			if ( now_stalled != stalled ){
+
+				if ( now_stalled ){
+
+						// freeze the playhead where it is
+
+					position		= pos;
+					position_time	= mono_now;
+
+					stall_start		= mono_now;
+
+					stall_count++;
+
+				}else{
+
+					total_stall_millis += mono_now - stall_start;
+
+					position_time	= mono_now;
+				}
+
+				stalled = now_stalled;
+			}
+
+			if ( now_stalled && first_piece != last_late_piece ){
+
+				late_pieces++;
+
+				last_late_piece = first_piece;
+			}
+
+			long[]	deadlines = new long[ pieces.length ];
+
+			long	now = SystemTime.getCurrentTime();
+
+			long	lookahead_bytes = ( lookahead_millis * bytes_per_second ) / 1000;
+
+			int		last_piece = (int)Math.min( pieces.length - 1, ( pos + lookahead_bytes ) / piece_length );
+
+			for ( int i=first_piece;i<=last_piece;i++){
+
+				if ( pieces[i].isDone() || !pieces[i].isDownloadable()){
+
+					continue;
+				}
+
+				long	piece_start = i * piece_length;
+
+				long	offset = Math.max( 0, piece_start - pos );
+
+				deadlines[i] = now + ( offset * 1000 ) / bytes_per_second;
+			}
+
+			piece_deadlines = deadlines;
+
+			return( deadlines );
+		}
+	}
+
+	public synchronized long
+	getDuplicateHorizonMillis()
+	{
+		return( duplicate_horizon );
+	}
+
+	public synchronized long
+	getStartTime()
+	{
+		return( start_time );
+	}
+
+	public synchronized long
+	getStartPosition()
+	{
+		return( start_position );
+	}
+
+	public long
+	getCurrentPosition()
+	{
+		return( getPosition());
+	}
+
+	public synchronized long
+	getBlockingPosition()
+	{
+		return( getProjectedPosition( SystemTime.getMonotonousTime()) + buffered_bytes );
+	}
+
+	public void
+	setBufferMillis(
+		long	millis,
+		long	delay_millis )
+	{
+	}
+
+	public String
+	getUserAgent()
+	{
+		return( null );
+	}
+
+		/**
+		 * @return contiguous bytes available ahead of the playhead as of the last recalculation
+		 */
+
+	public synchronized long
+	getBufferedBytes()
+	{
+		return( buffered_bytes );
+	}
+
+	public synchronized long
+	getBufferedMillis()
+	{
+		return(( buffered_bytes * 1000 ) / bytes_per_second );
+	}
+
+	public synchronized boolean
+	isStalled()
+	{
+		return( stalled );
+	}
+
+	public synchronized int
+	getStallCount()
+	{
+		return( stall_count );
+	}
+
+	public synchronized long
+	getTotalStallMillis()
+	{
+		return( total_stall_millis + ( stalled?SystemTime.getMonotonousTime() - stall_start:0 ));
+	}
+
+	public synchronized int
+	getLatePieceCount()
+	{
+		return( late_pieces );
+	}
+
+	public void
+	peerManagerWillBeAdded(
+		PEPeerManager	manager )
+	{
+	}
+
+	public void
+	peerManagerAdded(
+		PEPeerManager	manager )
+	{
+		synchronized( this ){
+
+			if ( destroyed ){
+
+				return;
+			}
+
+			peer_manager = manager;
+		}
+
+		manager.getPiecePicker().addRTAProvider( this );
+	}
+
+	public void
+	peerManagerRemoved(
+		PEPeerManager	manager )
+	{
+		synchronized( this ){
+
+			peer_manager = null;
+
+			piece_deadlines = null;
+		}
+
+		manager.getPiecePicker().removeRTAProvider( this );
+	}
+
+	public void
+	peerAdded(
+		PEPeer 	peer )
+	{
+	}
+
+	public void
+	peerRemoved(
+		PEPeer	peer )
+	{
+	}
+
+	public void
+	destroy()
+	{
+		PEPeerManager	pm;
+
+		synchronized( this ){
+
+			destroyed = true;
+
+			pm = peer_manager;
+
+			peer_manager = null;
+		}
+
+		download_manager.removePeerListener( this );
+
+		if ( pm != null ){
+
+			pm.getPiecePicker().removeRTAProvider( this );
+		}
+	}
+}
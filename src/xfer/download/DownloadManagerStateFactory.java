@@ -23,6 +23,7 @@ import torrentlib.data.torrent.TOTorrent;
 import torrentlib.data.torrent.TOTorrentException;
 import xfer.download.DownloadManagerStateImpl;
 import java.io.File;
+import java.util.List;
 
 
 
@@ -50,6 +51,13 @@ DownloadManagerStateFactory
 		DownloadManagerStateImpl.loadGlobalStateCache();
 	}
 	
+	public static int
+	prefetchDownloadStates(
+		List<byte[]>	hashes )
+	{
+		return( DownloadManagerStateImpl.prefetchDownloadStates( hashes ));
+	}
+	
 	public static void
 	saveGlobalStateCache()
 	{
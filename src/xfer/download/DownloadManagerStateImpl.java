@@ -21,6 +21,9 @@ package xfer.download;
 
 import torrentlib.Debug;
 import torrentlib.AEMonitor;
+import torrentlib.AERunnable;
+import torrentlib.AESemaphore;
+import torrentlib.ThreadPool;
 import torrentlib.Constants;
 import torrentlib.IndentWriter;
 import torrentlib.ByteFormatter;
@@ -176,11 +179,20 @@ DownloadManagerStateImpl
 	private static Map					global_state_cache			= new HashMap();
 	private static ArrayList			global_state_cache_wrappers	= new ArrayList();
 
+	private static final int			PREFETCH_THREADS	= Math.max( 2, Math.min( 8, Runtime.getRuntime().availableProcessors()));
+	private static final int			PREFETCH_WAIT		= 60*1000;
+
+	private static Map<HashWrapper,StatePrefetch>	prefetched_states	= new HashMap<HashWrapper,StatePrefetch>();
+
 	private DownloadManager			download_manager;
 
 	private final TorrentUtils.ExtendedTorrent	torrent;
 
 	private boolean						write_required;
+	private boolean						snapshot_required;
+
+	private final DownloadManagerStateJournal	journal;
+	private final Set<String>					journal_changes	= new HashSet<String>();
 
 	private Category 	category;
 
@@ -318,7 +330,9 @@ DownloadManagerStateImpl
 			if ( saved_file.exists()){
 
 				try{
-					Map	cached_state = (Map)global_state_cache.remove( new HashWrapper( torrent_hash ));
+					HashWrapper	hash_wrapper = new HashWrapper( torrent_hash );
+
+					Map	cached_state = (Map)global_state_cache.remove( hash_wrapper );
 
 					if ( cached_state != null ){
 
@@ -330,7 +344,12 @@ DownloadManagerStateImpl
 
 					}else{
 
-						saved_state = TorrentUtils.readDelegateFromFile( saved_file, discard_pieces );
+						saved_state = getPrefetchedState( hash_wrapper, discard_pieces );
+
+						if ( saved_state == null ){
+
+							saved_state = TorrentUtils.readDelegateFromFile( saved_file, discard_pieces );
+						}
 					}
 
 				}catch( Throwable e ){
@@ -451,6 +470,139 @@ DownloadManagerStateImpl
 		}
 	}
 
+		/**
+		 * Starts decoding the state files of the given downloads on a pool of threads so that
+		 * the (sequential) creation of their download managers finds them ready. Downloads
+		 * covered by the global state cache are skipped as their state is loaded lazily anyway.
+		 * Must be called after loadGlobalStateCache and from the thread that goes on to create
+		 * the download managers
+		 */
+
+	public static int
+	prefetchDownloadStates(
+		List<byte[]>		hashes )
+	{
+		ThreadPool	pool = null;
+
+		int	num = 0;
+
+			// the downloads are created in this order and each one added to the state map, so this
+			// is what state_map.size() will be when each is loaded
+
+		int	expected_states = state_map.size();
+
+		for ( byte[] hash: hashes ){
+
+			final boolean	discard_pieces = expected_states++ > 32;
+
+			HashWrapper	hash_wrapper = new HashWrapper( hash );
+
+			if ( global_state_cache.containsKey( hash_wrapper )){
+
+				continue;
+			}
+
+			final File	saved_file = getStateFile( hash );
+
+			if ( !saved_file.exists()){
+
+				continue;
+			}
+
+			final StatePrefetch	prefetch = new StatePrefetch( discard_pieces );
+
+			synchronized( prefetched_states ){
+
+				if ( prefetched_states.containsKey( hash_wrapper )){
+
+					continue;
+				}
+
+				prefetched_states.put( hash_wrapper, prefetch );
+			}
+
+			if ( pool == null ){
+
+				pool = new ThreadPool( "DownloadManagerState:prefetch", PREFETCH_THREADS, true );
+			}
+
+			pool.run(
+				new AERunnable()
+				{
+					public void
+					runSupport()
+					{
+						try{
+							prefetch.state = TorrentUtils.readDelegateFromFile( saved_file, discard_pieces );
+
+						}catch( Throwable e ){
+
+								// leave it to the synchronous load to report
+
+						}finally{
+
+							prefetch.sem.releaseForever();
+						}
+					}
+				});
+
+			num++;
+		}
+
+		return( num );
+	}
+
+		/**
+		 * @return the prefetched state, waiting for it to be decoded if need be, or null if
+		 * there was none, it failed to load, it was loaded with a different discard_pieces or
+		 * it's taking too long (e.g. stuck on I/O), in which case the caller loads it itself
+		 */
+
+	private static TorrentUtils.ExtendedTorrent
+	getPrefetchedState(
+		HashWrapper		hash_wrapper,
+		boolean			discard_pieces )
+	{
+		StatePrefetch	prefetch;
+
+		synchronized( prefetched_states ){
+
+			if ( prefetched_states.isEmpty()){
+
+				return( null );
+			}
+
+			prefetch = prefetched_states.remove( hash_wrapper );
+		}
+
+		if ( prefetch == null ){
+
+			return( null );
+		}
+
+		if ( prefetch.discard_pieces != discard_pieces ){
+
+			return( null );
+		}
+
+		if ( !prefetch.sem.reserve( PREFETCH_WAIT )){
+
+			Debug.out( "Timeout waiting for prefetched download state, loading states directly" );
+
+				// the prefetch threads are stuck so the ones queued behind them won't be along
+				// either, don't wait on them one by one
+
+			synchronized( prefetched_states ){
+
+				prefetched_states.clear();
+			}
+
+			return( null );
+		}
+
+		return( prefetch.state );
+	}
+
 	public static void
 	saveGlobalStateCache()
 	{
@@ -527,6 +679,13 @@ DownloadManagerStateImpl
 
 		global_state_cache_wrappers.clear();
 		global_state_cache_wrappers.trimToSize();
+
+			// anything not picked up by now belongs to a download that failed to load
+
+		synchronized( prefetched_states ){
+
+			prefetched_states.clear();
+		}
 	}
 
 	public static void
@@ -560,6 +719,10 @@ DownloadManagerStateImpl
 			throw( new DownloadManagerException( "Failed to copy state file: " + source_state_file + " -> " + target_state_file ));
 		}
 
+			// exported state is self-contained, anything journalled against a previous copy is stale
+
+		DownloadManagerStateJournal.delete( target_state_file );
+
 		File	source_state_dir = new File( source_dir, hash_str );
 
 		if ( source_state_dir.exists()){
@@ -606,6 +769,8 @@ DownloadManagerStateImpl
 			}
 		}
 
+		DownloadManagerStateJournal.delete( target_state_file );
+
 		File	target_state_dir = new File( source_dir, hash_str );
 
 		if ( target_state_dir.exists()){
@@ -625,6 +790,20 @@ DownloadManagerStateImpl
 		download_manager	= _download_manager;
 		torrent				= _torrent;
 
+		File						state_file	= null;
+		DownloadManagerStateJournal	j 			= null;
+
+		try{
+			state_file	= getStateFile( torrent.getHash());
+			j			= new DownloadManagerStateJournal( state_file );
+
+		}catch( Throwable e ){
+
+			Debug.printStackTrace( e );
+		}
+
+		journal	= j;
+
 		attributes = torrent.getAdditionalMapProperty( ATTRIBUTE_KEY );
 
 		if ( attributes == null ){
@@ -632,6 +811,14 @@ DownloadManagerStateImpl
 			attributes	= new HashMap();
         }
 
+        	// bring the attributes up to date with any changes journalled since the state file was
+        	// written. Cached state is written on closedown, after the journal, so is already current
+
+        if ( journal != null && !( torrent instanceof CachedStateWrapper )){
+
+        	DownloadManagerStateJournal.replay( state_file, attributes );
+        }
+
         String cat_string = getStringAttribute( AT_CATEGORY );
 
         if ( cat_string != null ){
@@ -763,7 +950,8 @@ DownloadManagerStateImpl
 
 			if ( changed ){
 
-				write_required	= true;
+				write_required		= true;
+				snapshot_required	= true;
 
 				torrent.setAdditionalMapProperty( TRACKER_CACHE_KEY, value );
 			}
@@ -818,7 +1006,10 @@ DownloadManagerStateImpl
 				setLongAttribute( AT_RESUME_STATE, complete?2:1 );
 			}
 
-			write_required	= true;
+				// resume data is fluff, reloaded from the state file when needed, so it can't be journalled
+
+			write_required		= true;
+			snapshot_required	= true;
 
 		}finally{
 
@@ -936,6 +1127,89 @@ DownloadManagerStateImpl
 			return;
 		}
 
+		if ( journal == null ){
+
+			saveSnapshot( force );
+
+			return;
+		}
+
+			// serialise saves on this_mon so that a snapshot and its journal reset can't interleave with
+			// an append. Held throughout as callers such as exportState already hold it
+
+		try{
+			this_mon.enter();
+
+			boolean	snapshot;
+
+			if ( !write_required ){
+
+					// forced saves (e.g. export) need a self-contained state file
+
+				if ( !( force && !journal.isEmpty())){
+
+					return;
+				}
+
+				write_required = true;
+			}
+
+			snapshot = snapshot_required || force;
+
+			if ( !snapshot ){
+
+				Map<String,Object>	set		= new HashMap<String,Object>();
+				List<String>		removed	= new ArrayList<String>();
+
+				for ( String name: journal_changes ){
+
+					Object	value = attributes.get( name );
+
+					if ( value == null ){
+
+						removed.add( name );
+
+					}else{
+
+						set.put( name, value );
+					}
+				}
+
+					// anything that writes the state file from here on includes this change
+
+				long	generation = DownloadManagerStateJournal.getGeneration( attributes ) + 1;
+
+				attributes.put( DownloadManagerStateJournal.GENERATION_ATTRIBUTE, new Long( generation ));
+
+				if ( journal.append( generation, set, removed )){
+
+					if ( Logger.isEnabled())
+						Logger.log(new LogEvent(torrent, LOGID, "Journalled state for download '"
+								+ TorrentUtils.getLocalisedName(torrent) + "': " + journal_changes ));
+
+					journal_changes.clear();
+
+					write_required = false;
+
+				}else{
+
+					snapshot = true;
+				}
+			}
+
+			if ( snapshot ){
+
+				saveSnapshot( force );
+			}
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	private void
+	saveSnapshot( boolean force )
+	{
  		boolean do_write;
 
 		try{
@@ -943,7 +1217,10 @@ DownloadManagerStateImpl
 
 			do_write = write_required;
 
-			write_required = false;
+			write_required 		= false;
+			snapshot_required	= false;
+
+			journal_changes.clear();
 
 		}finally{
 
@@ -963,6 +1240,10 @@ DownloadManagerStateImpl
 
 				TorrentUtils.writeToFile(torrent, true);
 
+				if ( journal != null ){
+
+					journal.reset();
+				}
 			} catch (Throwable e) {
 				Logger.log(new LogEvent(torrent, LOGID, "Saving state", e));
 			}
@@ -984,6 +1265,8 @@ DownloadManagerStateImpl
 
 	        TorrentUtils.delete( torrent );
 
+	        DownloadManagerStateJournal.delete( getStateFile( wrapper.getBytes()));
+
 			File	dir = new File( ACTIVE_DIR, ByteFormatter.encodeString( wrapper.getBytes()));
 
 			if ( dir.exists() && dir.isDirectory()){
@@ -2090,6 +2373,8 @@ DownloadManagerStateImpl
 					attributes.remove( attribute_name );
 
 					write_required = changed = true;
+
+					journal_changes.add( attribute_name );
 				}
 			}else{
 
@@ -2104,6 +2389,8 @@ DownloadManagerStateImpl
 						attributes.put( attribute_name, new_bytes );
 
 						write_required = changed = true;
+
+						journal_changes.add( attribute_name );
 					}
 
 				}catch( UnsupportedEncodingException e ){
@@ -2161,6 +2448,8 @@ DownloadManagerStateImpl
 
 					write_required	= true;
 
+					journal_changes.add( attribute_name );
+
 					return( res );
 				}
 
@@ -2193,6 +2482,8 @@ DownloadManagerStateImpl
 				attributes.put( attribute_name, new Long( attribute_value) );
 
 				write_required = changed = true;
+
+				journal_changes.add( attribute_name );
 			}
 		}finally{
 
@@ -2364,6 +2655,8 @@ DownloadManagerStateImpl
 					attributes.remove( attribute_name );
 
 					write_required = changed = true;
+
+					journal_changes.add( attribute_name );
 				}
 			}else{
 
@@ -2375,6 +2668,8 @@ DownloadManagerStateImpl
 
 					write_required = changed = true;
 
+					journal_changes.add( attribute_name );
+
 				}else{
 
 					if ( old_value == attribute_value ){
@@ -2388,6 +2683,8 @@ DownloadManagerStateImpl
 
 						write_required = true;
 
+						journal_changes.add( attribute_name );
+
 						attributes.put( attribute_name, attribute_value );
 					}
 				}
@@ -2448,6 +2745,8 @@ DownloadManagerStateImpl
 					attributes.remove( attribute_name );
 
 					write_required = changed = true;
+
+					journal_changes.add( attribute_name );
 				}
 			}else{
 
@@ -2459,6 +2758,8 @@ DownloadManagerStateImpl
 
 					write_required = changed = true;
 
+					journal_changes.add( attribute_name );
+
 				}else{
 
 					if ( old_value == attribute_value ){
@@ -2472,6 +2773,8 @@ DownloadManagerStateImpl
 
 						write_required = true;
 
+						journal_changes.add( attribute_name );
+
 						attributes.put( attribute_name, attribute_value );
 					}
 				}
@@ -3108,6 +3411,23 @@ DownloadManagerStateImpl
 		}
 	}
 
+	private static class
+	StatePrefetch
+	{
+		private final AESemaphore			sem	= new AESemaphore( "DownloadManagerState:prefetch" );
+
+		private final boolean				discard_pieces;
+
+		private volatile TorrentUtils.ExtendedTorrent	state;
+
+		private
+		StatePrefetch(
+			boolean		_discard_pieces )
+		{
+			discard_pieces	= _discard_pieces;
+		}
+	}
+
 	protected static class
 	CachedStateWrapper
 		extends 	LogRelation
@@ -3256,7 +3576,7 @@ DownloadManagerStateImpl
 
 						// discard pieces if they are currently discarded
 
-					discard_pieces = csw.peekPieces() == null;
+					discard_pieces = !csw.peekPieces();
 				}
 
 				Boolean	simple_torrent = csw.simple_torrent;
@@ -3881,7 +4201,21 @@ DownloadManagerStateImpl
 	   		throw( fixup_failure );
     	}
 
-    	public byte[][]
+    	public byte[]
+    	getPieceHash(
+    		int		piece_number )
+
+    		throws TOTorrentException
+	   	{
+	   		if ( fixup()){
+
+				return( delegate.getPieceHash( piece_number ));
+			}
+
+	   		throw( fixup_failure );
+    	}
+
+    	public boolean
     	peekPieces()
 
     		throws TOTorrentException
@@ -0,0 +1,457 @@
+/*
+ * Created on 18-Oct-2026
+ * Copyright (C) Azureus Software, Inc, All Rights Reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package xfer.download;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import torrentlib.BDecoder;
+import torrentlib.BEncoder;
+import torrentlib.Debug;
+
+/**
+ * Append-only log of attribute changes made to a download's state since its state file (the
+ * snapshot) was last written, so that changing an attribute doesn't require the whole state
+ * file, torrent and all, to be rewritten.<br>
+ *
+ * Each record is [length][crc32][bencoded changes]. A torn or corrupt record ends the replay,
+ * so a crash mid-append loses that record only. Each record carries a generation number, one more
+ * than the last, which is also put into the attributes as GENERATION_ATTRIBUTE. Whatever writes the
+ * state file, be it a snapshot or other code (fluff discard, torrent edits), writes the generation
+ * of the last change it includes, so on replay only records with a later generation are applied.<br>
+ *
+ * Once the journal outgrows MAX_SIZE the owner is expected to write a new snapshot and reset it.
+ */
+
+public class
+DownloadManagerStateJournal
+{
+	private static final int	MAX_SIZE		= 32*1024;
+	private static final int	MAX_RECORD		= 1024*1024;
+
+	protected static final String	GENERATION_ATTRIBUTE	= "jnl.gen";
+
+	private static final String	K_GENERATION	= "g";
+	private static final String	K_SET			= "a";
+	private static final String	K_REMOVE		= "d";
+
+	private final File		state_file;
+	private final File		journal_file;
+
+	private long			size	= -1;
+
+	protected
+	DownloadManagerStateJournal(
+		File		_state_file )
+	{
+		state_file		= _state_file;
+		journal_file	= getJournalFile( state_file );
+	}
+
+	protected static File
+	getJournalFile(
+		File		state_file )
+	{
+		String	name = state_file.getName();
+
+		if ( name.endsWith( ".dat" )){
+
+			name = name.substring( 0, name.length() - 4 );
+		}
+
+		return( new File( state_file.getParentFile(), name + ".jnl" ));
+	}
+
+		/**
+		 * @return false if the journal is full (or can't be written) and the caller should write a
+		 * snapshot instead
+		 */
+
+	protected boolean
+	append(
+		long				generation,
+		Map<String,Object>	set,
+		Collection<String>	removed )
+	{
+		if ( size < 0 ){
+
+			size = journal_file.length();
+		}
+
+		if ( size >= MAX_SIZE || !state_file.exists()){
+
+			return( false );
+		}
+
+		Map<String,Object>	record = new HashMap<String,Object>();
+
+		record.put( K_GENERATION, new Long( generation ));
+
+		if ( !set.isEmpty()){
+
+			record.put( K_SET, set );
+		}
+
+		if ( !removed.isEmpty()){
+
+			record.put( K_REMOVE, new ArrayList<String>( removed ));
+		}
+
+		try{
+			byte[]	payload = BEncoder.encode( record );
+
+			CRC32	crc = new CRC32();
+
+			crc.update( payload );
+
+				// single write of the whole record to keep tearing to the tail
+
+			byte[]	buffer = new byte[ 8 + payload.length ];
+
+			writeInt( buffer, 0, payload.length );
+			writeInt( buffer, 4, (int)crc.getValue());
+
+			System.arraycopy( payload, 0, buffer, 8, payload.length );
+
+			FileOutputStream	fos = new FileOutputStream( journal_file, true );
+
+			try{
+				fos.write( buffer );
+
+			}finally{
+
+				fos.close();
+			}
+
+			size += buffer.length;
+
+			return( true );
+
+		}catch( Throwable e ){
+
+			Debug.out( "Failed to append to " + journal_file, e );
+
+				// might have left a partial record, force a snapshot
+
+			size = -1;
+
+			return( false );
+		}
+	}
+
+		/**
+		 * Discards the journal, called once a snapshot has been written
+		 */
+
+	protected void
+	reset()
+	{
+		if ( size != 0 ){
+
+			journal_file.delete();
+
+			size = 0;
+		}
+	}
+
+	protected boolean
+	isEmpty()
+	{
+		if ( size < 0 ){
+
+			size = journal_file.length();
+		}
+
+		return( size == 0 );
+	}
+
+		/**
+		 * @return the generation of the changes included in the attributes
+		 */
+
+	protected static long
+	getGeneration(
+		Map			attributes )
+	{
+		Object	gen = attributes.get( GENERATION_ATTRIBUTE );
+
+		return( gen instanceof Long?((Long)gen).longValue():0 );
+	}
+
+		/**
+		 * Applies the journalled changes that are later than those included in the attributes read
+		 * from the given state file, and updates their generation to match
+		 * @return number of records applied
+		 */
+
+	protected static int
+	replay(
+		File		state_file,
+		Map			attributes )
+	{
+		File	journal_file = getJournalFile( state_file );
+
+		if ( !journal_file.exists()){
+
+			return( 0 );
+		}
+
+		long	snapshot_generation	= getGeneration( attributes );
+
+		int	applied = 0;
+
+		try{
+			DataInputStream	dis = new DataInputStream( new FileInputStream( journal_file ));
+
+			try{
+				while( true ){
+
+					int	length;
+					int	crc;
+
+					try{
+						length	= dis.readInt();
+						crc		= dis.readInt();
+
+					}catch( EOFException e ){
+
+						break;
+					}
+
+					if ( length < 0 || length > MAX_RECORD ){
+
+						Debug.out( "Journal " + journal_file + " is corrupt, ignoring remainder" );
+
+						break;
+					}
+
+					byte[]	payload = new byte[ length ];
+
+					try{
+						dis.readFully( payload );
+
+					}catch( EOFException e ){
+
+							// torn write, the expected outcome of a crash mid-append
+
+						break;
+					}
+
+					CRC32	check = new CRC32();
+
+					check.update( payload );
+
+					if ((int)check.getValue() != crc ){
+
+						Debug.out( "Journal " + journal_file + " has a bad record, ignoring remainder" );
+
+						break;
+					}
+
+					Map	record = BDecoder.decode( payload );
+
+					Long	generation = (Long)record.get( K_GENERATION );
+
+					if ( generation == null || generation.longValue() <= snapshot_generation ){
+
+							// already included in the state file
+
+						continue;
+					}
+
+					Map	set = (Map)record.get( K_SET );
+
+					if ( set != null ){
+
+						attributes.putAll( set );
+					}
+
+					List	removed = (List)record.get( K_REMOVE );
+
+					if ( removed != null ){
+
+						for ( Object o: removed ){
+
+							attributes.remove( o instanceof byte[]?new String((byte[])o, "UTF-8" ):o );
+						}
+					}
+
+					attributes.put( GENERATION_ATTRIBUTE, generation );
+
+					applied++;
+				}
+			}finally{
+
+				dis.close();
+			}
+		}catch( Throwable e ){
+
+			Debug.out( "Failed to replay " + journal_file, e );
+		}
+
+		return( applied );
+	}
+
+	protected static void
+	delete(
+		File		state_file )
+	{
+		File	journal_file = getJournalFile( state_file );
+
+		if ( journal_file.exists()){
+
+			journal_file.delete();
+		}
+	}
+
+	private static void
+	writeInt(
+		byte[]		buffer,
+		int			offset,
+		int			value )
+	{
+		buffer[offset]		= (byte)( value >> 24 );
+		buffer[offset+1]	= (byte)( value >> 16 );
+		buffer[offset+2]	= (byte)( value >> 8 );
+		buffer[offset+3]	= (byte)value;
+	}
+
+		/**
+		 * Crash recovery self check: replays a journal that has been cut short at every possible
+		 * length and checks that exactly the complete records are applied
+		 */
+
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		File	dir = File.createTempFile( "dmsj", "" );
+
+		dir.delete();
+		dir.mkdirs();
+
+		File	state = new File( dir, "test.dat" );
+
+		FileOutputStream	fos = new FileOutputStream( state );
+
+		fos.write( new byte[ 1000 ]);
+
+		fos.close();
+
+		DownloadManagerStateJournal	journal = new DownloadManagerStateJournal( state );
+
+		int	records = 20;
+
+		List<Long>	ends = new ArrayList<Long>();
+
+		for ( int i=0;i<records;i++){
+
+			Map<String,Object>	set = new HashMap<String,Object>();
+
+			set.put( "counter", new Long( i ));
+			set.put( "attr" + i, ( "value" + i ).getBytes( "UTF-8" ));
+
+			List<String>	removed = i==0?Collections.<String>emptyList():Collections.singletonList( "attr" + ( i - 1 ));
+
+			if ( !journal.append( i + 1, set, removed )){
+
+				throw( new Exception( "append failed" ));
+			}
+
+			ends.add( getJournalFile( state ).length());
+		}
+
+		byte[]	full = new byte[(int)getJournalFile( state ).length()];
+
+		DataInputStream	dis = new DataInputStream( new FileInputStream( getJournalFile( state )));
+
+		dis.readFully( full );
+
+		dis.close();
+
+		for ( int cut=0;cut<=full.length;cut++){
+
+			RandomAccessFile	raf = new RandomAccessFile( getJournalFile( state ), "rw" );
+
+			raf.setLength( 0 );
+			raf.write( full, 0, cut );
+			raf.close();
+
+			int	complete = 0;
+
+			while( complete < ends.size() && ends.get( complete ) <= cut ){
+
+				complete++;
+			}
+
+			Map	attributes = new HashMap();
+
+			int	applied = replay( state, attributes );
+
+			boolean	ok = applied == complete;
+
+			if ( ok && complete > 0 ){
+
+				ok = 	((Long)attributes.get( "counter" )).longValue() == complete - 1 &&
+						getGeneration( attributes ) == complete &&
+						attributes.size() == 3 &&
+						attributes.containsKey( "attr" + ( complete - 1 ));
+			}
+
+			if ( !ok ){
+
+				throw( new Exception( "cut at " + cut + ": applied=" + applied + ", expected=" + complete + ", attributes=" + attributes.keySet()));
+			}
+		}
+
+			// a state file written after some of the changes only gets the later ones, whatever
+			// its size and timestamp
+
+		Map	attributes = new HashMap();
+
+		attributes.put( GENERATION_ATTRIBUTE, new Long( records - 5 ));
+
+		if ( replay( state, attributes ) != 5 ){
+
+			throw( new Exception( "superseded records applied" ));
+		}
+
+		journal.reset();
+
+		if ( getJournalFile( state ).exists()){
+
+			throw( new Exception( "reset failed" ));
+		}
+
+		state.delete();
+		dir.delete();
+
+		System.out.println( "OK: " + records + " records, " + ( full.length + 1 ) + " cut points" );
+	}
+}